@@ -1,9 +1,22 @@
 from __future__ import print_function
+import numpy as np
 import pandas as pd
 import json
+import struct
 import sys
+import threading
 import requests
 
+try:
+    from http.client import HTTPConnection, HTTPSConnection
+    from urllib.parse import urlparse, urlencode
+    from io import StringIO
+except ImportError:
+    from httplib import HTTPConnection, HTTPSConnection
+    from urlparse import urlparse
+    from urllib import urlencode
+    from StringIO import StringIO
+
 _api_version = '0.0.1'
 
 class MagpieServer:
@@ -142,4 +155,181 @@ class MagpieServer:
             return pd.DataFrame(list(zip(entries,[x['predictedValue'] for x in results['entries']],
                     [x['predictedClass'] for x in results['entries']], *probs)),
                     columns=['Entry']+['Class','ClassName']+['P(%s)'%c for c in classes])
-        
+
+    def stream_model(self, name, entries=None, attributes=None, fmt='binary', chunk_size=10000):
+        """Run a model on a large number of entries, streaming both the entries
+        and the results.
+
+        Entries are sent from a background thread while the results are read, so
+        results for the first entries arrive before the last entries are sent.
+        Entries that fail to parse produce NaN (binary) or blank values (CSV).
+
+        :param name: str, Name of model to be run
+        :param entries: iterable, entries to be run (as strings). Can be a generator
+        :param attributes: iterable, rows of attributes already computed for each entry,
+            in the order produced by `generate_attributes`. Used instead of `entries`
+        :param fmt: str, format of the results: 'binary' or 'csv'
+        :param chunk_size: int, number of entries to send at once
+        :return: Generator. For 'binary', yields arrays where each row is an entry. For a
+            regression model, the only column is the predicted value. For a classifier,
+            the columns are the index of the predicted class and the probability of each
+            class. For 'csv', yields lines of text, starting with the header"""
+
+        if (entries is None) == (attributes is None):
+            raise ValueError('Provide either entries or attributes')
+
+        # Determine the number of values per entry
+        if fmt == 'binary':
+            model_info = self.get_model_info(name)
+            width = 1 if model_info['modelType'] == "regression" else 1 + len(model_info['units'])
+
+        # Prepare the body of the request
+        if entries is not None:
+            body = _entry_blocks(entries, chunk_size)
+            content_type = 'text/plain; charset=utf-8'
+        else:
+            body = _attribute_blocks(attributes, chunk_size)
+            content_type = 'application/octet-stream'
+
+        conn, response, sender = self._stream_request("model/%s/bulk?%s"%(name, urlencode(dict(format=fmt))),
+            content_type, body)
+        try:
+            if fmt == 'binary':
+                # Read whole entries as they arrive
+                record_size = 8 * width
+                buf = b''
+                while True:
+                    block = response.read(65536)
+                    if not block:
+                        break
+                    buf += block
+                    n = len(buf) // record_size * record_size
+                    if n > 0:
+                        yield np.frombuffer(buf[:n], dtype='<f8').reshape((-1, width))
+                        buf = buf[n:]
+                if len(buf) > 0:
+                    raise Exception('Results ended in the middle of an entry')
+            else:
+                while True:
+                    line = response.readline()
+                    if not line:
+                        break
+                    yield line.decode('utf-8').rstrip('\n')
+        finally:
+            sender.join()
+            conn.close()
+
+    def run_model_bulk(self, name, entries=None, attributes=None, fmt='binary', chunk_size=10000):
+        """Run a model on a large number of entries. Faster than `run_model` for many entries,
+        as the entries and results are streamed in a compact format rather than as JSON.
+
+        :param name: str, Name of model to be run
+        :param entries: iterable, entries to be run (as strings). Can be a generator
+        :param attributes: iterable, rows of attributes already computed for each entry,
+            in the order produced by `generate_attributes`. Used instead of `entries`
+        :param fmt: str, format used to send the results: 'binary' or 'csv'
+        :param chunk_size: int, number of entries to send at once
+        :return: Pandas array with the predicted value of each entry. For classifier models,
+            also contains the probability of each class"""
+
+        results = self.stream_model(name, entries=entries, attributes=attributes, fmt=fmt,
+            chunk_size=chunk_size)
+        if fmt == 'csv':
+            return pd.read_csv(StringIO(u'\n'.join(results)))
+
+        # Assemble the results from each block
+        model_info = self.get_model_info(name)
+        blocks = list(results)
+        width = 1 if model_info['modelType'] == "regression" else 1 + len(model_info['units'])
+        values = np.vstack(blocks) if len(blocks) > 0 else np.zeros((0, width))
+        if model_info['modelType'] == "regression":
+            return pd.DataFrame(values, columns=['%s (%s)'%(model_info['property'], model_info['units'])])
+        else:
+            return pd.DataFrame(values, columns=['Class']+['P(%s)'%c for c in model_info['units']])
+
+    def _stream_request(self, path, content_type, body):
+        """Send a POST request whose body is sent in chunks from a background
+        thread, so that the response can be read while the request is being sent.
+
+        :param path: str, path of request
+        :param content_type: str, type of the body
+        :param body: iterable, blocks of bytes to be sent
+        :return: Connection, response, and thread sending the body"""
+
+        # Open the connection
+        url = urlparse(self._url)
+        conn_class = HTTPSConnection if url.scheme == 'https' else HTTPConnection
+        conn = conn_class(url.hostname, url.port)
+        conn.putrequest('POST', url.path.rstrip('/') + '/' + path)
+        conn.putheader('Content-Type', content_type)
+        conn.putheader('Transfer-Encoding', 'chunked')
+        conn.endheaders()
+
+        # Send the body in the background
+        def send():
+            try:
+                for block in body:
+                    if len(block) > 0:
+                        conn.send(('%x\r\n'%len(block)).encode('ascii') + block + b'\r\n')
+                conn.send(b'0\r\n\r\n')
+            except Exception as e:
+                # The server stopped reading, which is reported by the response
+                print('Failed to send entries: %s'%e, file=sys.stderr)
+        sender = threading.Thread(target=send)
+        sender.daemon = True
+        sender.start()
+
+        # Check error status
+        response = conn.getresponse()
+        if response.status != 200:
+            message = response.read()
+            sender.join()
+            conn.close()
+            raise Exception('Request failed. Status = %d. Reason = %s'%(response.status, message))
+        return conn, response, sender
+
+
+def _entry_blocks(entries, chunk_size):
+    """Convert entries to blocks of text, with one entry per line
+
+    :param entries: iterable, entries as strings
+    :param chunk_size: int, number of entries per block
+    :return: Generator of blocks, as bytes"""
+
+    chunk = []
+    for entry in entries:
+        chunk.append(entry)
+        if len(chunk) >= chunk_size:
+            yield ('\n'.join(chunk) + '\n').encode('utf-8')
+            chunk = []
+    if len(chunk) > 0:
+        yield ('\n'.join(chunk) + '\n').encode('utf-8')
+
+
+def _attribute_blocks(attributes, chunk_size):
+    """Convert attributes to the binary blocks read by the server. Each block
+    is the number of rows and columns as little-endian 32-bit integers, followed
+    by the attributes as little-endian 64-bit floats
+
+    :param attributes: iterable, attributes of each entry. Can be a 2D array
+    :param chunk_size: int, number of entries per block
+    :return: Generator of blocks, as bytes"""
+
+    def pack(rows):
+        rows = np.asarray(rows, dtype='<f8')
+        return struct.pack('<ii', rows.shape[0], rows.shape[1]) + rows.tobytes()
+
+    if isinstance(attributes, (np.ndarray, pd.DataFrame)):
+        attributes = np.asarray(attributes)
+        for start in range(0, attributes.shape[0], chunk_size):
+            yield pack(attributes[start:start + chunk_size])
+        return
+
+    chunk = []
+    for row in attributes:
+        chunk.append(row)
+        if len(chunk) >= chunk_size:
+            yield pack(chunk)
+            chunk = []
+    if len(chunk) > 0:
+        yield pack(chunk)
@@ -2,9 +2,14 @@ from __future__ import print_function
 from __future__ import print_function
 
 import numpy as np
+import os
 import pickle as pickle
+import signal
 import socket
+import struct
 import sys
+import threading
+import traceback
 from sys import stdin, stdout, stderr
 
 #
@@ -24,12 +29,19 @@ from sys import stdin, stdout, stderr
 #  with it over sockets. The first line of each message should
 #  be a command word, followed by appropriate data for the command
 #  Full details of the syntax are specified in the Magpie javadoc
-#  for `magpie.models.utility.MultiModelUtility`
+#  for `magpie.models.utility.ExternalModelUtility`
+#
+# Sending "binary" as the command switches the connection to
+#  a binary protocol, where all numbers are sent as little-endian
+#  integers or 64-bit floats and the connection stays open
+#  until the client sends "close"
 #
 # This program also takes a few command line arguments
 #   -classifier <- Check whether the model is a classifier (i.e.,
 #                   that it supports: predict_proba)
 #   -regressor <- Check whether the model is not a classifier
+#   -workers <n> <- Number of processes used to serve requests.
+#                   Each worker handles one connection at a time
 #
 # Author: Logan Ward
 # Date:   2 Feb 2017
@@ -39,6 +51,7 @@ from sys import stdin, stdout, stderr
 startPort = 5482  # First port to check
 endPort = 5582  # Last port to check
 verifyClassifier = None # Whether to crash if model is a classifier or not
+nWorkers = 1 # Number of processes serving requests
 
 # Check for command line arguments
 if len(sys.argv) > 1:
@@ -49,6 +62,9 @@ if len(sys.argv) > 1:
             verifyClassifier = True
         elif action == '-regressor':
             verifyClassifier = False
+        elif action == '-workers':
+            pos += 1
+            nWorkers = int(sys.argv[pos])
         else:
             raise Exception("Command not recognized: " + action)
         pos += 1
@@ -75,11 +91,11 @@ while port <= endPort:
         port = port + 1
         continue
     break
-ss.listen(0) # Only allow one connection
+ss.listen(max(5, nWorkers))
 print("[Status] Listening on port:", port)
 stdout.flush()
 
-def trainModel(fi, fo):
+def trainModel(fi, client):
     '''
     Train model after reading data from a client.
     
@@ -148,22 +164,192 @@ def runModel(fi, client):
         for yi in y:
             print(yi, file=fo)
 
-while 1:
-    (client, address) = ss.accept()
-
-    fi = client.makefile('rb')
-    command = str(fi.readline())
-    stderr.flush()
-    if "train" in command:
-        trainModel(fi, client)
-    elif "run" in command:
-        runModel(fi, client)
-    elif "type" in command:
-        print(model, file=client.makefile('w'))
-    elif "exit" in command:
-        print("[Status] Stopping server")
-        exit()
-    fi.close()
-    
-    # Close the client
-    client.close()
+def readExactly(fi, nBytes):
+    '''
+    Read a certain number of bytes from a socket
+
+    :param fi: File pointer to reading from socket
+    :param nBytes: Number of bytes to read
+    :return: Bytes that were read, or None if the connection closed
+    '''
+    data = fi.read(nBytes)
+    if data is None or len(data) < nBytes:
+        return None
+    return data
+
+
+def readMatrix(fi, nRows, nCols):
+    '''
+    Read a matrix of little-endian 64-bit floats
+
+    :param fi: File pointer to reading from socket
+    :param nRows: Number of rows
+    :param nCols: Number of columns
+    :return: Matrix as a numpy array
+    '''
+    data = readExactly(fi, nRows * nCols * 8)
+    if data is None:
+        raise EOFError("Connection closed while reading data")
+    return np.frombuffer(data, dtype='<f8').reshape((nRows, nCols))
+
+
+def sendError(fo, error, header):
+    '''
+    Send an error message in the binary protocol
+
+    :param fo: File pointer for writing to socket
+    :param error: Exception that was raised
+    :param header: Format of the number sent before the message
+    '''
+    message = str(error).encode('utf-8')
+    fo.write(struct.pack(header, -1))
+    fo.write(struct.pack('<i', len(message)))
+    fo.write(message)
+
+
+def serveBinary(fi, fo):
+    '''
+    Handle requests from a client using the binary protocol, until
+    the client closes the connection
+
+    :param fi: File pointer to reading from socket
+    :param fo: File pointer for writing to socket
+    '''
+    while True:
+        # Get the command
+        header = readExactly(fi, 4)
+        if header is None:
+            return
+        command = readExactly(fi, struct.unpack('<i', header)[0])
+        if command is None:
+            return
+        command = command.decode('ascii')
+
+        if command == 'run':
+            # Receive data
+            nRows, nCols = struct.unpack('<ii', readExactly(fi, 8))
+            X = readMatrix(fi, nRows, nCols)
+
+            # Compute and send back
+            try:
+                if hasattr(model, 'predict_proba'):
+                    y = model.predict_proba(X)
+                else:
+                    y = model.predict(X)
+                y = np.asarray(y, dtype='<f8').reshape((nRows, -1))
+                fo.write(struct.pack('<ii', y.shape[0], y.shape[1]))
+                fo.write(y.tobytes() if hasattr(y, 'tobytes') else y.tostring())
+            except Exception as e:
+                traceback.print_exc()
+                sendError(fo, e, '<i')
+        elif command == 'train':
+            # Receive data
+            nRows, nCols = struct.unpack('<ii', readExactly(fi, 8))
+            y = readMatrix(fi, 1, nRows)[0, :]
+            X = readMatrix(fi, nRows, nCols)
+
+            # Train model and send it back
+            try:
+                print("[Status] Training model on %d entries" % nRows)
+                model.fit(X, y)
+                data = pickle.dumps(model)
+                fo.write(struct.pack('<q', len(data)))
+                fo.write(data)
+            except Exception as e:
+                traceback.print_exc()
+                sendError(fo, e, '<q')
+        elif command == 'type':
+            try:
+                description = str(model).encode('utf-8')
+                fo.write(struct.pack('<i', len(description)))
+                fo.write(description)
+            except Exception as e:
+                traceback.print_exc()
+                sendError(fo, e, '<i')
+        elif command == 'close':
+            return
+        else:
+            raise Exception("Command not recognized: " + command)
+        fo.flush()
+
+
+# Whether this process was forked from the main server process
+isChild = False
+
+def stopServer():
+    '''
+    Stop all workers of this server
+    '''
+    print("[Status] Stopping server")
+    stdout.flush()
+    if isChild:
+        os.kill(os.getppid(), signal.SIGTERM)
+    os._exit(0)
+
+
+def serve():
+    '''
+    Accept connections and handle their requests
+    '''
+    while 1:
+        (client, address) = ss.accept()
+
+        try:
+            fi = client.makefile('rb')
+            command = str(fi.readline())
+            stderr.flush()
+            if "binary" in command:
+                fo = client.makefile('wb')
+                serveBinary(fi, fo)
+                fo.close()
+            elif "train" in command:
+                trainModel(fi, client)
+            elif "run" in command:
+                runModel(fi, client)
+            elif "type" in command:
+                print(model, file=client.makefile('w'))
+            elif "exit" in command:
+                stopServer()
+            fi.close()
+        except Exception:
+            traceback.print_exc()
+
+        # Close the client
+        try:
+            client.shutdown(socket.SHUT_RDWR)
+        except Exception:
+            pass
+        client.close()
+
+
+def startWorkers():
+    '''
+    Launch the additional workers. Uses separate processes if possible,
+    so that workers can run in parallel, and threads otherwise.
+    '''
+    global isChild
+    if nWorkers <= 1:
+        return
+    if hasattr(os, 'fork'):
+        # Children exit when the pipe closes (i.e., when the main process dies)
+        r, w = os.pipe()
+        for i in range(nWorkers - 1):
+            if os.fork() == 0:
+                isChild = True
+                os.close(w)
+                def waitForParent():
+                    os.read(r, 1)
+                    os._exit(0)
+                watcher = threading.Thread(target=waitForParent)
+                watcher.daemon = True
+                watcher.start()
+                return
+        os.close(r)
+    else:
+        for i in range(nWorkers - 1):
+            worker = threading.Thread(target=serve)
+            worker.daemon = True
+            worker.start()
+
+startWorkers()
+serve()
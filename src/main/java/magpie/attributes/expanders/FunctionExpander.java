@@ -59,6 +59,8 @@ import org.apache.commons.math3.util.CombinatoricsUtils;
 public class FunctionExpander extends BaseAttributeExpander implements Citable {
     /** List of functions */
     final private List<ParsedFunction> Functions = new LinkedList<>();
+    /** Number of entries for which functions are evaluated at the same time */
+    final static private int BlockSize = 256;
 
     @Override
     public void setOptions(List<Object> Options) throws Exception {
@@ -118,24 +120,39 @@ public class FunctionExpander extends BaseAttributeExpander implements Citable {
             }
             Data.addAttributes(newNames);
 
-            // Compute attributes
-            double[] newVals = new double[combins.size()];
-            double[] attrs = new double[f.numVariables()];
-            for (BaseEntry e : Data.getEntries()) {
-                // Compute the values for each etnry
-                int count = 0;
+            // Compute attributes, evaluating the function for a block of
+            //  entries at a time
+            List<BaseEntry> entries = Data.getEntries();
+            int blockSize = Math.min(BlockSize, entries.size());
+            double[][] newVals = new double[blockSize][combins.size()];
+            double[][] attrs = new double[f.numVariables()][blockSize];
+            double[] result = new double[blockSize];
+            for (int start = 0; start < entries.size(); start += blockSize) {
+                int count = Math.min(blockSize, entries.size() - start);
+                List<BaseEntry> block = entries.subList(start, start + count);
+                
+                // Compute the values for each entry
+                int c = 0;
                 for (int[] comb : combins) {
-                    // Get the entry
+                    // Gather the attributes
                     for (int a = 0; a < f.numVariables(); a++) {
-                        attrs[a] = e.getAttribute(comb[a]);
+                        for (int e = 0; e < count; e++) {
+                            attrs[a][e] = block.get(e).getAttribute(comb[a]);
+                        }
                     }
-
+                    
                     // Evaluate function
-                    newVals[count++] = f.value(attrs);
+                    f.evaluate(attrs, count, result);
+                    for (int e = 0; e < count; e++) {
+                        newVals[e][c] = result[e];
+                    }
+                    c++;
                 }
 
-                // Add the new attribute
-                e.addAttributes(newVals);
+                // Add the new attributes
+                for (int e = 0; e < count; e++) {
+                    block.get(e).addAttributes(newVals[e]);
+                }
             }
         }
     }
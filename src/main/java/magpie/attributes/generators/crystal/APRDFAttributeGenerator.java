@@ -7,12 +7,12 @@ import magpie.data.Dataset;
 import magpie.data.materials.CrystalStructureEntry;
 import magpie.data.materials.CrystalStructureDataset;
 import magpie.data.materials.util.LookupData;
+import magpie.data.materials.util.NeighborList;
 import magpie.utility.interfaces.Citable;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
-import vassal.analysis.APRDFAnalysis;
 import vassal.data.Cell;
 
 /**
@@ -125,15 +125,14 @@ public class APRDFAttributeGenerator extends BaseAttributeGenerator
         }
         CrystalStructureDataset dataPtr = (CrystalStructureDataset) data;
         
-        // Create tool to compute AP-RDF
-        APRDFAnalysis tool = new APRDFAnalysis();
-        tool.setCutoffDistance(CutoffDistance);
-        tool.setNWindows(NumPoints);
-        tool.setSmoothingFactor(SmoothParameter);
+        // Get the distances at which to evaluate the AP-RDF
+        double[] evalDist = new double[NumPoints];
+        for (int i=0; i<NumPoints; i++) {
+            evalDist[i] = (i + 1) * CutoffDistance / NumPoints;
+        }
         
         // Create attribute names
         List<String> names = new ArrayList<>(NumPoints * ElementalProperties.size());
-        double[] evalDist = tool.getEvaluationDistances();
         for (String prop : ElementalProperties) {
             for (double dist : evalDist) {
                 names.add(String.format("APRDF_%s_R=%f_B=%f", prop,
@@ -145,27 +144,49 @@ public class APRDFAttributeGenerator extends BaseAttributeGenerator
         // Loop through each entry, compute attributes
         double[] newAttrs = new double[names.size()];
         for (BaseEntry entry : data.getEntries()) {
-            // Get the structure
-            Cell strc = ((CrystalStructureEntry) entry).getStructure();
+            // Get the structure and the neighbors of each atom
+            CrystalStructureEntry ptr = (CrystalStructureEntry) entry;
+            Cell strc = ptr.getStructure();
+            NeighborList neighbors = ptr.getNeighborList(CutoffDistance);
             
-            // Prepare the APRDF tool
-            tool.analyzeStructure(strc);
+            // Compute the contribution of each type of pair at each distance,
+            //  so that it can be re-used with every property
+            int nTypes = strc.nTypes();
+            double[][][] pairContr = new double[nTypes][nTypes][NumPoints];
+            for (int a=0; a<strc.nAtoms(); a++) {
+                int typeA = strc.getAtom(a).getType();
+                int nNeighbors = neighbors.NNeighbors(a, CutoffDistance);
+                for (int n=0; n<nNeighbors; n++) {
+                    int typeB = strc.getAtom(neighbors.getNeighbor(a, n)).getType();
+                    double r = neighbors.getDistance(a, n);
+                    double[] contr = pairContr[typeA][typeB];
+                    for (int i=0; i<NumPoints; i++) {
+                        double dr = r - evalDist[i];
+                        contr[i] += Math.exp(-SmoothParameter * dr * dr);
+                    }
+                }
+            }
             
             // Loop through each property
             int pos = 0;
             for (String prop : ElementalProperties) {
                 // Get the elemental properties for each atom type
                 double[] propLookup = dataPtr.getPropertyLookupTable(prop);
-                double[] atomProp = new double[strc.nTypes()];
+                double[] atomProp = new double[nTypes];
                 
                 for (int t=0; t<atomProp.length; t++) {
                     atomProp[t] = propLookup[ArrayUtils.indexOf(LookupData.ElementNames, strc.getTypeName(t))];
                 }
                 
                 // Compute the APRDF
-                double[] apRDF = tool.computeAPRDF(atomProp);
-                for (double ap : apRDF) {
-                    newAttrs[pos++] = ap;
+                for (int i=0; i<NumPoints; i++) {
+                    double apRDF = 0;
+                    for (int ta=0; ta<nTypes; ta++) {
+                        for (int tb=0; tb<nTypes; tb++) {
+                            apRDF += atomProp[ta] * atomProp[tb] * pairContr[ta][tb][i];
+                        }
+                    }
+                    newAttrs[pos++] = apRDF / strc.nAtoms();
                 }
             }
             
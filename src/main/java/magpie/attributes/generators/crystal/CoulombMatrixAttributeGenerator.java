@@ -1,7 +1,6 @@
 package magpie.attributes.generators.crystal;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import magpie.attributes.generators.BaseAttributeGenerator;
 import magpie.data.BaseEntry;
@@ -9,6 +8,7 @@ import magpie.data.Dataset;
 import magpie.data.materials.CrystalStructureEntry;
 import magpie.data.materials.CrystalStructureDataset;
 import magpie.models.regression.crystal.CoulombSineMatrixRegression;
+import magpie.models.regression.crystal.EigenvalueRepresentation;
 import magpie.utility.interfaces.Citable;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -91,15 +91,13 @@ public class CoulombMatrixAttributeGenerator extends BaseAttributeGenerator
         data.addAttributes(newNames);
         
         // Compute attributes
-        double[] attrs = new double[NEigenvalues];
         for (BaseEntry e : data.getEntries()) {
             // Compute eigenvalues
-            double[] eigen = (double[]) computer.computeRepresentation(
+            EigenvalueRepresentation eigen = computer.computeRepresentation(
                     ((CrystalStructureEntry) e).getStructure());
             
-            // Copy values
-            Arrays.fill(attrs, 0);
-            System.arraycopy(eigen, 0, attrs, 0, Math.min(eigen.length, NEigenvalues));
+            // Get the largest eigenvalues, padded with zeros
+            double[] attrs = eigen.getEigenvalues(NEigenvalues);
             
             // Add attributes to entry
             e.addAttributes(attrs);
@@ -3,7 +3,6 @@ package magpie.attributes.generators.crystal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import magpie.attributes.generators.BaseAttributeGenerator;
@@ -15,6 +14,7 @@ import magpie.data.materials.CompositionEntry;
 import magpie.data.materials.CrystalStructureDataset;
 import magpie.data.materials.util.LookupData;
 import magpie.models.regression.crystal.PRDFRegression;
+import magpie.models.regression.crystal.PRDFRepresentation;
 import magpie.utility.interfaces.Citable;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.ArrayUtils;
@@ -26,12 +26,18 @@ import org.apache.commons.lang3.tuple.Pair;
  * on work by <a href="http://link.aps.org/doi/10.1103/PhysRevB.89.205118">Schutt
  * <i>et al.</i></a>.
  * 
- * <usage><p><b>Usage</b>: &lt;cutoff distance&gt; &lt;n steps&gt; $&lt;dataset&gt;
+ * <p>Most of these attributes are zero, as any one structure only contains
+ * a few of the possible pairs of elements. So, the attributes can optionally
+ * be stored in sparse form (see {@linkplain BaseEntry#addSparseAttributes(int, int[], double[]) }),
+ * which greatly reduces the memory required when using many elements.
+ * 
+ * <usage><p><b>Usage</b>: &lt;cutoff distance&gt; &lt;n steps&gt; $&lt;dataset&gt; [-sparse]
  * <pr><br><i>cutoff distance</i>: Maximum distance to consider
  * <pr><br><i>n steps</i>: Number of distance points along axis to sample
  * <pr><br><i>dataset</i>: {@linkplain CompositionDataset} containing list
  of ElementList to be considered in PRDF. Usually, this is the dataset
  you will be computing attributes for
+ * <pr><br><i>-sparse</i>: Store attributes in sparse form
  </usage>
  * 
  * @author Logan Ward
@@ -43,18 +49,23 @@ public class PRDFAttributeGenerator extends BaseAttributeGenerator implements Ci
     protected int NPoints = 20;
     /** List of ElementList to use in PRDF */
     final protected SortedSet<Integer> ElementList = new TreeSet<>();
+    /** Whether to store attributes in sparse form */
+    protected boolean Sparse = false;
 
     @Override
     public void setOptions(List<Object> Options) throws Exception {
         double cutoffDistance;
         int nPoints;
         CompositionDataset elemData;
+        boolean sparse = false;
         
         try {
             cutoffDistance = Double.parseDouble(Options.get(0).toString());
             nPoints = Integer.parseInt(Options.get(1).toString());
             elemData = (CompositionDataset) Options.get(2);
-            if (Options.size() > 3) {
+            if (Options.size() == 4 && Options.get(3).toString().equalsIgnoreCase("-sparse")) {
+                sparse = true;
+            } else if (Options.size() > 3) {
                 throw new Exception();
             }
         } catch (Exception e) {
@@ -64,11 +75,12 @@ public class PRDFAttributeGenerator extends BaseAttributeGenerator implements Ci
         setCutoffDistance(cutoffDistance);
         setNPoints(nPoints);
         setElements(elemData);
+        setSparse(sparse);
     }
 
     @Override
     public String printUsage() {
-        return "Usage: <cutoff distance> <# points> $<dataset>";
+        return "Usage: <cutoff distance> <# points> $<dataset> [-sparse]";
     }
 
     /**
@@ -87,6 +99,15 @@ public class PRDFAttributeGenerator extends BaseAttributeGenerator implements Ci
         this.NPoints = NPoints;
     }
     
+    /**
+     * Define whether to store attributes in sparse form. Recommended when
+     * using many elements, as most attributes will be zero.
+     * @param sparse Whether to store attributes in sparse form
+     */
+    public void setSparse(boolean sparse) {
+        this.Sparse = sparse;
+    }
+    
     /**
      * Clear list of elements used when computing PRDF
      */
@@ -135,10 +156,12 @@ public class PRDFAttributeGenerator extends BaseAttributeGenerator implements Ci
             throw new IllegalArgumentException("Input data must be a CrystalStructureDataset");
         }
         
-        // Get names of elemnets in set
+        // Get names of elemnets in set, and the position of each in the list
         List<String> elemNames = new ArrayList<>();
-        List<Integer> elemID = new ArrayList<>(ElementList);
-        for (Integer id : elemID) {
+        int[] elemPos = new int[LookupData.ElementNames.length];
+        Arrays.fill(elemPos, -1);
+        for (Integer id : ElementList) {
+            elemPos[id] = elemNames.size();
             elemNames.add(LookupData.ElementNames[id]);
         }
         
@@ -164,27 +187,43 @@ public class PRDFAttributeGenerator extends BaseAttributeGenerator implements Ci
         
         
         // Compute attributes for each entry
-        double[] newAttrs = new double[names.size()];
+        double[] newAttrs = Sparse ? null : new double[names.size()];
         for (BaseEntry entry : data.getEntries()) {
             // Compute the PRDF 
-            Map<Pair<Integer,Integer>,double[]> prdf = (Map<Pair<Integer,Integer>,double[]>)
-                    computer.computeRepresentation(((CrystalStructureEntry) entry).getStructure());
+            PRDFRepresentation prdf =
+                    computer.computeRepresentation((CrystalStructureEntry) entry);
             
-            // Store the attributes
-            Arrays.fill(newAttrs, 0);
-            for (Pair<Integer,Integer> pair : prdf.keySet()) {
-                // Determine position in output
-                int elemA = elemID.indexOf(pair.getLeft());
-                int elemB = elemID.indexOf(pair.getRight());
-                
-                int prdfPos = (elemA * ElementList.size() + elemB) * NPoints;
-                
-                // Store that in the output
-                System.arraycopy(prdf.get(pair), 0, newAttrs, prdfPos, NPoints);
+            // Determine position of each pair in the output. Pairs in the
+            //  representation are sorted by element, so the positions are sorted
+            int[] prdfPos = new int[prdf.NPairs()];
+            for (int pair=0; pair<prdf.NPairs(); pair++) {
+                int elemA = elemPos[prdf.getFirstElement(pair)];
+                int elemB = elemPos[prdf.getSecondElement(pair)];
+                if (elemA == -1 || elemB == -1) {
+                    throw new IllegalArgumentException("Entry contains element not in list: "
+                            + entry.toString());
+                }
+                prdfPos[pair] = (elemA * ElementList.size() + elemB) * NPoints;
             }
             
-            // Add to entry
-            entry.addAttributes(newAttrs);
+            // Store the attributes
+            if (Sparse) {
+                int[] index = new int[prdf.NPairs() * NPoints];
+                double[] value = new double[index.length];
+                for (int pair=0; pair<prdf.NPairs(); pair++) {
+                    prdf.copyPRDF(pair, value, pair * NPoints);
+                    for (int b=0; b<NPoints; b++) {
+                        index[pair * NPoints + b] = prdfPos[pair] + b;
+                    }
+                }
+                entry.addSparseAttributes(names.size(), index, value);
+            } else {
+                Arrays.fill(newAttrs, 0);
+                for (int pair=0; pair<prdf.NPairs(); pair++) {
+                    prdf.copyPRDF(pair, newAttrs, prdfPos[pair]);
+                }
+                entry.addAttributes(newAttrs);
+            }
         }
     }
 
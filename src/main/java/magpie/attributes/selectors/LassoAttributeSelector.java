@@ -1,20 +1,24 @@
 package magpie.attributes.selectors;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import magpie.Magpie;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import magpie.data.BaseEntry;
 import magpie.data.Dataset;
-import magpie.data.utilities.output.DelimitedOutput;
-import magpie.utility.UtilityOperations;
+import magpie.models.regression.ElasticNetSolver;
+import magpie.models.utility.MultiModelUtility;
+import magpie.utility.LinearLeastSquares;
 import magpie.utility.interfaces.Citable;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.util.CombinatoricsUtils;
 
 /**
  * Uses a combination of LASSO and screening attribute sets with linear
@@ -41,9 +45,16 @@ import org.apache.commons.lang3.tuple.Pair;
  * set with the highest accuracy in cross-validation
  * </ol>
  * 
+ * <p>By default, the selection is performed by a Python script that uses
+ * scikit-learn. The selection can also be run inside of Magpie (see the
+ * <code>-native</code> option), which uses {@linkplain ElasticNetSolver} for 
+ * the LASSO step. The native version standardizes attributes before LASSO
+ * rather than scaling them to the same range, and so may select slightly
+ * different attributes.
+ * 
  * <usage><p><b>Usage</b>: -n_lasso &lt;# lasso&gt; -max_dim &lt;dim&gt; 
  * [-corr_downselect &lt;# corr&gt;] [-cv_method &lt;cv frac&gt; &lt;cv iters&gt;]
- * [-pick_best] [-debug]
+ * [-pick_best] [-native] [-debug]
  * <pr><br><i># lasso</i>: Number of attributes to select with LASSO
  * <pr><br><i>max dim</i>: Maximum dimension of final set
  * <pr><br><i># corr</i>: Set size after removing strongly-correlated attributes (by default,
@@ -52,6 +63,7 @@ import org.apache.commons.lang3.tuple.Pair;
  * (by default, cross-validation is not performed)
  * <pr><br><i>cv iter</i>: Number of cross-validation tests to run
  * <pr><br><i>-pick_best</i>: Whether to pick dimension based on cross-validation results
+ * <pr><br><i>-native</i>: Perform the selection in Java, rather than calling Python
  * <pr><br><i>-debug</i>: Print status messages from the underlying Python script to screen
  * </usage>
  * 
@@ -75,13 +87,15 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
     protected int CVIterations = 100;
     /** Whether to pick dataset size via cross-validation. */
     protected boolean SelectSizeAutomatically = false;
+    /** Whether to perform selection in Java, rather than with Python */
+    protected boolean UseNative = false;
     
     @Override
     public void setOptions(List<Object> Options) throws Exception {
         int nLasso, maxDim; // Mandatory
         int nDown = -1, cvIter = -1;
         double cvFrac = -1;
-        boolean pickBest = false;
+        boolean pickBest = false, useNative = false;
         Debug = false;
         
         try {
@@ -102,6 +116,9 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
                     case "-pick_best":
                         pickBest = true;
                         break;
+                    case "-native":
+                        useNative = true;
+                        break;
                     case "-debug":
                         Debug = true;
                         break;
@@ -123,11 +140,12 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
         }
         setMaximumDimension(maxDim);
         setSelectSizeAutomatically(pickBest);
+        setUseNative(useNative);
     }
 
     @Override
     public String printUsage() {
-        return "Usage: -n_lasso <# lasso> -max_dim <dim> [-corr_downselect <# corr>] [-cv_method <cv frac> <cv iters>] [-pick_best]";
+        return "Usage: -n_lasso <# lasso> -max_dim <dim> [-corr_downselect <# corr>] [-cv_method <cv frac> <cv iters>] [-pick_best] [-native] [-debug]";
     }
 
     @Override
@@ -186,6 +204,15 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
         this.SelectSizeAutomatically = x;
     }
 
+    /**
+     * Set whether to perform attribute selection in Java, rather than by 
+     * calling a Python script.
+     * @param x Desired setting
+     */
+    public void setUseNative(boolean x) {
+        this.UseNative = x;
+    }
+
     /**
      * Set the number of parameters to determine via LASSO
      * @param NLASSO Number of attributes
@@ -194,6 +221,254 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
         this.NLASSO = NLASSO;
     }
     
+    @Override
+    protected List<Integer> train_protected(Dataset data) {
+        if (! UseNative) {
+            return super.train_protected(data);
+        }
+        
+        // Select attributes with LASSO
+        ElasticNetSolver lasso = new ElasticNetSolver(data);
+        lasso.fitMaxTerms(Math.min(NLASSO, data.NAttributes()));
+        List<Integer> attrIds = new ArrayList<>();
+        for (int id : lasso.getNonZeroAttributes()) {
+            attrIds.add(id);
+        }
+        if (attrIds.isEmpty()) {
+            throw new RuntimeException("LASSO did not select any attributes");
+        }
+        if (Debug) {
+            System.out.println("[Status] Selected " + attrIds.size()
+                    + " attributes via LASSO: " + printAttributeNames(data, attrIds));
+        }
+        
+        // Get the values of these attributes
+        double[][] values = new double[attrIds.size()][data.NEntries()];
+        for (int e=0; e<data.NEntries(); e++) {
+            BaseEntry entry = data.getEntry(e);
+            for (int a=0; a<attrIds.size(); a++) {
+                values[a][e] = entry.getAttribute(attrIds.get(a));
+            }
+        }
+        
+        // Optional: Iteratively remove highly-correlated attributes
+        if (NDownselect > 0 && attrIds.size() > NDownselect) {
+            // Compute the squared correlation between each pair of attributes
+            int n = attrIds.size();
+            double[][] corr = new double[n][n];
+            PearsonsCorrelation pearson = new PearsonsCorrelation();
+            for (int i=0; i<n; i++) {
+                corr[i][i] = 1;
+                for (int j=i+1; j<n; j++) {
+                    double r = pearson.correlation(values[i], values[j]);
+                    corr[i][j] = corr[j][i] = Double.isNaN(r) ? 0 : r * r;
+                }
+            }
+            
+            // Remove the attribute with the highest average correlation
+            List<Integer> remaining = new ArrayList<>();
+            for (int i=0; i<n; i++) {
+                remaining.add(i);
+            }
+            while (remaining.size() > NDownselect) {
+                int worst = -1;
+                double worstCorr = -1;
+                for (int i : remaining) {
+                    double sum = 0;
+                    for (int j : remaining) {
+                        sum += corr[i][j];
+                    }
+                    if (sum > worstCorr) {
+                        worst = i;
+                        worstCorr = sum;
+                    }
+                }
+                remaining.remove((Integer) worst);
+            }
+            
+            // Downselect the data
+            List<Integer> newIds = new ArrayList<>(remaining.size());
+            double[][] newValues = new double[remaining.size()][];
+            for (int i=0; i<remaining.size(); i++) {
+                newIds.add(attrIds.get(remaining.get(i)));
+                newValues[i] = values[remaining.get(i)];
+            }
+            attrIds = newIds;
+            values = newValues;
+            if (Debug) {
+                System.out.println("[Status] Downselected to " + attrIds.size()
+                        + " loosely-correlated attributes: " + printAttributeNames(data, attrIds));
+            }
+        }
+        
+        // Accumulate the linear regression problem for each train/test split
+        final List<LinearLeastSquares[]> splits = getLinearRegressionSplits(data, values);
+        
+        // Find the best subset of attributes
+        int[] bestSubset = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+        int maxDim = Math.min(MaxCount, attrIds.size());
+        for (int dim = SelectSizeAutomatically ? 1 : maxDim; dim <= maxDim; dim++) {
+            // Score every subset of this size
+            List<int[]> subsets = new ArrayList<>();
+            Iterator<int[]> iter = CombinatoricsUtils.combinationsIterator(attrIds.size(), dim);
+            while (iter.hasNext()) {
+                subsets.add(iter.next().clone());
+            }
+            double[] scores = scoreSubsets(subsets, splits);
+            
+            // Get the best one
+            int best = 0;
+            for (int i=1; i<scores.length; i++) {
+                if (scores[i] < scores[best]) {
+                    best = i;
+                }
+            }
+            if (Debug) {
+                List<Integer> names = new ArrayList<>();
+                for (int a : subsets.get(best)) {
+                    names.add(attrIds.get(a));
+                }
+                System.out.println("[Status] " + scores[best] + " " 
+                        + printAttributeNames(data, names));
+            }
+            if (scores[best] < bestScore) {
+                bestScore = scores[best];
+                bestSubset = subsets.get(best);
+            }
+        }
+        
+        // Return the selected attributes
+        List<Integer> output = new ArrayList<>(bestSubset.length);
+        for (int a : bestSubset) {
+            output.add(attrIds.get(a));
+        }
+        return output;
+    }
+    
+    /**
+     * Prepare the data needed to fit a linear regression model using any 
+     * subset of attributes. If cross-validation is not used, the training and
+     * test set are both the entire dataset.
+     * @param data Dataset containing the class variable
+     * @param values Value of each candidate attribute for each entry
+     * @return List of training and test set (in that order) for each split
+     */
+    private List<LinearLeastSquares[]> getLinearRegressionSplits(Dataset data, 
+            double[][] values) {
+        int nEntries = data.NEntries();
+        List<List<Integer>> testSets = new ArrayList<>();
+        if (CVFraction > 0) {
+            int nTest = Math.max(1, (int) Math.ceil(CVFraction * nEntries));
+            List<Integer> order = new ArrayList<>(nEntries);
+            for (int e=0; e<nEntries; e++) {
+                order.add(e);
+            }
+            Random random = new Random(1);
+            for (int iter=0; iter<CVIterations; iter++) {
+                Collections.shuffle(order, random);
+                testSets.add(new ArrayList<>(order.subList(0, nTest)));
+            }
+        } else {
+            testSets.add(null);
+        }
+        
+        // Accumulate the equations
+        List<LinearLeastSquares[]> output = new ArrayList<>(testSets.size());
+        double[] terms = new double[values.length + 1];
+        terms[0] = 1;
+        for (List<Integer> testSet : testSets) {
+            boolean[] isTest = new boolean[nEntries];
+            if (testSet != null) {
+                for (int e : testSet) {
+                    isTest[e] = true;
+                }
+            }
+            LinearLeastSquares train = new LinearLeastSquares(terms.length);
+            LinearLeastSquares test = testSet == null ? train : new LinearLeastSquares(terms.length);
+            for (int e=0; e<nEntries; e++) {
+                for (int a=0; a<values.length; a++) {
+                    terms[a + 1] = values[a][e];
+                }
+                (isTest[e] ? test : train).addObservation(terms, 
+                        data.getEntry(e).getMeasuredClass());
+            }
+            output.add(new LinearLeastSquares[]{train, test});
+        }
+        return output;
+    }
+    
+    /**
+     * Compute the mean squared error of a linear regression model (with intercept)
+     * using each subset of attributes. Subsets are divided between 
+     * {@linkplain MultiModelUtility#getNThreads() } threads.
+     * @param subsets Subsets of candidate attributes
+     * @param splits Training and test set for each split
+     * @return Average mean squared error on the test sets, for each subset
+     */
+    private double[] scoreSubsets(final List<int[]> subsets, 
+            final List<LinearLeastSquares[]> splits) {
+        final double[] output = new double[subsets.size()];
+        int nThreads = Math.min(MultiModelUtility.getNThreads(), subsets.size());
+        if (nThreads <= 1) {
+            scoreSubsets(subsets, splits, output, 0, subsets.size());
+            return output;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(nThreads);
+        for (int t=0; t<nThreads; t++) {
+            final int start = t * subsets.size() / nThreads;
+            final int end = (t + 1) * subsets.size() / nThreads;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    scoreSubsets(subsets, splits, output, start, end);
+                    return null;
+                }
+            });
+        }
+        MultiModelUtility.evaluateInParallel(tasks);
+        return output;
+    }
+    
+    /**
+     * Score a range of attribute subsets.
+     * @param subsets Subsets of candidate attributes
+     * @param splits Training and test set for each split
+     * @param output Array in which to store scores
+     * @param start Index of first subset to score
+     * @param end Index of last subset to score (exclusive)
+     */
+    private void scoreSubsets(List<int[]> subsets, List<LinearLeastSquares[]> splits,
+            double[] output, int start, int end) {
+        for (int s=start; s<end; s++) {
+            int[] subset = subsets.get(s);
+            int[] terms = new int[subset.length + 1];
+            for (int i=0; i<subset.length; i++) {
+                terms[i + 1] = subset[i] + 1;
+            }
+            double score = 0;
+            for (LinearLeastSquares[] split : splits) {
+                double[] coeff = split[0].solve(terms);
+                score += split[1].getSumSquaredError(coeff) / split[1].NObservations();
+            }
+            output[s] = score / splits.size();
+        }
+    }
+    
+    /**
+     * Print the names of several attributes
+     * @param data Dataset containing attribute names
+     * @param ids Indices of attributes
+     * @return Names, separated by spaces
+     */
+    private String printAttributeNames(Dataset data, List<Integer> ids) {
+        String output = "";
+        for (int id : ids) {
+            output += (output.isEmpty() ? "" : " ") + data.getAttributeName(id);
+        }
+        return output;
+    }
+
     /**
      * Prepare the system call with all command-line arguments
      * 
@@ -213,7 +488,7 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
         call.add("-max_dim");
         call.add(Integer.toString(MaxCount));
         call.add("-n_procs");
-        call.add(Integer.toString(Magpie.NThreads));
+        call.add(Integer.toString(MultiModelUtility.getNThreads()));
         if (SelectSizeAutomatically) {
             call.add("-pick_best");
         }
@@ -230,8 +505,9 @@ public class LassoAttributeSelector extends PythonBasedAttributeSelector
                 + "attributes that make the best linear model. ";
         
         // Number of LASSO steps
-        output += String.format("First, a %d attribute model is created with LASSO"
-                + " and these attributes are used as a starting set.", NLASSO);
+        output += String.format("First, a %d attribute model is created with LASSO%s"
+                + " and these attributes are used as a starting set.", NLASSO,
+                UseNative ? " (solved by coordinate descent)" : "");
         if (NDownselect > 0) {
             output += String.format(" Next, the set of attributes is reduced to "
                     + "%d by removing iteratively removing the attribute with "
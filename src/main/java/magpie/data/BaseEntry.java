@@ -12,7 +12,15 @@ import java.util.regex.Pattern;
 
 /**
  * This class is designed to store all information related to an entry in a Dataset
- * 
+ *
+ * <p>Attributes are normally stored as a dense array. Once a block of attributes
+ * is added in sparse form (see {@linkplain #addSparseAttributes(int, int[], double[]) }),
+ * the entry only stores the index and value of each non-zero attribute. All
+ * of the operations for retrieving and setting attributes work with either
+ * form, but {@linkplain #getSparseAttributeIndices() } and
+ * {@linkplain #getSparseAttributeValues() } avoid creating a dense copy of the
+ * attributes for entries stored in sparse form.
+ *
  * @author Logan Ward
  * @version 0.1
  */
@@ -20,6 +28,12 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
         java.util.Comparator, java.lang.Comparable {
     /** Values of attributes */
     private double[] AttributeList = new double[0];
+    /** Index of each non-zero attribute, sorted. <code>null</code> if attributes are dense */
+    private int[] SparseIndex = null;
+    /** Value of each non-zero attribute, if attributes are stored sparsely */
+    private double[] SparseValue = null;
+    /** Number of attributes, if attributes are stored sparsely */
+    private int NSparseAttributes = 0;
     /** Measured value of class variable */
     private double Class;
     /** Probably of entry existing in each possible class (for classification) */
@@ -71,7 +85,7 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
      * @return Number of attributes
      */
     public int NAttributes() {
-        return AttributeList.length;
+        return isSparse() ? NSparseAttributes : AttributeList.length;
     }
 	
 	/**
@@ -79,6 +93,9 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
 	 */
 	public void clearAttributes() {
 		AttributeList = new double[0];
+        SparseIndex = null;
+        SparseValue = null;
+        NSparseAttributes = 0;
 	}
     
     /** 
@@ -86,7 +103,23 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
      * @return List of attributes (same order as {@linkplain Dataset#AttributeName})
      */
     public double[] getAttributes() {
-        return AttributeList.clone();
+        return isSparse() ? getDenseAttributes() : AttributeList.clone();
+    }
+    
+    /**
+     * Get attributes in dense form, without copying them if they are 
+     * already stored that way.
+     * @return Attributes. Do not modify
+     */
+    private double[] getDenseAttributes() {
+        if (! isSparse()) {
+            return AttributeList;
+        }
+        double[] output = new double[NSparseAttributes];
+        for (int i=0; i<SparseIndex.length; i++) {
+            output[SparseIndex[i]] = SparseValue[i];
+        }
+        return output;
     }
     
     /**
@@ -94,6 +127,7 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
      * @param attributes List of attributes (same order as {@linkplain Dataset#AttributeName})
      */
     public void setAttributes(double[] attributes) {
+        clearAttributes();
         AttributeList = attributes.clone();
     }
 
@@ -103,6 +137,11 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
      * @return Value of specified attribute
      */
     public double getAttribute(int index) {
+        if (isSparse()) {
+            checkSparseIndex(index);
+            int pos = Arrays.binarySearch(SparseIndex, index);
+            return pos >= 0 ? SparseValue[pos] : 0;
+        }
         return AttributeList[index];
     }
 
@@ -112,15 +151,41 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
      * @param value Desired value of specified attribute
      */
     public void setAttribute(int index, double value) {
+        if (isSparse()) {
+            checkSparseIndex(index);
+            int pos = Arrays.binarySearch(SparseIndex, index);
+            if (pos >= 0) {
+                SparseValue[pos] = value;
+            } else if (value != 0) {
+                pos = -1 * (pos + 1);
+                SparseIndex = ArrayUtils.add(SparseIndex, pos, index);
+                SparseValue = ArrayUtils.add(SparseValue, pos, value);
+            }
+            return;
+        }
         AttributeList[index] = value;
     }
     
+    /**
+     * Check whether an index is within the attribute list of a sparse entry
+     * @param index Index of attribute
+     */
+    private void checkSparseIndex(int index) {
+        if (index < 0 || index >= NSparseAttributes) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+    
     /** 
      * Adds attribute value to the end of the list of current attributes
      * @param attribute Value of attribute to add
      */
     public void addAttribute(double attribute) {
-        AttributeList = ArrayUtils.add(AttributeList, attribute);
+        if (isSparse()) {
+            addAttributes(new double[]{attribute});
+        } else {
+            AttributeList = ArrayUtils.add(AttributeList, attribute);
+        }
     }
     
     /**
@@ -131,7 +196,111 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
      * @param attributes List of attribute values to be added
      */
     public void addAttributes(double[] attributes) {
-        AttributeList = ArrayUtils.addAll(AttributeList, attributes);
+        if (isSparse()) {
+            // Store only the non-zero attributes
+            int[] index = getNonZeroIndices(attributes);
+            double[] value = new double[index.length];
+            for (int i=0; i<index.length; i++) {
+                value[i] = attributes[index[i]];
+            }
+            addSparseAttributes(attributes.length, index, value);
+        } else {
+            AttributeList = ArrayUtils.addAll(AttributeList, attributes);
+        }
+    }
+    
+    /**
+     * Adds a block of attributes, where most attributes are zero, to the
+     * end of the attribute list. Once a sparse block is added, all attributes
+     * of this entry are stored in sparse form.
+     * @param count Number of attributes in this block
+     * @param index Index of each non-zero attribute within the block, sorted
+     * in ascending order
+     * @param value Value of each non-zero attribute
+     */
+    public void addSparseAttributes(int count, int[] index, double[] value) {
+        if (index.length != value.length) {
+            throw new IllegalArgumentException("Index and value arrays must be the same length");
+        }
+        
+        // Convert to sparse storage, if needed
+        if (! isSparse()) {
+            SparseIndex = getSparseAttributeIndices();
+            SparseValue = getSparseAttributeValues();
+            NSparseAttributes = AttributeList.length;
+            AttributeList = new double[0];
+        }
+        
+        // Append the new attributes
+        int nOld = SparseIndex.length;
+        SparseIndex = Arrays.copyOf(SparseIndex, nOld + index.length);
+        SparseValue = Arrays.copyOf(SparseValue, nOld + index.length);
+        for (int i=0; i<index.length; i++) {
+            if (index[i] < 0 || index[i] >= count 
+                    || (i > 0 && index[i] <= index[i-1])) {
+                throw new IllegalArgumentException("Indices must be sorted and less than " + count);
+            }
+            SparseIndex[nOld + i] = NSparseAttributes + index[i];
+            SparseValue[nOld + i] = value[i];
+        }
+        NSparseAttributes += count;
+    }
+    
+    /**
+     * @return Whether attributes are stored in sparse form
+     * @see #addSparseAttributes(int, int[], double[]) 
+     */
+    public boolean isSparse() {
+        return SparseIndex != null;
+    }
+    
+    /**
+     * Get the indices of the attributes that are stored explicitly. For a 
+     * sparse entry, these are all attributes that were stored. For a dense entry,
+     * these are all non-zero attributes.
+     * @return Indices of attributes, sorted in ascending order
+     * @see #getSparseAttributeValues() 
+     */
+    public int[] getSparseAttributeIndices() {
+        return isSparse() ? SparseIndex.clone() : getNonZeroIndices(AttributeList);
+    }
+    
+    /**
+     * Get the values of the attributes that are stored explicitly.
+     * @return Values of attributes, in the same order as
+     * {@linkplain #getSparseAttributeIndices() }
+     */
+    public double[] getSparseAttributeValues() {
+        if (isSparse()) {
+            return SparseValue.clone();
+        }
+        int[] index = getNonZeroIndices(AttributeList);
+        double[] output = new double[index.length];
+        for (int i=0; i<index.length; i++) {
+            output[i] = AttributeList[index[i]];
+        }
+        return output;
+    }
+    
+    /**
+     * Find the non-zero values in an array
+     * @param values Array to be evaluated
+     * @return Index of each non-zero value
+     */
+    static private int[] getNonZeroIndices(double[] values) {
+        int nNonZero = 0;
+        for (double x : values) {
+            if (x != 0) {
+                nNonZero++;
+            }
+        }
+        int[] output = new int[nNonZero];
+        for (int i=0, pos=0; i<values.length; i++) {
+            if (values[i] != 0) {
+                output[pos++] = i;
+            }
+        }
+        return output;
     }
     
     /** 
@@ -146,6 +315,10 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
         try { copy = (BaseEntry) super.clone(); }
         catch (CloneNotSupportedException c) { throw new Error(c); }
         copy.AttributeList = AttributeList.clone();
+        if (isSparse()) {
+            copy.SparseIndex = SparseIndex.clone();
+            copy.SparseValue = SparseValue.clone();
+        }
         copy.Class = this.Class;
         copy.PredictedClass = this.PredictedClass;
         copy.measured = this.measured;
@@ -158,10 +331,10 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
         if (A_obj instanceof BaseEntry && B_obj instanceof BaseEntry) {
             BaseEntry A = (BaseEntry) A_obj, B = (BaseEntry) B_obj;
             // If A has more features, it is greater. 
-            if (A.AttributeList.length != B.AttributeList.length)
-                return (A.AttributeList.length > B.AttributeList.length) ? 1 : -1;
+            if (A.NAttributes() != B.NAttributes())
+                return (A.NAttributes() > B.NAttributes()) ? 1 : -1;
             // Check which has greater features
-            for (int i=0; i<A.AttributeList.length; i++)
+            for (int i=0; i<A.NAttributes(); i++)
                 if (A.getAttribute(i) != B.getAttribute(i))
                     return (A.getAttribute(i) > B.getAttribute(i)) ? 1 : -1;
             // We have concluded they are equal
@@ -173,8 +346,8 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
     final public int compareTo(Object B) { return compare(this, B); }
     
     @Override public int hashCode() {
-        if (AttributeList.length > 0) {
-            return Arrays.hashCode(AttributeList);
+        if (NAttributes() > 0) {
+            return Arrays.hashCode(getDenseAttributes());
         } else {
             return 1;
         }
@@ -185,7 +358,7 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
         // Check if any of the 
         if (other instanceof BaseEntry) {
             BaseEntry obj = (BaseEntry) other;
-            return Arrays.equals(obj.AttributeList, AttributeList);
+            return Arrays.equals(obj.getDenseAttributes(), getDenseAttributes());
         } else return false;
     }
     
@@ -273,9 +446,10 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
     @Override 
     public String toString() {
         if (NAttributes() > 0) {
-            String output = String.format("(%.3f", AttributeList[0]);
+            double[] attributes = getDenseAttributes();
+            String output = String.format("(%.3f", attributes[0]);
             for(int i=1; i<NAttributes(); i++)
-                output += String.format(",%.3f", AttributeList[i]);
+                output += String.format(",%.3f", attributes[i]);
             output+=")";
             return output;
         } else 
@@ -298,7 +472,7 @@ public class BaseEntry implements java.lang.Cloneable, java.io.Serializable,
         JSONObject output = new JSONObject();
         
         // Set the attribute and class values
-        output.put("attributes", AttributeList != null ? UtilityOperations.toJSONArray(AttributeList) : new double[0]);
+        output.put("attributes", AttributeList != null ? UtilityOperations.toJSONArray(getDenseAttributes()) : new double[0]);
         
         JSONObject classVals = new JSONObject();
         classVals.put("measured", hasMeasurement() ? getMeasuredClass() : null);
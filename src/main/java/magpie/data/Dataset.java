@@ -1,6 +1,5 @@
 package magpie.data;
 
-import magpie.Magpie;
 import magpie.attributes.evaluators.BaseAttributeEvaluator;
 import magpie.attributes.expanders.BaseAttributeExpander;
 import magpie.attributes.generators.BaseAttributeGenerator;
@@ -10,9 +9,11 @@ import magpie.data.utilities.modifiers.BaseDatasetModifier;
 import magpie.data.utilities.modifiers.duplicates.BaseDuplicateResolver;
 import magpie.data.utilities.output.*;
 import magpie.data.utilities.splitters.MeasuredClassSplitter;
+import magpie.models.utility.MultiModelUtility;
 import magpie.optimization.rankers.BaseEntryRanker;
 import magpie.utility.UtilityOperations;
 import magpie.utility.interfaces.*;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.math3.ml.distance.DistanceMeasure;
@@ -21,12 +22,18 @@ import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 import weka.core.converters.ArffLoader;
 
 import javax.naming.OperationNotSupportedException;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -340,6 +347,55 @@ public class Dataset extends java.lang.Object implements java.io.Serializable,
         return emptyClone();
     }
 
+    /**
+     * Compute a hash that identifies how attributes are computed for this dataset.
+     *
+     * <p>Two datasets with the same hash compute the same attributes for the same entry, so attributes
+     * computed using one dataset can be reused by the other. The hash is determined by the type of the
+     * dataset and all of its settings (e.g., attribute generators, expanders, and the elemental
+     * properties of a {@linkplain magpie.data.materials.CompositionDataset}), but not by the entries,
+     * attribute names, class names or properties.</p>
+     *
+     * <p>The hash is computed from a serialized copy of the dataset (see
+     * {@linkplain #createAttributeGenerationTemplate()}). Datasets with settings that cannot be serialized
+     * get a hash that is unique to this instance.</p>
+     *
+     * @return Hexadecimal hash
+     */
+    public String getAttributeGenerationHash() {
+        Dataset template = createAttributeGenerationTemplate();
+
+        // Hash its serialized form
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ObjectOutputStream output = new ObjectOutputStream(
+                    new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, digest));
+            output.writeObject(template);
+            output.close();
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        } catch (IOException e) {
+            return getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Create a copy of this dataset that holds only the information needed to define how attributes are
+     * computed. Used by {@linkplain #getAttributeGenerationHash()}.
+     *
+     * <p>Subclasses should override this operation to remove any data that does not affect attributes,
+     * such as caches of data read from disk.</p>
+     *
+     * @return Template with no entries, attribute names, or class names
+     */
+    protected Dataset createAttributeGenerationTemplate() {
+        Dataset template = createTemplate();
+        template.AttributeName.clear();
+        template.ClassName = new String[]{"Class"};
+        return template;
+    }
+
     /**
      * Get a dataset that only contains entries with a measured class variable.
      *
@@ -456,59 +512,28 @@ public class Dataset extends java.lang.Object implements java.io.Serializable,
      * @throws java.lang.Exception If any error is encountered
      */
     final public void generateAttributes() throws Exception {
-        if (Magpie.NThreads > 1 && NEntries() > Magpie.NThreads) {
-            // Store the number of threads 
-            int originalNThreads = Magpie.NThreads;
-            
-            // Set Magpie.NThreads to 1 to prevent children from spawning threads
-            Magpie.NThreads = 1;
-            
+        int nThreads = MultiModelUtility.getNThreads();
+        if (nThreads > 1 && NEntries() > nThreads) {
             // Split dataset for threading
-            Dataset[] threadData = splitForThreading(originalNThreads);
-            
-            // Create executor
-            ExecutorService executor = Executors.newFixedThreadPool(originalNThreads);
+            Dataset[] threadData = splitForThreading(nThreads);
             
-            // Launch threads
-            List<Future<Integer>> results = new ArrayList<>(originalNThreads);
+            // Compute attributes for each part. Each part gets a budget of 
+            //  one thread, which prevents children from spawning threads
+            List<Callable<Integer>> tasks = new ArrayList<>(nThreads);
             for (final Dataset part : threadData) {
-                Callable<Integer> thread = new Callable<Integer>() {
+                tasks.add(new Callable<Integer>() {
 
                     @Override
                     public Integer call() throws Exception {
                         part.generateAttributes();
                         return part.NAttributes();
                     }
-                };
-                results.add(executor.submit(thread));
+                });
             }
+            MultiModelUtility.evaluateInParallel(tasks);
             
-            // Wait until all threads are done
-            executor.shutdown();
-            
-            // Get attribute names from thread #0
-            try {
-                // Wait until that thread finishes
-                results.get(0).get();
-
-                // Set the names for this instance to those of the first part
-                AttributeName = threadData[0].AttributeName;
-            } catch (ExecutionException e) {
-                throw new Exception(e.getCause());
-            }
-            
-            // Wait for the other entries
-            for (int id=1; id<originalNThreads; id++) {
-                try {
-                    // Wait until that thread finishes
-                    results.get(id).get();
-                } catch (ExecutionException e) {
-                    throw new Exception(e.getCause());
-                }
-            }
-            
-            // Restore the number of threads
-            Magpie.NThreads = originalNThreads;
+            // Set the names for this instance to those of the first part
+            AttributeName = threadData[0].AttributeName;
         } else {
             // First things first, clear out old data
             AttributeName.clear();
@@ -1120,6 +1145,7 @@ public class Dataset extends java.lang.Object implements java.io.Serializable,
      */
     public Dataset getSubset(int[] indicies) {
         Dataset output = emptyClone();
+        output.Entries.ensureCapacity(indicies.length);
         for (int i = 0; i < indicies.length; i++) {
             output.addEntry(getEntry(indicies[i]));
         }
@@ -1419,7 +1445,8 @@ public class Dataset extends java.lang.Object implements java.io.Serializable,
      * allows the Instances to contain information about how many classes are available
      * regardless of whether this Dataset contains any measurements.
      * @param useDiscreteClass Whether to treat class variable as discrete
-     * @return Dataset in Weka format
+     * @return Dataset in Weka format. Entries with attributes stored in sparse
+     * form are converted to {@linkplain SparseInstance}s.
      * @see Dataset#restoreAttributes(weka.core.Instances)
      */
     public Instances transferToWeka(boolean useClass, boolean useDiscreteClass) {
@@ -1438,14 +1465,18 @@ public class Dataset extends java.lang.Object implements java.io.Serializable,
         }
 
         Instances weka_out = new Instances("Output", Attributes, NEntries());
-        int j;
+        int j = NAttributes();
         for (int i = 0; i < NEntries(); i++) {
             BaseEntry entry = Entries.get(i);
-            DenseInstance inst = new DenseInstance(Attributes.size());
-            inst.setDataset(weka_out);
-            for (j = 0; j < NAttributes(); j++) {
-                inst.setValue(j, entry.getAttribute(j));
+            Instance inst;
+            if (entry.isSparse()) {
+                inst = new SparseInstance(1.0, entry.getSparseAttributeValues(),
+                        entry.getSparseAttributeIndices(), Attributes.size());
+            } else {
+                inst = new DenseInstance(1.0, Arrays.copyOf(entry.getAttributes(), 
+                        Attributes.size()));
             }
+            inst.setDataset(weka_out);
             if (!useClass) {
             }// Do nothing 
             else if (useDiscreteClass) {
@@ -1492,8 +1523,23 @@ public class Dataset extends java.lang.Object implements java.io.Serializable,
         for (int i = 0; i < this.NEntries(); i++) {
             Entries.get(i).clearAttributes();
             Instance inst = iter.next();
-            double[] attr = inst.toDoubleArray();
             iter.remove();
+            if (inst instanceof SparseInstance) {
+                // Transfer only the non-zero attributes
+                int nValues = 0;
+                while (nValues < inst.numValues() && inst.index(nValues) < NAttributes()) {
+                    nValues++;
+                }
+                int[] index = new int[nValues];
+                double[] value = new double[nValues];
+                for (int v = 0; v < nValues; v++) {
+                    index[v] = inst.index(v);
+                    value[v] = inst.valueSparse(v);
+                }
+                Entries.get(i).addSparseAttributes(NAttributes(), index, value);
+                continue;
+            }
+            double[] attr = inst.toDoubleArray();
             if (!hasClass) {
                 Entries.get(i).addAttributes(attr);
             } else {
@@ -209,6 +209,18 @@ public class CompositionDataset extends MultiPropertyDataset {
         return x;
     }
 
+    @Override
+    protected CompositionDataset createAttributeGenerationTemplate() {
+        CompositionDataset x = (CompositionDataset) super.createAttributeGenerationTemplate();
+
+        // Lookup tables are determined by the data directory and property names
+        x.PairPropertyData = new TreeMap<>();
+        x.PropertyData = new TreeMap<>();
+        x.OxidationStates = null;
+
+        return x;
+    }
+
     @Override
     public CompositionEntry getEntry(int index) {
         return (CompositionEntry) super.getEntry(index);
@@ -8,6 +8,7 @@ import org.apache.commons.collections4.iterators.PermutationIterator;
 import vassal.data.Atom;
 import vassal.data.Cell;
 import magpie.data.materials.util.LookupData;
+import magpie.data.materials.util.NeighborList;
 import org.apache.commons.lang3.ArrayUtils;
 import org.json.JSONObject;
 import vassal.analysis.VoronoiCellBasedAnalysis;
@@ -26,6 +27,8 @@ public class CrystalStructureEntry extends CompositionEntry {
     private double[] Radii;
     /** Voronoi tessellation of this structure */
     private VoronoiCellBasedAnalysis Voronoi;
+    /** List of neighbors of each atom */
+    private NeighborList Neighbors;
 
 	/**
 	 * Create an entry given its crystal structure
@@ -91,6 +94,7 @@ public class CrystalStructureEntry extends CompositionEntry {
         //  for the new entry w/o recomputing the tessellation
         if (Voronoi != null && (Structure.nTypes() != newEntry.Structure.nTypes())) {
             newEntry.Voronoi = null;
+            newEntry.Neighbors = null;
         }
         return newEntry;
     }
@@ -309,11 +313,30 @@ public class CrystalStructureEntry extends CompositionEntry {
         return Voronoi;
     }
     
+    /**
+     * Get the list of neighbors of each atom within a certain distance.
+     * 
+     * <p>The list is computed once and then stored with this entry, so that 
+     * all attribute generators can use it. If a list was already computed with 
+     * a larger cutoff, that list is returned. Use 
+     * {@linkplain NeighborList#NNeighbors(int, double) } to get only the neighbors
+     * within the requested cutoff.
+     * @param cutoff Cutoff distance
+     * @return Neighbor list with a cutoff at least as large as requested
+     */
+    public NeighborList getNeighborList(double cutoff) {
+        if (Neighbors == null || Neighbors.getCutoff() < cutoff) {
+            Neighbors = new NeighborList(Structure, cutoff);
+        }
+        return Neighbors;
+    }
+    
     /**
      * Clear out the representations used when computing attributes.
      */
     public void clearRepresentations() {
         Voronoi = null;
+        Neighbors = null;
     }
 
     @Override
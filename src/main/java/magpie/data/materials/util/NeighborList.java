@@ -0,0 +1,320 @@
+package magpie.data.materials.util;
+
+import java.util.Arrays;
+import vassal.data.Cell;
+
+/**
+ * List of all neighbors of each atom in a crystal structure within a certain
+ * cutoff distance, including neighbors that are periodic images of the atom.
+ *
+ * <p>Neighbors are found using a cell list: the atoms and all of their periodic
+ * images that could be within the cutoff distance of an atom in the unit cell
+ * are sorted into bins, and only the bins near each atom are searched.
+ * This requires a number of distance calculations that scales linearly
+ * with the number of atoms, rather than quadratically.
+ *
+ * <p>The list is stored in compressed form: the neighbors of all atoms are kept
+ * in a single array, and the neighbors of each atom are sorted by distance. As
+ * a result, a list computed with a certain cutoff can be used to find the neighbors
+ * within any shorter cutoff. See {@linkplain #NNeighbors(int, double) }.
+ *
+ * @author Logan Ward
+ * @see magpie.data.materials.CrystalStructureEntry#getNeighborList(double)
+ */
+public class NeighborList implements java.io.Serializable {
+    /** Number of bins searched in each direction around an atom */
+    final static private int SearchRange = 2;
+    /** Cutoff distance used to create the list */
+    final private double Cutoff;
+    /** Position of the first neighbor of each atom. Last value is the total number of neighbors */
+    final private int[] Offset;
+    /** Index of each neighbor */
+    final private int[] Neighbor;
+    /** Distance to each neighbor */
+    final private double[] Distance;
+
+    /**
+     * Compute the neighbor list of a structure
+     * @param strc Structure to be evaluated
+     * @param cutoff Cutoff distance
+     */
+    public NeighborList(Cell strc, double cutoff) {
+        if (cutoff < 0) {
+            throw new IllegalArgumentException("Cutoff must be non-negative");
+        }
+        Cutoff = cutoff;
+        final int nAtoms = strc.nAtoms();
+        final double[][] basis = strc.getBasis();
+        final double[][] inverse = strc.getInverseBasis();
+
+        // Get the fractional coordinates of each atom, wrapped into the unit cell
+        double[][] frac = new double[nAtoms][];
+        for (int a=0; a<nAtoms; a++) {
+            frac[a] = strc.getAtom(a).getPosition().clone();
+            for (int d=0; d<3; d++) {
+                frac[a][d] -= Math.floor(frac[a][d]);
+                if (frac[a][d] >= 1) {
+                    frac[a][d] = 0;
+                }
+            }
+        }
+
+        // Determine how far the cutoff extends along each lattice vector, in
+        //  fractional coordinates, and how many images are needed to cover it
+        double[] reach = new double[3];
+        int[] nImages = new int[3];
+        for (int d=0; d<3; d++) {
+            double norm = 0;
+            for (int k=0; k<3; k++) {
+                norm += inverse[d][k] * inverse[d][k];
+            }
+            reach[d] = cutoff * Math.sqrt(norm);
+            nImages[d] = (int) Math.ceil(reach[d]);
+        }
+
+        // Create all images that could be within the cutoff of an atom in the cell
+        int nShifts = (2 * nImages[0] + 1) * (2 * nImages[1] + 1) * (2 * nImages[2] + 1);
+        int nPoints = nShifts * nAtoms;
+        int[] pointAtom = new int[nPoints];
+        double[][] pointFrac = new double[3][nPoints];
+        double[][] pointCart = new double[3][nPoints];
+        int[] selfPoint = new int[nAtoms];
+        int point = 0;
+        for (int i=-nImages[0]; i<=nImages[0]; i++) {
+            for (int j=-nImages[1]; j<=nImages[1]; j++) {
+                for (int k=-nImages[2]; k<=nImages[2]; k++) {
+                    for (int a=0; a<nAtoms; a++) {
+                        double[] pos = new double[]{frac[a][0] + i,
+                            frac[a][1] + j, frac[a][2] + k};
+                        for (int d=0; d<3; d++) {
+                            pointFrac[d][point] = pos[d];
+                            pointCart[d][point] = basis[d][0] * pos[0]
+                                    + basis[d][1] * pos[1] + basis[d][2] * pos[2];
+                        }
+                        pointAtom[point] = a;
+                        if (i == 0 && j == 0 && k == 0) {
+                            selfPoint[a] = point;
+                        }
+                        point++;
+                    }
+                }
+            }
+        }
+
+        // Divide the region containing the images into bins at least
+        //  reach / SearchRange wide, without making more bins than points
+        int[] nBins = new int[3];
+        double[] binWidth = new double[3];
+        int maxBins = Math.max(1, (int) Math.ceil(Math.cbrt(nPoints)));
+        for (int d=0; d<3; d++) {
+            double length = 2 * nImages[d] + 1;
+            nBins[d] = reach[d] > 0 ?
+                    (int) Math.min(maxBins, Math.floor(length * SearchRange / reach[d]))
+                    : maxBins;
+            nBins[d] = Math.max(1, nBins[d]);
+            binWidth[d] = length / nBins[d];
+        }
+
+        // Sort the images into bins, stored as linked lists
+        int[] binHead = new int[nBins[0] * nBins[1] * nBins[2]];
+        Arrays.fill(binHead, -1);
+        int[] nextPoint = new int[nPoints];
+        for (int p=0; p<nPoints; p++) {
+            int bin = 0;
+            for (int d=0; d<3; d++) {
+                bin = bin * nBins[d] + getBin(pointFrac[d][p], nImages[d],
+                        binWidth[d], nBins[d]);
+            }
+            nextPoint[p] = binHead[bin];
+            binHead[bin] = p;
+        }
+
+        // Find the neighbors of each atom
+        final double cutoffSq = cutoff * cutoff;
+        int[] offset = new int[nAtoms + 1];
+        int[] neighbor = new int[Math.max(16, nAtoms)];
+        double[] distance = new double[neighbor.length];
+        int nNeighbors = 0;
+        int[] lower = new int[3], upper = new int[3];
+        for (int a=0; a<nAtoms; a++) {
+            offset[a] = nNeighbors;
+            int self = selfPoint[a];
+
+            // Get the range of bins to search
+            for (int d=0; d<3; d++) {
+                int bin = getBin(pointFrac[d][self], nImages[d], binWidth[d], nBins[d]);
+                lower[d] = Math.max(0, bin - SearchRange);
+                upper[d] = Math.min(nBins[d] - 1, bin + SearchRange);
+            }
+
+            // Check every image in those bins
+            for (int i=lower[0]; i<=upper[0]; i++) {
+                for (int j=lower[1]; j<=upper[1]; j++) {
+                    for (int k=lower[2]; k<=upper[2]; k++) {
+                        int bin = (i * nBins[1] + j) * nBins[2] + k;
+                        for (int p=binHead[bin]; p>=0; p=nextPoint[p]) {
+                            if (p == self) {
+                                continue;
+                            }
+                            double dx = pointCart[0][p] - pointCart[0][self];
+                            double dy = pointCart[1][p] - pointCart[1][self];
+                            double dz = pointCart[2][p] - pointCart[2][self];
+                            double distSq = dx * dx + dy * dy + dz * dz;
+                            if (distSq > cutoffSq) {
+                                continue;
+                            }
+
+                            // Add it to the list
+                            if (nNeighbors == neighbor.length) {
+                                neighbor = Arrays.copyOf(neighbor, 2 * nNeighbors);
+                                distance = Arrays.copyOf(distance, 2 * nNeighbors);
+                            }
+                            neighbor[nNeighbors] = pointAtom[p];
+                            distance[nNeighbors] = Math.sqrt(distSq);
+                            nNeighbors++;
+                        }
+                    }
+                }
+            }
+
+            // Sort the neighbors of this atom by distance
+            sortByDistance(neighbor, distance, offset[a], nNeighbors - 1);
+        }
+        offset[nAtoms] = nNeighbors;
+
+        // Store the results
+        Offset = offset;
+        Neighbor = Arrays.copyOf(neighbor, nNeighbors);
+        Distance = Arrays.copyOf(distance, nNeighbors);
+    }
+
+    /**
+     * Compute which bin a point is in
+     * @param x Fractional coordinate of point
+     * @param nImages Number of images on each side of the unit cell
+     * @param width Width of each bin
+     * @param nBins Number of bins
+     * @return Index of bin
+     */
+    static private int getBin(double x, int nImages, double width, int nBins) {
+        int bin = (int) Math.floor((x + nImages) / width);
+        return Math.min(nBins - 1, Math.max(0, bin));
+    }
+
+    /**
+     * Sort part of a neighbor list by distance
+     * @param neighbor Index of each neighbor
+     * @param distance Distance to each neighbor
+     * @param left First position to sort
+     * @param right Last position to sort (inclusive)
+     */
+    static private void sortByDistance(int[] neighbor, double[] distance, int left, int right) {
+        while (right - left > 16) {
+            // Partition around the middle value
+            double pivot = distance[(left + right) >>> 1];
+            int i = left, j = right;
+            while (i <= j) {
+                while (distance[i] < pivot) i++;
+                while (distance[j] > pivot) j--;
+                if (i <= j) {
+                    int tn = neighbor[i]; neighbor[i] = neighbor[j]; neighbor[j] = tn;
+                    double td = distance[i]; distance[i] = distance[j]; distance[j] = td;
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the smaller side, loop over the larger
+            if (j - left < right - i) {
+                sortByDistance(neighbor, distance, left, j);
+                left = i;
+            } else {
+                sortByDistance(neighbor, distance, i, right);
+                right = j;
+            }
+        }
+
+        // Finish with an insertion sort
+        for (int i=left + 1; i<=right; i++) {
+            int n = neighbor[i];
+            double d = distance[i];
+            int j = i - 1;
+            while (j >= left && distance[j] > d) {
+                neighbor[j + 1] = neighbor[j];
+                distance[j + 1] = distance[j];
+                j--;
+            }
+            neighbor[j + 1] = n;
+            distance[j + 1] = d;
+        }
+    }
+
+    /**
+     * @return Cutoff distance used to create this list
+     */
+    public double getCutoff() {
+        return Cutoff;
+    }
+
+    /**
+     * @return Number of atoms in the structure
+     */
+    public int NAtoms() {
+        return Offset.length - 1;
+    }
+
+    /**
+     * Get the number of neighbors of an atom
+     * @param atom Index of atom
+     * @return Number of neighbors within the cutoff of this list
+     */
+    public int NNeighbors(int atom) {
+        return Offset[atom + 1] - Offset[atom];
+    }
+
+    /**
+     * Get the number of neighbors of an atom within a certain distance.
+     * Because neighbors are sorted by distance, these are the first
+     * neighbors of that atom.
+     * @param atom Index of atom
+     * @param cutoff Cutoff distance. Must be no larger than the cutoff used
+     * to create this list
+     * @return Number of neighbors within that cutoff
+     */
+    public int NNeighbors(int atom, double cutoff) {
+        if (cutoff > Cutoff) {
+            throw new IllegalArgumentException("Cutoff is larger than that of the list");
+        }
+        // Find the first neighbor beyond the cutoff
+        int low = Offset[atom], high = Offset[atom + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Distance[mid] <= cutoff) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - Offset[atom];
+    }
+
+    /**
+     * Get the index of a neighbor of an atom
+     * @param atom Index of atom
+     * @param neighbor Index of the neighbor in the list of neighbors of this atom
+     * @return Index of that neighbor in the structure
+     */
+    public int getNeighbor(int atom, int neighbor) {
+        return Neighbor[Offset[atom] + neighbor];
+    }
+
+    /**
+     * Get the distance between an atom and one of its neighbors
+     * @param atom Index of atom
+     * @param neighbor Index of the neighbor in the list of neighbors of this atom
+     * @return Distance between the atom and that neighbor
+     */
+    public double getDistance(int atom, int neighbor) {
+        return Distance[Offset[atom] + neighbor];
+    }
+}
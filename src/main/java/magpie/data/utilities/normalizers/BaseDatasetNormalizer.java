@@ -25,6 +25,11 @@ import magpie.utility.interfaces.*;
  * 
  * <p>Once you implement these functions, make sure to test them using the "test" command.
  * 
+ * <p>Normalizers that can update their parameters with new data, without re-reading
+ * the original training set, should also implement {@linkplain #isUpdateable() },
+ * {@linkplain #updateOnAttributes(magpie.data.Dataset) }, and 
+ * {@linkplain #updateOnMeasuredClass(magpie.data.Dataset) }.
+ * 
  * <p><b><u>Implemented Commands:</u></b>
  * 
  * <command><p><b>normalize $&lt;dataset&gt;</b> - Normalize attributes and/or class variable of a dataset
@@ -41,6 +46,10 @@ import magpie.utility.interfaces.*;
  * <pr><br><i>class</i>: Train for normalizing class variable
  * <pr><br><i>dataset</i>: Dataset to use for training</command>
  * 
+ * <command><p><b>update $&lt;dataset&gt;</b> - Update a trained normalizer with 
+ * additional data. Only available for some normalizers
+ * <pr><br><i>dataset</i>: Dataset containing new entries</command>
+ * 
  * <command><p><b>test $&lt;dataset&gt;</b> - Test whether restoration actually maps 
  * dataset back onto original ranges.
  * <pr><br><i>dataset</i>: Dataset used for testing
@@ -136,6 +145,63 @@ abstract public class BaseDatasetNormalizer
         AttributeNames = Data.getAttributeNames();
     }
     
+    /**
+     * Whether this normalizer can be updated with new data. 
+     * @return Whether {@linkplain #update(magpie.data.Dataset) } is supported. 
+     * Default: false
+     */
+    public boolean isUpdateable() {
+        return false;
+    }
+    
+    /**
+     * Update the normalizer with additional training data. The parameters 
+     * are computed as if the normalizer was trained on the original and new 
+     * data together, but the original data are not needed.
+     * 
+     * <p>Note: Data that were normalized before this update must be restored 
+     * before the update, and normalized again afterwards.
+     * 
+     * @param Data Additional training data
+     */
+    public void update(Dataset Data) {
+        if (!isTrained()) {
+            throw new RuntimeException("Normalizer not trained");
+        }
+        if (!isUpdateable()) {
+            throw new UnsupportedOperationException("Normalizer cannot be updated");
+        }
+        if (! Arrays.equals(AttributeNames, Data.getAttributeNames())) {
+            throw new RuntimeException("Attribute names different: Different type of data?");
+        }
+        if (Data.NEntries() == 0) {
+            return;
+        }
+        
+        if (willNormalizeAttributes()) {
+            updateOnAttributes(Data);
+        }
+        if (willNormalizeClass()) {
+            updateOnMeasuredClass(Data.getTrainingExamples());
+        }
+    }
+    
+    /**
+     * Update the parameters used to normalize attributes with additional data.
+     * @param Data Additional training data
+     */
+    protected void updateOnAttributes(Dataset Data) {
+        throw new UnsupportedOperationException("Normalizer cannot be updated");
+    }
+    
+    /**
+     * Update the parameters used to normalize the class variable with additional data.
+     * @param Data Additional training data. Only includes entries with a measured class
+     */
+    protected void updateOnMeasuredClass(Dataset Data) {
+        throw new UnsupportedOperationException("Normalizer cannot be updated");
+    }
+    
     /**
      * Perform the actual training work for attributes. Must establish the parameters 
      *  necessary to normalize attributes <i>and</i> return them to their original range.
@@ -344,6 +410,16 @@ abstract public class BaseDatasetNormalizer
                 System.out.println("\tTrained to normalize " + wasTrained 
                         + " using " + Data.NEntries() + " entries");
             } break;
+            case "update": {
+                Dataset Data;
+                try {
+                    Data = (Dataset) Command.get(1);
+                } catch (Exception e) {
+                    throw new Exception("Usage: update $<dataset>");
+                }
+                update(Data);
+                System.out.println("\tUpdated normalizer using " + Data.NEntries() + " entries");
+            } break;
             case "test": {
                 Dataset Data;
                 try {
@@ -14,6 +14,10 @@ import magpie.data.Dataset;
  * <li>{@linkplain #restoreAttributes(double[]) }
  * </ol>
  * 
+ * <p>Implementations that can be updated with new data must also supply 
+ * {@linkplain #updateAttributeStatistics(int, double[]) } and 
+ * {@linkplain #updateClassStatistics(double[]) }.
+ * 
  * @author Logan Ward
  */
 abstract public class IndependentVariableNormalizer extends BaseDatasetNormalizer {
@@ -34,6 +38,37 @@ abstract public class IndependentVariableNormalizer extends BaseDatasetNormalize
         computeClassStatistics(measured);
     }
     
+    @Override
+    protected void updateOnAttributes(Dataset Data) {
+        for (int i=0; i<Data.NAttributes(); i++) {
+            updateAttributeStatistics(i, Data.getSingleAttributeArray(i));
+        }
+    }
+
+    @Override
+    protected void updateOnMeasuredClass(Dataset Data) {
+        if (Data.NEntries() > 0) {
+            updateClassStatistics(Data.getMeasuredClassArray());
+        }
+    }
+    
+    /**
+     * Update the statistics of an attribute using additional data. 
+     * @param attributeNumber Attribute number
+     * @param values Values of the attribute for the new entries
+     */
+    protected void updateAttributeStatistics(int attributeNumber, double[] values) {
+        throw new UnsupportedOperationException("Normalizer cannot be updated");
+    }
+    
+    /**
+     * Update the statistics of the class variable using additional data. 
+     * @param values Measured values of the class variable for the new entries
+     */
+    protected void updateClassStatistics(double[] values) {
+        throw new UnsupportedOperationException("Normalizer cannot be updated");
+    }
+    
     /**
      * Prepare arrays that will hold attribute statistics.
      * @param NAttributes 
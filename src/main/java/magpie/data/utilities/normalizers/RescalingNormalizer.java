@@ -12,6 +12,9 @@ import org.apache.commons.math3.stat.StatUtils;
  * in the training set, and x&rsquo; is the normalized attribute. For examples where
  * the range of X is measured to be 0, the range is assumed to be 1.
  * 
+ * <p>Can be updated with new data, which expands the range of each variable
+ * to include the new values.
+ * 
  * <usage><p><b>Usage</b>: *No options*</usage>
  * @author Logan Ward
  */
@@ -24,12 +27,21 @@ public class RescalingNormalizer extends IndependentVariableNormalizer {
     private double ClassMinimum;
     /** Range of class variable */
     private double ClassRange;
+    /** Maximum value of each attribute */
+    private double[] AttributeMaximum;
+    /** Maximum value of class variable */
+    private double ClassMaximum;
+    /** Whether the maximum values were recorded during training */
+    private boolean RecordedMaximum = false;
 
     @Override
     public RescalingNormalizer clone() {
         RescalingNormalizer x = (RescalingNormalizer) super.clone();
         x.AttributeMinimum = AttributeMinimum.clone();
         x.AttributeRange = AttributeRange.clone();
+        if (AttributeMaximum != null) {
+            x.AttributeMaximum = AttributeMaximum.clone();
+        }
         return x;
     }
 
@@ -49,21 +61,51 @@ public class RescalingNormalizer extends IndependentVariableNormalizer {
     protected void prepareAttributeArrays(int NAttributes) {
         AttributeMinimum = new double[NAttributes];
         AttributeRange = new double[NAttributes];
+        AttributeMaximum = new double[NAttributes];
     }
 
     @Override
     protected void computeAttributeStatistics(int attributeNumber, double[] values) {
         AttributeMinimum[attributeNumber] = StatUtils.min(values);
-        AttributeRange[attributeNumber] = StatUtils.max(values) - AttributeMinimum[attributeNumber];
+        AttributeMaximum[attributeNumber] = StatUtils.max(values);
+        AttributeRange[attributeNumber] = AttributeMaximum[attributeNumber] - AttributeMinimum[attributeNumber];
         if (AttributeRange[attributeNumber] == 0) {
             AttributeRange[attributeNumber] = 1;
         }
+        RecordedMaximum = true;
     }
 
     @Override
     protected void computeClassStatistics(double[] values) {
         ClassMinimum = StatUtils.min(values);
-        ClassRange = StatUtils.max(values) - ClassMinimum;
+        ClassMaximum = StatUtils.max(values);
+        ClassRange = ClassMaximum - ClassMinimum;
+        if (ClassRange == 0) { 
+            ClassRange = 1; 
+        }
+        RecordedMaximum = true;
+    }
+
+    @Override
+    public boolean isUpdateable() {
+        return RecordedMaximum;
+    }
+
+    @Override
+    protected void updateAttributeStatistics(int attributeNumber, double[] values) {
+        AttributeMinimum[attributeNumber] = Math.min(AttributeMinimum[attributeNumber], StatUtils.min(values));
+        AttributeMaximum[attributeNumber] = Math.max(AttributeMaximum[attributeNumber], StatUtils.max(values));
+        AttributeRange[attributeNumber] = AttributeMaximum[attributeNumber] - AttributeMinimum[attributeNumber];
+        if (AttributeRange[attributeNumber] == 0) {
+            AttributeRange[attributeNumber] = 1;
+        }
+    }
+
+    @Override
+    protected void updateClassStatistics(double[] values) {
+        ClassMinimum = Math.min(ClassMinimum, StatUtils.min(values));
+        ClassMaximum = Math.max(ClassMaximum, StatUtils.max(values));
+        ClassRange = ClassMaximum - ClassMinimum;
         if (ClassRange == 0) { 
             ClassRange = 1; 
         }
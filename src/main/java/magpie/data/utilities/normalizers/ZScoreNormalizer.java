@@ -2,6 +2,7 @@
 package magpie.data.utilities.normalizers;
 
 import java.util.List;
+import magpie.data.Dataset;
 import org.apache.commons.math3.stat.StatUtils;
 
 /**
@@ -11,6 +12,10 @@ import org.apache.commons.math3.stat.StatUtils;
  * in the training set, and x&rsquo; is the normalized attribute. For examples where
  * the range of X is measured to be 0, the range is assumed to be 1.
  * 
+ * <p>Can be updated with new data. The mean and standard deviation are 
+ * updated using the number of entries and sum of squared deviations from
+ * the mean, which are stored with the normalizer.
+ * 
  * <usage><p><b>Usage</b>: *No options*</usage>
  * @author Logan Ward
  */
@@ -23,12 +28,23 @@ public class ZScoreNormalizer extends IndependentVariableNormalizer {
     private double ClassMean;
     /** Range of class variable */
     private double ClassStdDev;
+    /** Number of entries used to compute attribute statistics */
+    private long AttributeCount = 0;
+    /** Sum of squared deviations from the mean of each attribute */
+    private double[] AttributeSumSquares;
+    /** Number of entries used to compute class statistics */
+    private long ClassCount = 0;
+    /** Sum of squared deviations from the mean of the class variable */
+    private double ClassSumSquares;
 
     @Override
     public ZScoreNormalizer clone() {
         ZScoreNormalizer x = (ZScoreNormalizer) super.clone();
         x.AttributeMean = AttributeMean.clone();
         x.AttributeStdDev = AttributeStdDev.clone();
+        if (AttributeSumSquares != null) {
+            x.AttributeSumSquares = AttributeSumSquares.clone();
+        }
         return x;
     }
 
@@ -48,6 +64,7 @@ public class ZScoreNormalizer extends IndependentVariableNormalizer {
     protected void prepareAttributeArrays(int NAttributes) {
         AttributeMean = new double[NAttributes];
         AttributeStdDev = new double[NAttributes];
+        AttributeSumSquares = new double[NAttributes];
     }
 
     @Override
@@ -57,6 +74,8 @@ public class ZScoreNormalizer extends IndependentVariableNormalizer {
         if (AttributeStdDev[attributeNumber] == 0) {
             AttributeStdDev[attributeNumber] = 1;
         }
+        AttributeCount = values.length;
+        AttributeSumSquares[attributeNumber] = sumSquaredDeviations(values, AttributeMean[attributeNumber]);
     }
 
     @Override
@@ -66,6 +85,78 @@ public class ZScoreNormalizer extends IndependentVariableNormalizer {
         if (ClassStdDev == 0) { 
             ClassStdDev = 1; 
         }
+        ClassCount = values.length;
+        ClassSumSquares = sumSquaredDeviations(values, ClassMean);
+    }
+
+    @Override
+    public boolean isUpdateable() {
+        return (! willNormalizeAttributes() || (AttributeSumSquares != null && AttributeCount > 0))
+                && (! willNormalizeClass() || ClassCount > 0);
+    }
+
+    @Override
+    protected void updateAttributeStatistics(int attributeNumber, double[] values) {
+        double[] stats = mergeStatistics(AttributeCount, AttributeMean[attributeNumber],
+                AttributeSumSquares[attributeNumber], values);
+        AttributeMean[attributeNumber] = stats[0];
+        AttributeSumSquares[attributeNumber] = stats[1];
+        AttributeStdDev[attributeNumber] = stats[2];
+    }
+
+    @Override
+    protected void updateOnAttributes(Dataset Data) {
+        super.updateOnAttributes(Data);
+        AttributeCount += Data.NEntries();
+    }
+
+    @Override
+    protected void updateClassStatistics(double[] values) {
+        double[] stats = mergeStatistics(ClassCount, ClassMean, ClassSumSquares, values);
+        ClassMean = stats[0];
+        ClassSumSquares = stats[1];
+        ClassStdDev = stats[2];
+        ClassCount += values.length;
+    }
+    
+    /**
+     * Compute the sum of squared deviations from the mean
+     * @param values Values of a variable
+     * @param mean Mean of those values
+     * @return Sum of squared deviations
+     */
+    static private double sumSquaredDeviations(double[] values, double mean) {
+        double output = 0;
+        for (double x : values) {
+            output += (x - mean) * (x - mean);
+        }
+        return output;
+    }
+    
+    /**
+     * Combine the statistics of a variable with new values. 
+     * @param count Number of values used to compute the current statistics
+     * @param mean Current mean
+     * @param sumSquares Current sum of squared deviations from the mean
+     * @param values New values
+     * @return Mean, sum of squared deviations, and standard deviation of the 
+     * combined data
+     */
+    static private double[] mergeStatistics(long count, double mean, double sumSquares,
+            double[] values) {
+        double newMean = StatUtils.mean(values);
+        double newSumSquares = sumSquaredDeviations(values, newMean);
+        long total = count + values.length;
+        
+        double delta = newMean - mean;
+        double[] output = new double[3];
+        output[0] = mean + delta * values.length / total;
+        output[1] = sumSquares + newSumSquares + delta * delta * count * values.length / total;
+        output[2] = total > 1 ? Math.sqrt(output[1] / (total - 1)) : 0;
+        if (output[2] == 0) {
+            output[2] = 1;
+        }
+        return output;
     }
 
     @Override
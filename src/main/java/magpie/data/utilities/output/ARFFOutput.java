@@ -17,6 +17,8 @@ import magpie.data.Dataset;
  * <li>Weka ARFF importer crashes with names that contain a comma, these will
  * be replaced with underscores
  * <li>This class does support missing class variables
+ * <li>Entries with attributes stored in sparse form are written in Weka's
+ * sparse format, where only the non-zero attributes are listed
  * </ol>
  * 
  * <usage><p><b>Usage</b>: *No options*</usage>
@@ -79,6 +81,10 @@ public class ARFFOutput extends BaseDatasetOutput {
         }
         
         for (BaseEntry entry : entries) {
+            if (entry.isSparse()) {
+                printSparseEntry(entry, fp);
+                continue;
+            }
             
             // Print out attributes
             for (int a = 0; a < entry.NAttributes(); a++) {
@@ -98,6 +104,34 @@ public class ARFFOutput extends BaseDatasetOutput {
         }
     }
 
+    /**
+     * Print an entry in sparse format: {index value, index value, ...}
+     * @param entry Entry to be printed
+     * @param fp Output writer
+     */
+    protected void printSparseEntry(BaseEntry entry, PrintWriter fp) {
+        // Print out non-zero attributes
+        int[] index = entry.getSparseAttributeIndices();
+        double[] value = entry.getSparseAttributeValues();
+        fp.print("{");
+        for (int i = 0; i < index.length; i++) {
+            fp.format("%d %.6e,", index[i], value[i]);
+        }
+        
+        // Print out class value
+        int classIndex = entry.NAttributes();
+        if (entry.hasMeasurement()) {
+            if (Data.NClasses() == 1) {
+                fp.format("%d %.6e}\n", classIndex, entry.getMeasuredClass());
+            } else {
+                fp.format("%d %s}\n", classIndex, 
+                        Data.getClassName((int) entry.getMeasuredClass()));
+            }
+        } else {
+            fp.format("%d ?}\n", classIndex);
+        }
+    }
+
     @Override
     public void printEnd(OutputStream output) {
         // Uncache Data
@@ -134,13 +134,31 @@ public class DelimitedOutput extends BaseDatasetOutput {
             started = false;
             
             // Print each attribute
-            for (double x : entry.getAttributes()) {
-                if (started) {
-                    fp.print(Delimiter);
-                    fp.print(x);
-                } else {
-                    started = true;
-                    fp.print(x);
+            if (entry.isSparse()) {
+                // Fill in the zeros without creating a dense copy
+                int[] index = entry.getSparseAttributeIndices();
+                double[] value = entry.getSparseAttributeValues();
+                for (int a = 0, pos = 0; a < entry.NAttributes(); a++) {
+                    if (started) {
+                        fp.print(Delimiter);
+                    } else {
+                        started = true;
+                    }
+                    if (pos < index.length && index[pos] == a) {
+                        fp.print(value[pos++]);
+                    } else {
+                        fp.print(0.0);
+                    }
+                }
+            } else {
+                for (double x : entry.getAttributes()) {
+                    if (started) {
+                        fp.print(Delimiter);
+                        fp.print(x);
+                    } else {
+                        started = true;
+                        fp.print(x);
+                    }
                 }
             }
             
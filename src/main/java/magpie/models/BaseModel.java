@@ -1,13 +1,14 @@
 package magpie.models;
 
-import magpie.Magpie;
 import magpie.attributes.selectors.BaseAttributeSelector;
 import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.data.utilities.filters.BaseDatasetFilter;
 import magpie.data.utilities.normalizers.BaseDatasetNormalizer;
 import magpie.models.interfaces.ExternalModel;
+import magpie.models.interfaces.IncrementalModel;
 import magpie.models.regression.AbstractRegressionModel;
+import magpie.models.utility.MultiModelUtility;
 import magpie.statistics.performance.BaseStatistics;
 import magpie.user.CommandHandler;
 import magpie.utility.UtilityOperations;
@@ -36,6 +37,9 @@ import java.util.concurrent.*;
  * - Print detailed and simple descriptions of the model
  * </ul>
  * 
+ * <p>Models that can be updated with new training data (see {@linkplain IncrementalModel})
+ * must also implement {@linkplain #update_protected(magpie.data.Dataset) }.
+ * 
  * <p><b><u>Implemented Commands:</u></b>
  *
  * <command><p><b>clone</b> - Create a copy of this model</command>
@@ -43,6 +47,11 @@ import java.util.concurrent.*;
  * <command><p><b>train $&lt;dataset&gt;</b> - Train model using measured class values 
  * <br><pr><i>dataset</i>: Dataset used to train this model</command>
  * 
+ * <command><p><b>update $&lt;dataset&gt;</b> - Update a trained model with 
+ * additional training entries. Only available for models that support
+ * incremental training.
+ * <br><pr><i>dataset</i>: Dataset containing the new training entries</command>
+ * 
  * <command><p><b>output = crossvalidate $&lt;dataset> [&lt;folds>]</b> - 
  * Use k-fold cross-validation to assess model performance.
  * <br><pr><i>dataset</i>: Dataset to use for cross validation
@@ -297,23 +306,19 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
         // Create an empty dataset holding model test results
         Dataset testResults = data.emptyClone();
 
-        // Set NThreads to 1 so no subthreads spawn threads
-        int originalNThreads = Magpie.NThreads;
-        Magpie.NThreads = 1;
-
-        // Split random seeds into partitions for each thread
+        // Split random seeds into partitions for each thread. Each partition
+        //  is evaluated with a single thread, so that models being tested
+        //  do not launch competing threads
+        int nThreads = MultiModelUtility.getNThreads();
         List<List<Long>> threadPartitions = UtilityOperations.
-                partitionList(randomSeeds, originalNThreads);
+                partitionList(randomSeeds, nThreads);
 
-        // Prepare the executable service
-        ExecutorService service = Executors.newFixedThreadPool(originalNThreads);
-        List<Future<List<Dataset>>> futures = new LinkedList<>();
-
-        // Make threads to run the test
+        // Make tasks to run the test
+        List<Callable<List<Dataset>>> tasks = new ArrayList<>(nThreads);
         final double finalTestFraction = testFraction;
         final Dataset finalDataset = data;
         final BaseModel finalModel = this;
-        for (int i=0; i<originalNThreads; i++) {
+        for (int i=0; i<nThreads; i++) {
             final List<Long> mySeeds = threadPartitions.get(i);
 
             Callable<List<Dataset>> to_run = new Callable<List<Dataset>>() {
@@ -349,19 +354,12 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
                 }
             };
 
-            // Submit it
-            futures.add(service.submit(to_run));
+            tasks.add(to_run);
         }
 
-        // Collect the test results
-        service.shutdown();
-        for (Future<List<Dataset>> future : futures) {
-            try {
-                List<Dataset> results = future.get();
-                testResults.combine(results);
-            } catch (ExecutionException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+        // Run the tasks, and collect the test results
+        for (List<Dataset> results : MultiModelUtility.evaluateInParallel(tasks)) {
+            testResults.combine(results);
         }
 
         // Compute the statistics
@@ -374,9 +372,6 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
                 + " using %d entries.",
                 100 * testFraction, 100 * (1 - testFraction), nRepeats, data.NEntries());
 
-        // Reset the thread count
-        Magpie.NThreads = originalNThreads;
-
         return testResults;
     }
 
@@ -488,6 +483,56 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
         }
     }
     
+    /**
+     * Update a trained model with additional training data, without re-training
+     * on the original training set. Only available for models that 
+     * implement {@linkplain IncrementalModel}.
+     * 
+     * <p>The filter, normalizer, and attribute selector are applied to the
+     * new data but are not re-trained, so that the new data are transformed in 
+     * the same way as the original training set. Training statistics are not
+     * updated.
+     * 
+     * @param data Dataset containing the new training entries. Will not be modified
+     */
+    public void update(Dataset data) {
+        // Check whether this model can be updated
+        if (! (this instanceof IncrementalModel)) {
+            throw new UnsupportedOperationException("Model does not support incremental training");
+        }
+        if (! isTrained()) {
+            throw new RuntimeException("Model not yet trained");
+        }
+        if (! ((IncrementalModel) this).isUpdateable()) {
+            throw new UnsupportedOperationException("Model cannot be updated. Retrain it instead.");
+        }
+        if (! Arrays.equals(AttributeNames, data.getAttributeNames())) {
+            throw new RuntimeException("Attribute names are different.");
+        }
+        
+        // Gather only the entries that have measured classes. Work on copies,
+        //  so that the original data are not changed
+        Dataset trainingData = data.getTrainingExamples().clone();
+        
+        // Apply the filter, normalizer, and attribute selector
+        if (Filter != null) {
+            Filter.filter(trainingData);
+        }
+        if (trainingData.NEntries() == 0) {
+            return;
+        }
+        if (Normalizer != null) {
+            Normalizer.normalize(trainingData);
+        }
+        if (AttributeSelector != null) {
+            AttributeSelector.run(trainingData);
+        }
+        
+        // Update the model
+        update_protected(trainingData);
+        TrainTime = new Date();
+    }
+    
     /**
      * Run a model on provided data. Results will be stored as the predicted
      *  class variable.
@@ -511,44 +556,27 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
         }
 
         // Test if run will be parallel
-        if (Magpie.NThreads > 1 && runData.NEntries() > Magpie.NThreads) {
-            // Original thread count
-            int originalNThreads = Magpie.NThreads;
-
-            // Make sure any children of this model don't launch competing threads
-            Magpie.NThreads = 1;
-
+        int nThreads = MultiModelUtility.getNThreads();
+        if (nThreads > 1 && runData.NEntries() > nThreads) {
             // Split data for threads
-            Dataset[] threadData = runData.splitForThreading(originalNThreads);
+            Dataset[] threadData = runData.splitForThreading(nThreads);
 
-            // Launch threads
-            ExecutorService service = Executors.newFixedThreadPool(originalNThreads);
-            List<Future> futures = new ArrayList<>(originalNThreads);
-            for (int i=0; i<originalNThreads; i++) {
+            // Run each part with its own copy of the model. Each part gets a
+            //  budget of one thread, so children of this model don't launch competing threads
+            List<Callable<Void>> tasks = new ArrayList<>(nThreads);
+            for (int i=0; i<nThreads; i++) {
                 final Dataset part = threadData[i];
                 final BaseModel model = i == 0 ? this : clone();
-                Runnable thread = new Runnable() {
+                tasks.add(new Callable<Void>() {
                     @Override
-                    public void run() {
+                    public Void call() throws Exception {
                         model.run(part);
                         model.done();
+                        return null;
                     }
-                };
-                futures.add(service.submit(thread));
+                });
             }
-
-            // Check that each thread finished
-            service.shutdown();
-            for (Future future : futures) {
-                try {
-                    future.get();
-                } catch (ExecutionException | InterruptedException e) {
-                    throw new RuntimeException("Thread failed due to: " + e.getMessage());
-                }
-            }
-
-            // Restore parallelism
-            Magpie.NThreads = originalNThreads;
+            MultiModelUtility.evaluateInParallel(tasks);
         } else {
             // Perform normalization, if needed
             if (Normalizer != null) {
@@ -616,6 +644,17 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
      * @param TrainData Training data
      */
     abstract public void run_protected(Dataset TrainData);
+    
+    /**
+     * Update a model with additional training data. Only called for models that
+     * implement {@linkplain IncrementalModel}.
+     * @param TrainData New training data. Has already been filtered, normalized,
+     * and run through the attribute selector
+     * @see #update(magpie.data.Dataset) 
+     */
+    protected void update_protected(Dataset TrainData) {
+        throw new UnsupportedOperationException("Model does not support incremental training");
+    }
 
     @Override
     public String about() {
@@ -794,6 +833,14 @@ abstract public class BaseModel implements java.io.Serializable, java.lang.Clone
                 Dataset Data = (Dataset) command.get(1);
                 train(Data);
             } break;
+            case "update": {
+                // Usage: update ${dataset}
+                if (command.size() < 2 || ! (command.get(1) instanceof Dataset)) {
+                    throw new IllegalArgumentException("Usage: update ${dataset}");
+                }
+                Dataset Data = (Dataset) command.get(1);
+                update(Data);
+            } break;
             case "crossvalidate": case "cv": case "cross": {
                 // Usage: crossvalidate $<dataset> [<folds/split = 10>] [<nrepeats = 100>]
                 Dataset data;
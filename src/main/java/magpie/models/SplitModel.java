@@ -1,5 +1,6 @@
 package magpie.models;
 
+import magpie.Magpie;
 import magpie.data.Dataset;
 import magpie.data.utilities.splitters.BaseDatasetSplitter;
 import magpie.models.interfaces.MultiModel;
@@ -11,6 +12,7 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Abstract class for a model that splits the dataset and trains
@@ -20,7 +22,11 @@ import java.util.*;
  * <p><b><u>How to Use a SplitModel</u></b>
  * 
  * <p>SplitModels work by first partitioning a Dataset using a {@linkplain BaseDatasetSplitter}
- * and then training several models 
+ * and then training several models. The submodels are independent, so they
+ * are trained and run in parallel if {@linkplain Magpie#NThreads} is greater than 1,
+ * using {@linkplain MultiModelUtility#evaluateInParallel(java.util.List) }.
+ * The time spent training and running each submodel is listed in the 
+ * description of the model.
  * 
  * <usage><p><b>Usage</b>: *No options to set*</usage>
  * 
@@ -74,11 +80,19 @@ abstract public class SplitModel extends BaseModel implements MultiModel {
      * Model used to if a model template for a certain split is not defined
      */
     protected BaseModel GenericModel = null;
+    /** Time spent training each submodel (ms) */
+    protected long[] SubmodelTrainTime = new long[0];
+    /** Total time spent running each submodel (ms) */
+    protected long[] SubmodelRunTime = new long[0];
 
     @Override public SplitModel clone() {
         SplitModel x;
         x = (SplitModel) super.clone();
         x.Partitioner = Partitioner.clone();
+        if (SubmodelTrainTime != null) {
+            x.SubmodelTrainTime = SubmodelTrainTime.clone();
+            x.SubmodelRunTime = SubmodelRunTime.clone();
+        }
         x.Model = new ArrayList<>(NModels());
         for (int i=0; i<NModels(); i++) {
             x.Model.add(Model.get(i) != null ? Model.get(i).clone() : null);
@@ -169,6 +183,98 @@ abstract public class SplitModel extends BaseModel implements MultiModel {
         }
     }
     
+    /**
+     * Partition a dataset into the subsets used by each submodel. 
+     * 
+     * <p>Each subset is a new dataset that holds links to the entries of the 
+     * original dataset, so that predictions made for the subset are stored in 
+     * the original entries. The entries themselves are not copied, but each 
+     * subset does hold its own list of entries.
+     * @param data Dataset to be partitioned
+     * @param label Label of each entry
+     * @param nSplits Number of splits
+     * @return Subset for each split
+     */
+    protected List<Dataset> partitionData(Dataset data, int[] label, int nSplits) {
+        // Count the number of entries in each split
+        int[] count = new int[nSplits];
+        for (int l : label) {
+            count[l]++;
+        }
+        
+        // Get the indices of the entries in each split
+        int[][] indices = new int[nSplits][];
+        for (int s=0; s<nSplits; s++) {
+            indices[s] = new int[count[s]];
+        }
+        int[] pos = new int[nSplits];
+        for (int e=0; e<label.length; e++) {
+            indices[label[e]][pos[label[e]]++] = e;
+        }
+        
+        // Create the subsets
+        List<Dataset> splitData = new ArrayList<>(nSplits);
+        for (int s=0; s<nSplits; s++) {
+            splitData.add(data.getSubset(indices[s]));
+        }
+        return splitData;
+    }
+    
+    /**
+     * Train or run each submodel on its subset of the data. Submodels are 
+     * evaluated in parallel if more than one thread is available
+     * (see {@linkplain MultiModelUtility#evaluateInParallel(java.util.List) }).
+     * @param splitData Subset of data for each submodel
+     * @param train Whether to train (true) or run (false) the submodels
+     */
+    protected void evaluateSubmodels(final List<Dataset> splitData, final boolean train) {
+        // Prepare the task for each submodel with data
+        List<Callable<Long>> tasks = new ArrayList<>(splitData.size());
+        List<Integer> active = new ArrayList<>(splitData.size());
+        for (int i=0; i<splitData.size(); i++) {
+            final BaseModel model = Model.get(i);
+            final Dataset data = splitData.get(i);
+            if (data.NEntries() == 0) {
+                continue;
+            }
+            active.add(i);
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long startTime = System.currentTimeMillis();
+                    if (train) {
+                        model.train(data, false);
+                    } else {
+                        model.run(data);
+                    }
+                    return System.currentTimeMillis() - startTime;
+                }
+            });
+        }
+        
+        // Run the tasks
+        List<Long> results = MultiModelUtility.evaluateInParallel(tasks);
+        long[] times = new long[splitData.size()];
+        for (int i=0; i<active.size(); i++) {
+            times[active.get(i)] = results.get(i);
+        }
+        
+        // Store the timing information
+        synchronized (this) {
+            if (train) {
+                SubmodelTrainTime = times;
+                SubmodelRunTime = new long[times.length];
+            } else {
+                if (SubmodelRunTime == null || SubmodelRunTime.length != times.length) {
+                    SubmodelRunTime = new long[times.length];
+                }
+                for (int i=0; i<times.length; i++) {
+                    SubmodelRunTime[i] += times[i];
+                }
+            }
+        }
+    }
+    
     @Override 
     protected void train_protected(Dataset TrainingData) {
         // Get the desired labels
@@ -179,13 +285,7 @@ abstract public class SplitModel extends BaseModel implements MultiModel {
         int nSplits = NumberUtils.max(label) + 1;
         
         // Create subsets
-        List<Dataset> splitData = new ArrayList<>(nSplits);
-        for (int s=0; s<nSplits; s++) {
-            splitData.add(TrainingData.emptyClone());
-        }
-        for (int e=0; e<label.length; e++) {
-            splitData.get(label[e]).addEntry(TrainingData.getEntry(e));
-        }
+        List<Dataset> splitData = partitionData(TrainingData, label, nSplits);
         
         // Train the submodels
         setNumberOfModels(splitData.size());
@@ -193,9 +293,8 @@ abstract public class SplitModel extends BaseModel implements MultiModel {
         for (int i=0; i<splitData.size(); i++) {
             if (splitData.get(i).NEntries() == 0)
                 System.err.println("WARNING: No entries provided to train submodel #" + i);
-            else
-                Model.get(i).train(splitData.get(i), false);
         }
+        evaluateSubmodels(splitData, true);
         trained=true; 
     }
     
@@ -207,25 +306,16 @@ abstract public class SplitModel extends BaseModel implements MultiModel {
         int nSplits = NumberUtils.max(label) + 1;
         
         // Create subsets
-        List<Dataset> splitData = new ArrayList<>(nSplits);
-        for (int s=0; s<nSplits; s++) {
-            splitData.add(Data.emptyClone());
-        }
-        for (int e=0; e<label.length; e++) {
-            splitData.get(label[e]).addEntry(Data.getEntry(e));
-        }
+        List<Dataset> splitData = partitionData(Data, label, nSplits);
 		
 		// Run the models
         checkModelCount(splitData.size());
         for (int i = 0; i < splitData.size(); i++) {
-            if (splitData.get(i).NEntries() > 0) {
-                if (Model.get(i).isTrained()) {
-                    Model.get(i).run(splitData.get(i));
-                } else {
-                    throw new Error("ERROR: Submodel #" + i + "has not yet been trained");
-                }
+            if (splitData.get(i).NEntries() > 0 && ! Model.get(i).isTrained()) {
+                throw new Error("ERROR: Submodel #" + i + "has not yet been trained");
             }
         }
+        evaluateSubmodels(splitData, false);
     }
 
     @Override
@@ -269,6 +359,11 @@ abstract public class SplitModel extends BaseModel implements MultiModel {
             String[] submodel = getModel(i).printDescription(htmlFormat).split("\n");
             submodel[0] = splitNames.get(i) + ": " + submodel[0];
             output.addAll(Arrays.asList(submodel));
+            if (SubmodelTrainTime != null && i < SubmodelTrainTime.length) {
+                output.add(String.format("%s: Training time: %d ms, Total run time: %d ms",
+                        splitNames.get(i), SubmodelTrainTime[i], 
+                        i < SubmodelRunTime.length ? SubmodelRunTime[i] : 0));
+            }
         }
         
         return output;
@@ -10,6 +10,8 @@ import java.util.zip.DeflaterInputStream;
 import java.util.zip.InflaterOutputStream;
 import magpie.data.Dataset;
 import magpie.models.interfaces.ExternalModel;
+import magpie.models.interfaces.ThreadSafeModel;
+import magpie.models.utility.ExternalModelConnectionPool;
 import magpie.models.utility.ExternalModelUtility;
 import magpie.utility.UtilityOperations;
 
@@ -37,10 +39,18 @@ import magpie.utility.UtilityOperations;
  * <a href="http://scikit-learn.org/dev/tutorial/basic/tutorial.html#model-persistence">
  * this tutorial</a> for how to save Scikit-Learn objects.
  * </usage>
+ * 
+ * <command><p><b>workers &lt;number></b> - Set the number of Python processes used to run the model
+ * <br><pr><i>number</i>: Number of workers. Large datasets are split between
+ * workers, and each worker can handle a separate request (default: 1)</command>
+ * 
+ * <command><p><b>protocol &lt;type></b> - Set how data is sent to the Python server
+ * <br><pr><i>type</i>: Either "binary" (default) or "text"</command>
  *
  * @author Logan Ward
  */
-public class ScikitLearnClassifier extends BaseClassifier implements ExternalModel {
+public class ScikitLearnClassifier extends BaseClassifier implements ExternalModel,
+        ThreadSafeModel {
     /**
      * Scikit-learn model. This is just the the pickle file as a char array that
      * has been split into chunks
@@ -66,6 +76,18 @@ public class ScikitLearnClassifier extends BaseClassifier implements ExternalMod
      * Whether to print output from python stdout to screen
      */
     public boolean Debug = false;
+    /**
+     * Number of worker processes used by the server
+     */
+    private int NWorkers = 1;
+    /**
+     * Whether to send data to the server as plain text, rather than binary
+     */
+    private boolean TextProtocol = false;
+    /**
+     * Persistent connections to the server
+     */
+    private transient ExternalModelConnectionPool Connections;
 
     @Override
     public void close() throws Exception {
@@ -74,6 +96,10 @@ public class ScikitLearnClassifier extends BaseClassifier implements ExternalMod
     
     @Override
     public void closeServer() {
+        if (Connections != null) {
+            Connections.close();
+            Connections = null;
+        }
         if (serverIsRunning()) {
             ScikitServer.destroy();
         }
@@ -85,6 +111,7 @@ public class ScikitLearnClassifier extends BaseClassifier implements ExternalMod
         x.ScikitModel = new LinkedList<>(ScikitModel);
         x.ScikitServer = null;
         x.Port = Integer.MIN_VALUE;
+        x.Connections = null;
         return x;
     }
 
@@ -117,6 +144,45 @@ public class ScikitLearnClassifier extends BaseClassifier implements ExternalMod
         return Port;
     }
 
+    @Override
+    public int getNumberOfWorkers() {
+        return Math.max(1, NWorkers);
+    }
+
+    /**
+     * Set the number of Python processes used to run the model. Each
+     * process holds a copy of the model, and can evaluate a separate request.
+     * @param number Number of workers
+     */
+    public void setNumberOfWorkers(int number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("Must have at least one worker");
+        }
+        if (number != getNumberOfWorkers()) {
+            closeServer();
+        }
+        this.NWorkers = number;
+    }
+
+    @Override
+    public boolean usesBinaryProtocol() {
+        return ! TextProtocol;
+    }
+
+    /**
+     * Set whether to send data to the Python server in binary format,
+     * or as plain text.
+     * @param binary Whether to use the binary protocol
+     */
+    public void setUseBinaryProtocol(boolean binary) {
+        this.TextProtocol = ! binary;
+    }
+
+    @Override
+    public ExternalModelConnectionPool getConnectionPool() {
+        return Connections;
+    }
+
     /**
      * Define how well model is compressed after training.
      * 
@@ -189,10 +255,12 @@ public class ScikitLearnClassifier extends BaseClassifier implements ExternalMod
         // Start the process
         ScikitServer = new ProcessBuilder("python", 
                 scriptFile.getCanonicalPath(),
-                "-classifier").start();
+                "-classifier",
+                "-workers", Integer.toString(getNumberOfWorkers())).start();
         
         // Launch the server
         Port = ExternalModelUtility.initializeServer(this, Debug);
+        Connections = new ExternalModelConnectionPool(Port, getNumberOfWorkers());
     }
 
     @Override
@@ -226,6 +294,48 @@ public class ScikitLearnClassifier extends BaseClassifier implements ExternalMod
     }
 
 
+    @Override
+    public Object runCommand(List<Object> Command) throws Exception {
+        if (Command.isEmpty()) {
+            return super.runCommand(Command);
+        }
+        String action = Command.get(0).toString().toLowerCase();
+        switch (action) {
+            case "workers": {
+                int number;
+                try {
+                    if (Command.size() != 2) {
+                        throw new Exception();
+                    }
+                    number = Integer.parseInt(Command.get(1).toString());
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Usage: workers <number>");
+                }
+                setNumberOfWorkers(number);
+                return null;
+            }
+            case "protocol": {
+                if (Command.size() != 2) {
+                    throw new IllegalArgumentException("Usage: protocol <binary|text>");
+                }
+                String type = Command.get(1).toString().toLowerCase();
+                switch (type) {
+                    case "binary":
+                        setUseBinaryProtocol(true);
+                        break;
+                    case "text":
+                        setUseBinaryProtocol(false);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Protocol not recognized: " + type);
+                }
+                return null;
+            }
+            default:
+                return super.runCommand(Command);
+        }
+    }
+
     @Override
     protected String printModel_protected() {
         return String.format("Scikit learn model");
@@ -1,13 +1,16 @@
 package magpie.models.classification;
 
 import magpie.data.Dataset;
+import magpie.models.interfaces.IncrementalModel;
 import magpie.models.interfaces.WekaModel;
 import magpie.user.CommandHandler;
+import magpie.utility.WekaInstanceAdapter;
 import magpie.utility.WekaUtility;
 import magpie.utility.interfaces.Citable;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.tuple.Pair;
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Instances;
 
 import java.util.List;
@@ -23,10 +26,14 @@ import java.util.List;
  * <br><pr><i>classifier options</i>: Any options for that model. (see 
  * <a href="http://weka.sourceforge.net/doc.dev/">Weka Javadoc</a> for these options)</usage>
  * 
+ * <p>Models that implement Weka's {@linkplain UpdateableClassifier} interface
+ * (e.g., bayes.NaiveBayesUpdateable) can be updated with new training data.
+ * 
  * @author Logan Ward
  * @version 0.1
  */
-public class WekaClassifier extends BaseClassifier implements WekaModel, Citable  {
+public class WekaClassifier extends BaseClassifier implements WekaModel, Citable,
+        IncrementalModel {
     /** Link to Weka-based model */
     public AbstractClassifier Model;
     /** Whether model type has been defined */
@@ -35,6 +42,8 @@ public class WekaClassifier extends BaseClassifier implements WekaModel, Citable
     protected String Model_Type;
     /** Options supplied when instantiating Model */
     protected String[] Model_Options;
+    /** Tool used to convert entries to Weka format. Created during training */
+    protected WekaInstanceAdapter Adapter;
 
     /** Create a Weka model with a specified model and options
      * 
@@ -118,6 +127,7 @@ public class WekaClassifier extends BaseClassifier implements WekaModel, Citable
         try {
             Instances wekadata = TrainingData.transferToWeka(true, true);
             Model.buildClassifier(wekadata); 
+            Adapter = new WekaInstanceAdapter(wekadata);
             TrainingData.restoreAttributes(wekadata);
         }
         catch (Exception e) { 
@@ -125,15 +135,42 @@ public class WekaClassifier extends BaseClassifier implements WekaModel, Citable
         }
     }
            
+    @Override
+    public boolean isUpdateable() {
+        return Model instanceof UpdateableClassifier && Adapter != null;
+    }
+
+    @Override
+    protected void update_protected(Dataset TrainData) {
+        try {
+            WekaUtility.updateWekaModel(Model, Adapter.getHeader(), TrainData, true);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+           
     @Override public void run_protected(Dataset TestData) {
         try {
-            Instances wekadata = TestData.transferToWeka(true, true);
             double[][] probs = new double[TestData.NEntries()][TestData.NClasses()];
-            for (int i = 0; i < wekadata.numInstances(); i++) {
-                probs[i] = Model.distributionForInstance(wekadata.instance(i));
+            if (Adapter != null) {
+                // Convert each entry without copying the whole dataset
+                if (! Adapter.isCompatible(TestData)) {
+                    throw new Exception("Dataset has wrong number of attributes");
+                }
+                for (int i = 0; i < TestData.NEntries(); i++) {
+                    probs[i] = Model.distributionForInstance(
+                            Adapter.getInstance(TestData.getEntry(i)));
+                }
+            } else {
+                Instances wekadata = TestData.transferToWeka(true, true);
+                for (int i = 0; i < wekadata.numInstances(); i++) {
+                    probs[i] = Model.distributionForInstance(wekadata.instance(i));
+                }
+                TestData.restoreAttributes(wekadata);
             }
             TestData.setClassProbabilities(probs);
-            TestData.restoreAttributes(wekadata);
         } catch (Exception e) { 
             System.err.println("Error when training WekaClassifier:");
             e.printStackTrace();
@@ -3,6 +3,7 @@ package magpie.models.interfaces;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import magpie.models.utility.ExternalModelConnectionPool;
 
 /**
  * Interface for models that run their model in a separate thread and communicate
@@ -39,6 +40,25 @@ public interface ExternalModel extends AutoCloseable {
      */
     public int getPort();
     
+    /**
+     * Get the number of worker processes used by the server
+     * @return Number of workers, each of which can handle one request at a time
+     */
+    public int getNumberOfWorkers();
+    
+    /**
+     * Whether to communicate with the server using the binary protocol. 
+     * Otherwise, data is sent as plain text.
+     * @return Whether to use binary protocol
+     */
+    public boolean usesBinaryProtocol();
+    
+    /**
+     * Get the persistent connections to this model's server
+     * @return Connection pool. If server is not running, this is meaningless
+     */
+    public ExternalModelConnectionPool getConnectionPool();
+    
     /**
      * Set a command to the model server that we are done with it.
      * 
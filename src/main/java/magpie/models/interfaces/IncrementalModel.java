@@ -0,0 +1,39 @@
+package magpie.models.interfaces;
+
+import magpie.data.Dataset;
+
+/**
+ * Model that can be updated with new training data without re-training on
+ * the original training set.
+ * 
+ * <p>Updating a model with new entries should produce (nearly) the same model 
+ * as re-training it on the original and new entries together, though some
+ * models only update part of the model. For example, a model might keep the 
+ * same terms but update the coefficients of each. See the documentation of 
+ * each implementation for details.
+ * 
+ * <p>Any filtering, normalization, or attribute selection is applied to
+ * the new entries exactly as it was when the model was trained. The filter,
+ * normalizer, and attribute selector are not re-trained. Use 
+ * {@linkplain magpie.models.BaseModel#update(magpie.data.Dataset) } 
+ * to perform the update.
+ * 
+ * @author Logan Ward
+ */
+public interface IncrementalModel {
+    
+    /**
+     * Whether this model can currently be updated. Models typically cannot 
+     * be updated if they have not been trained, or were trained by a version 
+     * of Magpie that did not store the information needed for updates.
+     * @return Whether {@linkplain #update(magpie.data.Dataset) } can be called
+     */
+    public boolean isUpdateable();
+    
+    /**
+     * Update the model using additional training entries.
+     * @param newEntries Dataset containing the new training entries. Entries 
+     * without a measured class are ignored.
+     */
+    public void update(Dataset newEntries);
+}
@@ -0,0 +1,15 @@
+package magpie.models.interfaces;
+
+/**
+ * Marks models that can be run by several threads at the same time.
+ * 
+ * <p>Models with this interface do not modify any internal state while 
+ * running, so a single instance can be shared between threads. Other models 
+ * (e.g., some Weka models) must be cloned so that each thread has its own 
+ * copy, as is done by {@linkplain magpie.user.server.ModelPackage}.
+ * 
+ * @author Logan Ward
+ */
+public interface ThreadSafeModel {
+    
+}
@@ -1,12 +1,28 @@
 package magpie.models.regression;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.models.regression.nonlinear.SimpleLinearModelExample;
+import magpie.models.utility.MultiModelUtility;
 import org.apache.commons.math3.analysis.MultivariateFunction;
-import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.exception.MaxCountExceededException;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.optim.InitialGuess;
 import org.apache.commons.math3.optim.MaxEval;
 import org.apache.commons.math3.optim.MaxIter;
@@ -16,6 +32,7 @@ import org.apache.commons.math3.optim.nonlinear.scalar.MultivariateOptimizer;
 import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
 import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.PowellOptimizer;
 import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.util.Pair;
 
 /**
  * Abstract class for models that fit terms using non-linear regression. Implementations of
@@ -31,7 +48,19 @@ import org.apache.commons.math3.stat.StatUtils;
  * 
  * <p> A simple example of these operations is shown in the source code of {@link SimpleLinearModelExample}.
  * 
- * <p>Currently, this code uses Powell's algorithm as implemented in Apache Common's Math Library: {@link PowellOptimizer}
+ * <p>Coefficients are fit using the Levenberg-Marquardt algorithm 
+ * ({@link LevenbergMarquardtOptimizer}), with derivatives of the function with
+ * respect to the coefficients computed using finite differences. Powell's 
+ * algorithm ({@link PowellOptimizer}), which does not require derivatives, 
+ * is also available. Both are implemented in Apache Common's Math Library. 
+ * 
+ * <p>The function is evaluated for blocks of entries at a time (see 
+ * {@linkplain #function(double[][], int, double[], double[]) }), and blocks are
+ * evaluated in parallel if {@linkplain MultiModelUtility#getNThreads() } is 
+ * greater than 1. The fit can also be started from several initial guesses,
+ * which are run concurrently. The best fit is kept. If the function is not thread safe
+ * (see {@linkplain #isFunctionThreadSafe() }), blocks and starting points
+ * are both evaluated serially.
  * 
  * <p><b><u>Implemented Commands:</u></b>
  * 
@@ -41,6 +70,14 @@ import org.apache.commons.math3.stat.StatUtils;
  * 
  * <command><p><b>nonlinear maxiter &lt;maxiter></b> - Set maximum number of iterations for fitting routines
  * <br><pr><i>maxiter</i>: Maximum number of iterations</command>
+ * 
+ * <command><p><b>nonlinear method &lt;method></b> - Set the algorithm used to fit coefficients
+ * <br><pr><i>method</i>: Either "lm" (Levenberg-Marquardt, default) or "powell"</command>
+ * 
+ * <command><p><b>nonlinear starts &lt;number></b> - Set the number of starting points 
+ * for the fitting algorithm
+ * <br><pr><i>number</i>: Number of starting points. The first is the initial 
+ * guess, the others are randomly perturbed from the initial guess.</command>
  *  
  * @author Logan Ward
  * @version 1.0
@@ -60,6 +97,16 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
     private double[] FittedCoefficients;
     /** Whether program has been initialized (i.e. variables defined) */
     private boolean initialized = false;
+    /** Whether to fit using Powell's method. Otherwise, uses Levenberg-Marquardt. 
+     * Stored this way so that models saved before this option existed, which 
+     * are read with this field equal to false, use the same default as new models */
+    private boolean UsePowell = false;
+    /** Number of starting points for the fitting algorithm */
+    private int NStarts = 1;
+    /** Number of entries evaluated at the same time */
+    final static private int BlockSize = 1024;
+    /** Relative step size used when computing derivatives with finite differences */
+    final static private double DerivativeStep = Math.sqrt(Math.ulp(1.0));
 
     public AbstractNonlinearRegression() {
         this.InitialGuess = new LinkedList<>();
@@ -95,6 +142,27 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
     public int getMaxIter() {
         return MaxIter;
     }
+
+    /**
+     * Set whether to use the Levenberg-Marquardt algorithm to fit coefficients.
+     * @param useLM Whether to use Levenberg-Marquardt. If false, uses Powell's method
+     */
+    public void setUseLevenbergMarquardt(boolean useLM) {
+        this.UsePowell = ! useLM;
+    }
+
+    /**
+     * Set the number of starting points used when fitting coefficients. The
+     * first starting point is the initial guess, the others are perturbed 
+     * randomly from the initial guess.
+     * @param number Number of starting points
+     */
+    public void setNumberOfStarts(int number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("Must have at least one starting point");
+        }
+        this.NStarts = number;
+    }
     
     /**
      * Get the value of fitted coefficient
@@ -114,23 +182,52 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
      *  the error between the equation described by the user as a function of the 
      *  fitting coefficients.
      * 
-     * @param Data Dataset used to calculate the error
+     * @param blocks Data used to calculate the error
+     * @param service Executor used to evaluate blocks in parallel. Null to run serially
      * @return Multivariate function as described above
      */
-    protected MultivariateFunction makeObjectiveFunction(final Dataset Data) {
+    private MultivariateFunction makeObjectiveFunction(final List<DataBlock> blocks,
+            final ExecutorService service) {
+        final int nEntries = countEntries(blocks);
         return new MultivariateFunction() {
             @Override
             public double value(double[] point) {
-                double[] sqerror = new double[Data.NEntries()];
-                for (int i=0; i < Data.NEntries(); i++) {
-                    BaseEntry E = Data.getEntry(i);
-                    sqerror[i] = evaluateFunction(E, point) - E.getMeasuredClass();
-                    sqerror[i] *= sqerror[i];
+                double[] sqerror = new double[nEntries];
+                evaluateBlocks(blocks, point, sqerror, null, service);
+                for (DataBlock block : blocks) {
+                    for (int i=0; i<block.Count; i++) {
+                        int pos = block.Start + i;
+                        sqerror[pos] -= block.Measured[i];
+                        sqerror[pos] *= sqerror[pos];
+                    }
                 }
                 return StatUtils.mean(sqerror);
             }
         };
     }
+
+    /**
+     * Generate a function that computes the value of the user-defined function 
+     * for each entry, and its derivatives with respect to each fitting coefficient.
+     * Used by the Levenberg-Marquardt optimizer
+     * @param blocks Data used for fitting
+     * @param service Executor used to evaluate blocks in parallel. Null to run serially
+     * @return Function as described above
+     */
+    private MultivariateJacobianFunction makeJacobianFunction(final List<DataBlock> blocks,
+            final ExecutorService service) {
+        final int nEntries = countEntries(blocks);
+        return new MultivariateJacobianFunction() {
+            @Override
+            public Pair<RealVector, RealMatrix> value(RealVector point) {
+                double[] values = new double[nEntries];
+                double[][] jacobian = new double[nEntries][point.getDimension()];
+                evaluateBlocks(blocks, point.toArray(), values, jacobian, service);
+                return new Pair<RealVector, RealMatrix>(new ArrayRealVector(values, false),
+                        new Array2DRowRealMatrix(jacobian, false));
+            }
+        };
+    }
     
     /** 
      * Define which attributes are used by the function. This function is run a single time
@@ -242,16 +339,148 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
     abstract protected double function(double[] variables, double[] coeff);
 
     /**
-     * Evaluate the user-defined function.
-     * @param Entry Entry to be evaluated
+     * Evaluate the user-defined function for a block of entries. By default, 
+     * calls {@linkplain #function(double[], double[]) } for each entry. Override
+     * if the function can be computed faster for many entries at once.
+     * @param variables Values of attributes used as independent variables. 
+     * <code>variables[v][i]</code> is the value of variable v for entry i
+     * @param count Number of entries
+     * @param coeff Coefficients of equation
+     * @param output Array in which to store the value of the equation for each entry
+     */
+    protected void function(double[][] variables, int count, double[] coeff,
+            double[] output) {
+        double[] x = new double[variables.length];
+        for (int i=0; i<count; i++) {
+            for (int v=0; v<x.length; v++) {
+                x[v] = variables[v][i];
+            }
+            output[i] = function(x, coeff);
+        }
+    }
+    
+    /**
+     * Whether the user-defined function can be evaluated by several threads
+     * at the same time. If not, the function is always evaluated serially, 
+     * including when fitting from several starting points. 
+     * Override if your implementation of {@linkplain #function(double[], double[]) }
+     * uses shared state.
+     * @return Whether the function is thread safe. Default: true
+     */
+    protected boolean isFunctionThreadSafe() {
+        return true;
+    }
+    
+    /**
+     * Gather the values of the variables and measured class of a dataset
+     * into blocks of entries.
+     * @param data Dataset to be converted
+     * @return Data in blocks of at most {@linkplain #BlockSize} entries
+     */
+    private List<DataBlock> makeBlocks(Dataset data) {
+        List<DataBlock> output = new ArrayList<>(data.NEntries() / BlockSize + 1);
+        for (int start=0; start<data.NEntries(); start += BlockSize) {
+            int count = Math.min(BlockSize, data.NEntries() - start);
+            DataBlock block = new DataBlock(start, count, NVariables());
+            for (int i=0; i<count; i++) {
+                BaseEntry entry = data.getEntry(start + i);
+                for (int v=0; v<NVariables(); v++) {
+                    block.Variables[v][i] = entry.getAttribute(VariableIndices[v]);
+                }
+                block.Measured[i] = entry.getMeasuredClass();
+            }
+            output.add(block);
+        }
+        return output;
+    }
+    
+    /**
+     * Count the number of entries in a list of blocks
+     * @param blocks Blocks of entries
+     * @return Total number of entries
+     */
+    static private int countEntries(List<DataBlock> blocks) {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        DataBlock last = blocks.get(blocks.size() - 1);
+        return last.Start + last.Count;
+    }
+    
+    /**
+     * Evaluate the user-defined function, and (optionally) its derivatives 
+     * with respect to the coefficients, for many blocks of entries.
+     * @param blocks Blocks of entries to be evaluated
      * @param coeff Coefficients to use
-     * @return Value of the function for that entry
+     * @param values Array in which to store the value of the function for each entry
+     * @param jacobian Array in which to store derivatives with respect to each
+     * coefficient for each entry. Null if derivatives are not needed
+     * @param service Executor used to evaluate blocks in parallel. Null to run serially
      */
-    private double evaluateFunction(BaseEntry Entry, double[] coeff) {
-        double[] x = new double[NVariables()];
-        for (int i=0; i < NVariables(); i++) 
-            x[i] = Entry.getAttribute(VariableIndices[i]);
-        return function(x, coeff);
+    private void evaluateBlocks(List<DataBlock> blocks, final double[] coeff,
+            final double[] values, final double[][] jacobian, ExecutorService service) {
+        if (service == null || blocks.size() == 1) {
+            for (DataBlock block : blocks) {
+                evaluateBlock(block, coeff, values, jacobian);
+            }
+            return;
+        }
+        
+        // Evaluate blocks in parallel
+        List<Future<?>> futures = new ArrayList<>(blocks.size());
+        for (final DataBlock block : blocks) {
+            futures.add(service.submit(new Runnable() {
+                @Override
+                public void run() {
+                    evaluateBlock(block, coeff, values, jacobian);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("Function evaluation failed due to: " 
+                    + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Evaluate the user-defined function, and (optionally) its derivatives 
+     * with respect to the coefficients, for a single block of entries. Derivatives
+     * are computed using forward differences.
+     * @param block Block to be evaluated
+     * @param coeff Coefficients to use
+     * @param values Array in which to store the value of the function for each entry
+     * @param jacobian Array in which to store derivatives. Null if not needed
+     */
+    private void evaluateBlock(DataBlock block, double[] coeff, double[] values,
+            double[][] jacobian) {
+        double[] f = new double[block.Count];
+        function(block.Variables, block.Count, coeff, f);
+        System.arraycopy(f, 0, values, block.Start, block.Count);
+        if (jacobian == null) {
+            return;
+        }
+        
+        // Compute derivatives
+        double[] stepped = coeff.clone();
+        double[] fStep = new double[block.Count];
+        for (int c=0; c<coeff.length; c++) {
+            stepped[c] = coeff[c] + DerivativeStep * Math.max(Math.abs(coeff[c]), 1.0);
+            double step = stepped[c] - coeff[c];
+            function(block.Variables, block.Count, stepped, fStep);
+            for (int i=0; i<block.Count; i++) {
+                jacobian[block.Start + i][c] = (fStep[i] - f[i]) / step;
+            }
+            stepped[c] = coeff[c];
+        }
     }
     
     @Override
@@ -262,7 +491,7 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
         findVariableIndicies(TrainData);
         try {
             FittedCoefficients = fitFunction(TrainData);
-        } catch (TooManyEvaluationsException e) {
+        } catch (MaxCountExceededException e) {
             throw new Error("Maximum number of iterations exceeded.");
         }
         
@@ -277,9 +506,16 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
 
     @Override
     public void run_protected(Dataset TrainData) {
+        List<DataBlock> blocks = makeBlocks(TrainData);
         double[] result = new double[TrainData.NEntries()];
-        for (int i=0; i<TrainData.NEntries(); i++)
-            result[i] = evaluateFunction(TrainData.getEntry(i), FittedCoefficients);
+        ExecutorService service = createExecutor(blocks.size());
+        try {
+            evaluateBlocks(blocks, FittedCoefficients, result, null, service);
+        } finally {
+            if (service != null) {
+                service.shutdownNow();
+            }
+        }
         TrainData.setPredictedClasses(result);
     }
        
@@ -308,23 +544,121 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
     }
 
     /**
-     * Given a dataset, fit the coefficients
+     * Create an executor for evaluating blocks of entries in parallel.
+     * @param nBlocks Number of blocks to be evaluated
+     * @return Executor, or null if blocks should be evaluated serially
+     */
+    private ExecutorService createExecutor(int nBlocks) {
+        int nThreads = Math.min(MultiModelUtility.getNThreads(), nBlocks);
+        if (nThreads <= 1 || ! isFunctionThreadSafe()) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(nThreads);
+    }
+
+    /**
+     * Given a dataset, fit the coefficients. If more than one starting point
+     * is requested and the function is thread safe, fits from each starting 
+     * point are run concurrently.
      * @param TrainData Dataset to use for training
      * @return Fitted coefficients
-     * @throws TooManyEvaluationsException 
+     * @throws MaxCountExceededException If the maximum number of iterations is exceeded
      */
-    private double[] fitFunction(Dataset TrainData) throws TooManyEvaluationsException {
-        // Define the optimization problem
-        MultivariateOptimizer optimizer = new PowellOptimizer(1e-6, Double.MIN_VALUE);
-        InitialGuess init = new InitialGuess(getStartingPoint());
-        ObjectiveFunction objFunction = new ObjectiveFunction(makeObjectiveFunction(TrainData));
-        MaxIter maxIter = new MaxIter(MaxIter);
-        MaxEval maxEval = MaxEval.unlimited();
+    private double[] fitFunction(Dataset TrainData) throws MaxCountExceededException {
+        final List<DataBlock> blocks = makeBlocks(TrainData);
+        
+        // Generate starting points
+        double[] guess = getStartingPoint();
+        Random random = new Random(1);
+        List<double[]> starts = new ArrayList<>(Math.max(NStarts, 1));
+        for (int s=0; s<Math.max(NStarts, 1); s++) {
+            double[] start = guess.clone();
+            if (s > 0) {
+                for (int c=0; c<start.length; c++) {
+                    start[c] += random.nextGaussian() * Math.max(Math.abs(guess[c]), 1.0);
+                }
+            }
+            starts.add(start);
+        }
         
-        // Run the optimizer
-        PointValuePair result = optimizer.optimize(init, objFunction, 
-            GoalType.MINIMIZE, maxIter, maxEval);
-        return result.getPoint();
+        // Run the fits
+        List<PointValuePair> results;
+        if (isFunctionThreadSafe()) {
+            List<Callable<PointValuePair>> tasks = new ArrayList<>(starts.size());
+            for (final double[] start : starts) {
+                tasks.add(new Callable<PointValuePair>() {
+                    @Override
+                    public PointValuePair call() throws Exception {
+                        return fitFunction(blocks, start);
+                    }
+                });
+            }
+            results = MultiModelUtility.evaluateInParallel(tasks);
+        } else {
+            // Function uses shared state, so fits cannot run at the same time
+            results = new ArrayList<>(starts.size());
+            for (double[] start : starts) {
+                results.add(fitFunction(blocks, start));
+            }
+        }
+        
+        // Pick the best
+        PointValuePair best = null;
+        for (PointValuePair result : results) {
+            if (best == null || result.getValue() < best.getValue()) {
+                best = result;
+            }
+        }
+        return best.getPoint();
+    }
+    
+    /**
+     * Fit the coefficients from a single starting point
+     * @param blocks Data to use for training
+     * @param start Initial guess for coefficients
+     * @return Fitted coefficients, and the fitting error (lower is better)
+     * @throws MaxCountExceededException If the maximum number of iterations is exceeded
+     */
+    private PointValuePair fitFunction(List<DataBlock> blocks, double[] start) 
+            throws MaxCountExceededException {
+        ExecutorService service = createExecutor(blocks.size());
+        try {
+            if (! UsePowell) {
+                // Get the measured values
+                double[] measured = new double[countEntries(blocks)];
+                for (DataBlock block : blocks) {
+                    System.arraycopy(block.Measured, 0, measured, block.Start, block.Count);
+                }
+                
+                // Run the optimizer
+                LeastSquaresOptimizer.Optimum result = new LevenbergMarquardtOptimizer().optimize(
+                        new LeastSquaresBuilder()
+                                .start(start)
+                                .model(makeJacobianFunction(blocks, service))
+                                .target(measured)
+                                .maxIterations(MaxIter)
+                                .maxEvaluations(Integer.MAX_VALUE)
+                                .build());
+                double sse = result.getCost() * result.getCost();
+                return new PointValuePair(result.getPoint().toArray(), sse);
+            } else {
+                // Define the optimization problem
+                MultivariateOptimizer optimizer = new PowellOptimizer(1e-6, Double.MIN_VALUE);
+                InitialGuess init = new InitialGuess(start);
+                ObjectiveFunction objFunction = new ObjectiveFunction(
+                        makeObjectiveFunction(blocks, service));
+                MaxIter maxIter = new MaxIter(MaxIter);
+                MaxEval maxEval = MaxEval.unlimited();
+
+                // Run the optimizer
+                return optimizer.optimize(init, objFunction, 
+                    GoalType.MINIMIZE, maxIter, maxEval);
+            }
+        } finally {
+            if (service != null) {
+                service.shutdownNow();
+            }
+        }
     }
 
     @Override
@@ -367,9 +701,53 @@ public abstract class AbstractNonlinearRegression extends BaseRegression {
                 }
                 setMaxIterations(maxIters);
             } break;
+            case "method": {
+                String method;
+                try {
+                    method = Command.get(1).toString().toLowerCase();
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Usage: nonlinear method <lm|powell>");
+                }
+                switch (method) {
+                    case "lm": setUseLevenbergMarquardt(true); break;
+                    case "powell": setUseLevenbergMarquardt(false); break;
+                    default:
+                        throw new IllegalArgumentException("Usage: nonlinear method <lm|powell>");
+                }
+            } break;
+            case "starts": {
+                int nStarts;
+                try {
+                    nStarts = Integer.parseInt(Command.get(1).toString());
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Usage: nonlinear starts <number>");
+                }
+                setNumberOfStarts(nStarts);
+            } break;
             default:
                 throw new IllegalArgumentException("Nonlinear command not recognized: " + Action);
         }
         return null;
     }
+    
+    /**
+     * Holds the variables and measured class of a block of entries
+     */
+    static private class DataBlock {
+        /** Index of the first entry in this block */
+        final public int Start;
+        /** Number of entries in block */
+        final public int Count;
+        /** Value of each variable for each entry. [variable][entry] */
+        final public double[][] Variables;
+        /** Measured class of each entry */
+        final public double[] Measured;
+
+        public DataBlock(int start, int count, int nVariables) {
+            this.Start = start;
+            this.Count = count;
+            this.Variables = new double[nVariables][count];
+            this.Measured = new double[count];
+        }
+    }
 }
@@ -1,8 +1,10 @@
 package magpie.models.regression;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import magpie.data.Dataset;
 import magpie.models.BaseModel;
 import magpie.models.interfaces.MultiModel;
@@ -15,6 +17,10 @@ import org.apache.commons.math3.stat.StatUtils;
  * <p>Has the ability to return the variance in predictions between submodels, which 
  * can be used as a measure of their composite reliability.
  * 
+ * <p>Submodels are trained and run concurrently when {@linkplain magpie.Magpie#NThreads}
+ * is greater than 1. Each thread works on its own copy of the data, and the
+ * threads are divided evenly between the submodels being evaluated.
+ * 
  * <usage><p><b>Usage</b>: *No options to set*</usage>
  * 
  * <p><b><u>Implemented Commands:</u></b>
@@ -123,8 +129,25 @@ public class CompositeRegression extends BaseRegression implements MultiModel {
     @Override protected void train_protected(Dataset TrainData) {
         checkStatus();
         // Train each model individually
-        for (int i=0; i<NModels(); i++)
-            Model.get(i).train(TrainData, false);
+        if (MultiModelUtility.getNWorkers(NModels()) <= 1) {
+            for (int i=0; i<NModels(); i++)
+                Model.get(i).train(TrainData, false);
+            return;
+        }
+        
+        // Train several models at once, each on a copy of the data
+        final MultiModelUtility.ThreadCopies copies = MultiModelUtility.getThreadCopies(TrainData);
+        List<Callable<Void>> tasks = new ArrayList<>(NModels());
+        for (final BaseRegression model : Model) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    model.train(copies.get(), false);
+                    return null;
+                }
+            });
+        }
+        MultiModelUtility.evaluateInParallel(tasks);
     }
 
     @Override
@@ -154,19 +177,38 @@ public class CompositeRegression extends BaseRegression implements MultiModel {
     }
     
     /**
-     * Calculate the predicted class using each model
+     * Calculate the predicted class using each model.
+     * 
+     * <p>If multiple threads are available, several models are run at once.
      * @param Data Dataset to be evaluated
      * @return Predicted class from each model for each entry
      */
     public double[][] getEnsemblePredictions(Dataset Data) {
         checkStatus();
         double[][] output = new double[NModels()][];
-        for (int i=0; i<NModels(); i++) {
-            // Pass the parallelization options downward
-            Model.get(i).run(Data);
-            output[i] = Data.getPredictedClassArray();
+        if (MultiModelUtility.getNWorkers(NModels()) <= 1) {
+            for (int i=0; i<NModels(); i++) {
+                // Pass the parallelization options downward
+                Model.get(i).run(Data);
+                output[i] = Data.getPredictedClassArray();
+            }
+            return output;
         }
-        return output;
+        
+        // Run several models at once, each on a copy of the data
+        final MultiModelUtility.ThreadCopies copies = MultiModelUtility.getThreadCopies(Data);
+        List<Callable<double[]>> tasks = new ArrayList<>(NModels());
+        for (final BaseRegression model : Model) {
+            tasks.add(new Callable<double[]>() {
+                @Override
+                public double[] call() throws Exception {
+                    Dataset copy = copies.get();
+                    model.run(copy);
+                    return copy.getPredictedClassArray();
+                }
+            });
+        }
+        return MultiModelUtility.evaluateInParallel(tasks).toArray(output);
     }
     
     /**
@@ -0,0 +1,200 @@
+package magpie.models.regression;
+
+import java.util.List;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import magpie.models.interfaces.ThreadSafeModel;
+import magpie.user.CommandHandler;
+
+/**
+ * Linear regression with elastic-net regularization, fit using coordinate descent.
+ * The penalty can either be set directly, or chosen to produce a model with
+ * at most a certain number of terms. See {@linkplain ElasticNetSolver} for details.
+ *
+ * <usage><p><b>Usage</b>: [-l1_ratio &lt;ratio&gt;] [-lambda &lt;lambda&gt; | -maxterms &lt;terms&gt;]
+ * <br><pr><i>ratio</i>: Fraction of penalty on the L<sub>1</sub> norm of the coefficients
+ * (default: 1, LASSO)
+ * <br><pr><i>lambda</i>: Penalty parameter
+ * <br><pr><i>terms</i>: Maximum number of terms allowed in model. Penalty is set
+ * to the smallest value that produces a model with at most this many terms.
+ * <br>By default, the penalty is set to 10<sup>-3</sup> times the smallest
+ * penalty for which all coefficients are zero.</usage>
+ *
+ * @author Logan Ward
+ */
+public class ElasticNetRegression extends BaseRegression implements ThreadSafeModel {
+    /** Fraction of penalty placed on the L1 norm */
+    protected double L1Ratio = 1;
+    /** Penalty parameter. If negative, determined automatically */
+    protected double Lambda = -1;
+    /** Maximum number of terms. If negative, not used */
+    protected int MaxNumberTerms = -1;
+    /** Penalty parameter used in the current model */
+    protected double FittedLambda;
+    /** Intercept of the model */
+    protected double Intercept;
+    /** Indices of attributes with non-zero coefficients */
+    protected int[] Terms = new int[0];
+    /** Coefficients of each term */
+    protected double[] Coefficients = new double[0];
+    /** Names of attributes with non-zero coefficients */
+    protected String[] TermNames = new String[0];
+
+    @Override
+    public ElasticNetRegression clone() {
+        ElasticNetRegression x = (ElasticNetRegression) super.clone();
+        x.Terms = Terms.clone();
+        x.Coefficients = Coefficients.clone();
+        x.TermNames = TermNames.clone();
+        return x;
+    }
+
+    @Override
+    public void setOptions(List<Object> Options) throws Exception {
+        String[] words = CommandHandler.convertCommandToString(Options);
+        try {
+            int pos = 0;
+            while (pos < words.length) {
+                switch (words[pos].toLowerCase()) {
+                    case "-l1_ratio":
+                        setL1Ratio(Double.parseDouble(words[++pos]));
+                        break;
+                    case "-lambda":
+                        setLambda(Double.parseDouble(words[++pos]));
+                        break;
+                    case "-maxterms":
+                        setMaxNumberTerms(Integer.parseInt(words[++pos]));
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+                pos++;
+            }
+        } catch (Exception e) {
+            throw new IllegalArgumentException(printUsage());
+        }
+    }
+
+    @Override
+    public String printUsage() {
+        return "Usage: [-l1_ratio <ratio>] [-lambda <lambda> | -maxterms <terms>]";
+    }
+
+    /**
+     * Set the fraction of the penalty placed on the L1 norm of the coefficients.
+     * @param ratio Desired ratio. 1 is LASSO, 0 is ridge regression
+     */
+    public void setL1Ratio(double ratio) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("L1 ratio must be between 0 and 1");
+        }
+        this.L1Ratio = ratio;
+    }
+
+    /**
+     * Set the penalty parameter. Overrides any limit on the number of terms.
+     * @param lambda Desired penalty. Set to a negative number to determine
+     * the penalty automatically
+     */
+    public void setLambda(double lambda) {
+        this.Lambda = lambda;
+        if (lambda >= 0) {
+            this.MaxNumberTerms = -1;
+        }
+    }
+
+    /**
+     * Set the maximum number of terms in the model. Overrides any fixed penalty.
+     * @param maxTerms Maximum number of terms. Set to a negative number for no limit
+     */
+    public void setMaxNumberTerms(int maxTerms) {
+        this.MaxNumberTerms = maxTerms;
+        if (maxTerms >= 0) {
+            this.Lambda = -1;
+        }
+    }
+
+    /**
+     * @return Penalty parameter used when fitting the current model
+     */
+    public double getFittedLambda() {
+        return FittedLambda;
+    }
+
+    @Override
+    protected void train_protected(Dataset TrainData) {
+        ElasticNetSolver solver = new ElasticNetSolver(TrainData);
+        solver.setL1Ratio(L1Ratio);
+
+        // Fit the model
+        if (MaxNumberTerms >= 0) {
+            FittedLambda = solver.fitMaxTerms(MaxNumberTerms);
+        } else if (Lambda >= 0) {
+            // Follow the path to the desired penalty, for faster convergence
+            double maxLambda = solver.getMaxLambda();
+            if (Lambda < maxLambda) {
+                int nSteps = (int) Math.min(100, Math.ceil(10 * Math.log10(maxLambda / Lambda)));
+                for (double lambda : ElasticNetSolver.getLambdaGrid(maxLambda, Lambda / maxLambda, nSteps)) {
+                    solver.fit(lambda);
+                }
+            }
+            solver.fit(Lambda);
+            FittedLambda = Lambda;
+        } else {
+            double maxLambda = solver.getMaxLambda();
+            for (double lambda : ElasticNetSolver.getLambdaGrid(maxLambda, 1e-3, 100)) {
+                solver.fit(lambda);
+            }
+            FittedLambda = solver.getLambda();
+        }
+
+        // Store the results
+        Intercept = solver.getIntercept();
+        Terms = solver.getNonZeroAttributes();
+        double[] coeff = solver.getCoefficients();
+        Coefficients = new double[Terms.length];
+        TermNames = new String[Terms.length];
+        for (int i=0; i<Terms.length; i++) {
+            Coefficients[i] = coeff[Terms[i]];
+            TermNames[i] = TrainData.getAttributeName(Terms[i]);
+        }
+    }
+
+    @Override
+    public void run_protected(Dataset TrainData) {
+        for (BaseEntry entry : TrainData.getEntries()) {
+            double result = Intercept;
+            for (int i=0; i<Terms.length; i++) {
+                result += Coefficients[i] * entry.getAttribute(Terms[i]);
+            }
+            entry.setPredictedClass(result);
+        }
+    }
+
+    @Override
+    public int getNFittingParameters() {
+        return Terms.length + 1;
+    }
+
+    @Override
+    protected String printModel_protected() {
+        String output = "Class = " + String.format("%.5e", Intercept);
+        for (int i=0; i<Terms.length; i++) {
+            output += " + " + String.format("%.5e * %s", Coefficients[i], TermNames[i]);
+        }
+        return output + "\n";
+    }
+
+    @Override
+    public List<String> printModelDescriptionDetails(boolean htmlFormat) {
+        List<String> output = super.printModelDescriptionDetails(htmlFormat);
+
+        output.add("L1 ratio: " + L1Ratio);
+        if (MaxNumberTerms >= 0) {
+            output.add("Maximum number of terms: " + MaxNumberTerms);
+        }
+        output.add("Penalty: " + String.format("%.4e", FittedLambda));
+
+        return output;
+    }
+}
@@ -0,0 +1,491 @@
+package magpie.models.regression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import magpie.models.utility.MultiModelUtility;
+
+/**
+ * Fits linear models with elastic-net regularization using coordinate descent.
+ * Finds the coefficients, <i>b</i>, that minimize:
+ *
+ * <center>(1/2N) &Sigma;<sub>i</sub> (y<sub>i</sub> - b<sub>0</sub> - x<sub>i</sub> &middot; b)<sup>2</sup>
+ * + &lambda; [&alpha; |b|<sub>1</sub> + (1 - &alpha;) / 2 |b|<sub>2</sub><sup>2</sup>]</center>
+ *
+ * <p>where &alpha; is the L<sub>1</sub> ratio (1 for LASSO, 0 for ridge regression).
+ * Attributes are standardized to have zero mean and unit variance before
+ * fitting, and the coefficients are converted back to the original units.
+ *
+ * <p>This implementation follows the method of
+ * <a href="http://www.jstatsoft.org/v33/i01/">Friedman <i>et al.</i></a>:
+ *
+ * <ul>
+ * <li><i>Covariance updates</i>: The gradient for each attribute is updated
+ * using the inner products between attributes, rather than recomputing the
+ * residuals. The inner products of an attribute with all others are only
+ * computed (in parallel) once that attribute enters the model.
+ * <li><i>Active sets</i>: After a pass through all attributes, only the
+ * attributes with non-zero coefficients are updated until convergence. A
+ * final pass through all attributes confirms that no other attributes should enter.
+ * <li><i>Warm starts</i>: Each fit starts from the previous solution, so
+ * that solving for a decreasing series of &lambda; (a "path") is fast.
+ * </ul>
+ *
+ * @author Logan Ward
+ * @see ElasticNetRegression
+ */
+public class ElasticNetSolver {
+    /** Number of entries */
+    final private int NEntries;
+    /** Number of attributes */
+    final private int NAttributes;
+    /** Standardized attributes, stored by attribute. Null for attributes
+     * that are constant */
+    final private double[][] X;
+    /** Mean of each attribute */
+    final private double[] Mean;
+    /** Standard deviation of each attribute */
+    final private double[] Scale;
+    /** Mean of the class variable */
+    final private double MeanY;
+    /** Standard deviation of the class variable */
+    final private double ScaleY;
+    /** Inner product of each attribute with the class variable, divided by N */
+    final private double[] XtY;
+    /** Inner products between attributes, divided by N. Only computed for
+     * attributes that have entered the model */
+    final private AtomicReferenceArray<double[]> Gram;
+    /** Fraction of the penalty that is on the L1 norm */
+    private double L1Ratio = 1;
+    /** Convergence criterion: Maximum change in a coefficient, relative
+     * to the standard deviation of the class variable */
+    private double Tolerance = 1e-7;
+    /** Maximum number of passes through the attributes per fit */
+    private int MaxIterations = 100000;
+    /** Minimum number of entries times attributes per thread when computing
+     * inner products between attributes */
+    private long ParallelThreshold = 100000;
+    /** Current coefficients, for standardized attributes */
+    private double[] Beta;
+    /** Inner product of each attribute with the current residuals, divided by N */
+    private double[] Gradient;
+    /** Current value of the penalty parameter */
+    private double Lambda = Double.POSITIVE_INFINITY;
+
+    /**
+     * Prepare to fit a model.
+     * @param data Dataset containing training entries. All entries must
+     * have a measured class
+     */
+    public ElasticNetSolver(Dataset data) {
+        NEntries = data.NEntries();
+        NAttributes = data.NAttributes();
+        if (NEntries == 0) {
+            throw new IllegalArgumentException("Dataset contains no entries");
+        }
+
+        // Get the class variable
+        double[] y = data.getMeasuredClassArray();
+        double meanY = 0;
+        for (double v : y) {
+            meanY += v;
+        }
+        meanY /= NEntries;
+        double varY = 0;
+        for (double v : y) {
+            varY += (v - meanY) * (v - meanY);
+        }
+        MeanY = meanY;
+        ScaleY = Math.sqrt(varY / NEntries);
+
+        // Get the attributes, stored by attribute
+        X = new double[NAttributes][NEntries];
+        for (int i=0; i<NEntries; i++) {
+            BaseEntry entry = data.getEntry(i);
+            for (int j=0; j<NAttributes; j++) {
+                X[j][i] = entry.getAttribute(j);
+            }
+        }
+
+        // Standardize the attributes
+        Mean = new double[NAttributes];
+        Scale = new double[NAttributes];
+        XtY = new double[NAttributes];
+        for (int j=0; j<NAttributes; j++) {
+            double[] x = X[j];
+            double mean = 0;
+            for (double v : x) {
+                mean += v;
+            }
+            mean /= NEntries;
+            double var = 0;
+            for (double v : x) {
+                var += (v - mean) * (v - mean);
+            }
+            Mean[j] = mean;
+            Scale[j] = Math.sqrt(var / NEntries);
+            if (! (Scale[j] > 1e-14 * Math.max(1, Math.abs(mean)))) {
+                // Constant attribute: Will never be used
+                X[j] = null;
+                Scale[j] = 0;
+                continue;
+            }
+            double xty = 0;
+            for (int i=0; i<NEntries; i++) {
+                x[i] = (x[i] - mean) / Scale[j];
+                xty += x[i] * (y[i] - meanY);
+            }
+            XtY[j] = xty / NEntries;
+        }
+        Gram = new AtomicReferenceArray<>(NAttributes);
+
+        // Start with all coefficients equal to zero
+        Beta = new double[NAttributes];
+        Gradient = XtY.clone();
+    }
+
+    /**
+     * Create a solver that shares the data of another solver, and starts
+     * with all coefficients equal to zero.
+     * @param other Solver to be copied
+     */
+    protected ElasticNetSolver(ElasticNetSolver other) {
+        NEntries = other.NEntries;
+        NAttributes = other.NAttributes;
+        X = other.X;
+        Mean = other.Mean;
+        Scale = other.Scale;
+        MeanY = other.MeanY;
+        ScaleY = other.ScaleY;
+        XtY = other.XtY;
+        Gram = other.Gram;
+        L1Ratio = other.L1Ratio;
+        Tolerance = other.Tolerance;
+        MaxIterations = other.MaxIterations;
+        ParallelThreshold = other.ParallelThreshold;
+        Beta = new double[NAttributes];
+        Gradient = XtY.clone();
+    }
+
+    /**
+     * Set the fraction of the penalty placed on the L1 norm of the coefficients.
+     * @param ratio Desired ratio. 1 is LASSO, 0 is ridge regression
+     */
+    public void setL1Ratio(double ratio) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("L1 ratio must be between 0 and 1");
+        }
+        L1Ratio = ratio;
+    }
+
+    /**
+     * Set the convergence criterion
+     * @param tol Maximum change in a coefficient, relative to the
+     * standard deviation of the class variable
+     */
+    public void setTolerance(double tol) {
+        Tolerance = tol;
+    }
+
+    /**
+     * Set the maximum number of passes through the attributes when fitting
+     * a model
+     * @param maxIter Maximum number of iterations
+     */
+    public void setMaxIterations(int maxIter) {
+        MaxIterations = maxIter;
+    }
+
+    /**
+     * Set the amount of work each thread must receive before the inner products
+     * between attributes are computed in parallel. Used to test the parallel
+     * path on small datasets.
+     * @param threshold Minimum number of entries times attributes per thread
+     */
+    void setParallelThreshold(long threshold) {
+        ParallelThreshold = threshold;
+    }
+
+    /**
+     * @return Current value of the penalty parameter
+     */
+    public double getLambda() {
+        return Lambda;
+    }
+
+    /**
+     * Get the smallest penalty for which all coefficients are zero.
+     * @return Penalty parameter
+     */
+    public double getMaxLambda() {
+        double max = 0;
+        for (double v : XtY) {
+            max = Math.max(max, Math.abs(v));
+        }
+        return max / Math.max(L1Ratio, 1e-3);
+    }
+
+    /**
+     * Generate a logarithmically-spaced, decreasing series of penalty parameters
+     * @param maxLambda Largest penalty
+     * @param minRatio Ratio between the smallest and largest penalty
+     * @param count Number of penalties
+     * @return Series of penalties
+     */
+    static public double[] getLambdaGrid(double maxLambda, double minRatio, int count) {
+        double[] output = new double[count];
+        for (int i=0; i<count; i++) {
+            output[i] = maxLambda * Math.pow(minRatio, count > 1 ? (double) i / (count - 1) : 0);
+        }
+        return output;
+    }
+
+    /**
+     * Fit the model for a certain penalty, starting from the current solution.
+     * @param lambda Penalty parameter
+     */
+    public void fit(double lambda) {
+        Lambda = lambda;
+        final double l1 = lambda * L1Ratio;
+        final double l2 = lambda * (1 - L1Ratio);
+        final double tol = Tolerance * (ScaleY > 0 ? ScaleY : 1);
+        int iter = 0;
+        while (iter++ < MaxIterations) {
+            // Pass through all attributes
+            if (updateCoefficients(l1, l2, false) < tol) {
+                break;
+            }
+
+            // Iterate over only the non-zero attributes until converged
+            while (iter++ < MaxIterations) {
+                if (updateCoefficients(l1, l2, true) < tol) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Perform one pass of coordinate descent
+     * @param l1 Penalty on L1 norm
+     * @param l2 Penalty on L2 norm
+     * @param activeOnly Whether to only update non-zero coefficients
+     * @return Largest change in a coefficient
+     */
+    private double updateCoefficients(double l1, double l2, boolean activeOnly) {
+        double maxChange = 0;
+        for (int j=0; j<NAttributes; j++) {
+            if (X[j] == null || (activeOnly && Beta[j] == 0)) {
+                continue;
+            }
+
+            // Compute the new coefficient
+            double z = Gradient[j] + Beta[j];
+            double newBeta = Math.abs(z) <= l1 ? 0 : (z - Math.signum(z) * l1) / (1 + l2);
+            double change = newBeta - Beta[j];
+            if (change == 0) {
+                continue;
+            }
+
+            // Update the gradient
+            double[] column = getGramColumn(j);
+            for (int k=0; k<NAttributes; k++) {
+                Gradient[k] -= column[k] * change;
+            }
+            Beta[j] = newBeta;
+            maxChange = Math.max(maxChange, Math.abs(change));
+        }
+        return maxChange;
+    }
+
+    /**
+     * Get the inner products between an attribute and all other attributes.
+     * Computed when first needed, using {@linkplain MultiModelUtility#getNThreads() } threads.
+     * @param j Index of attribute
+     * @return Inner product with each attribute, divided by N
+     */
+    private double[] getGramColumn(final int j) {
+        double[] column = Gram.get(j);
+        if (column != null) {
+            return column;
+        }
+
+        // Compute the inner products
+        final double[] output = new double[NAttributes];
+        int nThreads = (int) Math.min(MultiModelUtility.getNThreads(),
+                (long) NEntries * NAttributes / ParallelThreshold);
+        if (nThreads <= 1) {
+            computeGramColumn(j, output, 0, NAttributes);
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<>(nThreads);
+            for (int t=0; t<nThreads; t++) {
+                final int start = t * NAttributes / nThreads;
+                final int end = (t + 1) * NAttributes / nThreads;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        computeGramColumn(j, output, start, end);
+                        return null;
+                    }
+                });
+            }
+            MultiModelUtility.evaluateInParallel(tasks);
+        }
+
+        // Store it, unless another thread has already done so
+        Gram.compareAndSet(j, null, output);
+        return Gram.get(j);
+    }
+
+    /**
+     * Compute the inner products between an attribute and a range of other attributes
+     * @param j Index of attribute
+     * @param output Array in which to store results
+     * @param start First attribute to compute
+     * @param end Last attribute to compute (exclusive)
+     */
+    private void computeGramColumn(int j, double[] output, int start, int end) {
+        double[] xj = X[j];
+        for (int k=start; k<end; k++) {
+            double[] xk = X[k];
+            if (xk == null) {
+                continue;
+            }
+            double sum = 0;
+            for (int i=0; i<NEntries; i++) {
+                sum += xj[i] * xk[i];
+            }
+            output[k] = sum / NEntries;
+        }
+    }
+
+    /**
+     * Find the smallest penalty for which the model has no more than a
+     * certain number of non-zero coefficients, and fit the model with that penalty.
+     *
+     * <p>Computes the path from {@linkplain #getMaxLambda() } down to
+     * 10<sup>-4</sup> times that value, and then refines the penalty by bisection
+     * between the last two points on the path.
+     * @param maxTerms Maximum number of non-zero coefficients
+     * @return Penalty parameter
+     */
+    public double fitMaxTerms(int maxTerms) {
+        // Find the first penalty on the path with too many terms
+        double[] path = getLambdaGrid(getMaxLambda(), 1e-4, 100);
+        double best = path[0];
+        double tooSmall = -1;
+        for (double lambda : path) {
+            fit(lambda);
+            if (getNonZeroCount() > maxTerms) {
+                tooSmall = lambda;
+                break;
+            }
+            best = lambda;
+        }
+
+        // Refine the penalty
+        if (tooSmall > 0) {
+            for (int iter=0; iter<30; iter++) {
+                double mid = Math.sqrt(best * tooSmall);
+                fit(mid);
+                if (getNonZeroCount() > maxTerms) {
+                    tooSmall = mid;
+                } else {
+                    best = mid;
+                }
+                if (best / tooSmall < 1 + 1e-6) {
+                    break;
+                }
+            }
+        }
+        if (best != Lambda) {
+            fit(best);
+        }
+        return best;
+    }
+
+    /**
+     * Compute the model for a series of penalties. Each fit is started from the
+     * solution for the previous penalty, so penalties should be listed in
+     * decreasing order.
+     *
+     * <p>The path is computed serially, as each point depends on the previous 
+     * one. Splitting the path between threads would lose the warm start for
+     * all but the first segment and make the results depend on the number of 
+     * threads. Threads are instead used when computing the inner products 
+     * between attributes. Does not change the current solution of this solver.
+     *
+     * @param lambdas Penalty parameters, in decreasing order
+     * @return Model for each penalty. Intercept is the first element, followed
+     * by the coefficient of each attribute
+     */
+    public double[][] computePath(double[] lambdas) {
+        double[][] output = new double[lambdas.length][];
+        ElasticNetSolver solver = new ElasticNetSolver(this);
+        for (int i=0; i<lambdas.length; i++) {
+            solver.fit(lambdas[i]);
+            double[] coeff = solver.getCoefficients();
+            output[i] = new double[NAttributes + 1];
+            output[i][0] = solver.getIntercept();
+            System.arraycopy(coeff, 0, output[i], 1, NAttributes);
+        }
+        return output;
+    }
+
+    /**
+     * @return Number of non-zero coefficients in the current solution
+     */
+    public int getNonZeroCount() {
+        int count = 0;
+        for (double b : Beta) {
+            if (b != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Indices of attributes with non-zero coefficients in the current solution
+     */
+    public int[] getNonZeroAttributes() {
+        int[] output = new int[getNonZeroCount()];
+        int pos = 0;
+        for (int j=0; j<NAttributes; j++) {
+            if (Beta[j] != 0) {
+                output[pos++] = j;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Get the coefficients of the current solution
+     * @return Coefficient for each attribute, in the original (unstandardized) units
+     */
+    public double[] getCoefficients() {
+        double[] output = new double[NAttributes];
+        for (int j=0; j<NAttributes; j++) {
+            if (Beta[j] != 0) {
+                output[j] = Beta[j] / Scale[j];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return Intercept of the current solution
+     */
+    public double getIntercept() {
+        double output = MeanY;
+        for (int j=0; j<NAttributes; j++) {
+            if (Beta[j] != 0) {
+                output -= Beta[j] / Scale[j] * Mean[j];
+            }
+        }
+        return output;
+    }
+}
@@ -2,6 +2,7 @@ package magpie.models.regression;
 
 import java.util.List;
 import magpie.data.Dataset;
+import magpie.models.interfaces.IncrementalModel;
 import magpie.user.CommandHandler;
 import org.apache.commons.math3.stat.StatUtils;
 
@@ -9,12 +10,17 @@ import org.apache.commons.math3.stat.StatUtils;
  * Always guess the mean of the values provided during training. User can add jitter
  * in the same way as {@link SingleGuessRegression}.
  * 
+ * <p>Can be updated with new training data, which adds those entries to the mean.
+ * 
  * <usage><p><b>Usage</b>: [-jitter &lt;jitter>]
  * <br><pr><i>value</i>: Amount of random variation added to guess (default=0)</usage>
  * @author Logan Ward
  * @verion 0.2
  */
-public class GuessMeanRegression extends SingleGuessRegression {
+public class GuessMeanRegression extends SingleGuessRegression 
+        implements IncrementalModel {
+    /** Number of entries used to compute the mean */
+    protected long NTrainingEntries = 0;
 
     @Override
     public void setOptions(List OptionsObj) throws Exception {
@@ -42,6 +48,20 @@ public class GuessMeanRegression extends SingleGuessRegression {
     @Override
     public void train_protected(Dataset E) {
         Guess = StatUtils.mean(E.getMeasuredClassArray());
+        NTrainingEntries = E.NEntries();
+    }
+
+    @Override
+    public boolean isUpdateable() {
+        return isTrained() && NTrainingEntries > 0;
+    }
+
+    @Override
+    protected void update_protected(Dataset TrainData) {
+        long total = NTrainingEntries + TrainData.NEntries();
+        Guess += (StatUtils.sum(TrainData.getMeasuredClassArray()) 
+                - TrainData.NEntries() * Guess) / total;
+        NTrainingEntries = total;
     }
     
 }
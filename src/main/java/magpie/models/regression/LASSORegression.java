@@ -4,7 +4,10 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import magpie.data.Dataset;
+import magpie.models.interfaces.IncrementalModel;
+import magpie.models.interfaces.ThreadSafeModel;
 import magpie.user.CommandHandler;
+import magpie.utility.LinearLeastSquares;
 import magpie.utility.MathUtils;
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
@@ -18,13 +21,20 @@ import org.apache.commons.math3.stat.regression.SimpleRegression;
  * 
  * For now, this uses Forward Stepwise Regression.
  * 
+ * <p>Can be updated with new training data. The terms in the model are not 
+ * changed during an update, but the coefficients are recomputed using the 
+ * same stepwise procedure as if the model was trained on the original and
+ * new data together. Only sums of products of the selected terms are stored 
+ * for this purpose, so updates do not require the original training data.
+ * 
  * <usage><p><b>Usage</b>: -maxterms &lt;terms>
  * <br><pr><i>terms</i>: Maximum number of terms allowed in expression</usage>
  * 
  * @author Logan Ward
  * @version 1.0
  */
-public class LASSORegression extends BaseRegression {
+public class LASSORegression extends BaseRegression implements IncrementalModel,
+        ThreadSafeModel {
     /** Maximum number of features allowed in model (-1 is unlimited) */
     protected int MaxNumberTerms = -1;
     /** Terms used in the model */
@@ -35,6 +45,11 @@ public class LASSORegression extends BaseRegression {
     protected List<Double> Coefficients = new LinkedList<>();
     /** Intercept of the linear model */
     protected double Intercept;
+    /** 
+     * Sums of products of a constant and each term, accumulated over all 
+     * training entries. Used to update the model with new data
+     */
+    protected LinearLeastSquares TermSums = null;
     
     @Override
     @SuppressWarnings("CloneDeclaresCloneNotSupported")
@@ -43,6 +58,9 @@ public class LASSORegression extends BaseRegression {
         x.Coefficients = new LinkedList<>(Coefficients);
         x.Terms = new LinkedList<>(Terms);
         x.TermNames = new LinkedList<>(TermNames);
+        if (TermSums != null) {
+            x.TermSums = TermSums.clone();
+        }
         return x;
     }
 
@@ -144,7 +162,71 @@ public class LASSORegression extends BaseRegression {
             MAE = getMAE(residual);
             termCount++;
         }
-    }   
+        
+        // Store the sums needed to update the model
+        TermSums = new LinearLeastSquares(Terms.size() + 1);
+        addTermSums(observations, targetClass);
+    }
+
+    @Override
+    public boolean isUpdateable() {
+        return TermSums != null;
+    }
+
+    @Override
+    protected void update_protected(Dataset TrainData) {
+        addTermSums(TrainData.getAttributeArray(), TrainData.getMeasuredClassArray());
+        
+        // Re-fit each coefficient to the residuals of the previous terms, in 
+        //  the order the terms were added. Variances and covariances are 
+        //  computed from the accumulated sums
+        double n = TermSums.getXtX(0, 0);
+        double yMean = TermSums.getXty(0) / n;
+        double[] coeff = new double[Terms.size()];
+        double intercept = 0;
+        for (int t=0; t<Terms.size(); t++) {
+            int term = t + 1; // Term 0 is the constant
+            double mean = TermSums.getXtX(0, term) / n;
+            double variance = TermSums.getXtX(term, term) / n - mean * mean;
+            
+            // Compute the mean of the residual, and its covariance with this term
+            double residualMean = yMean - intercept;
+            double covariance = TermSums.getXty(term) / n - mean * yMean;
+            for (int p=0; p<t; p++) {
+                double otherMean = TermSums.getXtX(0, p + 1) / n;
+                residualMean -= coeff[p] * otherMean;
+                covariance -= coeff[p] * (TermSums.getXtX(p + 1, term) / n - mean * otherMean);
+            }
+            
+            // Fit the residual
+            coeff[t] = variance > 0 ? covariance / variance : 0;
+            intercept += residualMean - coeff[t] * mean;
+        }
+        
+        // Store the results
+        Intercept = intercept;
+        Coefficients.clear();
+        for (double c : coeff) {
+            Coefficients.add(c);
+        }
+    }
+    
+    /**
+     * Add the products of each term in the model to {@linkplain #TermSums}.
+     * @param observations Attributes of each entry
+     * @param targetClass Measured class of each entry
+     */
+    protected void addTermSums(double[][] observations, double[] targetClass) {
+        double[] x = new double[Terms.size() + 1];
+        x[0] = 1;
+        for (int i=0; i<observations.length; i++) {
+            int pos = 1;
+            for (Integer term : Terms) {
+                x[pos++] = observations[i][term];
+            }
+            TermSums.addObservation(x, targetClass[i]);
+        }
+    }
 
     @Override
     public int getNFittingParameters() {
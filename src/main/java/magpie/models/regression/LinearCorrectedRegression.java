@@ -5,7 +5,7 @@ import java.util.List;
 import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.models.BaseModel;
-import org.apache.commons.math3.stat.regression.SimpleRegression;
+import magpie.utility.LinearLeastSquares;
 
 /**
  * Apply a linear correction to results from another model. Let f(x) be the 
@@ -66,30 +66,38 @@ public class LinearCorrectedRegression extends BaseRegression {
             throw new Error("Submodel not defined");
         }
         
-        // Make clone of TrainData to ensure predicted class variables are not affected
-        Dataset localCopy = trainData.clone();
+        // Store the predicted classes, so that they are not affected
+        List<BaseEntry> entries = trainData.getEntries();
+        boolean[] hadPrediction = new boolean[entries.size()];
+        double[] oldPrediction = new double[entries.size()];
+        for (int i=0; i<entries.size(); i++) {
+            hadPrediction[i] = entries.get(i).hasPrediction();
+            oldPrediction[i] = entries.get(i).getPredictedClass();
+        }
         
         // Train submodel (run it as well)
-        Submodel.train(localCopy, true);
+        Submodel.train(trainData, true);
         
         // Fit linear correction (i.e., error = a + b * predicted)
-        
-        //    Compute error
-        double[] error = localCopy.getMeasuredClassArray();
-        double[] predicted = localCopy.getPredictedClassArray();
-        for (int i=0; i<error.length; i++) {
-            error[i] -= predicted[i];
-        }
-        
-        //    Perform linear regression to minimize error
-        SimpleRegression reg = new SimpleRegression();
-        for (int i=0; i<error.length; i++) {
-            reg.addData(predicted[i], error[i]);
+        LinearLeastSquares reg = new LinearLeastSquares(2);
+        double[] terms = new double[]{1, 0};
+        for (int i=0; i<entries.size(); i++) {
+            BaseEntry entry = entries.get(i);
+            terms[1] = entry.getPredictedClass();
+            reg.addObservation(terms, entry.getMeasuredClass() - terms[1]);
+            
+            // Restore the original prediction
+            if (hadPrediction[i]) {
+                entry.setPredictedClass(oldPrediction[i]);
+            } else {
+                entry.deletePredictedClass();
+            }
         }
+        double[] correction = reg.solve();
         
         // Store correction terms
-        A = reg.getIntercept();
-        B = reg.getSlope();
+        A = correction[0];
+        B = correction[1];
     }
 
     @Override
@@ -1,13 +1,18 @@
 
 package magpie.models.regression;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.data.MultiPropertyDataset;
 import magpie.models.BaseModel;
+import magpie.models.utility.MultiModelUtility;
 import magpie.optimization.rankers.BaseEntryRanker;
 import magpie.optimization.rankers.MultiObjectiveEntryRanker;
 import magpie.user.CommandHandler;
@@ -186,7 +191,26 @@ public class MultiObjectiveRegression extends BaseRegression {
         
         // Calculate the value of each property
         MultiPropertyDataset d = (MultiPropertyDataset) TrainData;
-        for (String prop : ObjFunction.getObjectives()) {
+        String[] objectives = ObjFunction.getObjectives();
+        boolean parallel = MultiModelUtility.getNWorkers(objectives.length) > 1;
+        List<Callable<Void>> tasks = new ArrayList<>(objectives.length);
+        
+        // If training in parallel, each worker trains on its own copy of the 
+        //  data. Record where each entry is, so that each model can be trained 
+        //  on the corresponding entries of the copy
+        final MultiModelUtility.ThreadCopies copies;
+        Map<BaseEntry, Integer> position = new IdentityHashMap<>();
+        if (parallel) {
+            Dataset original = d.emptyClone();
+            original.addEntries(d.getEntries());
+            copies = MultiModelUtility.getThreadCopies(original);
+            for (BaseEntry entry : d.getEntries()) {
+                position.put(entry, position.size());
+            }
+        } else {
+            copies = null;
+        }
+        for (final String prop : objectives) {
             if (! modelIsDefined(prop)) {
                 try {
                     setModel(prop, GenericModel.clone());
@@ -198,10 +222,30 @@ public class MultiObjectiveRegression extends BaseRegression {
 					}
                 }
             }
-            BaseModel model = Models.get(prop);
+            final BaseModel model = Models.get(prop);
             d.setTargetProperty(prop, false);
-            model.train(TrainData);
+            if (! parallel) {
+                model.train(TrainData);
+                continue;
+            }
+            
+            // Train on the entries that remain, taken from the worker's copy
+            final int[] subset = new int[d.NEntries()];
+            for (int i=0; i<subset.length; i++) {
+                subset[i] = position.get(d.getEntry(i));
+            }
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    MultiPropertyDataset copy = 
+                            (MultiPropertyDataset) copies.get().getSubset(subset);
+                    copy.setTargetProperty(prop, false);
+                    model.train(copy);
+                    return null;
+                }
+            });
         }
+        MultiModelUtility.evaluateInParallel(tasks);
         
         // Ensure the measured composite value is calculated for each entry
         ObjFunction.setUseMeasured(true);
@@ -216,11 +260,15 @@ public class MultiObjectiveRegression extends BaseRegression {
     public void run_protected(Dataset TrainData) {
         // Calculate the value of each property
         MultiPropertyDataset d = (MultiPropertyDataset) TrainData;
-        for (Map.Entry<String, BaseModel> entry : Models.entrySet()) {
-            String prop = entry.getKey();
-            BaseModel model = entry.getValue();
-            d.setTargetProperty(prop, true);
-            model.run(TrainData);
+        if (MultiModelUtility.getNWorkers(Models.size()) <= 1) {
+            for (Map.Entry<String, BaseModel> entry : Models.entrySet()) {
+                String prop = entry.getKey();
+                BaseModel model = entry.getValue();
+                d.setTargetProperty(prop, true);
+                model.run(TrainData);
+            }
+        } else {
+            runModelsInParallel(d);
         }
         
         // Ensure the measured composite value is calculated for each entry
@@ -231,6 +279,46 @@ public class MultiObjectiveRegression extends BaseRegression {
         }
     }
 
+    /**
+     * Run the model for each property at the same time. Each thread runs 
+     * models on its own copy of the data, and the predictions are then stored
+     * in the original dataset.
+     * @param data Dataset to be evaluated
+     */
+    protected void runModelsInParallel(MultiPropertyDataset data) {
+        // Run each model
+        final MultiModelUtility.ThreadCopies copies = MultiModelUtility.getThreadCopies(data);
+        List<Callable<double[][]>> tasks = new ArrayList<>(Models.size());
+        for (Map.Entry<String, BaseModel> entry : Models.entrySet()) {
+            final String prop = entry.getKey();
+            final BaseModel model = entry.getValue();
+            tasks.add(new Callable<double[][]>() {
+                @Override
+                public double[][] call() throws Exception {
+                    MultiPropertyDataset copy = (MultiPropertyDataset) copies.get();
+                    copy.setTargetProperty(prop, true);
+                    model.run(copy);
+                    return copy.NClasses() == 1 ? 
+                            new double[][]{copy.getPredictedClassArray()}
+                            : copy.getClassProbabilityArray();
+                }
+            });
+        }
+        List<double[][]> results = MultiModelUtility.evaluateInParallel(tasks);
+        
+        // Store the results
+        int i = 0;
+        for (String prop : Models.keySet()) {
+            data.setTargetProperty(prop, true);
+            double[][] result = results.get(i++);
+            if (data.NClasses() == 1) {
+                data.setPredictedClasses(result[0]);
+            } else {
+                data.setClassProbabilities(result);
+            }
+        }
+    }
+
     @Override
     public int getNFittingParameters() {
         int output = 0;
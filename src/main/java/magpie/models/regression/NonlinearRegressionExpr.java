@@ -3,7 +3,9 @@ package magpie.models.regression;
 import java.util.LinkedList;
 import java.util.List;
 import expr.*;
+import java.util.Arrays;
 import java.util.Iterator;
+import magpie.utility.CompiledExpression;
 
 /**
  * Performs non-linear regression on a function supplied as a string. Uses a modified version of
@@ -20,8 +22,24 @@ import java.util.Iterator;
  * @version 0.1
  */
 public class NonlinearRegressionExpr extends AbstractParsedNonlinearRegression {
+    /** 
+     * Arrays used when evaluating compiled formulas. Each thread has its own, 
+     * which are re-used between evaluations so that the optimizer does not 
+     * allocate new arrays each time it evaluates the function.
+     */
+    final static private ThreadLocal<Workspace> Workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
     /** Handles the evaluation of the user-defined formula */
     private Expr Evaluator;
+    /** 
+     * Compiled version of the user-defined formula. Null if the formula
+     * could not be compiled.
+     */
+    private CompiledExpression CompiledEvaluator;
     
     /** 
      * List of Variables used by the Expr library. This list is ordered with the
@@ -90,13 +108,114 @@ public class NonlinearRegressionExpr extends AbstractParsedNonlinearRegression {
         while (iter.hasNext()) Parser.allow(iter.next());
         // Parse the expression
         Evaluator = Parser.parseString(Expression);
+        CompiledEvaluator = CompiledExpression.compile(Expression, Variables, Evaluator);
     }
 
     @Override
     protected double function(double[] variables, double[] coeff) {
+        if (CompiledEvaluator != null) {
+            double[] slots = Workspaces.get().getSlots(variables.length + coeff.length);
+            System.arraycopy(variables, 0, slots, 0, variables.length);
+            System.arraycopy(coeff, 0, slots, variables.length, coeff.length);
+            return CompiledEvaluator.evaluate(slots);
+        }
         for (int i=0; i<variables.length; i++) Variables.get(i).setValue(variables[i]);
         for (int i=0; i<coeff.length; i++) 
             Variables.get(variables.length + i).setValue(coeff[i]);
         return Evaluator.value();
     }
-}
+
+    @Override
+    protected void function(double[][] variables, int count, double[] coeff, 
+            double[] output) {
+        if (CompiledEvaluator == null) {
+            super.function(variables, count, coeff, output);
+            return;
+        }
+        Workspace workspace = Workspaces.get();
+        double[][] columns = workspace.getColumns(variables.length + coeff.length);
+        System.arraycopy(variables, 0, columns, 0, variables.length);
+        for (int i=0; i<coeff.length; i++) {
+            double[] column = workspace.getCoefficientColumn(i, count);
+            Arrays.fill(column, 0, count, coeff[i]);
+            columns[variables.length + i] = column;
+        }
+        CompiledEvaluator.evaluate(columns, count, output, 
+                workspace.getWork(CompiledEvaluator.NWork(), count));
+    }
+
+    @Override
+    protected boolean isFunctionThreadSafe() {
+        // Only the compiled evaluator is thread safe
+        return CompiledEvaluator != null;
+    }
+    
+    /**
+     * Arrays used by a single thread to evaluate compiled formulas. Arrays
+     * are only re-allocated if they are too small.
+     */
+    static private class Workspace {
+        /** Values of each variable, when evaluating a single entry */
+        private double[] Slots = new double[0];
+        /** Column for each variable, when evaluating many entries */
+        private double[][] Columns = new double[0][];
+        /** Values of each coefficient, repeated for each entry */
+        private double[][] CoefficientColumns = new double[0][];
+        /** Temporary arrays used by the compiled formula */
+        private double[][] Work = new double[0][];
+
+        /**
+         * Get an array to hold the value of each variable
+         * @param size Number of variables
+         * @return Array with exactly the desired size
+         */
+        public double[] getSlots(int size) {
+            if (Slots.length != size) {
+                Slots = new double[size];
+            }
+            return Slots;
+        }
+
+        /**
+         * Get an array to hold the column of each variable
+         * @param size Number of variables
+         * @return Array with exactly the desired size
+         */
+        public double[][] getColumns(int size) {
+            if (Columns.length != size) {
+                Columns = new double[size][];
+            }
+            return Columns;
+        }
+
+        /**
+         * Get an array to hold the value of a coefficient for each entry
+         * @param index Index of the coefficient
+         * @param count Number of entries
+         * @return Array with at least <code>count</code> elements
+         */
+        public double[] getCoefficientColumn(int index, int count) {
+            if (CoefficientColumns.length <= index) {
+                CoefficientColumns = Arrays.copyOf(CoefficientColumns, index + 1);
+            }
+            if (CoefficientColumns[index] == null || CoefficientColumns[index].length < count) {
+                CoefficientColumns[index] = new double[count];
+            }
+            return CoefficientColumns[index];
+        }
+
+        /**
+         * Get the temporary arrays used by a compiled formula
+         * @param nWork Number of arrays
+         * @param count Number of entries
+         * @return At least <code>nWork</code> arrays, each with at least
+         * <code>count</code> elements
+         */
+        public double[][] getWork(int nWork, int count) {
+            if (Work.length < nWork || (nWork > 0 && Work[0].length < count)) {
+                Work = new double[nWork][count];
+            }
+            return Work;
+        }
+    }
+}
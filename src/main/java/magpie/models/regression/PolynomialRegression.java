@@ -1,16 +1,30 @@
 
 package magpie.models.regression;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import magpie.data.BaseEntry;
 import magpie.data.Dataset;
-import org.apache.commons.math3.stat.regression.MillerUpdatingRegression;
-import org.apache.commons.math3.stat.regression.UpdatingMultipleLinearRegression;
+import magpie.models.interfaces.IncrementalModel;
+import magpie.models.interfaces.ThreadSafeModel;
+import magpie.models.utility.MultiModelUtility;
+import magpie.utility.LinearLeastSquares;
 
 /**
  * Performs linear regression using all attributes in a Dataset raised to integer
  * exponents. This method creates models that are nonlinear polynomials, like this:
  * <center><code>f(x,y,z) = a + b * x + c * x<sup>2</sup> + d * y + e * y<sup>2</sup> + ...</code></center>
  * 
+ * <p>The model is fit by accumulating the normal equations in a single pass
+ * through the training entries (in parallel, if 
+ * {@linkplain MultiModelUtility#getNThreads() } &gt; 1),
+ * so the memory required does not depend on the number of entries.
+ * The accumulated equations are stored with the model, which allows
+ * it to be updated with new training entries without re-reading the 
+ * original training set. See {@linkplain #update(magpie.data.Dataset) } and
+ * {@linkplain #addTrainingEntries(magpie.data.Dataset) }.
+ * 
  * <usage><p><b>Usage</b>: &lt;Order&gt [-print_accuracy &lt;figs&gt;]
  * <br><pr><i>Order</i>: Maximum Order of terms in polynomial
  <br><pr><i>figs</i>: Optional: Number of significant figures to write when printing model
@@ -21,7 +35,8 @@ import org.apache.commons.math3.stat.regression.UpdatingMultipleLinearRegression
  * @author Logan Ward
  * @version 0.1
  */
-public class PolynomialRegression extends BaseRegression {
+public class PolynomialRegression extends BaseRegression implements IncrementalModel,
+        ThreadSafeModel {
     /** Desired Order of polynomial */
     protected int Order = 1;
     /** Number of attributes used in model */
@@ -32,6 +47,8 @@ public class PolynomialRegression extends BaseRegression {
     private String[] attributeNames;
     /** Number of significant figures to print */
     private int PrintAccuracy = 4;
+    /** Normal equations accumulated from all training entries */
+    protected LinearLeastSquares Fit = null;
 
     @Override
     public void setOptions(List Options) throws Exception {
@@ -66,6 +83,9 @@ public class PolynomialRegression extends BaseRegression {
 			x.coefficients = coefficients.clone();
 			x.attributeNames = attributeNames.clone();
 		}
+        if (Fit != null) {
+            x.Fit = Fit.clone();
+        }
         return x;
     }
     
@@ -102,18 +122,136 @@ public class PolynomialRegression extends BaseRegression {
 
     @Override
     protected void train_protected(Dataset TrainData) {
-        if (TrainData.NAttributes() > 10) {
-            System.err.println("WARNING: PolynomialRegression was not intended to be used data with many attributes." +
-                    " Your program could be using a lot of memory right now. Consider using an attribute selector.");
-        }
-        // Extract necessary data
-        double[][] attributes = TrainData.getAttributeArray();
-        double[] classVariable = TrainData.getMeasuredClassArray();
         numAttributes = TrainData.NAttributes();
         attributeNames = TrainData.getAttributeNames();
         
         // Fit a polynomial model
-        coefficients = fitPolynomialModel(attributes, Order, classVariable);
+        Fit = accumulateNormalEquations(TrainData);
+        coefficients = solveFit(Fit);
+    }
+    
+    /**
+     * Update the model with additional training entries. Equivalent to 
+     * re-training the model on the original training entries plus 
+     * these new entries, but does not require the original training set.
+     * 
+     * <p>Note: The new entries are used as-is. Any normalization or attribute selection
+     * used when training this model is not applied. Use {@linkplain #update(magpie.data.Dataset) }
+     * to apply them.
+     * 
+     * @param data Dataset containing new training entries. Must have the same 
+     * attributes as the training set
+     */
+    public void addTrainingEntries(Dataset data) {
+        if (Fit == null) {
+            throw new IllegalStateException("Model has not been trained");
+        }
+        if (data.NAttributes() != numAttributes) {
+            throw new IllegalArgumentException("Dataset has different number of attributes than training set");
+        }
+        update_protected(data.getTrainingExamples());
+    }
+
+    @Override
+    public boolean isUpdateable() {
+        return Fit != null;
+    }
+
+    @Override
+    protected void update_protected(Dataset TrainData) {
+        Fit.addObservations(accumulateNormalEquations(TrainData));
+        coefficients = solveFit(Fit);
+    }
+    
+    /**
+     * Compute the normal equations for fitting a polynomial model to a dataset.
+     * Entries are split into blocks that are evaluated in parallel, if 
+     * {@linkplain MultiModelUtility#getNThreads() } &gt; 1.
+     * @param data Dataset containing training entries
+     * @return Normal equations computed using every entry
+     */
+    protected LinearLeastSquares accumulateNormalEquations(Dataset data) {
+        final List<BaseEntry> entries = data.getEntries();
+        final int nAttributes = data.NAttributes();
+        final int order = Order;
+        // Only use threads if each will get many entries
+        int nThreads = Math.min(MultiModelUtility.getNThreads(), entries.size() / 1000);
+        if (nThreads <= 1) {
+            return accumulateNormalEquations(entries, nAttributes, order);
+        }
+        
+        // Compute the equations for each block of entries
+        List<Callable<LinearLeastSquares>> tasks = new ArrayList<>(nThreads);
+        for (int t=0; t<nThreads; t++) {
+            final List<BaseEntry> block = entries.subList(
+                    t * entries.size() / nThreads, (t + 1) * entries.size() / nThreads);
+            tasks.add(new Callable<LinearLeastSquares>() {
+                @Override
+                public LinearLeastSquares call() throws Exception {
+                    return accumulateNormalEquations(block, nAttributes, order);
+                }
+            });
+        }
+        
+        // Combine the results
+        List<LinearLeastSquares> results = MultiModelUtility.evaluateInParallel(tasks);
+        LinearLeastSquares output = results.get(0);
+        for (int t=1; t<nThreads; t++) {
+            output.addObservations(results.get(t));
+        }
+        return output;
+    }
+    
+    /**
+     * Compute the normal equations for fitting a polynomial model to a list of entries.
+     * @param entries Entries to be fit. All must have measured class values
+     * @param nAttributes Number of attributes
+     * @param order Order of polynomial
+     * @return Normal equations
+     */
+    static protected LinearLeastSquares accumulateNormalEquations(List<BaseEntry> entries,
+            int nAttributes, int order) {
+        LinearLeastSquares output = new LinearLeastSquares(nAttributes * order + 1);
+        double[] terms = new double[output.NTerms()];
+        for (BaseEntry entry : entries) {
+            computeTerms(entry, order, terms);
+            output.addObservation(terms, entry.getMeasuredClass());
+        }
+        return output;
+    }
+    
+    /**
+     * Solve for the coefficients of a polynomial model. 
+     * @param fit Normal equations
+     * @return Coefficients. Terms that were not used in the fit are set to 0
+     */
+    static protected double[] solveFit(LinearLeastSquares fit) {
+        double[] parameters = fit.solve();
+        
+        // Set anything that is NaN (if it was not used in fit) to 0.0
+        for (int i=0; i<parameters.length; i++)
+            if (Double.isNaN(parameters[i])) parameters[i] = 0.0;
+        return parameters;
+    }
+    
+    /**
+     * Compute the value of each term in a polynomial model for an entry.
+     * Terms are listed in the same order as {@linkplain #fitPolynomialModel(double[][], int, double[]) }.
+     * @param entry Entry to be evaluated
+     * @param order Order of polynomial
+     * @param output Array in which to store the terms
+     */
+    static protected void computeTerms(BaseEntry entry, int order, double[] output) {
+        int count = 0;
+        output[count++] = 1;
+        for (int a=0; a < entry.NAttributes(); a++) {
+            double attrValue = entry.getAttribute(a);
+            output[count++] = attrValue;
+            for (int o=1; o < order; o++) {
+                output[count] = output[count - 1] * attrValue;
+                count++;
+            }
+        }
     }
 
     @Override
@@ -122,11 +260,15 @@ public class PolynomialRegression extends BaseRegression {
             throw new Error("Dataset has more attributes that what was used during training");
         
         // Run the model
-        double[][] attributes = TrainData.getAttributeArray();
-        double[] result = runPolynomialModel(attributes, Order, coefficients);
-        
-        // Store results
-        TrainData.setPredictedClasses(result);
+        double[] terms = new double[coefficients.length];
+        for (BaseEntry entry : TrainData.getEntries()) {
+            computeTerms(entry, Order, terms);
+            double result = coefficients[0];
+            for (int i=1; i<coefficients.length; i++) {
+                result += terms[i] * coefficients[i];
+            }
+            entry.setPredictedClass(result);
+        }
     }
 
     @Override
@@ -145,23 +287,22 @@ public class PolynomialRegression extends BaseRegression {
      * @return Coefficients for model
      */
     static public double[] fitPolynomialModel(double[][] attributes, int order, double[] classVariable) {
-        double[][] expandedAttributes = expandAttributes(attributes, order);
-        
-        // Since we are using a UpdatingMultipleLinearRegression, it is not really 
-        //  necessary to calculated all of the attributes at one time. But, 
-        //  it is easier to do so and this method is not important enough to 
-        //  spend time making it marginally more effiicent.
-        UpdatingMultipleLinearRegression Fit = new MillerUpdatingRegression(expandedAttributes[0].length, false);
-        Fit.addObservations(expandedAttributes, classVariable);
-        
-        // Get the results of the fit
-        double[] parameters = Fit.regress().getParameterEstimates();
-        
-        // Set anything that is NaN (if it was not used in fit) to 0.0
-        for (int i=0; i<parameters.length; i++)
-            if (Double.isNaN(parameters[i])) parameters[i] = 0.0;
-        
-        return parameters;
+        int nAttributes = attributes[0].length;
+        LinearLeastSquares fit = new LinearLeastSquares(nAttributes * order + 1);
+        double[] terms = new double[fit.NTerms()];
+        for (int e=0; e<attributes.length; e++) {
+            int count = 0;
+            terms[count++] = 1;
+            for (int a=0; a<nAttributes; a++) {
+                terms[count++] = attributes[e][a];
+                for (int o=1; o<order; o++) {
+                    terms[count] = terms[count - 1] * attributes[e][a];
+                    count++;
+                }
+            }
+            fit.addObservation(terms, classVariable[e]);
+        }
+        return solveFit(fit);
     }
     
     /**
@@ -3,6 +3,7 @@ package magpie.models.regression;
 import java.util.Arrays;
 import java.util.List;
 import magpie.data.Dataset;
+import magpie.models.interfaces.ThreadSafeModel;
 import magpie.optimization.rankers.BaseEntryRanker;
 import magpie.user.CommandHandler;
 
@@ -20,7 +21,7 @@ import magpie.user.CommandHandler;
  * @author Logan Ward
  * @version 0.2
  */
-public class SingleGuessRegression extends BaseRegression {
+public class SingleGuessRegression extends BaseRegression implements ThreadSafeModel {
     /** Guess for all classes */
     protected double Guess;
     /** Amount of jitter added to the answer */
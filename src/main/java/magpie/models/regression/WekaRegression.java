@@ -5,13 +5,16 @@ import java.util.Collections;
 import java.util.List;
 import magpie.statistics.performance.RegressionStatistics;
 import magpie.data.Dataset;
+import magpie.models.interfaces.IncrementalModel;
 import magpie.models.interfaces.WekaModel;
 import magpie.user.CommandHandler;
+import magpie.utility.WekaInstanceAdapter;
 import magpie.utility.WekaUtility;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Instances;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformationHandler;
@@ -27,10 +30,13 @@ import weka.core.TechnicalInformationHandler;
  * <br><pr><i>classifier options</i>: Any options for that model. (see 
  * <a href="http://weka.sourceforge.net/doc.dev/">Weka Javadoc</a> for these options)</usage> 
  * 
+ * <p>Models that implement Weka's {@linkplain UpdateableClassifier} interface
+ * (e.g., functions.SGD) can be updated with new training data.
+ * 
  * @author Logan Ward
  * @version 0.1
  */
-public class WekaRegression extends BaseRegression implements WekaModel {
+public class WekaRegression extends BaseRegression implements WekaModel, IncrementalModel {
    /** Link to Weka-based model */
     public AbstractClassifier Model;
     /** Whether model type has been defined */
@@ -39,6 +45,8 @@ public class WekaRegression extends BaseRegression implements WekaModel {
     protected String Model_Type;
     /** Options supplied when instantiating Model */
     protected String[] Model_Options;
+    /** Tool used to convert entries to Weka format. Created during training */
+    protected WekaInstanceAdapter Adapter;
     
     /** Create a Weka model with a specified model and options
      * 
@@ -130,6 +138,7 @@ public class WekaRegression extends BaseRegression implements WekaModel {
         try { 
             Instances wekadata = TrainingData.transferToWeka(true, false);
             Model.buildClassifier(wekadata); 
+            Adapter = new WekaInstanceAdapter(wekadata);
             TrainingData.restoreAttributes(wekadata);
         }
         catch (Exception e) { 
@@ -137,15 +146,40 @@ public class WekaRegression extends BaseRegression implements WekaModel {
         }
     }
            
+    @Override
+    public boolean isUpdateable() {
+        return Model instanceof UpdateableClassifier && Adapter != null;
+    }
+
+    @Override
+    protected void update_protected(Dataset TrainData) {
+        try {
+            WekaUtility.updateWekaModel(Model, Adapter.getHeader(), TrainData, false);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Error("Model failed to update. " + e);
+        }
+    }
+           
     @Override 
     public void run_protected(Dataset TestData) {
         try { 
-            Instances wekadata = TestData.transferToWeka(true, false);
             double[] prediction = new double [TestData.NEntries()];
-            for (int i=0; i<wekadata.numInstances(); i++) 
-                prediction[i]=Model.classifyInstance(wekadata.instance(i));
+            if (Adapter != null) {
+                // Convert each entry without copying the whole dataset
+                if (! Adapter.isCompatible(TestData)) {
+                    throw new Exception("Dataset has wrong number of attributes");
+                }
+                for (int i=0; i<TestData.NEntries(); i++) 
+                    prediction[i]=Model.classifyInstance(Adapter.getInstance(TestData.getEntry(i)));
+            } else {
+                Instances wekadata = TestData.transferToWeka(true, false);
+                for (int i=0; i<wekadata.numInstances(); i++) 
+                    prediction[i]=Model.classifyInstance(wekadata.instance(i));
+                TestData.restoreAttributes(wekadata);
+            }
             TestData.setPredictedClasses(prediction);
-            TestData.restoreAttributes(wekadata);
         } catch (Exception e) { 
             throw new Error(e); 
         }
@@ -20,9 +20,13 @@ import vassal.data.Cell;
  * 
  * <p>LW 1Apr15: This method does not appear to be insensitive to basis cell selection.
  * 
- * <usage><p><b>Usage</b>: &lt;lambda&gt; &lt;sigma&gt;
+ * <usage><p><b>Usage</b>: &lt;lambda&gt; &lt;sigma&gt; [-nystrom &lt;n&gt; [kmeans++|random]] [-index]
  * <br><pr><i>lambda</i>: Regularization parameter
- * <br><pr><i>sigma</i>: Normalization parameter in kernel function.</usage>
+ * <br><pr><i>sigma</i>: Normalization parameter in kernel function.
+ * <br><pr><i>n</i>: Number of landmarks used to approximate the kernel 
+ * matrix with the Nystr&ouml;m method (default: use the exact kernel matrix)
+ * <br><pr><i>kmeans++|random</i>: How to select the landmarks (default: kmeans++)
+ * <br><pr><i>-index</i>: Build an index for quickly finding the most similar training entries</usage>
  * 
  * @author Logan Ward
  */
@@ -44,6 +48,7 @@ public class CoulombSineMatrixRegression extends StructureKRRBasedRegression {
         try {
             lam = Double.parseDouble(Options.get(0).toString());
             sig = Double.parseDouble(Options.get(1).toString());
+            setCommonOptions(Options.subList(2, Options.size()));
         } catch (Exception e) {
             throw new IllegalArgumentException(printUsage());
         }
@@ -53,44 +58,38 @@ public class CoulombSineMatrixRegression extends StructureKRRBasedRegression {
 
     @Override
     public String printUsage() {
-        return "Usage: <lambda> <sigma>";
+        return "Usage: <lambda> <sigma> [-nystrom <n> [kmeans++|random]] [-index]";
     }
 
     @Override
-    protected double computeSimiliarity(Object strc1, Object strc2) {
-        double[] e1 = (double[]) strc1;
-        double[] e2 = (double[]) strc2;
-        
-        // Determine which is bigger
-        double[] diff = e1.length > e2.length ? e1.clone() : e2.clone();
-        if (e1.length > e2.length) {
-            for (int i = 0; i < e2.length; i++) {
-                diff[i] -= e2[i];
-            }
-        } else {
-            for (int i = 0; i < e1.length; i++) {
-                diff[i] -= e1[i];
-            }
-        }
+    protected double computeSimiliarity(StructureRepresentation strc1,
+            StructureRepresentation strc2) {
+        EigenvalueRepresentation e1 = (EigenvalueRepresentation) strc1;
+        EigenvalueRepresentation e2 = (EigenvalueRepresentation) strc2;
         
         // Compute the L1 distance
-        double dist = 0;
-        for (double d : diff) {
-            dist += Math.abs(d);
-        }
+        double dist = e1.manhattanDistance(e2);
         
         // Compute the Laplacian
         return Math.exp(-1 * dist / Sigma);
     }
 
     @Override
-    public Object computeRepresentation(Cell strc) {
+    protected double computeDistance(StructureRepresentation strc1,
+            StructureRepresentation strc2) {
+        // L1 distance between the eigenvalues
+        return ((EigenvalueRepresentation) strc1).manhattanDistance(
+                (EigenvalueRepresentation) strc2);
+    }
+
+    @Override
+    public EigenvalueRepresentation computeRepresentation(Cell strc) {
         // First, generate the Coloumb matrix
         RealMatrix matrix = computeCoulombMatrix(strc);
         
         // Compute the eigenvalues
         EigenDecomposition eign = new EigenDecomposition(matrix);
-        return eign.getRealEigenvalues();
+        return new EigenvalueRepresentation(eign.getRealEigenvalues());
     }
     
     /**
@@ -0,0 +1,79 @@
+package magpie.models.regression.crystal;
+
+import java.util.Arrays;
+
+/**
+ * Representation of a structure as the eigenvalues of a matrix, such as
+ * the Coulomb matrix. Eigenvalues are stored in descending order. Vectors
+ * of different lengths are compared by treating them as if the shorter
+ * one were padded with zeros.
+ *
+ * @author Logan Ward
+ * @see CoulombSineMatrixRegression
+ * @see CoulombEwaldMatrixRegression
+ */
+public class EigenvalueRepresentation implements StructureRepresentation {
+    /** Eigenvalues, sorted in descending order */
+    final private double[] Eigenvalues;
+
+    /**
+     * Create a new representation.
+     * @param eigenvalues Eigenvalues of the matrix. Will be copied and sorted.
+     */
+    public EigenvalueRepresentation(double[] eigenvalues) {
+        Eigenvalues = eigenvalues.clone();
+        Arrays.sort(Eigenvalues);
+        for (int i=0, j=Eigenvalues.length - 1; i<j; i++, j--) {
+            double temp = Eigenvalues[i];
+            Eigenvalues[i] = Eigenvalues[j];
+            Eigenvalues[j] = temp;
+        }
+    }
+
+    /**
+     * @return Number of eigenvalues
+     */
+    public int length() {
+        return Eigenvalues.length;
+    }
+
+    /**
+     * @return Copy of the eigenvalues, sorted in descending order
+     */
+    public double[] getEigenvalues() {
+        return Eigenvalues.clone();
+    }
+
+    /**
+     * Get a fixed number of eigenvalues. If this representation has fewer
+     * eigenvalues than requested, the remainder are set to zero.
+     * @param length Number of eigenvalues to retrieve
+     * @return Largest eigenvalues, sorted in descending order
+     */
+    public double[] getEigenvalues(int length) {
+        return Arrays.copyOf(Eigenvalues, length);
+    }
+
+    /**
+     * Compute the L1 distance between two sets of eigenvalues.
+     * @param other Representation of another structure
+     * @return Sum of the absolute differences between each eigenvalue
+     */
+    public double manhattanDistance(EigenvalueRepresentation other) {
+        final double[] e1 = Eigenvalues, e2 = other.Eigenvalues;
+        final int nCommon = Math.min(e1.length, e2.length);
+
+        // Compare eigenvalues present in both
+        double dist = 0;
+        for (int i = 0; i < nCommon; i++) {
+            dist += Math.abs(e1[i] - e2[i]);
+        }
+
+        // Compare the remaining values against zero
+        final double[] longer = e1.length > e2.length ? e1 : e2;
+        for (int i = nCommon; i < longer.length; i++) {
+            dist += Math.abs(longer[i]);
+        }
+        return dist;
+    }
+}
@@ -1,12 +1,12 @@
 package magpie.models.regression.crystal;
 
-import java.util.*;
+import java.util.List;
+import magpie.data.materials.CrystalStructureEntry;
 import magpie.data.materials.util.LookupData;
+import magpie.data.materials.util.NeighborList;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.*;
-import org.apache.commons.math3.stat.StatUtils;
-import vassal.analysis.PairDistanceAnalysis;
 import vassal.data.Cell;
 
 /**
@@ -18,10 +18,15 @@ import vassal.data.Cell;
  * Schutt, Glawe, et al. PRB (2015)</a>.
  * 
  * <usage><p><b>Usage</b>: &lt;lambda&gt; &lt;sigma&gt; &lt;cutoff&gt; &lt;bins&gt;
+ * [-nystrom &lt;n&gt; [kmeans++|random]] [-index]
  * <br><pr><i>lambda</i>: Regularization parameter
  * <br><pr><i>sigma</i>: Normalization parameter in kernel function.
  * <br><pr><i>cutoff</i>: Distance cutoff used for PRDF (Angstroms)
- * <br><pr><i>bins</i>: Number of bins used in PRDF</usage>
+ * <br><pr><i>bins</i>: Number of bins used in PRDF
+ * <br><pr><i>n</i>: Number of landmarks used to approximate the kernel 
+ * matrix with the Nystr&ouml;m method (default: use the exact kernel matrix)
+ * <br><pr><i>kmeans++|random</i>: How to select the landmarks (default: kmeans++)
+ * <br><pr><i>-index</i>: Build an index for quickly finding the most similar training entries</usage>
  * @author Logan Ward
  */
 public class PRDFRegression extends StructureKRRBasedRegression {
@@ -65,6 +70,7 @@ public class PRDFRegression extends StructureKRRBasedRegression {
             sig = Double.parseDouble(Options.get(1).toString());
             cutoff = Double.parseDouble(Options.get(2).toString());
             bins = Integer.parseInt(Options.get(3).toString());
+            setCommonOptions(Options.subList(4, Options.size()));
         } catch (Exception e) {
             throw new IllegalArgumentException(printUsage());
         }
@@ -76,54 +82,62 @@ public class PRDFRegression extends StructureKRRBasedRegression {
 
     @Override
     public String printUsage() {
-        return "Usage: <lambda> <sigma> <cutoff> <nbins>";
+        return "Usage: <lambda> <sigma> <cutoff> <nbins> [-nystrom <n> [kmeans++|random]] [-index]";
     }
 
     @Override
-    protected double computeSimiliarity(Object strc1, Object strc2) {
-        Map<ImmutablePair<Integer,Integer>, double[]> rep1 = 
-                (Map<ImmutablePair<Integer, Integer>, double[]>) strc1;
-        Map<ImmutablePair<Integer,Integer>, double[]> rep2 = 
-                (Map<ImmutablePair<Integer, Integer>, double[]>) strc2;
+    protected double computeSimiliarity(StructureRepresentation strc1,
+            StructureRepresentation strc2) {
+        PRDFRepresentation rep1 = (PRDFRepresentation) strc1;
+        PRDFRepresentation rep2 = (PRDFRepresentation) strc2;
         
-        // Compile a complete list of the element pairs for both structures
-        Set<ImmutablePair<Integer,Integer>> pairs = new TreeSet<>();
-        pairs.addAll(rep1.keySet());
-        pairs.addAll(rep2.keySet());
-        
-        // For each pair, compute the squared differences between the two PRDFs
+        // Compute the squared differences between the two PRDFs
         //  This is equivalent to the Froebius norm
-        double difference = 0;
-        for (ImmutablePair<Integer,Integer> pair : pairs) {
-            double[] prdf1 = rep1.get(pair);
-            double[] prdf2 = rep2.get(pair);
-            
-            if (prdf1 == null) {
-                // Assume prdf1 == 0
-                difference += StatUtils.sumSq(prdf2);
-            } else if (prdf2 == null) {
-                // Assume prdf2 == 0
-                difference += StatUtils.sumSq(prdf1);
-            } else {
-                double x;
-                for (int i=0; i<prdf1.length; i++) {
-                    x = prdf1[i] - prdf2[i];
-                    difference += x * x;
-                }
-            }
-        }
+        double difference = rep1.squaredDistance(rep2);
         
         // Compute kernel function to get similarity
         return Math.exp(-1 * difference / Sigma);
     }
 
+    @Override
+    protected double computeDistance(StructureRepresentation strc1,
+            StructureRepresentation strc2) {
+        // Frobenius norm of the difference between the PRDFs
+        return Math.sqrt(((PRDFRepresentation) strc1).squaredDistance(
+                (PRDFRepresentation) strc2));
+    }
+
     /**
      * Compute the pair distribution function
      * @param strc Structure to be evaluated
-     * @return Map where the key is (Z_a,Z_b) and the value is the PRDF
+     * @return PRDF between each pair of elements in the structure
+     */
+    @Override
+    public PRDFRepresentation computeRepresentation(Cell strc) {
+        return computeRepresentation(strc, new NeighborList(strc, Cutoff));
+    }
+
+    /**
+     * Compute the pair distribution function, using the neighbor list
+     * stored with an entry.
+     * @param entry Entry to be evaluated
+     * @return PRDF between each pair of elements in the structure
      */
     @Override
-    public Object computeRepresentation(Cell strc) {
+    public PRDFRepresentation computeRepresentation(CrystalStructureEntry entry) {
+        return computeRepresentation(entry.getStructure(), 
+                entry.getNeighborList(Cutoff));
+    }
+
+    /**
+     * Compute the pair distribution function from a list of neighbors.
+     * @param strc Structure to be evaluated
+     * @param neighbors List of neighbors of each atom. Cutoff must be at least
+     * as large as that of the PRDF
+     * @return PRDF between each pair of elements in the structure
+     */
+    protected PRDFRepresentation computeRepresentation(Cell strc, 
+            NeighborList neighbors) {
         // Get the atomic number of each type
         int[] typeZ = new int[strc.nTypes()];
         for (int i=0; i<typeZ.length; i++) {
@@ -134,26 +148,43 @@ public class PRDFRegression extends StructureKRRBasedRegression {
             }
         }
         
-        // Compute the PRDF of this structure
-        PairDistanceAnalysis pda = new PairDistanceAnalysis();
-        pda.setCutoffDistance(Cutoff);
-        try {
-            pda.analyzeStructure(strc);
-        } catch (Exception e) {
-            throw new Error(e);
+        // Count the number of pairs at each distance
+        double binWidth = Cutoff / NBins;
+        double[][][] prdf = new double[strc.nTypes()][strc.nTypes()][NBins];
+        for (int a=0; a<strc.nAtoms(); a++) {
+            int typeA = strc.getAtom(a).getType();
+            int nNeighbors = neighbors.NNeighbors(a, Cutoff);
+            for (int n=0; n<nNeighbors; n++) {
+                int bin = (int) Math.floor(neighbors.getDistance(a, n) / binWidth);
+                if (bin >= NBins) {
+                    continue;
+                }
+                int typeB = strc.getAtom(neighbors.getNeighbor(a, n)).getType();
+                prdf[typeA][typeB][bin]++;
+            }
         }
-        double[][][] prdf = pda.computePRDF(NBins);
         
-        // Store them as a RealMatrix 
-        Map<ImmutablePair<Integer, Integer>,double[]> rep;
-        rep = new TreeMap<>();
+        // Normalize by the number of pairs expected in an ideal gas
+        double[] shellVolume = new double[NBins];
+        for (int b=0; b<NBins; b++) {
+            shellVolume[b] = 4.0 / 3.0 * Math.PI 
+                    * (Math.pow((b + 1) * binWidth, 3) - Math.pow(b * binWidth, 3));
+        }
         for (int i=0; i<prdf.length; i++) {
             for (int j=0; j<prdf.length; j++) {
-                rep.put(new ImmutablePair<>(typeZ[i],typeZ[j]), prdf[i][j]);
+                double density = strc.numberOfType(i) * strc.numberOfType(j)
+                        / strc.volume();
+                if (density == 0) {
+                    continue;
+                }
+                for (int b=0; b<NBins; b++) {
+                    prdf[i][j][b] /= density * shellVolume[b];
+                }
             }
         }
         
-        return rep;
+        // Store them in packed form
+        return new PRDFRepresentation(typeZ, prdf);
     }
 
     @Override
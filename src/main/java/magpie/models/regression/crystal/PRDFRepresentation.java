@@ -0,0 +1,170 @@
+package magpie.models.regression.crystal;
+
+import java.util.Map;
+import java.util.TreeMap;
+import magpie.data.materials.util.LookupData;
+
+/**
+ * Partial radial distribution functions of a structure, stored in a packed form.
+ *
+ * <p>Each pair of elements (A,B) is assigned a global index,
+ * <code>A * [# elements] + B</code>, where A and B are the index of each element
+ * in {@linkplain LookupData#ElementNames}. Only the pairs present in a structure
+ * are stored. The list of pair indices is kept sorted, and the PRDF of all pairs
+ * are stored in a single dense block (pair-major, then bin), which allows two
+ * representations to be compared by walking through both lists at the same time.
+ *
+ * @author Logan Ward
+ * @see PRDFRegression
+ */
+public class PRDFRepresentation implements StructureRepresentation {
+    /** Global index of each element pair, sorted in ascending order */
+    final private int[] PairIndex;
+    /** PRDF of each pair. Value of bin b for pair i is at <code>i * NBins + b</code> */
+    final private double[] PRDF;
+    /** Number of bins in each PRDF */
+    final private int NBins;
+
+    /**
+     * Create a packed representation of the PRDFs of a structure.
+     * @param typeElement Index of the element of each atom type
+     * (i.e., atomic number - 1)
+     * @param prdf PRDF between each pair of types. Indexed by: type A, type B, bin
+     */
+    public PRDFRepresentation(int[] typeElement, double[][][] prdf) {
+        // Sort the pairs by their global index
+        Map<Integer, double[]> pairs = new TreeMap<>();
+        int nBins = 0;
+        for (int i=0; i<prdf.length; i++) {
+            for (int j=0; j<prdf.length; j++) {
+                pairs.put(getPairIndex(typeElement[i], typeElement[j]), prdf[i][j]);
+                nBins = prdf[i][j].length;
+            }
+        }
+
+        // Pack them into arrays
+        NBins = nBins;
+        PairIndex = new int[pairs.size()];
+        PRDF = new double[pairs.size() * NBins];
+        int pos = 0;
+        for (Map.Entry<Integer, double[]> pair : pairs.entrySet()) {
+            if (pair.getValue().length != NBins) {
+                throw new IllegalArgumentException("All PRDFs must have the same number of bins");
+            }
+            PairIndex[pos] = pair.getKey();
+            System.arraycopy(pair.getValue(), 0, PRDF, pos * NBins, NBins);
+            pos++;
+        }
+    }
+
+    /**
+     * Compute the global index of an element pair
+     * @param elemA Index of first element (atomic number - 1)
+     * @param elemB Index of second element
+     * @return Index of that pair
+     */
+    static public int getPairIndex(int elemA, int elemB) {
+        return elemA * LookupData.ElementNames.length + elemB;
+    }
+
+    /**
+     * @return Number of bins in each PRDF
+     */
+    public int NBins() {
+        return NBins;
+    }
+
+    /**
+     * @return Number of element pairs in this representation
+     */
+    public int NPairs() {
+        return PairIndex.length;
+    }
+
+    /**
+     * Get the first element of a certain pair
+     * @param pair Index of pair in this representation
+     * @return Index of the element (atomic number - 1)
+     */
+    public int getFirstElement(int pair) {
+        return PairIndex[pair] / LookupData.ElementNames.length;
+    }
+
+    /**
+     * Get the second element of a certain pair
+     * @param pair Index of pair in this representation
+     * @return Index of the element (atomic number - 1)
+     */
+    public int getSecondElement(int pair) {
+        return PairIndex[pair] % LookupData.ElementNames.length;
+    }
+
+    /**
+     * Get the PRDF of a certain element pair
+     * @param pair Index of pair in this representation
+     * @return Copy of the PRDF
+     */
+    public double[] getPRDF(int pair) {
+        double[] output = new double[NBins];
+        copyPRDF(pair, output, 0);
+        return output;
+    }
+
+    /**
+     * Copy the PRDF of a certain element pair into an array
+     * @param pair Index of pair in this representation
+     * @param dest Array in which to store the PRDF
+     * @param destPos Starting position in that array
+     */
+    public void copyPRDF(int pair, double[] dest, int destPos) {
+        System.arraycopy(PRDF, pair * NBins, dest, destPos, NBins);
+    }
+
+    /**
+     * Compute the squared Frobenius norm of the difference between the PRDFs
+     * of two structures. Pairs present in only one structure are assumed to
+     * have a PRDF of zero in the other.
+     * @param other Representation of another structure
+     * @return Squared distance between the two representations
+     */
+    public double squaredDistance(PRDFRepresentation other) {
+        if (other.NBins != NBins && NPairs() > 0 && other.NPairs() > 0) {
+            throw new IllegalArgumentException("Representations have different numbers of bins");
+        }
+        final int[] pairs1 = PairIndex, pairs2 = other.PairIndex;
+        final double[] prdf1 = PRDF, prdf2 = other.PRDF;
+
+        // Walk through the (sorted) pair lists of both structures
+        double difference = 0;
+        int p1 = 0, p2 = 0;
+        while (p1 < pairs1.length || p2 < pairs2.length) {
+            if (p2 == pairs2.length || (p1 < pairs1.length && pairs1[p1] < pairs2[p2])) {
+                // Pair only in structure #1
+                double sumSq = 0;
+                for (int i = p1 * NBins, end = i + NBins; i < end; i++) {
+                    sumSq += prdf1[i] * prdf1[i];
+                }
+                difference += sumSq;
+                p1++;
+            } else if (p1 == pairs1.length || pairs2[p2] < pairs1[p1]) {
+                // Pair only in structure #2
+                double sumSq = 0;
+                for (int i = p2 * NBins, end = i + NBins; i < end; i++) {
+                    sumSq += prdf2[i] * prdf2[i];
+                }
+                difference += sumSq;
+                p2++;
+            } else {
+                // Pair in both
+                int off1 = p1 * NBins, off2 = p2 * NBins;
+                for (int i = 0; i < NBins; i++) {
+                    double x = prdf1[off1 + i] - prdf2[off2 + i];
+                    difference += x * x;
+                }
+                p1++;
+                p2++;
+            }
+        }
+        return difference;
+    }
+}
@@ -22,15 +22,36 @@ import vassal.data.Cell;
  * <p>This implementation currently uses {@linkplain CholeskyDecomposition} to
  * perform to solve the ridge regression.
  * 
+ * <p>For large training sets, the model can instead be fit using the Nystr&ouml;m
+ * approximation of the kernel matrix. In this mode, <i>m</i> training entries
+ * are selected as "landmarks," either at random or with the k-means++ algorithm,
+ * and the model is expressed as a weighted sum of the kernel between a structure 
+ * and each landmark. Training then costs O(N m<sup>2</sup>) rather than 
+ * O(N<sup>3</sup>), and evaluating an entry costs O(m) rather than O(N). Use
+ * {@linkplain #setNystromApproximation(int, boolean) } or the <code>-nystrom</code>
+ * option of each subclass to enable it.
+ * 
+ * <p>Finding the training entries most similar to a structure 
+ * ({@linkplain #findClosestEntries(magpie.data.materials.CrystalStructureEntry, int) })
+ * requires comparing it to every training entry, unless the model is set
+ * to build a {@linkplain VantagePointTree} index of the training set. The index
+ * is built during training and stored with the model. It relies on 
+ * {@linkplain #computeDistance(StructureRepresentation, StructureRepresentation) }, 
+ * which subclasses should override with the metric underlying their kernel.
+ * 
  * <p><b>How to Extend this Class</b>
  * 
  * <ol>
  * <li>Implement {@linkplain #computeRepresentation(vassal.data.Cell) } to create
- * a representation of a structure.
- * <li>Implement {@link #computeSimiliarity(Object, Object)}
+ * a representation of a structure. Representations must be immutable
+ * {@linkplain StructureRepresentation} objects.
+ * <li>Implement {@link #computeSimiliarity(StructureRepresentation, StructureRepresentation)}
  * to compute the similarity between two structures based on their representations.
  * Note: This operation should include your kernel function.
- * <li>Implement {@linkplain #setOptions(java.util.List) } and 
+ * <li>(Optional) Override {@link #computeDistance(StructureRepresentation, StructureRepresentation)}
+ * with the metric used by your kernel function.
+ * <li>Implement {@linkplain #setOptions(java.util.List) } and call
+ * {@linkplain #setCommonOptions(java.util.List) } with any remaining options
  * <li>Blame Logan Ward if there's something else he forgot to list!
  * </ol>
  * 
@@ -51,15 +72,34 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
     /** Coefficients of model */
     private double[] Alpha;
     /** Representation of structures in the training set. */
-    private List<Object> TrainingStructures;
+    private List<StructureRepresentation> TrainingStructures;
     /** Names of each object in the training set. */
     private List<String> TrainingStructureNames;
+    /** 
+     * Representation of the structures used to make predictions. Either the entire
+     * training set, or the landmarks used in the Nystr&ouml;m approximation.
+     */
+    private List<StructureRepresentation> BasisStructures;
+    /** Number of landmarks used in Nystr&ouml;m approximation. 0 to use exact KRR */
+    private int NLandmarks = 0;
+    /** Whether to select landmarks with k-means++, rather than at random */
+    private boolean KMeansLandmarks = true;
+    /** Whether to build an index for finding the closest training entries */
+    private boolean BuildIndex = false;
+    /** Index used to find closest training entries. null if not built */
+    private VantagePointTree Index = null;
+    /** 
+     * Seed for the random number generator used to select landmarks and build
+     * the index, so that training is reproducible
+     */
+    private long RandomSeed = 1;
 
     @Override
     public StructureKRRBasedRegression clone() {
         StructureKRRBasedRegression x = (StructureKRRBasedRegression) super.clone();
         if (Alpha != null) {
             x.TrainingStructures = new ArrayList<>(TrainingStructures);
+            x.BasisStructures = new ArrayList<>(BasisStructures);
             x.Alpha = Alpha.clone();
             x.TrainingStructureNames = new ArrayList<>(TrainingStructureNames);
         }
@@ -75,6 +115,90 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
         this.Lambda = lambda;
     }
 
+    /**
+     * Set whether to train the model using the Nystr&ouml;m approximation of 
+     * the kernel matrix.
+     * @param nLandmarks Number of landmark structures. Set to 0 to use exact KRR
+     * @param useKMeans Whether to select landmarks using k-means++. Otherwise,
+     * landmarks are selected randomly
+     */
+    public void setNystromApproximation(int nLandmarks, boolean useKMeans) {
+        if (nLandmarks < 0) {
+            throw new IllegalArgumentException("Number of landmarks must be nonnegative");
+        }
+        resetModel();
+        this.NLandmarks = nLandmarks;
+        this.KMeansLandmarks = useKMeans;
+    }
+
+    /**
+     * Get the number of landmarks used in the Nystr&ouml;m approximation.
+     * @return Number of landmarks, 0 if the model uses exact KRR
+     */
+    public int getNLandmarks() {
+        return NLandmarks;
+    }
+    
+    /**
+     * Set the seed for the random number generator used when selecting 
+     * landmarks for the Nystr&ouml;m approximation and building the index. 
+     * Training with the same seed on the same data gives the same model.
+     * @param seed Desired seed
+     */
+    public void setRandomSeed(long seed) {
+        resetModel();
+        this.RandomSeed = seed;
+    }
+    
+    /**
+     * Set whether to build an index of the training set that accelerates
+     * finding the closest entries to a structure.
+     * @param buildIndex Whether to build the index during training
+     * @see #findClosestEntries(magpie.data.materials.CrystalStructureEntry, int) 
+     */
+    public void setBuildIndex(boolean buildIndex) {
+        resetModel();
+        this.BuildIndex = buildIndex;
+    }
+    
+    /**
+     * Set options that are common to all subclasses. Should be
+     * called by the {@linkplain #setOptions(java.util.List) } operation of subclasses
+     * with any options remaining after those specific to that model.
+     * 
+     * <p>Usage: [-nystrom &lt;n landmarks&gt; [kmeans++|random]] [-index]
+     * @param Options Options to be parsed
+     * @throws Exception If options are invalid
+     */
+    protected void setCommonOptions(List<Object> Options) throws Exception {
+        int nLandmarks = 0;
+        boolean useKMeans = true;
+        boolean buildIndex = false;
+        int pos = 0;
+        while (pos < Options.size()) {
+            switch (Options.get(pos).toString().toLowerCase()) {
+                case "-nystrom": 
+                    nLandmarks = Integer.parseInt(Options.get(++pos).toString());
+                    if (pos + 1 < Options.size()) {
+                        String method = Options.get(pos + 1).toString().toLowerCase();
+                        if (method.equals("kmeans++") || method.equals("random")) {
+                            useKMeans = method.equals("kmeans++");
+                            pos++;
+                        }
+                    }
+                    break;
+                case "-index":
+                    buildIndex = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException();
+            }
+            pos++;
+        }
+        setNystromApproximation(nLandmarks, useKMeans);
+        setBuildIndex(buildIndex);
+    }
+
     @Override
     protected void train_protected(Dataset TrainData) {
         if (! (TrainData instanceof CrystalStructureDataset)) {
@@ -86,11 +210,29 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
         TrainingStructureNames = new ArrayList<>(TrainData.NEntries());
         CrystalStructureDataset ptr = (CrystalStructureDataset) TrainData;
         for (int e=0; e<TrainData.NEntries(); e++) {
-            Cell strc = ptr.getEntry(e).getStructure();
-            TrainingStructures.add(computeRepresentation(strc));
+            TrainingStructures.add(computeRepresentation(ptr.getEntry(e)));
             TrainingStructureNames.add(ptr.getEntry(e).getName());
         }
         
+        // Build the index, if desired
+        Index = BuildIndex ? 
+                new VantagePointTree(this, TrainingStructures, new Random(RandomSeed)) : null;
+        
+        // Fit the model
+        RealVector y = new ArrayRealVector(TrainData.getMeasuredClassArray());
+        if (NLandmarks > 0) {
+            trainNystrom(y);
+        } else {
+            trainExact(y);
+        }
+    }
+    
+    /**
+     * Fit the model by solving (K + &lambda;I) &alpha; = y, where K is the 
+     * kernel matrix between all training entries.
+     * @param y Measured class values of training entries
+     */
+    private void trainExact(RealVector y) {
         // Compute similiarity between each crystal structure
         RealMatrix K = new BlockRealMatrix(TrainingStructures.size(),
                 TrainingStructures.size());
@@ -105,8 +247,147 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
         }
         
         // Compute the terms
-        RealVector y = new ArrayRealVector(TrainData.getMeasuredClassArray());
         Alpha = new CholeskyDecomposition(K).getSolver().solve(y).toArray();
+        BasisStructures = TrainingStructures;
+    }
+    
+    /**
+     * Fit the model using the Nystr&ouml;m approximation. Solves 
+     * (K<sub>mn</sub>K<sub>nm</sub> + &lambda;K<sub>mm</sub>) &alpha; = K<sub>mn</sub>y,
+     * where n are the training entries and m are the landmarks.
+     * 
+     * <p>K<sub>mn</sub>K<sub>nm</sub> and K<sub>mn</sub>y are accumulated 
+     * one training entry at a time, so memory use is O(m<sup>2</sup>).
+     * @param y Measured class values of training entries
+     */
+    private void trainNystrom(RealVector y) {
+        int nTrain = TrainingStructures.size();
+        
+        // Select the landmarks
+        int[] landmarks = selectLandmarks(Math.min(NLandmarks, nTrain), new Random(RandomSeed));
+        int nLandmarks = landmarks.length;
+        int[] landmarkPos = new int[nTrain];
+        Arrays.fill(landmarkPos, -1);
+        BasisStructures = new ArrayList<>(nLandmarks);
+        for (int l=0; l<nLandmarks; l++) {
+            landmarkPos[landmarks[l]] = l;
+            BasisStructures.add(TrainingStructures.get(landmarks[l]));
+        }
+        
+        // Accumulate the terms of the linear system
+        double[][] A = new double[nLandmarks][nLandmarks];
+        double[] b = new double[nLandmarks];
+        double[] row = new double[nLandmarks];
+        for (int e=0; e<nTrain; e++) {
+            // Compute kernel between this entry and each landmark
+            StructureRepresentation rep = TrainingStructures.get(e);
+            for (int l=0; l<nLandmarks; l++) {
+                row[l] = landmarkPos[e] == l ? 1.0 :
+                        computeSimiliarity(rep, BasisStructures.get(l));
+            }
+            
+            // Add to Kmn * Knm and Kmn * y
+            double ye = y.getEntry(e);
+            for (int l1=0; l1<nLandmarks; l1++) {
+                double k1 = row[l1];
+                b[l1] += k1 * ye;
+                for (int l2=l1; l2<nLandmarks; l2++) {
+                    A[l1][l2] += k1 * row[l2];
+                }
+            }
+            
+            // If this entry is a landmark, add the regularization term
+            if (landmarkPos[e] >= 0) {
+                int l1 = landmarkPos[e];
+                for (int l2=l1; l2<nLandmarks; l2++) {
+                    A[l1][l2] += Lambda * row[l2];
+                }
+            }
+        }
+        
+        // Fill in the lower triangle
+        for (int l1=0; l1<nLandmarks; l1++) {
+            for (int l2=0; l2<l1; l2++) {
+                A[l1][l2] = A[l2][l1];
+            }
+        }
+        
+        // Solve the system
+        Alpha = new CholeskyDecomposition(new BlockRealMatrix(A)).getSolver()
+                .solve(new ArrayRealVector(b, false)).toArray();
+    }
+    
+    /**
+     * Select the landmarks used in the Nystr&ouml;m approximation. 
+     * 
+     * <p>When using k-means++, each new landmark is selected with a probability
+     * proportional to the squared distance, in the feature space of the kernel, 
+     * between an entry and the closest landmark already selected. This distance
+     * is 2 - 2 k(x, z), given that the kernel of a structure with itself is 1.
+     * If all remaining entries are identical to a landmark, fewer landmarks than
+     * requested will be returned.
+     * 
+     * @param nLandmarks Number of landmarks to select
+     * @param random Random number generator
+     * @return Indices of the training entries selected as landmarks
+     */
+    protected int[] selectLandmarks(int nLandmarks, Random random) {
+        int nTrain = TrainingStructures.size();
+        
+        // Random selection
+        if (! KMeansLandmarks) {
+            List<Integer> order = new ArrayList<>(nTrain);
+            for (int i=0; i<nTrain; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            int[] output = new int[nLandmarks];
+            for (int l=0; l<nLandmarks; l++) {
+                output[l] = order.get(l);
+            }
+            return output;
+        }
+        
+        // k-means++ selection
+        int[] output = new int[nLandmarks];
+        double[] minDist = new double[nTrain];
+        Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+        for (int l=0; l<nLandmarks; l++) {
+            // Pick the next landmark
+            if (l == 0) {
+                output[l] = random.nextInt(nTrain);
+            } else {
+                double total = 0;
+                for (double d : minDist) {
+                    total += d;
+                }
+                if (total <= 0) {
+                    return Arrays.copyOf(output, l);
+                }
+                double target = random.nextDouble() * total, cumulative = 0;
+                for (int e=0; e<nTrain; e++) {
+                    if (minDist[e] > 0) {
+                        output[l] = e;
+                        cumulative += minDist[e];
+                        if (cumulative > target) {
+                            break;
+                        }
+                    }
+                }
+            }
+            
+            // Update the distance to the nearest landmark
+            StructureRepresentation landmark = TrainingStructures.get(output[l]);
+            minDist[output[l]] = 0;
+            for (int e=0; e<nTrain; e++) {
+                if (minDist[e] > 0) {
+                    double dist = Math.max(0, 2 - 2 * 
+                            computeSimiliarity(TrainingStructures.get(e), landmark));
+                    minDist[e] = Math.min(minDist[e], dist);
+                }
+            }
+        }
+        return output;
     }
 
     @Override
@@ -114,10 +395,10 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
         try {
             for (BaseEntry ptr : TrainData.getEntries()) {
                 CrystalStructureEntry entry = (CrystalStructureEntry) ptr;
-                Object rep = computeRepresentation(entry.getStructure());
+                StructureRepresentation rep = computeRepresentation(entry);
                 double y = 0;
-                for (int a = 0; a < TrainingStructures.size(); a++) {
-                    double sim = computeSimiliarity(rep, TrainingStructures.get(a));
+                for (int a = 0; a < BasisStructures.size(); a++) {
+                    double sim = computeSimiliarity(rep, BasisStructures.get(a));
                     y += Alpha[a] * sim;
                 }
                 entry.setPredictedClass(y);
@@ -134,7 +415,27 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
      * @param strc2 Representation of structure #2
      * @return Similarity between two structures
      */
-    abstract protected double computeSimiliarity(Object strc1, Object strc2);
+    abstract protected double computeSimiliarity(StructureRepresentation strc1,
+            StructureRepresentation strc2);
+    
+    /**
+     * Compute the distance between two crystal structures. Must be a metric 
+     * (i.e., satisfy the triangle inequality), and the similarity between 
+     * structures must decrease as the distance increases.
+     * 
+     * <p>By default, computes the distance between the structures in the feature 
+     * space of the kernel, sqrt(2 - 2 k(x,y)). Subclasses should override this 
+     * operation with the metric used by their kernel, which is faster to 
+     * compute and does not lose resolution when the kernel becomes small.
+     * 
+     * @param strc1 Representation of structure #1
+     * @param strc2 Representation of structure #2
+     * @return Distance between the two structures
+     */
+    protected double computeDistance(StructureRepresentation strc1,
+            StructureRepresentation strc2) {
+        return Math.sqrt(Math.max(0, 2 - 2 * computeSimiliarity(strc1, strc2)));
+    }
     
     /**
      * Given a structure, compute representation of the structure. For instance,
@@ -142,18 +443,57 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
      * @param strc Structure
      * @return Representation of the structure
      */
-    abstract public Object computeRepresentation(Cell strc);
+    abstract public StructureRepresentation computeRepresentation(Cell strc);
+    
+    /**
+     * Compute the representation of an entry. By default, computes the 
+     * representation from the structure. Subclasses should override this 
+     * operation if they can use representations cached by the entry, such as
+     * its {@linkplain CrystalStructureEntry#getNeighborList(double) neighbor list}.
+     * @param entry Entry to be evaluated
+     * @return Representation of the structure of that entry
+     */
+    public StructureRepresentation computeRepresentation(CrystalStructureEntry entry) {
+        return computeRepresentation(entry.getStructure());
+    }
     
     /**
      * Find the name of the training entries that are closest in similarity to this entry.
+     * 
+     * <p>Uses the index of the training set, if one was built during training.
+     * Otherwise, compares the entry to every training entry.
      * @param entry Entry to be matched
      * @param num Number to list
-     * @return List of names of closest training entries
+     * @return List of names of closest training entries, sorted by similarity
+     * @see #setBuildIndex(boolean) 
      */
     public List<String> findClosestEntries(CrystalStructureEntry entry, int num) {
         // Compute the representation of this new entry
-        Object myRep = computeRepresentation(entry.getStructure());
+        StructureRepresentation myRep = computeRepresentation(entry);
         
+        // Find the closest entries
+        int[] matches;
+        if (Index != null) {
+            matches = Index.findClosest(this, TrainingStructures, myRep, num);
+        } else {
+            matches = findClosestEntriesExhaustively(myRep, num);
+        }
+        
+        // Convert output
+        List<String> output = new ArrayList<>(matches.length);
+        for (int match : matches) {
+            output.add(TrainingStructureNames.get(match));
+        }
+        return output;
+    }
+    
+    /**
+     * Find the closest entries by comparing against every training entry.
+     * @param rep Representation of the structure to be matched
+     * @param num Number to find
+     * @return Indices of the closest training entries, sorted by similarity
+     */
+    private int[] findClosestEntriesExhaustively(StructureRepresentation rep, int num) {
         // Create output array
         PriorityQueue<Pair<Integer,Double>> bestMatches = new PriorityQueue<>(num,
                 new Comparator<Pair<Integer,Double>>() {
@@ -167,7 +507,7 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
         // Loop through each entry in training set
         for (int te=0; te<TrainingStructures.size(); te++) {
             // Compute similarity
-            double sim = computeSimiliarity(TrainingStructures.get(te), myRep);
+            double sim = computeSimiliarity(TrainingStructures.get(te), rep);
             
             // Add it to queue
             bestMatches.add(new ImmutablePair<>(te, sim));
@@ -178,20 +518,21 @@ abstract public class StructureKRRBasedRegression extends BaseRegression {
             }
         }
         
-        // Convert output
-        List<String> output = new ArrayList<>(num);
-        for (Pair<Integer, Double> matched : bestMatches) {
-            output.add(TrainingStructureNames.get(matched.getKey()));
+        // Get them in order, from most to least similar
+        int[] output = new int[bestMatches.size()];
+        for (int i=output.length-1; i>=0; i--) {
+            output[i] = bestMatches.poll().getKey();
         }
-        
-        // Reverse list
-        Collections.reverse(output);
-                
         return output;
     }
 
     @Override
     protected String printModel_protected() {
+        if (NLandmarks > 0) {
+            return String.format("Nystrom-approximated KRR model with %d landmarks"
+                    + " selected from %d points and a lambda = %.2f", 
+                    BasisStructures.size(), TrainingStructures.size(), Lambda);
+        }
         return String.format("KRR model with %d points and a lambda = %.2f", 
                 TrainingStructures.size(), Lambda);
     }    
@@ -0,0 +1,19 @@
+package magpie.models.regression.crystal;
+
+import java.io.Serializable;
+
+/**
+ * Representation of a crystal structure used by a {@linkplain StructureKRRBasedRegression}.
+ *
+ * <p>Representations are computed once per structure and then compared against
+ * many other representations when training or running a model. Implementations
+ * must therefore be immutable, so that they can be shared between clones of a
+ * model, and should store their data in primitive arrays, so that comparing
+ * two representations does not require allocating any new objects.
+ *
+ * @author Logan Ward
+ * @see StructureKRRBasedRegression#computeRepresentation(vassal.data.Cell)
+ */
+public interface StructureRepresentation extends Serializable {
+
+}
@@ -0,0 +1,320 @@
+package magpie.models.regression.crystal;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Vantage-point tree used to find the training structures most similar to a
+ * certain structure without comparing it to every structure in the training set.
+ *
+ * <p>Each node of the tree is a training structure (the "vantage point") and a
+ * radius. Structures within that radius of the vantage point are stored in
+ * the "inside" branch, and the rest are stored in the "outside" branch.
+ * Distances are computed using
+ * {@linkplain StructureKRRBasedRegression#computeDistance(StructureRepresentation, StructureRepresentation) },
+ * which must be a metric. Because of the triangle inequality, entire branches
+ * can be skipped during a search, yet the results are exact.
+ *
+ * <p>The tree is stored in primitive arrays and holds only the indices of
+ * structures, so it can be serialized along with a model and shared between
+ * clones of a model.
+ *
+ * @author Logan Ward
+ */
+public class VantagePointTree implements java.io.Serializable {
+    /** Index of the vantage point of each node */
+    final private int[] Point;
+    /** Radius of each node */
+    final private double[] Radius;
+    /** Index of the node holding points inside the radius. -1 if none */
+    final private int[] Inside;
+    /** Index of the node holding points outside the radius. -1 if none */
+    final private int[] Outside;
+    /** Number of nodes created so far (used during construction) */
+    private int NNodes = 0;
+
+    /**
+     * Build a tree for a set of structures
+     * @param model Model used to compute distances between structures
+     * @param structures Representations of each structure
+     * @param random Random number generator used to select vantage points
+     */
+    public VantagePointTree(StructureKRRBasedRegression model,
+            List<StructureRepresentation> structures, Random random) {
+        int n = structures.size();
+        Point = new int[n];
+        Radius = new double[n];
+        Inside = new int[n];
+        Outside = new int[n];
+
+        // Build the tree
+        int[] points = new int[n];
+        for (int i=0; i<n; i++) {
+            points[i] = i;
+        }
+        buildNode(model, structures, points, 0, n, new double[n], random);
+    }
+
+    /**
+     * Recursively build a node of the tree.
+     * @param model Model used to compute distances
+     * @param structures Representations of each structure
+     * @param points Indices of structures. Will be reordered
+     * @param start First position in points to be included in this node
+     * @param end Last position in points (exclusive)
+     * @param dist Work array used to store distances
+     * @param random Random number generator
+     * @return Index of the new node, -1 if no points
+     */
+    private int buildNode(StructureKRRBasedRegression model,
+            List<StructureRepresentation> structures, int[] points, int start,
+            int end, double[] dist, Random random) {
+        if (start >= end) {
+            return -1;
+        }
+
+        // Pick a vantage point, and move it to the start of the list
+        int node = NNodes++;
+        swap(points, start, start + random.nextInt(end - start));
+        Point[node] = points[start];
+        Inside[node] = Outside[node] = -1;
+        if (end - start == 1) {
+            return node;
+        }
+
+        // Compute distances to the vantage point
+        StructureRepresentation vantage = structures.get(Point[node]);
+        for (int i=start+1; i<end; i++) {
+            dist[i] = model.computeDistance(vantage, structures.get(points[i]));
+        }
+
+        // Split the remaining points at the median distance
+        int median = (start + 1 + end) / 2;
+        selectNth(points, dist, start + 1, end, median);
+        Radius[node] = dist[median];
+
+        // Points [start+1, median] are inside the radius, (median, end) outside
+        Inside[node] = buildNode(model, structures, points, start + 1, median + 1,
+                dist, random);
+        Outside[node] = buildNode(model, structures, points, median + 1, end,
+                dist, random);
+        return node;
+    }
+
+    /**
+     * Find the structures closest to a certain structure
+     * @param model Model used to compute distances
+     * @param structures Representations of each structure. Must be the same
+     * as those used to build the tree
+     * @param query Structure to be matched
+     * @param num Number of structures to find
+     * @return Indices of the closest structures, sorted by distance. Ties
+     * are sorted by index.
+     */
+    public int[] findClosest(StructureKRRBasedRegression model,
+            List<StructureRepresentation> structures,
+            StructureRepresentation query, int num) {
+        num = Math.min(num, Point.length);
+        if (num <= 0) {
+            return new int[0];
+        }
+
+        // Search the tree, storing results in a max-heap
+        Neighbors neighbors = new Neighbors(num);
+        search(0, model, structures, query, neighbors);
+        return neighbors.getSortedIndices();
+    }
+
+    /**
+     * Recursively search a node of the tree
+     * @param node Index of node
+     * @param model Model used to compute distances
+     * @param structures Representations of each structure
+     * @param query Structure to be matched
+     * @param neighbors Closest structures found so far
+     */
+    private void search(int node, StructureKRRBasedRegression model,
+            List<StructureRepresentation> structures,
+            StructureRepresentation query, Neighbors neighbors) {
+        if (node < 0) {
+            return;
+        }
+
+        // Check the vantage point
+        double d = model.computeDistance(query, structures.get(Point[node]));
+        neighbors.offer(Point[node], d);
+
+        // Search the branches. Search the one containing the query first,
+        //  as it most likely to tighten the search radius
+        double radius = Radius[node];
+        if (d <= radius) {
+            if (d - neighbors.getMaxDistance() <= radius) {
+                search(Inside[node], model, structures, query, neighbors);
+            }
+            if (d + neighbors.getMaxDistance() >= radius) {
+                search(Outside[node], model, structures, query, neighbors);
+            }
+        } else {
+            if (d + neighbors.getMaxDistance() >= radius) {
+                search(Outside[node], model, structures, query, neighbors);
+            }
+            if (d - neighbors.getMaxDistance() <= radius) {
+                search(Inside[node], model, structures, query, neighbors);
+            }
+        }
+    }
+
+    /**
+     * Partially sort points so that the point at position n has the n-th
+     * smallest distance, and all points before it have smaller or equal distances.
+     * @param points Indices of points
+     * @param dist Distance of each point
+     * @param start First position to sort
+     * @param end Last position (exclusive)
+     * @param n Desired position
+     */
+    static private void selectNth(int[] points, double[] dist, int start, int end, int n) {
+        int left = start, right = end - 1;
+        while (left < right) {
+            // Partition around the middle value
+            double pivot = dist[(left + right) >>> 1];
+            int i = left, j = right;
+            while (i <= j) {
+                while (dist[i] < pivot) i++;
+                while (dist[j] > pivot) j--;
+                if (i <= j) {
+                    swap(points, i, j);
+                    swap(dist, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the side containing n
+            if (n <= j) {
+                right = j;
+            } else if (n >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+    }
+
+    static private void swap(int[] x, int i, int j) {
+        int t = x[i]; x[i] = x[j]; x[j] = t;
+    }
+
+    static private void swap(double[] x, int i, int j) {
+        double t = x[i]; x[i] = x[j]; x[j] = t;
+    }
+
+    /**
+     * Bounded max-heap holding the closest points found during a search
+     */
+    static private class Neighbors {
+        /** Index of each point */
+        final private int[] Index;
+        /** Distance of each point */
+        final private double[] Distance;
+        /** Number of points in heap */
+        private int Size = 0;
+
+        public Neighbors(int capacity) {
+            Index = new int[capacity];
+            Distance = new double[capacity];
+        }
+
+        /**
+         * @return Distance of the farthest point, if heap is full. Infinity otherwise
+         */
+        public double getMaxDistance() {
+            return Size < Index.length ? Double.POSITIVE_INFINITY : Distance[0];
+        }
+
+        /**
+         * Whether point a is farther than point b. Ties are broken by index
+         */
+        private boolean isFarther(double distA, int indexA, double distB, int indexB) {
+            return distA > distB || (distA == distB && indexA > indexB);
+        }
+
+        /**
+         * Add a point to the heap, if it is closer than the farthest point
+         * @param index Index of point
+         * @param dist Distance to query point
+         */
+        public void offer(int index, double dist) {
+            int pos;
+            if (Size < Index.length) {
+                // Add to the end, and sift up
+                pos = Size++;
+                while (pos > 0) {
+                    int parent = (pos - 1) / 2;
+                    if (! isFarther(dist, index, Distance[parent], Index[parent])) {
+                        break;
+                    }
+                    Index[pos] = Index[parent];
+                    Distance[pos] = Distance[parent];
+                    pos = parent;
+                }
+            } else if (isFarther(Distance[0], Index[0], dist, index)) {
+                // Replace the root
+                pos = siftDown(dist, index);
+            } else {
+                return;
+            }
+            Index[pos] = index;
+            Distance[pos] = dist;
+        }
+
+        /**
+         * Find where to place a new point, assuming the root is removed. Moves
+         * points closer to the root as needed
+         * @param dist Distance of point to be placed
+         * @param index Index of point to be placed
+         * @return Position in which to place point
+         */
+        private int siftDown(double dist, int index) {
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= Size) {
+                    break;
+                }
+                if (child + 1 < Size && isFarther(Distance[child + 1],
+                        Index[child + 1], Distance[child], Index[child])) {
+                    child++;
+                }
+                if (! isFarther(Distance[child], Index[child], dist, index)) {
+                    break;
+                }
+                Index[pos] = Index[child];
+                Distance[pos] = Distance[child];
+                pos = child;
+            }
+            return pos;
+        }
+
+        /**
+         * Get the points in the heap, sorted by distance. Empties the heap
+         * @return Indices of points, sorted from closest to farthest
+         */
+        public int[] getSortedIndices() {
+            int[] output = new int[Size];
+            while (Size > 0) {
+                // Remove the farthest point
+                output[Size - 1] = Index[0];
+                
+                // Replace it with the last point in the heap
+                Size--;
+                int lastIndex = Index[Size];
+                double lastDist = Distance[Size];
+                int pos = siftDown(lastDist, lastIndex);
+                Index[pos] = lastIndex;
+                Distance[pos] = lastDist;
+            }
+            return output;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package magpie.models.utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Holds persistent connections to the server of an external model.
+ *
+ * <p>Each connection is opened in the binary mode of the server protocol
+ * (see {@linkplain ExternalModelUtility}), and is kept open between requests
+ * so that the cost of connecting to the server is only paid once. At most one
+ * connection is opened per worker process of the server, so that each
+ * connection is served by a different worker.
+ *
+ * <p>Connections are borrowed using {@linkplain #borrow() }, and must be either
+ * returned using {@linkplain #release(magpie.models.utility.ExternalModelConnectionPool.Connection) }
+ * or, if an error leaves the connection in an unknown state,
+ * closed using {@linkplain #discard(magpie.models.utility.ExternalModelConnectionPool.Connection) }.
+ *
+ * @author Logan Ward
+ */
+public class ExternalModelConnectionPool implements AutoCloseable {
+    /** Port of the server */
+    final private int Port;
+    /** Maximum number of connections */
+    final private int MaxConnections;
+    /** Connections not currently in use */
+    final private LinkedBlockingDeque<Connection> Idle = new LinkedBlockingDeque<>();
+    /** Number of connections currently open */
+    private int NOpen = 0;
+    /** Whether the pool has been closed */
+    private boolean Closed = false;
+
+    /**
+     * Create a pool for a certain server
+     * @param port Port on which the server is listening
+     * @param maxConnections Maximum number of connections. Should be equal to
+     * the number of workers used by the server
+     */
+    public ExternalModelConnectionPool(int port, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Must allow at least one connection");
+        }
+        this.Port = port;
+        this.MaxConnections = maxConnections;
+    }
+
+    /**
+     * @return Maximum number of connections to the server
+     */
+    public int getMaxConnections() {
+        return MaxConnections;
+    }
+
+    /**
+     * Get a connection to the server. Opens a new connection if none are idle
+     * and the limit has not been reached, otherwise waits for one to be released.
+     * @return Connection, which is not in use by any other thread
+     * @throws Exception If connection fails
+     */
+    public Connection borrow() throws Exception {
+        boolean openNew = false;
+        synchronized (this) {
+            if (Closed) {
+                throw new IllegalStateException("Connection pool has been closed");
+            }
+            Connection conn = Idle.poll();
+            if (conn != null) {
+                return conn;
+            }
+            if (NOpen < MaxConnections) {
+                NOpen++;
+                openNew = true;
+            }
+        }
+
+        // Open a new connection
+        if (openNew) {
+            try {
+                return new Connection(Port);
+            } catch (Exception e) {
+                synchronized (this) {
+                    NOpen--;
+                }
+                throw e;
+            }
+        }
+
+        // Wait for another thread to finish
+        return Idle.take();
+    }
+
+    /**
+     * Return a connection to the pool, so that it can be used by other threads
+     * @param conn Connection that is ready to receive another request
+     */
+    public void release(Connection conn) {
+        synchronized (this) {
+            if (! Closed) {
+                Idle.add(conn);
+                return;
+            }
+        }
+        conn.close();
+    }
+
+    /**
+     * Close a connection that is no longer usable (e.g., after a communication error)
+     * @param conn Connection to be closed
+     */
+    public void discard(Connection conn) {
+        conn.close();
+        synchronized (this) {
+            NOpen--;
+        }
+    }
+
+    /**
+     * Close all connections that are not in use, without closing the pool.
+     * 
+     * <p>Each worker of the server handles one connection at a time, so idle
+     * connections must be closed before opening a one-shot connection (e.g.,
+     * for the plain-text protocol). Otherwise, that connection could wait forever
+     * for a worker to become available.
+     */
+    public void closeIdle() {
+        Connection conn = Idle.poll();
+        while (conn != null) {
+            discard(conn);
+            conn = Idle.poll();
+        }
+    }
+
+    /**
+     * Close all idle connections. Connections that are in use will be closed
+     * when they are released.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            Closed = true;
+        }
+        Connection conn = Idle.poll();
+        while (conn != null) {
+            conn.close();
+            conn = Idle.poll();
+        }
+    }
+
+    /**
+     * Persistent connection to a model server using the binary protocol.
+     * All numbers are sent in little-endian byte order.
+     */
+    public static class Connection {
+        /** Size of the buffer used when sending or receiving arrays */
+        final static private int BufferSize = 64 * 1024;
+        /** Socket connected to the server */
+        final private Socket Socket;
+        /** Stream used to read from server */
+        final private DataInputStream Input;
+        /** Stream used to write to server */
+        final private OutputStream Output;
+        /** Buffer holding data waiting to be sent */
+        final private ByteBuffer WriteBuffer =
+                ByteBuffer.allocate(BufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        /** Buffer used to convert data read from the server */
+        final private ByteBuffer ReadBuffer =
+                ByteBuffer.allocate(BufferSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * Open a connection, and switch the server to binary mode
+         * @param port Port of the server
+         * @throws IOException
+         */
+        private Connection(int port) throws IOException {
+            Socket = new Socket("localhost", port);
+            Socket.setTcpNoDelay(true);
+            Input = new DataInputStream(new BufferedInputStream(Socket.getInputStream(), BufferSize));
+            Output = new BufferedOutputStream(Socket.getOutputStream(), BufferSize);
+            Output.write("binary\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * @return Stream providing data from the server
+         */
+        public DataInputStream getInputStream() {
+            return Input;
+        }
+
+        /**
+         * Send a command word to the server
+         * @param command Command
+         * @throws IOException
+         */
+        public void writeCommand(String command) throws IOException {
+            byte[] bytes = command.getBytes(StandardCharsets.US_ASCII);
+            writeInt(bytes.length);
+            flushBuffer();
+            Output.write(bytes);
+        }
+
+        /**
+         * Write a 32-bit integer. Data are buffered before they are sent,
+         * call {@linkplain #flush()} after writing a complete request.
+         * @param value Value to be written
+         * @throws IOException
+         */
+        public void writeInt(int value) throws IOException {
+            if (WriteBuffer.remaining() < 4) {
+                flushBuffer();
+            }
+            WriteBuffer.putInt(value);
+        }
+
+        /**
+         * Write a 64-bit floating point number.
+         * @param value Value to be written
+         * @throws IOException
+         */
+        public void writeDouble(double value) throws IOException {
+            if (WriteBuffer.remaining() < 8) {
+                flushBuffer();
+            }
+            WriteBuffer.putDouble(value);
+        }
+
+        /**
+         * Send any buffered data to the server
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            flushBuffer();
+            Output.flush();
+        }
+
+        /**
+         * Write the contents of the number buffer to the output stream
+         * @throws IOException
+         */
+        private void flushBuffer() throws IOException {
+            Output.write(WriteBuffer.array(), 0, WriteBuffer.position());
+            WriteBuffer.clear();
+        }
+
+        /**
+         * Read a 32-bit integer
+         * @return Value
+         * @throws IOException
+         */
+        public int readInt() throws IOException {
+            Input.readFully(ReadBuffer.array(), 0, 4);
+            return ReadBuffer.getInt(0);
+        }
+
+        /**
+         * Read a 64-bit integer
+         * @return Value
+         * @throws IOException
+         */
+        public long readLong() throws IOException {
+            Input.readFully(ReadBuffer.array(), 0, 8);
+            return ReadBuffer.getLong(0);
+        }
+
+        /**
+         * Read an array of 64-bit floating point numbers
+         * @param output Array in which to store the numbers
+         * @throws IOException
+         */
+        public void readDoubles(double[] output) throws IOException {
+            int pos = 0;
+            while (pos < output.length) {
+                int count = Math.min(output.length - pos, BufferSize / 8);
+                Input.readFully(ReadBuffer.array(), 0, count * 8);
+                for (int i=0; i<count; i++) {
+                    output[pos++] = ReadBuffer.getDouble(i * 8);
+                }
+            }
+        }
+
+        /**
+         * Read an error message sent by the server
+         * @return Error message
+         * @throws IOException
+         */
+        public String readMessage() throws IOException {
+            byte[] message = new byte[readInt()];
+            Input.readFully(message);
+            return new String(message, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Close the connection. Tells the server that no more requests
+         * will be made, if possible
+         */
+        public void close() {
+            try {
+                writeCommand("close");
+                flush();
+            } catch (IOException e) {
+                // Server already gone
+            }
+            try {
+                Socket.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
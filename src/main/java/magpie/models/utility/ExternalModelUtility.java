@@ -7,12 +7,20 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.models.classification.AbstractClassifier;
 import magpie.models.interfaces.ExternalModel;
+import org.apache.commons.io.input.BoundedInputStream;
 
 /**
  * Utility operation for models that rely on an external (i.e., non-java) process
@@ -36,13 +44,46 @@ import magpie.models.interfaces.ExternalModel;
  *      <li>"type" - Followed by no other data. The server responds with 
  * a description of model as plain text.
  *      <li>"exit" - Stop the server
+ *      <li>"binary" - Switch this connection to the binary protocol, described below
  *  </ul>
  * </li>
  * </ol>
  * 
+ * <p>The binary protocol avoids converting numbers to text, and keeps the
+ * connection open between requests. All integers and floating point numbers
+ * are sent in little-endian byte order. Each request starts with the length
+ * of the command word as a 32-bit integer, followed by the command word.
+ * Commands can be:
+ * 
+ * <ul>
+ * <li>"run" - Followed by the number of entries and number of attributes
+ * (as 32-bit integers), and the attributes of each entry as 64-bit floats.
+ * The server responds with the number of rows and columns of the output,
+ * followed by the outputs as 64-bit floats.
+ * <li>"train" - Followed by the number of entries and number of attributes,
+ * the class variable of each entry, then the attributes of each entry. The
+ * server responds with the length of the model state as a 64-bit integer,
+ * followed by the model state.
+ * <li>"type" - Followed by no other data. The server responds with the length
+ * of the description of the model as a 32-bit integer, followed by the
+ * description as UTF-8 text.
+ * <li>"close" - End the connection
+ * </ul>
+ * 
+ * <p>If a request fails, the server responds with -1 in place of the first
+ * number of the response, followed by the length of an error message and the
+ * message itself. The connection can still be used afterwards.
+ * 
+ * <p>The server may use several worker processes, which each handle one 
+ * connection at a time. Large "run" requests are split between workers. As
+ * binary connections are kept open, idle binary connections are closed before
+ * opening a connection that uses the plain-text protocol.
+ * 
  * @author Logan Ward
  */
 public class ExternalModelUtility {
+    /** Minimum number of entries sent to each worker when splitting a run request */
+    public static int MinimumEntriesPerWorker = 256;
     
     /**
      * Launch a thread that does nothing but read from the output of another process.
@@ -57,14 +98,16 @@ public class ExternalModelUtility {
         new Thread(new Runnable() {
             @Override
             public void run() {
+                byte[] buffer = new byte[4096];
                 while (true) {
                     try {
-                        int readBtye = processStream.read();
-                        if (readBtye == -1) {
+                        int nRead = processStream.read(buffer);
+                        if (nRead == -1) {
                             return;
                         }
                         if (outputStream != null) {
-                            outputStream.write(readBtye);
+                            outputStream.write(buffer, 0, nRead);
+                            outputStream.flush();
                         }
                     } catch (IOException e) {
                         throw new RuntimeException(e);
@@ -135,6 +178,19 @@ public class ExternalModelUtility {
         return port;
     }
 
+    /**
+     * Start the server for a model, if it is not already running
+     * @param model Model to be checked
+     * @throws Exception 
+     */
+    public static void ensureServerIsRunning(ExternalModel model) throws Exception {
+        synchronized (model) {
+            if (! model.serverIsRunning()) {
+                model.startServer();
+            }
+        }
+    }
+
     /**
      * Make a call to the model server to train a model
      *
@@ -146,11 +202,33 @@ public class ExternalModelUtility {
      */
     public static void trainModel(ExternalModel model, Dataset trainData) throws Exception {
         // Make sure the server is running
-        if (! model.serverIsRunning()) {
-            model.startServer();
+        ensureServerIsRunning(model);
+        
+        if (model.usesBinaryProtocol()) {
+            trainModelBinary(model, trainData);
+        } else {
+            trainModelText(model, trainData);
+        }
+        if (!model.serverIsRunning()) {
+            throw new RuntimeException("Model server crashed");
         }
         
+        // Only the worker that trained the model has the new state. 
+        //  Restart the server so that all workers use the new model
+        if (model.getNumberOfWorkers() > 1) {
+            model.closeServer();
+        }
+    }
+    
+    /**
+     * Train a model, sending the data as plain text
+     * @param model Model object being trained
+     * @param trainData Data used to train model
+     * @throws Exception 
+     */
+    private static void trainModelText(ExternalModel model, Dataset trainData) throws Exception {
         // Open the connection
+        closeIdleConnections(model);
         Socket socket;
         PrintWriter fo;
         socket = new Socket("localhost", model.getPort());
@@ -173,14 +251,52 @@ public class ExternalModelUtility {
         
         // Read the train model back
         model.readModel(socket.getInputStream());
-        if (!model.serverIsRunning()) {
-            throw new RuntimeException("Model server crashed");
-        }
         
         // Done!
         fo.close();
         socket.close();
     }
+    
+    /**
+     * Train a model using the binary protocol
+     * @param model Model object being trained
+     * @param trainData Data used to train model
+     * @throws Exception 
+     */
+    private static void trainModelBinary(ExternalModel model, Dataset trainData) throws Exception {
+        ExternalModelConnectionPool pool = model.getConnectionPool();
+        ExternalModelConnectionPool.Connection conn = pool.borrow();
+        boolean usable = false;
+        try {
+            // Send the training data
+            conn.writeCommand("train");
+            conn.writeInt(trainData.NEntries());
+            conn.writeInt(trainData.NAttributes());
+            for (BaseEntry e : trainData.getEntries()) {
+                conn.writeDouble(e.getMeasuredClass());
+            }
+            writeAttributes(conn, trainData.getEntries(), trainData.NAttributes());
+            conn.flush();
+            
+            // Read the trained model back
+            long length = conn.readLong();
+            if (length < 0) {
+                String message = conn.readMessage();
+                usable = true;
+                throw new RuntimeException("Model server failed to train model: " + message);
+            }
+            BoundedInputStream input = new BoundedInputStream(conn.getInputStream(), length);
+            input.setPropagateClose(false);
+            model.readModel(input);
+            usable = input.read() == -1;
+        } finally {
+            if (usable) {
+                pool.release(conn);
+            } else {
+                pool.discard(conn);
+            }
+        }
+    }
 
     /**
      * Connect to server and run model
@@ -190,13 +306,178 @@ public class ExternalModelUtility {
      */
     static public void runModel(ExternalModel model, Dataset runData) throws Exception {
         // Check that the model is running
-        Socket socket;
-        if (!model.serverIsRunning()) {
-            model.startServer();
+        ensureServerIsRunning(model);
+        
+        if (! model.usesBinaryProtocol()) {
+            runModelText(model, runData);
+            return;
+        }
+        
+        // Determine how many workers to use
+        final ExternalModelConnectionPool pool = model.getConnectionPool();
+        final boolean isClassifier = model instanceof AbstractClassifier;
+        final int nAttributes = runData.NAttributes();
+        final List<BaseEntry> entries = runData.getEntries();
+        int nChunks = Math.min(pool.getMaxConnections(), 
+                entries.size() / MinimumEntriesPerWorker);
+        if (nChunks <= 1) {
+            runModelBinary(pool, entries, nAttributes, isClassifier);
+            return;
         }
         
+        // Send part of the data to each worker
+        ExecutorService service = Executors.newFixedThreadPool(nChunks);
+        try {
+            List<Future<Object>> futures = new ArrayList<>(nChunks);
+            for (int i=0; i<nChunks; i++) {
+                final List<BaseEntry> part = entries.subList(
+                        i * entries.size() / nChunks, (i + 1) * entries.size() / nChunks);
+                futures.add(service.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        runModelBinary(pool, part, nAttributes, isClassifier);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new RuntimeException("Model server failed due to: " 
+                            + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            service.shutdownNow();
+        }
+    }
+    
+    /**
+     * Run a model using the binary protocol
+     * @param pool Connections to the model server
+     * @param entries Entries to be run
+     * @param nAttributes Number of attributes for each entry
+     * @param isClassifier Whether model is a classifier
+     * @throws Exception 
+     */
+    private static void runModelBinary(ExternalModelConnectionPool pool, 
+            List<BaseEntry> entries, int nAttributes, boolean isClassifier) throws Exception {
+        ExternalModelConnectionPool.Connection conn = pool.borrow();
+        boolean usable = false;
+        try {
+            // Send the data to be run
+            conn.writeCommand("run");
+            conn.writeInt(entries.size());
+            conn.writeInt(nAttributes);
+            writeAttributes(conn, entries, nAttributes);
+            conn.flush();
+            
+            // Read the result
+            int nRows = conn.readInt();
+            if (nRows < 0) {
+                String message = conn.readMessage();
+                usable = true;
+                throw new RuntimeException("Model server failed to run model: " + message);
+            }
+            int nCols = conn.readInt();
+            if (nRows != entries.size()) {
+                throw new RuntimeException("Model server returned wrong number of results");
+            }
+            double[] row = new double[nCols];
+            for (BaseEntry e : entries) {
+                conn.readDoubles(row);
+                if (isClassifier) {
+                    e.setClassProbabilities(row.clone());
+                } else {
+                    e.setPredictedClass(row[0]);
+                }
+            }
+            usable = true;
+        } finally {
+            if (usable) {
+                pool.release(conn);
+            } else {
+                pool.discard(conn);
+            }
+        }
+    }
+    
+    /**
+     * Get a description of the model using the binary protocol
+     * @param pool Connections to the model server
+     * @return Description of the model
+     * @throws Exception 
+     */
+    private static String getModelDescriptionBinary(ExternalModelConnectionPool pool) 
+            throws Exception {
+        ExternalModelConnectionPool.Connection conn = pool.borrow();
+        boolean usable = false;
+        try {
+            conn.writeCommand("type");
+            conn.flush();
+            
+            // Read the description
+            int length = conn.readInt();
+            if (length < 0) {
+                String message = conn.readMessage();
+                usable = true;
+                throw new RuntimeException("Model server failed to describe model: " + message);
+            }
+            byte[] description = new byte[length];
+            conn.getInputStream().readFully(description);
+            usable = true;
+            return new String(description, StandardCharsets.UTF_8);
+        } finally {
+            if (usable) {
+                pool.release(conn);
+            } else {
+                pool.discard(conn);
+            }
+        }
+    }
+    
+    /**
+     * Close any idle binary connections to a model server, so that a worker
+     * is available to handle a new plain-text connection
+     * @param model Model whose connections should be closed
+     */
+    private static void closeIdleConnections(ExternalModel model) {
+        ExternalModelConnectionPool pool = model.getConnectionPool();
+        if (pool != null) {
+            pool.closeIdle();
+        }
+    }
+    
+    /**
+     * Write the attributes of each entry to a model server
+     * @param conn Connection to server
+     * @param entries Entries to be sent
+     * @param nAttributes Number of attributes
+     * @throws IOException 
+     */
+    private static void writeAttributes(ExternalModelConnectionPool.Connection conn, 
+            List<BaseEntry> entries, int nAttributes) throws IOException {
+        for (BaseEntry e : entries) {
+            for (int a = 0; a < nAttributes; a++) {
+                conn.writeDouble(e.getAttribute(a));
+            }
+        }
+    }
+
+    /**
+     * Run a model, sending the data as plain text
+     * @param model Model to be run
+     * @param runData Dataset to be run
+     * @throws Exception
+     */
+    static private void runModelText(ExternalModel model, Dataset runData) throws Exception {
         // Connect to the server
-        socket = new Socket("localhost", model.getPort());
+        closeIdleConnections(model);
+        Socket socket = new Socket("localhost", model.getPort());
         PrintWriter fo = new PrintWriter(socket.getOutputStream());
         
         // Tell it we want to run the model
@@ -249,15 +530,25 @@ public class ExternalModelUtility {
         List<String> linesToAdd = new ArrayList<>();
         
         // Launch server, if needed
-        if (!model.serverIsRunning()) {
+        try {
+            ensureServerIsRunning(model);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+       
+        // If possible, use a binary connection
+        if (model.usesBinaryProtocol() && model.getConnectionPool() != null) {
             try {
-                model.startServer();
+                String description = getModelDescriptionBinary(model.getConnectionPool());
+                linesToAdd.addAll(Arrays.asList(description.split("\\r?\\n")));
             } catch (Exception e) {
                 throw new Error(e);
             }
+            return linesToAdd;
         }
        
         // Connect to server
+        closeIdleConnections(model);
         try (final Socket socket = new Socket("localhost", model.getPort())) {
             // Tell it we want a description
             PrintWriter fo = new PrintWriter(socket.getOutputStream());
@@ -290,6 +581,7 @@ public class ExternalModelUtility {
         }
         
         // Send the shutdown command
+        closeIdleConnections(model);
         try (
             final Socket socket = new Socket("localhost", model.getPort())
         ) {
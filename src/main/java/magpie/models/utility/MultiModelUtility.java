@@ -1,7 +1,20 @@
 package magpie.models.utility;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import magpie.Magpie;
+import magpie.data.Dataset;
 import magpie.models.BaseModel;
 import magpie.models.interfaces.MultiModel;
 import magpie.utility.UtilityOperations;
@@ -129,5 +142,220 @@ abstract public class MultiModelUtility {
         }
         return null;
     }
+
+    /**
+     * Threads used to evaluate tasks in parallel. Shared between all models. 
+     * Threads are created as needed, so that tasks which themselves evaluate 
+     * tasks in parallel (e.g., a SplitModel inside a MultiObjectiveRegression) 
+     * cannot deadlock waiting for a free thread. The number of tasks running
+     * at once is controlled by {@linkplain #evaluateInParallel(java.util.List) }.
+     */
+    final static private ExecutorService SharedPool = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                /** Number of threads created so far */
+                final private AtomicInteger Count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "magpie-submodel-" + Count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     
+    /**
+     * Number of threads available to the task being evaluated by each thread. 
+     * Set by {@linkplain #evaluateInParallel(java.util.List) }, null otherwise.
+     */
+    final static private ThreadLocal<Integer> ThreadBudget = new ThreadLocal<>();
+
+    /**
+     * Get the number of threads available to the calling thread. 
+     * 
+     * <p>Equal to {@linkplain Magpie#NThreads}, unless called from within a task
+     * being run by {@linkplain #evaluateInParallel(java.util.List) }. In that case,
+     * each task gets an equal share of the threads that were available when the 
+     * tasks were launched. Unlike changing {@linkplain Magpie#NThreads}, this 
+     * does not affect other threads.
+     * 
+     * @return Number of threads that can be used
+     */
+    static public int getNThreads() {
+        Integer budget = ThreadBudget.get();
+        if (budget == null) {
+            return Magpie.NThreads;
+        }
+        return Math.max(1, Math.min(budget, Magpie.NThreads));
+    }
+
+    /**
+     * Get the number of submodels that should be trained or run at the same time.
+     * @param nModels Number of submodels
+     * @return Number of submodels to evaluate concurrently. If 1, submodels
+     * should be evaluated serially
+     * @see #evaluateInParallel(java.util.List) 
+     */
+    static public int getNWorkers(int nModels) {
+        return Math.max(1, Math.min(getNThreads(), nModels));
+    }
+
+    /**
+     * Create a copy of a dataset for each thread. Used when several submodels
+     * are run at once, as models modify the data they are evaluated on (e.g., by
+     * normalizing attributes or storing predicted class values).
+     *
+     * <p>Each thread makes its own copy the first time {@linkplain ThreadCopies#get() }
+     * is called, and re-uses it for any other submodel evaluated by the same thread.
+     * {@linkplain #evaluateInParallel(java.util.List) } runs each task on one of 
+     * {@linkplain #getNWorkers(int) } threads, so the number of copies is at most 
+     * the number of workers rather than the number of submodels.
+     * 
+     * @param data Dataset to be copied. Must not be modified while the copies are in use
+     * @return Per-thread copies of the dataset
+     */
+    static public ThreadCopies getThreadCopies(Dataset data) {
+        return new ThreadCopies(data);
+    }
+
+    /**
+     * Evaluate a list of independent tasks, such as training each submodel.
+     * 
+     * <p>Runs up to {@linkplain #getNWorkers(int) } tasks at the same time, 
+     * using the calling thread and threads from a pool shared by all models. 
+     * The threads available to the caller ({@linkplain #getNThreads() }) are 
+     * divided evenly between the workers, which allows each submodel to use
+     * any remaining threads for its own parallelism. 
+     * 
+     * <p>If only a single thread is available, the tasks are run serially
+     * in the calling thread.
+     * 
+     * @param <T> Type of the result of each task
+     * @param tasks Tasks to be evaluated
+     * @return Result of each task, in the same order as the tasks
+     */
+    static public <T> List<T> evaluateInParallel(final List<? extends Callable<T>> tasks) {
+        final List<T> output = new ArrayList<>(Collections.<T>nCopies(tasks.size(), null));
+        int nWorkers = getNWorkers(tasks.size());
+        if (nWorkers <= 1) {
+            for (int i=0; i<tasks.size(); i++) {
+                output.set(i, callTask(tasks.get(i)));
+            }
+            return output;
+        }
+        
+        // Each worker takes the next task until none remain
+        final int budget = Math.max(1, getNThreads() / nWorkers);
+        final AtomicInteger nextTask = new AtomicInteger();
+        Callable<Void> worker = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Integer originalBudget = ThreadBudget.get();
+                ThreadBudget.set(budget);
+                try {
+                    int task = nextTask.getAndIncrement();
+                    while (task < tasks.size()) {
+                        output.set(task, callTask(tasks.get(task)));
+                        task = nextTask.getAndIncrement();
+                    }
+                } catch (Throwable t) {
+                    // Stop the other workers
+                    nextTask.set(tasks.size());
+                    throw t;
+                } finally {
+                    if (originalBudget == null) {
+                        ThreadBudget.remove();
+                    } else {
+                        ThreadBudget.set(originalBudget);
+                    }
+                }
+                return null;
+            }
+        };
+        
+        // Launch the workers, using the calling thread as one of them
+        List<Future<Void>> futures = new ArrayList<>(nWorkers - 1);
+        for (int w=1; w<nWorkers; w++) {
+            futures.add(SharedPool.submit(worker));
+        }
+        Throwable failure = null;
+        try {
+            worker.call();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                if (failure == null) {
+                    failure = new RuntimeException(e);
+                }
+            }
+        }
+        
+        // Pass on the first failure
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+        return output;
+    }
+    
+    /**
+     * Run a single task. Unchecked exceptions are passed through unchanged, 
+     * so that callers can handle them the same as if the task were run directly.
+     * @param <T> Type of the result
+     * @param task Task to be run
+     * @return Result of the task
+     */
+    static private <T> T callTask(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Submodel failed due to: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Copies of a dataset, one for each thread that requests one. 
+     * 
+     * @see #getThreadCopies(magpie.data.Dataset) 
+     */
+    static public class ThreadCopies {
+        /** Dataset being copied */
+        final private Dataset Original;
+        /** Copy made by each thread */
+        final private Map<Thread, Dataset> Copies = new ConcurrentHashMap<>();
+
+        /**
+         * Create an empty set of copies
+         * @param original Dataset to be copied
+         */
+        private ThreadCopies(Dataset original) {
+            this.Original = original;
+        }
+        
+        /**
+         * Get the copy of the dataset for the calling thread. Makes the copy
+         * if this thread does not have one yet.
+         * @return Copy that is only used by the calling thread
+         */
+        public Dataset get() {
+            Dataset copy = Copies.get(Thread.currentThread());
+            if (copy == null) {
+                copy = Original.clone();
+                Copies.put(Thread.currentThread(), copy);
+            }
+            return copy;
+        }
+    }
 }
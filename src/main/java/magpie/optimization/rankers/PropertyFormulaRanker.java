@@ -7,6 +7,7 @@ import magpie.data.MultiPropertyEntry;
 import expr.*;
 import java.util.LinkedList;
 import magpie.data.MultiPropertyDataset;
+import magpie.utility.CompiledExpression;
 
 /**
  * Use a formula of several properties. Requires that entries are instances of
@@ -21,6 +22,8 @@ import magpie.data.MultiPropertyDataset;
 public class PropertyFormulaRanker extends MultiObjectiveEntryRanker {
     /** Engine used to evaluate formula */
     private Expr Evaluator = null;
+    /** Compiled version of formula. Null if formula could not be compiled */
+    private CompiledExpression CompiledEvaluator = null;
     /** Holds links to the value of variables in the Expr formula */
     final private List<Variable> Variables = new LinkedList<>();
     /** Index of properties used in the formula */
@@ -93,6 +96,7 @@ public class PropertyFormulaRanker extends MultiObjectiveEntryRanker {
         }
         // Parse the expression
         Evaluator = Parser.parseString(formula);
+        CompiledEvaluator = CompiledExpression.compile(formula, Variables, Evaluator);
     }
     
     /**
@@ -136,6 +140,14 @@ public class PropertyFormulaRanker extends MultiObjectiveEntryRanker {
             throw new Error("Entry must be a MultiPropertyEntry");
         }
         MultiPropertyEntry e = (MultiPropertyEntry) Entry;
+        if (CompiledEvaluator != null) {
+            double[] x = new double[Variables.size()];
+            for (int i=0; i<x.length; i++) {
+                x[i] = isUsingMeasured() ? e.getMeasuredProperty(PropertyIndex[i]) 
+                    : e.getPredictedProperty(PropertyIndex[i]);
+            }
+            return CompiledEvaluator.evaluate(x);
+        }
         for (int i=0; i<Variables.size(); i++) {
             double x = isUsingMeasured() ? e.getMeasuredProperty(PropertyIndex[i]) 
                 : e.getPredictedProperty(PropertyIndex[i]);
@@ -0,0 +1,184 @@
+package magpie.user.server;
+
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the attributes computed for recently-evaluated entries, so that models that compute attributes
+ * the same way can share them.
+ *
+ * <p>Attributes are stored along with the hash that identifies how they were computed (see
+ * {@linkplain Dataset#getAttributeGenerationHash()}), so a single cache can hold attributes for
+ * several different datasets. As in {@linkplain PredictionCache}, entries are identified by their contents
+ * and entries whose class does not define its own <code>equals</code> operation are never cached.</p>
+ *
+ * <p>The cache holds a fixed number of entries, and discards the least-recently used entry when full.
+ * Attributes must depend only on the entry itself, and not on the other entries in the dataset.</p>
+ *
+ * @author Logan Ward
+ */
+public class AttributeCache {
+    /** Maximum number of entries to store */
+    final private int Capacity;
+    /** Attributes of each entry, in order of last access */
+    final private LinkedHashMap<Key, double[]> Cache;
+    /** Names of attributes for each method of computing attributes */
+    final private Map<String, List<String>> AttributeNames = new HashMap<>();
+    /** Number of entries whose attributes were found */
+    final private AtomicLong NumberHits = new AtomicLong(0);
+    /** Number of entries whose attributes were computed */
+    final private AtomicLong NumberMisses = new AtomicLong(0);
+
+    /**
+     * Create an empty cache
+     * @param capacity Maximum number of entries to store
+     */
+    public AttributeCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one entry");
+        }
+        this.Capacity = capacity;
+        this.Cache = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return Maximum number of entries held in the cache
+     */
+    public int getCapacity() {
+        return Capacity;
+    }
+
+    /**
+     * @return Number of entries currently held in the cache
+     */
+    public synchronized int size() {
+        return Cache.size();
+    }
+
+    /**
+     * @return Number of entries whose attributes were found in the cache
+     */
+    public long getNumberHits() {
+        return NumberHits.get();
+    }
+
+    /**
+     * @return Number of entries whose attributes had to be computed
+     */
+    public long getNumberMisses() {
+        return NumberMisses.get();
+    }
+
+    /**
+     * @return Fraction of entries whose attributes were found in the cache
+     */
+    public double getHitRate() {
+        long hits = getNumberHits(), total = hits + getNumberMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Compute the attributes for a dataset, using stored attributes where possible.
+     * Attributes are only computed for entries that are not in the cache.
+     *
+     * @param data Dataset for which to compute attributes
+     * @param hash Hash identifying how the dataset computes attributes, from
+     * {@linkplain Dataset#getAttributeGenerationHash()}
+     * @throws Exception If attribute generation fails
+     */
+    public void generateAttributes(Dataset data, String hash) throws Exception {
+        // Find the entries that are not in the cache
+        Dataset toCompute = data.emptyClone();
+        List<Key> keys = new ArrayList<>();
+        List<String> names;
+        synchronized (this) {
+            names = AttributeNames.get(hash);
+            for (BaseEntry entry : data.getEntries()) {
+                Key key = createKey(hash, entry);
+                double[] attributes = names == null || key == null ? null : Cache.get(key);
+                if (attributes == null) {
+                    toCompute.addEntry(entry);
+                    keys.add(key);
+                } else {
+                    entry.setAttributes(attributes);
+                }
+            }
+        }
+        NumberHits.addAndGet(data.NEntries() - toCompute.NEntries());
+        NumberMisses.addAndGet(toCompute.NEntries());
+
+        // Compute attributes for the others
+        if (toCompute.NEntries() > 0 || names == null) {
+            toCompute.generateAttributes();
+            names = Arrays.asList(toCompute.getAttributeNames());
+            synchronized (this) {
+                AttributeNames.put(hash, names);
+                for (int i = 0; i < keys.size(); i++) {
+                    if (keys.get(i) != null) {
+                        Cache.put(keys.get(i), toCompute.getEntry(i).getAttributes());
+                    }
+                }
+            }
+        }
+        data.setAttributeNames(names);
+    }
+
+    /**
+     * Create the key used to store an entry. Entries are compared without their attributes or predictions
+     *
+     * @param hash Hash identifying how attributes are computed
+     * @param entry Entry to be stored
+     * @return Key, or <code>null</code> if the entry cannot be cached
+     */
+    private Key createKey(String hash, BaseEntry entry) {
+        if (!PredictionCache.isCacheable(entry)) {
+            return null;
+        }
+        BaseEntry copy = entry.clone();
+        copy.clearAttributes();
+        copy.deletePredictedClass();
+        return new Key(hash, copy);
+    }
+
+    /**
+     * Identifies an entry and how its attributes were computed
+     */
+    static private class Key {
+        /** Hash identifying how attributes are computed */
+        final public String Hash;
+        /** Entry */
+        final public BaseEntry Entry;
+
+        public Key(String hash, BaseEntry entry) {
+            this.Hash = hash;
+            this.Entry = entry;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Hash.equals(other.Hash) && Entry.equals(other.Entry);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Hash.hashCode() + Entry.hashCode();
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package magpie.user.server;
+
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a model on a large stream of entries, a chunk at a time.
+ *
+ * <p>The entries are read from the body of the request as they arrive, and the results for each chunk are
+ * written as soon as the chunk has been evaluated, so neither the input nor the results are ever held in memory
+ * in full. Clients should read the results while they are still sending entries. Chunks are evaluated as
+ * bulk work (see {@linkplain WorkScheduler}).</p>
+ *
+ * <p>The input can be in either of two formats:</p>
+ *
+ * <ul>
+ * <li><b>entries</b>: Text with one entry per line (e.g., "NaCl"), in the format accepted by
+ * {@linkplain Dataset#addEntry(java.lang.String)}. Blank lines are ignored.</li>
+ * <li><b>attributes</b>: Attributes that have already been computed, as a series of binary blocks. Each
+ * block starts with the number of rows (entries) and columns (attributes) as 32-bit integers, followed by
+ * the attributes as 64-bit floating point numbers in row-major order. The columns must be in the order given
+ * by {@linkplain ModelPackage#getAttributeNames()}, which is the same order used when computing attributes
+ * with the server.</li>
+ * </ul>
+ *
+ * <p>The results can be in either of two formats:</p>
+ *
+ * <ul>
+ * <li><b>binary</b>: An array of 64-bit floating point numbers, with no header. Regression models produce one
+ * number per entry, the predicted value. Classification models produce 1 + (number of classes) numbers per
+ * entry: the index of the predicted class, followed by the probability of each class in the order of
+ * <b>possibleClasses</b> in the model information.</li>
+ * <li><b>csv</b>: Text with a header row, and then one row for each entry. The columns are the entry (or its
+ * index, for attribute input) and the predicted value. For classification models, these are followed by the
+ * name of the predicted class and the probability of each class.</li>
+ * </ul>
+ *
+ * <p>All binary numbers are little-endian, as in the protocol used to communicate with scikit-learn models.
+ * Entries that fail to parse produce NaN in binary output and blank values in CSV output.</p>
+ *
+ * @author Logan Ward
+ */
+public class BulkScorer implements StreamingOutput {
+
+    /**
+     * Possible formats of the input
+     */
+    public enum InputFormat {
+        /** Text, one entry per line */
+        ENTRIES,
+        /** Binary matrices of attributes */
+        ATTRIBUTES
+    }
+
+    /**
+     * Possible formats of the results
+     */
+    public enum OutputFormat {
+        /** Array of 64-bit floating point numbers */
+        BINARY("application/octet-stream"),
+        /** Comma-separated values */
+        CSV("text/csv");
+
+        /** Media type of results in this format */
+        final private String MediaType;
+
+        OutputFormat(String mediaType) {
+            this.MediaType = mediaType;
+        }
+
+        /**
+         * @return Media type of results in this format
+         */
+        public String getMediaType() {
+            return MediaType;
+        }
+
+        /**
+         * Get a format by name
+         *
+         * @param name Name of format, case-insensitive
+         * @return Format
+         * @throws WebApplicationException If no such format exists
+         */
+        public static OutputFormat parse(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw ServerUtilityOperations.prepareException("unknown format: " + name
+                        + ". Should be binary or csv");
+            }
+        }
+    }
+
+    /**
+     * Entries read from the input
+     */
+    static private class Chunk {
+        /** Entries, as provided by the user. <code>null</code> for attribute input */
+        final public List<String> Names;
+        /** Parsed entries */
+        final public Dataset Data;
+        /** Index of each entry in {@linkplain #Data}, or -1 if it failed to parse */
+        final public int[] Rows;
+
+        public Chunk(List<String> names, Dataset data, int[] rows) {
+            this.Names = names;
+            this.Data = data;
+            this.Rows = rows;
+        }
+    }
+
+    /** Model to be run */
+    final private ModelPackage Model;
+    /** Format of the input */
+    final private InputFormat Input;
+    /** Format of the results */
+    final private OutputFormat Output;
+    /** Maximum number of entries evaluated at once */
+    final private int ChunkSize;
+    /** Name of the endpoint handling the request, used when recording metrics. Can be <code>null</code> */
+    final private String Endpoint;
+    /** Reader for entry input */
+    private BufferedReader EntryReader = null;
+    /** Reader for attribute input */
+    private DataInputStream AttributeReader = null;
+    /** Names of the attributes expected in attribute input */
+    private List<String> AttributeNames = null;
+    /** Number of rows left in the current block of attributes */
+    private int RowsLeft = 0;
+    /** Number of entries read so far */
+    private long NumberRead = 0;
+    /** First chunk, if read by {@linkplain #prepare()} */
+    private Chunk FirstChunk = null;
+
+    /**
+     * Prepare to run a model
+     *
+     * @param model Model to be run
+     * @param input Stream providing the entries
+     * @param inputFormat Format of the input
+     * @param outputFormat Format of the results
+     * @param chunkSize Maximum number of entries to evaluate at once
+     * @param endpoint Name of the endpoint handling the request, used when recording metrics.
+     * Can be <code>null</code>
+     */
+    public BulkScorer(ModelPackage model, InputStream input, InputFormat inputFormat, OutputFormat outputFormat,
+            int chunkSize, String endpoint) {
+        this.Model = model;
+        this.Input = inputFormat;
+        this.Output = outputFormat;
+        this.ChunkSize = Math.max(1, chunkSize);
+        this.Endpoint = endpoint;
+        if (inputFormat == InputFormat.ENTRIES) {
+            EntryReader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        } else {
+            AttributeReader = new DataInputStream(input);
+        }
+    }
+
+    /**
+     * Read the first chunk of entries, so that problems with the input are found before the results
+     * start being written. Problems found later cause the results to end early.
+     *
+     * @throws WebApplicationException If the input is not formatted correctly
+     */
+    public void prepare() throws WebApplicationException {
+        if (Input == InputFormat.ATTRIBUTES) {
+            try {
+                AttributeNames = Model.getAttributeNames();
+            } catch (Exception e) {
+                throw ServerUtilityOperations.prepareException("attributes of this model are not available: "
+                        + ServerUtilityOperations.getErrorMessage(e));
+            }
+        }
+        FirstChunk = readChunk();
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        if (Input == InputFormat.ATTRIBUTES && AttributeNames == null) {
+            prepare();
+        }
+        OutputStream stream = new BufferedOutputStream(output);
+        Writer writer = null;
+        if (Output == OutputFormat.CSV) {
+            writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            writeHeader(writer);
+        }
+
+        // Evaluate each chunk, and write the results as soon as they are ready
+        Chunk chunk = FirstChunk != null ? FirstChunk : readChunk();
+        FirstChunk = null;
+        while (chunk != null) {
+            try {
+                Model.runBulk(chunk.Data, Input == InputFormat.ATTRIBUTES);
+            } catch (Exception e) {
+                throw new IOException("model evaluation failed: " + ServerUtilityOperations.getErrorMessage(e), e);
+            }
+
+            long startTime = System.nanoTime();
+            if (writer == null) {
+                writeBinary(chunk, stream);
+                stream.flush();
+            } else {
+                writeCSV(chunk, writer);
+                writer.flush();
+            }
+            recordPhase(ServerMetrics.Phase.SERIALIZE, startTime);
+            chunk = readChunk();
+        }
+    }
+
+    /**
+     * Read the next chunk of entries
+     *
+     * @return Chunk, or <code>null</code> if there are no more entries
+     * @throws WebApplicationException If the input is not formatted correctly
+     */
+    private Chunk readChunk() throws WebApplicationException {
+        long startTime = System.nanoTime();
+        Chunk chunk;
+        try {
+            chunk = Input == InputFormat.ENTRIES ? readEntries() : readAttributes();
+        } catch (IOException e) {
+            throw ServerUtilityOperations.prepareException("failed to read input: "
+                    + ServerUtilityOperations.getErrorMessage(e));
+        }
+        if (chunk != null) {
+            recordPhase(ServerMetrics.Phase.PARSE, startTime);
+        }
+        return chunk;
+    }
+
+    /**
+     * Read and parse the next chunk of entries from text input
+     *
+     * @return Chunk, or <code>null</code> if there are no more entries
+     * @throws IOException If reading fails
+     */
+    private Chunk readEntries() throws IOException {
+        List<String> names = new ArrayList<>();
+        String line;
+        while (names.size() < ChunkSize && (line = EntryReader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                names.add(line);
+            }
+        }
+        if (names.isEmpty()) {
+            return null;
+        }
+
+        // Parse the entries
+        Dataset data = Model.getDatasetCopy();
+        int[] rows = new int[names.size()];
+        for (int i = 0; i < rows.length; i++) {
+            try {
+                data.addEntry(names.get(i));
+                rows[i] = data.NEntries() - 1;
+            } catch (Exception e) {
+                rows[i] = -1;
+            }
+        }
+        NumberRead += rows.length;
+        return new Chunk(names, data, rows);
+    }
+
+    /**
+     * Read the next chunk of entries from binary attribute input
+     *
+     * @return Chunk, or <code>null</code> if there are no more entries
+     * @throws IOException If reading fails
+     */
+    private Chunk readAttributes() throws IOException {
+        Dataset data = Model.getDatasetCopy();
+        data.setAttributeNames(AttributeNames);
+        byte[] buffer = new byte[8 * AttributeNames.size()];
+        while (data.NEntries() < ChunkSize) {
+            // Start the next block, if needed
+            if (RowsLeft == 0) {
+                if (!readBlockHeader()) {
+                    break;
+                }
+                continue;
+            }
+
+            // Read an entry
+            AttributeReader.readFully(buffer);
+            double[] attributes = new double[AttributeNames.size()];
+            ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(attributes);
+            BaseEntry entry = new BaseEntry();
+            entry.setAttributes(attributes);
+            data.addEntry(entry);
+            RowsLeft--;
+        }
+        if (data.NEntries() == 0) {
+            return null;
+        }
+
+        int[] rows = new int[data.NEntries()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        NumberRead += rows.length;
+        return new Chunk(null, data, rows);
+    }
+
+    /**
+     * Read the size of the next block of attributes
+     *
+     * @return Whether there is another block
+     * @throws IOException If reading fails
+     * @throws WebApplicationException If the block does not have the correct number of attributes
+     */
+    private boolean readBlockHeader() throws IOException {
+        byte[] header = new byte[8];
+        int first = AttributeReader.read(header, 0, 1);
+        if (first < 0) {
+            return false;
+        }
+        try {
+            AttributeReader.readFully(header, 1, 7);
+        } catch (EOFException e) {
+            throw ServerUtilityOperations.prepareException("input ended in the middle of a block header");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int nRows = buffer.getInt(), nCols = buffer.getInt();
+        if (nRows < 0) {
+            throw ServerUtilityOperations.prepareException("block has negative number of rows: " + nRows);
+        }
+        if (nCols != AttributeNames.size()) {
+            throw ServerUtilityOperations.prepareException(String.format("wrong number of attributes: %d != %d",
+                    nCols, AttributeNames.size()));
+        }
+        RowsLeft = nRows;
+        return true;
+    }
+
+    /**
+     * Write the header of CSV results
+     *
+     * @param writer Output
+     * @throws IOException If writing fails
+     */
+    private void writeHeader(Writer writer) throws IOException {
+        writer.write(Input == InputFormat.ENTRIES ? "entry" : "index");
+        writer.write(",predictedValue");
+        if (Model.isClassifer()) {
+            writer.write(",predictedClass");
+            for (String name : Model.getPossibleClasses()) {
+                writer.write(",");
+                writer.write(quote("P(" + name + ")"));
+            }
+        }
+        writer.write("\n");
+    }
+
+    /**
+     * Write the results for a chunk as CSV
+     *
+     * @param chunk Chunk that has been evaluated
+     * @param writer Output
+     * @throws IOException If writing fails
+     */
+    private void writeCSV(Chunk chunk, Writer writer) throws IOException {
+        String[] classNames = Model.isClassifer() ? Model.getPossibleClasses() : null;
+        long firstIndex = NumberRead - chunk.Rows.length;
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < chunk.Rows.length; i++) {
+            line.setLength(0);
+            line.append(chunk.Names == null ? Long.toString(firstIndex + i) : quote(chunk.Names.get(i)));
+            BaseEntry entry = chunk.Rows[i] < 0 ? null : chunk.Data.getEntry(chunk.Rows[i]);
+            if (entry == null || !entry.hasPrediction()) {
+                line.append(",");
+                if (classNames != null) {
+                    for (int c = 0; c <= classNames.length; c++) {
+                        line.append(",");
+                    }
+                }
+            } else {
+                line.append(",").append(entry.getPredictedClass());
+                if (classNames != null) {
+                    line.append(",").append(quote(classNames[(int) entry.getPredictedClass()]));
+                    for (double prob : entry.getClassProbilities()) {
+                        line.append(",").append(prob);
+                    }
+                }
+            }
+            line.append("\n");
+            writer.write(line.toString());
+        }
+    }
+
+    /**
+     * Write the results for a chunk as binary
+     *
+     * @param chunk Chunk that has been evaluated
+     * @param output Output
+     * @throws IOException If writing fails
+     */
+    private void writeBinary(Chunk chunk, OutputStream output) throws IOException {
+        int nClasses = Model.isClassifer() ? Model.getPossibleClasses().length : 0;
+        int width = nClasses == 0 ? 1 : 1 + nClasses;
+        ByteBuffer buffer = ByteBuffer.allocate(8 * width * chunk.Rows.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int row : chunk.Rows) {
+            BaseEntry entry = row < 0 ? null : chunk.Data.getEntry(row);
+            if (entry == null || !entry.hasPrediction()) {
+                for (int i = 0; i < width; i++) {
+                    buffer.putDouble(Double.NaN);
+                }
+            } else {
+                buffer.putDouble(entry.getPredictedClass());
+                if (nClasses > 0) {
+                    for (double prob : entry.getClassProbilities()) {
+                        buffer.putDouble(prob);
+                    }
+                }
+            }
+        }
+        output.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Quote a value for CSV output, if needed
+     *
+     * @param value Value to be written
+     * @return Value, quoted if it contains commas, quotes, or line breaks
+     */
+    static private String quote(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * Record the time spent in a phase of handling this request, for both the endpoint and the model
+     *
+     * @param phase Phase of handling the request
+     * @param startTime When the phase started, from {@linkplain System#nanoTime()}
+     */
+    private void recordPhase(ServerMetrics.Phase phase, long startTime) {
+        double time = (System.nanoTime() - startTime) / 1e9;
+        if (Endpoint != null) {
+            ServerLauncher.Metrics.recordPhase(Endpoint, phase, time);
+        }
+        Model.getPhaseLatency(phase).record(time);
+    }
+}
@@ -0,0 +1,282 @@
+package magpie.user.server;
+
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import org.json.JSONWriter;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes a dataset evaluated by a model as JSON, one entry at a time.
+ *
+ * <p>The output is never held in memory: entries are written to the output stream as they are converted,
+ * and are sent to the client while the rest of the dataset is being converted.</p>
+ *
+ * <p>The output is an object that describes the model: <b>possibleClasses</b> and <b>modelType</b>
+ * ("classification") for classifiers, or <b>units</b> and <b>modelType</b> ("regression") otherwise, and
+ * <b>property</b>. If attributes were computed, <b>attributes</b> holds their names. The entries can be
+ * written in two shapes:</p>
+ *
+ * <ul>
+ * <li><b>entries</b> (default): <b>entries</b> is a list of objects describing each entry. Each object holds
+ * the <b>name</b> provided by the user (if available), the <b>parsedName</b> of the entry, its
+ * <b>attributes</b> (if computed), and its <b>predictedValue</b> (if the model was run). Classification
+ * models also produce the <b>predictedClass</b> name and <b>classProbabilities</b>, an object mapping each
+ * class name to its probability</li>
+ * <li><b>columns</b>: A more compact format that only contains the results, in the same order as the entries
+ * were provided. The <b>predictedValue</b> field is a list of the predicted value of each entry. Classification
+ * models also produce <b>predictedClass</b>, a list of the predicted class names, and <b>classProbabilities</b>,
+ * a list of the probability of each class (in the order of <b>possibleClasses</b>). If attributes were
+ * computed, they are stored in <b>attributeValues</b> as a matrix where each row is an entry.</li>
+ * </ul>
+ *
+ * <p>In both shapes, NaN and infinite values are written as the strings "NaN", "inf", and "-inf".</p>
+ *
+ * @author Logan Ward
+ */
+public class DatasetJSONWriter implements StreamingOutput {
+
+    /**
+     * Possible shapes of the output
+     */
+    public enum Shape {
+        /** List of objects describing each entry */
+        ENTRIES,
+        /** Lists of the values for all entries */
+        COLUMNS;
+
+        /**
+         * Get a shape by name
+         *
+         * @param name Name of shape, case-insensitive
+         * @return Shape
+         * @throws WebApplicationException If no such shape exists
+         */
+        public static Shape parse(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw ServerUtilityOperations.prepareException("unknown format: " + name
+                        + ". Should be entries or columns");
+            }
+        }
+    }
+
+    /** Model used to evaluate the data */
+    final private ModelPackage Model;
+    /** Names of the entries provided by the user. Can be <code>null</code> */
+    final private List<String> EntryNames;
+    /** Data to be written */
+    final private Dataset Data;
+    /** Shape of the output */
+    final private Shape Format;
+
+    /**
+     * Prepare to write a dataset
+     *
+     * @param model Model used to generate this data
+     * @param entryNames Names of entries, as strings. Can be <code>null</code>
+     * @param data Dataset to be written
+     * @param format Shape of the output
+     */
+    public DatasetJSONWriter(ModelPackage model, List<String> entryNames, Dataset data, Shape format) {
+        this.Model = model;
+        this.EntryNames = entryNames;
+        this.Data = data;
+        this.Format = format;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        write(new JSONWriter(writer));
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+        write(new JSONWriter(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Write the dataset as a JSON object
+     *
+     * @param json Writer where the dataset should be written. May be partway through writing a larger document
+     */
+    public void write(JSONWriter json) {
+        json.object();
+
+        // Put in model details
+        String[] classNames = Model.isClassifer() ? Model.getPossibleClasses() : null;
+        if (Model.isClassifer()) {
+            json.key("possibleClasses").array();
+            for (String name : classNames) {
+                json.value(name);
+            }
+            json.endArray();
+            json.key("modelType").value("classification");
+        } else {
+            json.key("units").value(Model.getUnits());
+            json.key("modelType").value("regression");
+        }
+        json.key("property").value(Model.Property);
+
+        // Put in the attribute names, if present
+        if (Data.NAttributes() > 0) {
+            json.key("attributes").array();
+            for (String name : Data.getAttributeNames()) {
+                json.value(name);
+            }
+            json.endArray();
+        }
+
+        // Write the entries
+        if (Format == Shape.COLUMNS) {
+            writeColumns(json, classNames);
+        } else {
+            writeEntries(json, classNames);
+        }
+
+        json.endObject();
+    }
+
+    /**
+     * Write each entry as a separate object
+     *
+     * @param json Writer
+     * @param classNames Names of classes, if the model is a classifier
+     */
+    private void writeEntries(JSONWriter json, String[] classNames) {
+        json.key("entries").array();
+        for (int e = 0; e < Data.NEntries(); e++) {
+            BaseEntry entry = Data.getEntry(e);
+            json.object();
+
+            // Get the entry data
+            if (EntryNames != null) {
+                json.key("name").value(EntryNames.get(e));
+            }
+            json.key("parsedName").value(entry.toString());
+
+            // Add in the attributes, if present
+            if (entry.NAttributes() > 0) {
+                json.key("attributes");
+                writeArray(json, entry.getAttributes());
+            }
+
+            // If predicted values
+            if (entry.hasPrediction()) {
+                json.key("predictedValue");
+                writeNumber(json, entry.getPredictedClass());
+                if (classNames != null) {
+                    json.key("predictedClass").value(classNames[(int) entry.getPredictedClass()]);
+                    json.key("classProbabilities").object();
+                    double[] probs = entry.getClassProbilities();
+                    for (int cl = 0; cl < classNames.length; cl++) {
+                        json.key(classNames[cl]);
+                        writeNumber(json, probs[cl]);
+                    }
+                    json.endObject();
+                }
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Write the results as lists of values for all entries
+     *
+     * @param json Writer
+     * @param classNames Names of classes, if the model is a classifier
+     */
+    private void writeColumns(JSONWriter json, String[] classNames) {
+        // Write the attributes
+        if (Data.NAttributes() > 0) {
+            json.key("attributeValues").array();
+            for (BaseEntry entry : Data.getEntries()) {
+                writeArray(json, entry.getAttributes());
+            }
+            json.endArray();
+        }
+
+        // Write the predictions
+        boolean hasPredictions = false;
+        for (BaseEntry entry : Data.getEntries()) {
+            if (entry.hasPrediction()) {
+                hasPredictions = true;
+                break;
+            }
+        }
+        if (!hasPredictions) {
+            return;
+        }
+        json.key("predictedValue").array();
+        for (BaseEntry entry : Data.getEntries()) {
+            if (entry.hasPrediction()) {
+                writeNumber(json, entry.getPredictedClass());
+            } else {
+                json.value(null);
+            }
+        }
+        json.endArray();
+        if (classNames != null) {
+            json.key("predictedClass").array();
+            for (BaseEntry entry : Data.getEntries()) {
+                json.value(entry.hasPrediction() ? classNames[(int) entry.getPredictedClass()] : null);
+            }
+            json.endArray();
+            json.key("classProbabilities").array();
+            for (BaseEntry entry : Data.getEntries()) {
+                if (entry.hasPrediction()) {
+                    writeArray(json, entry.getClassProbilities());
+                } else {
+                    json.value(null);
+                }
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Write an array of numbers
+     *
+     * @param json Writer
+     * @param values Values to be written
+     */
+    static private void writeArray(JSONWriter json, double[] values) {
+        json.array();
+        for (double x : values) {
+            writeNumber(json, x);
+        }
+        json.endArray();
+    }
+
+    /**
+     * Write a number, using the same strings as {@linkplain magpie.utility.UtilityOperations#toJSONArray(double[])}
+     * for values not allowed in JSON
+     *
+     * @param json Writer
+     * @param x Value to be written
+     */
+    static private void writeNumber(JSONWriter json, double x) {
+        if (Double.isNaN(x)) {
+            json.value("NaN");
+        } else if (Double.isInfinite(x)) {
+            json.value(x < 0 ? "-inf" : "inf");
+        } else {
+            json.value(x);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package magpie.user.server;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Counts how many observations (e.g., request latencies) fall into each of a fixed set of buckets.
+ *
+ * <p>Recording an observation never blocks, so histograms can be updated by every request without slowing
+ * the server. Quantiles are estimated from the bucket counts by assuming observations are spread evenly
+ * within each bucket, which is the same approximation used by Prometheus.</p>
+ *
+ * @author Logan Ward
+ */
+public class Histogram {
+    /** Upper bounds of buckets used for latencies, in seconds */
+    final static public double[] LatencyBuckets = new double[]{0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025,
+            0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+    /** Upper bounds of buckets used for sizes (e.g., number of entries in a batch) */
+    final static public double[] SizeBuckets = new double[]{1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024,
+            2048, 4096, 8192, 16384, 65536};
+    /** Upper bound of each bucket, in increasing order */
+    final private double[] Bounds;
+    /** Number of observations in each bucket. The last bucket holds values above the largest bound */
+    final private AtomicLongArray Counts;
+    /** Sum of all observations */
+    final private DoubleAdder Sum = new DoubleAdder();
+
+    /**
+     * Create a histogram
+     *
+     * @param bounds Upper bound of each bucket, in increasing order
+     */
+    public Histogram(double[] bounds) {
+        this.Bounds = bounds.clone();
+        this.Counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * @return Histogram with buckets suitable for latencies, measured in seconds
+     */
+    static public Histogram createLatencyHistogram() {
+        return new Histogram(LatencyBuckets);
+    }
+
+    /**
+     * @return Histogram with buckets suitable for sizes, which are typically powers of 2
+     */
+    static public Histogram createSizeHistogram() {
+        return new Histogram(SizeBuckets);
+    }
+
+    /**
+     * Record an observation
+     *
+     * @param value Value to be recorded
+     */
+    public void record(double value) {
+        int bucket = Arrays.binarySearch(Bounds, value);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        Counts.incrementAndGet(bucket);
+        Sum.add(value);
+    }
+
+    /**
+     * Record the time elapsed since a certain point
+     *
+     * @param startTime Start time, from {@linkplain System#nanoTime()}
+     */
+    public void recordSince(long startTime) {
+        record((System.nanoTime() - startTime) / 1e9);
+    }
+
+    /**
+     * @return Upper bound of each bucket, not including the last bucket (which has no upper bound)
+     */
+    public double[] getBounds() {
+        return Bounds.clone();
+    }
+
+    /**
+     * @return Number of observations in each bucket. Not cumulative
+     */
+    public long[] getCounts() {
+        long[] output = new long[Counts.length()];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = Counts.get(i);
+        }
+        return output;
+    }
+
+    /**
+     * @return Number of observations
+     */
+    public long getCount() {
+        long output = 0;
+        for (int i = 0; i < Counts.length(); i++) {
+            output += Counts.get(i);
+        }
+        return output;
+    }
+
+    /**
+     * @return Sum of all observations
+     */
+    public double getSum() {
+        return Sum.sum();
+    }
+
+    /**
+     * Estimate a quantile of the observations
+     *
+     * @param q Desired quantile, between 0 and 1
+     * @return Estimated quantile. NaN if there are no observations. Observations above the largest bound
+     * are treated as equal to that bound
+     */
+    public double getQuantile(double q) {
+        long[] counts = getCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+
+        // Find the bucket holding the quantile, and interpolate within it
+        double rank = q * total;
+        long cumulative = 0;
+        for (int b = 0; b < Bounds.length; b++) {
+            if (counts[b] > 0 && cumulative + counts[b] >= rank) {
+                double lower = b == 0 ? 0 : Bounds[b - 1];
+                return lower + (Bounds[b] - lower) * (rank - cumulative) / counts[b];
+            }
+            cumulative += counts[b];
+        }
+        return Bounds[Bounds.length - 1];
+    }
+
+    /**
+     * Summarize the histogram
+     *
+     * @return JSON object with the number of observations ("count"), their mean ("mean"), and the
+     * estimated median, 95th and 99th percentiles ("p50", "p95", and "p99"). Statistics that are not
+     * defined (e.g., because there are no observations) are omitted
+     */
+    public JSONObject toJSON() {
+        JSONObject output = new JSONObject();
+        long count = getCount();
+        output.put("count", count);
+        if (count > 0) {
+            output.put("mean", getSum() / count);
+            output.put("p50", getQuantile(0.5));
+            output.put("p95", getQuantile(0.95));
+            output.put("p99", getQuantile(0.99));
+        }
+        return output;
+    }
+}
@@ -0,0 +1,317 @@
+package magpie.user.server;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Long-running task performed by the server, such as a search.
+ *
+ * <p>Jobs are run by a {@linkplain JobManager}, which lets clients check on their status and progress
+ * while they run. Cancellation is cooperative: {@linkplain #cancel()} only marks the job as cancelled,
+ * and the job stops the next time it calls {@linkplain #checkCancelled()}. Jobs should call that
+ * operation often, such as between stages of a calculation and periodically within long loops.</p>
+ *
+ * <p>Progress is reported as a number between 0 and 1. Jobs that are split into several stages can
+ * report the progress of the current stage using {@linkplain #setStage(int, int)} and
+ * {@linkplain #setStageProgress(double)}. Stages that are themselves performed in several parts
+ * (e.g., a search run in chunks) can mark the part being worked on with
+ * {@linkplain #setStagePart(double, double)}, so that progress reported by the code running
+ * each part does not move the progress of the job backwards.</p>
+ *
+ * @author Logan Ward
+ */
+public abstract class Job implements Runnable {
+
+    /**
+     * Possible states of a job
+     */
+    public enum Status {
+        /** Waiting to be run */
+        QUEUED,
+        /** Currently running */
+        RUNNING,
+        /** Finished successfully */
+        COMPLETED,
+        /** Finished with an error */
+        FAILED,
+        /** Stopped before finishing */
+        CANCELLED;
+
+        /**
+         * @return Whether a job with this status is finished
+         */
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    /**
+     * Receives notice when a job finishes
+     */
+    public interface Listener {
+        /**
+         * Called once the job has finished, whether it succeeded or not
+         *
+         * @param job Job that finished
+         */
+        void jobFinished(Job job);
+    }
+
+    /** Unique identifier of this job */
+    final private String ID = UUID.randomUUID().toString();
+    /** Client that submitted this job */
+    private String Client = "unknown";
+    /** Current status */
+    private volatile Status State = Status.QUEUED;
+    /** Whether this job has been cancelled */
+    private volatile boolean Cancelled = false;
+    /** Fraction of job that is complete */
+    private volatile double Progress = 0;
+    /** Index of current stage */
+    private volatile int Stage = 0;
+    /** Number of stages in the job */
+    private volatile int NStages = 1;
+    /** Fraction of the current stage complete at the start of the current part of the stage */
+    private volatile double PartStart = 0;
+    /** Fraction of the current stage complete at the end of the current part of the stage */
+    private volatile double PartEnd = 1;
+    /** Result of the job, if completed */
+    private String Result = null;
+    /** Description of the error, if failed */
+    private String Error = null;
+    /** When the job was submitted */
+    final private Date SubmitDate = new Date();
+    /** When the job started running */
+    private Date StartDate = null;
+    /** When the job finished */
+    private Date EndDate = null;
+    /** Tools waiting for the job to finish */
+    final private List<Listener> Listeners = new ArrayList<>();
+
+    /**
+     * Perform the job
+     *
+     * @return Result of the job
+     * @throws Exception If the job fails
+     */
+    abstract protected String execute() throws Exception;
+
+    /**
+     * @return Unique identifier of this job
+     */
+    public String getID() {
+        return ID;
+    }
+
+    /**
+     * @return Name of the client that submitted this job
+     */
+    public String getClient() {
+        return Client;
+    }
+
+    /**
+     * @param client Name of the client that submitted this job (e.g., IP address)
+     */
+    public void setClient(String client) {
+        this.Client = client;
+    }
+
+    /**
+     * @return Current status of the job
+     */
+    public Status getStatus() {
+        return State;
+    }
+
+    /**
+     * @return Fraction of the job that is complete
+     */
+    public double getProgress() {
+        return State == Status.COMPLETED ? 1 : Progress;
+    }
+
+    /**
+     * Set the fraction of the job that is complete
+     *
+     * @param progress Fraction complete, between 0 and 1
+     */
+    public void setProgress(double progress) {
+        this.Progress = Math.max(0, Math.min(1, progress));
+    }
+
+    /**
+     * Mark the start of a new stage of the job
+     *
+     * @param stage Index of the stage
+     * @param nStages Total number of stages
+     */
+    public void setStage(int stage, int nStages) {
+        this.NStages = Math.max(1, nStages);
+        this.Stage = stage;
+        this.PartStart = 0;
+        this.PartEnd = 1;
+        setProgress((double) stage / NStages);
+    }
+
+    /**
+     * Mark the part of the current stage being worked on. Progress reported afterwards with
+     * {@linkplain #setStageProgress(double)} is the fraction of this part that is complete.
+     *
+     * @param start Fraction of the stage that is complete at the start of this part
+     * @param end Fraction of the stage that is complete at the end of this part
+     */
+    public void setStagePart(double start, double end) {
+        this.PartStart = Math.max(0, Math.min(1, start));
+        this.PartEnd = Math.max(PartStart, Math.min(1, end));
+        setProgress((Stage + PartStart) / NStages);
+    }
+
+    /**
+     * Set the fraction of the current part of the stage that is complete.
+     * Unless {@linkplain #setStagePart(double, double)} was called, the part is the whole stage.
+     *
+     * @param progress Fraction of stage that is complete, between 0 and 1
+     */
+    public void setStageProgress(double progress) {
+        progress = Math.max(0, Math.min(1, progress));
+        setProgress((Stage + PartStart + progress * (PartEnd - PartStart)) / NStages);
+    }
+
+    /**
+     * @return Result of the job, if it has completed. Otherwise, <code>null</code>
+     */
+    public synchronized String getResult() {
+        return Result;
+    }
+
+    /**
+     * @return Description of why the job failed, if it has failed. Otherwise, <code>null</code>
+     */
+    public synchronized String getError() {
+        return Error;
+    }
+
+    /**
+     * @return Whether this job has been cancelled
+     */
+    public boolean isCancelled() {
+        return Cancelled;
+    }
+
+    /**
+     * Request that this job stop. The job will stop the next time it checks whether it was cancelled
+     */
+    public void cancel() {
+        Cancelled = true;
+    }
+
+    /**
+     * Stop the job if it has been cancelled
+     *
+     * @throws CancellationException If the job has been cancelled
+     */
+    public void checkCancelled() throws CancellationException {
+        if (Cancelled) {
+            throw new CancellationException("job " + ID + " was cancelled");
+        }
+    }
+
+    /**
+     * Add a tool to be notified when this job finishes. If the job is already finished,
+     * the listener is notified immediately.
+     *
+     * @param listener Tool to be notified
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if (!State.isFinished()) {
+                Listeners.add(listener);
+                return;
+            }
+        }
+        listener.jobFinished(this);
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (State != Status.QUEUED) {
+                return;
+            }
+            StartDate = new Date();
+            State = Status.RUNNING;
+        }
+
+        // Run the job
+        try {
+            checkCancelled();
+            String result = execute();
+            finish(Status.COMPLETED, result, null);
+        } catch (CancellationException e) {
+            finish(Status.CANCELLED, null, null);
+        } catch (Exception | Error e) {
+            finish(Status.FAILED, null, ServerUtilityOperations.getErrorMessage(e));
+        }
+    }
+
+    /**
+     * Mark this job as finished and notify listeners
+     *
+     * @param status Final status of the job
+     * @param result Result of the job, if successful
+     * @param error Description of error, if failed
+     */
+    protected void finish(Status status, String result, String error) {
+        List<Listener> toNotify;
+        synchronized (this) {
+            if (State.isFinished()) {
+                return;
+            }
+            State = status;
+            Result = result;
+            Error = error;
+            EndDate = new Date();
+            toNotify = new ArrayList<>(Listeners);
+            Listeners.clear();
+        }
+        for (Listener listener : toNotify) {
+            listener.jobFinished(this);
+        }
+    }
+
+    /**
+     * @return When the job finished, or <code>null</code> if it has not finished
+     */
+    public synchronized Date getEndDate() {
+        return EndDate;
+    }
+
+    /**
+     * Describe the status of this job
+     *
+     * @return JSON object describing the status of this job
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject output = new JSONObject();
+        output.put("id", ID);
+        output.put("status", State.name().toLowerCase());
+        output.put("progress", getProgress());
+        output.put("submitted", SubmitDate.getTime());
+        if (StartDate != null) {
+            output.put("started", StartDate.getTime());
+        }
+        if (EndDate != null) {
+            output.put("finished", EndDate.getTime());
+        }
+        if (Error != null) {
+            output.put("error", Error);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,197 @@
+package magpie.user.server;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@linkplain Job}s and keeps track of their status.
+ *
+ * <p>Jobs are run by a fixed number of threads. Jobs that cannot be started immediately wait in a queue of
+ * limited size, and new jobs are rejected with an HTTP 503 (Service Unavailable) error when the queue is full.
+ * Each client may also only have a limited number of jobs that are queued or running at once, and further
+ * jobs are rejected with an HTTP 429 (Too Many Requests) error.</p>
+ *
+ * <p>Jobs are stored after they finish, so that clients can retrieve their results. Finished jobs are
+ * removed once they are older than the retention time.</p>
+ *
+ * @author Logan Ward
+ */
+public class JobManager {
+    /** HTTP status code for when a client has made too many requests */
+    final static public int TOO_MANY_REQUESTS = 429;
+    /** Executor used to run jobs */
+    final private ThreadPoolExecutor Executor;
+    /** Maximum number of jobs per client */
+    final private int MaxJobsPerClient;
+    /** How long to keep finished jobs, in milliseconds */
+    final private long Retention;
+    /** All jobs that have not been purged */
+    final private Map<String, Job> Jobs = new ConcurrentHashMap<>();
+    /** Number of unfinished jobs for each client */
+    final private Map<String, Integer> ActiveJobs = new HashMap<>();
+
+    /**
+     * Create a job manager
+     *
+     * @param nThreads Number of jobs to run at once
+     * @param maxQueued Maximum number of jobs waiting to be run
+     * @param maxJobsPerClient Maximum number of unfinished jobs for each client
+     * @param retention How long to keep finished jobs, in milliseconds
+     */
+    public JobManager(int nThreads, int maxQueued, int maxJobsPerClient, long retention) {
+        nThreads = Math.max(1, nThreads);
+        this.Executor = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued)));
+        this.MaxJobsPerClient = maxJobsPerClient;
+        this.Retention = retention;
+    }
+
+    /**
+     * Submit a job to be run
+     *
+     * @param job Job to be run
+     * @param client Name of client submitting the job (e.g., IP address)
+     * @throws WebApplicationException If the client has too many jobs, or the queue is full
+     */
+    public void submit(Job job, final String client) throws WebApplicationException {
+        purge();
+
+        // Check whether this client can submit more jobs
+        synchronized (ActiveJobs) {
+            Integer count = ActiveJobs.get(client);
+            count = count == null ? 0 : count;
+            if (MaxJobsPerClient > 0 && count >= MaxJobsPerClient) {
+                throw ServerUtilityOperations.prepareException(TOO_MANY_REQUESTS,
+                        "too many active jobs: limit is " + MaxJobsPerClient + " per client");
+            }
+            ActiveJobs.put(client, count + 1);
+        }
+        job.setClient(client);
+        job.addListener(new Job.Listener() {
+            @Override
+            public void jobFinished(Job job) {
+                releaseClient(client);
+            }
+        });
+
+        // Add it to the queue
+        Jobs.put(job.getID(), job);
+        try {
+            Executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            Jobs.remove(job.getID());
+            releaseClient(client);
+            throw ServerUtilityOperations.prepareException(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                    "server is busy: too many queued jobs");
+        }
+    }
+
+    /**
+     * Mark that one of a client's jobs has finished
+     *
+     * @param client Name of client
+     */
+    private void releaseClient(String client) {
+        synchronized (ActiveJobs) {
+            Integer count = ActiveJobs.get(client);
+            if (count == null || count <= 1) {
+                ActiveJobs.remove(client);
+            } else {
+                ActiveJobs.put(client, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Get a certain job
+     *
+     * @param id ID of the job
+     * @return The job, or <code>null</code> if no such job exists
+     */
+    public Job getJob(String id) {
+        return Jobs.get(id);
+    }
+
+    /**
+     * Get all jobs submitted by a certain client
+     *
+     * @param client Name of client
+     * @return List of jobs
+     */
+    public List<Job> getJobs(String client) {
+        List<Job> output = new ArrayList<>();
+        for (Job job : Jobs.values()) {
+            if (job.getClient().equals(client)) {
+                output.add(job);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Cancel a job. Jobs waiting in the queue are removed immediately, running jobs stop the
+     * next time they check whether they have been cancelled.
+     *
+     * @param id ID of job to cancel
+     * @return The job, or <code>null</code> if no such job exists
+     */
+    public Job cancel(String id) {
+        Job job = Jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        job.cancel();
+        if (Executor.remove(job)) {
+            job.run(); // Marks the job as cancelled
+        }
+        return job;
+    }
+
+    /**
+     * @return Number of jobs waiting to be run
+     */
+    public int getQueueLength() {
+        return Executor.getQueue().size();
+    }
+
+    /**
+     * @return Number of jobs currently running
+     */
+    public int getNumberRunning() {
+        return Executor.getActiveCount();
+    }
+
+    /**
+     * Remove finished jobs that are older than the retention time
+     */
+    public void purge() {
+        long cutoff = System.currentTimeMillis() - Retention;
+        Iterator<Job> iter = Jobs.values().iterator();
+        while (iter.hasNext()) {
+            Job job = iter.next();
+            if (job.getStatus().isFinished() && job.getEndDate().getTime() < cutoff) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Stop running jobs. Cancels all unfinished jobs
+     */
+    public void shutdown() {
+        for (Job job : Jobs.values()) {
+            job.cancel();
+        }
+        Executor.shutdown();
+    }
+}
@@ -0,0 +1,81 @@
+package magpie.user.server;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Records how long the server takes to handle each request, in {@linkplain ServerLauncher#Metrics}.
+ *
+ * <p>The time is measured from when the request is matched to an endpoint until the response has been
+ * written, so it includes time spent waiting for asynchronous requests to finish and sending the
+ * response to the client. Requests that do not match any endpoint are not recorded.</p>
+ *
+ * @author Logan Ward
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+    /** Name of the request property holding the start time */
+    final static private String StartTimeProperty = "magpie.metrics.startTime";
+    /** Name of the request property holding the name of the endpoint */
+    final static private String EndpointProperty = "magpie.metrics.endpoint";
+    /** Name of the request property holding the HTTP status code of the response */
+    final static private String StatusProperty = "magpie.metrics.status";
+
+    /** Resource method matched to the current request */
+    @Context
+    private ResourceInfo Resource;
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        request.setProperty(StartTimeProperty, System.nanoTime());
+        request.setProperty(EndpointProperty, ServerMetrics.getEndpoint(Resource));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        if (response.hasEntity()) {
+            // Finish once the entity has been written
+            request.setProperty(StatusProperty, response.getStatus());
+        } else {
+            record(request.getProperty(StartTimeProperty), request.getProperty(EndpointProperty),
+                    response.getStatus());
+            request.removeProperty(StartTimeProperty);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        try {
+            context.proceed();
+        } finally {
+            Object status = context.getProperty(StatusProperty);
+            record(context.getProperty(StartTimeProperty), context.getProperty(EndpointProperty),
+                    status instanceof Integer ? (Integer) status : 200);
+            context.removeProperty(StartTimeProperty);
+        }
+    }
+
+    /**
+     * Record the time taken to handle a request
+     *
+     * @param startTime Start time, from {@linkplain System#nanoTime()}. If <code>null</code>, nothing is recorded
+     * @param endpoint Name of the endpoint
+     * @param status HTTP status code of the response
+     */
+    private void record(Object startTime, Object endpoint, int status) {
+        if (!(startTime instanceof Long) || endpoint == null) {
+            return;
+        }
+        double time = (System.nanoTime() - (Long) startTime) / 1e9;
+        ServerLauncher.Metrics.recordRequest(endpoint.toString(), status, time);
+    }
+}
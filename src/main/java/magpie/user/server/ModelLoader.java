@@ -0,0 +1,338 @@
+package magpie.user.server;
+
+import magpie.data.Dataset;
+import magpie.models.BaseModel;
+import magpie.utility.WekaUtility;
+import org.json.JSONObject;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the models described in a model information file (see {@linkplain ServerLauncher}).
+ *
+ * <p>Models can be loaded in parallel, either before the server starts ({@linkplain #loadAll(int)}) or
+ * in the background while it runs ({@linkplain #startLoading(int)}). Each model is only loaded once:
+ * a request for a model that has not been loaded yet ({@linkplain #getModel(java.lang.String)}) loads
+ * it immediately, or waits for it to finish loading if another thread has already started.
+ * Loaded models are added to the list of models being served.</p>
+ *
+ * <p>Once loaded, models can be warmed up by running a few entries through them before they are
+ * served, which makes sure the first requests are not slowed by class loading and JIT compilation.
+ * These entries are listed in the <b>warmupEntries</b> field of the model description.</p>
+ *
+ * <p>The loader also keeps track of when the model and dataset files were last modified.
+ * {@linkplain #checkForChanges()} reloads any model whose files have changed. The new version of the
+ * model replaces the old one once it is loaded, and requests already using the old version finish
+ * using it. The old version is then closed (see {@linkplain ModelPackage#close()}). Changes to the model
+ * information file itself are not tracked.</p>
+ *
+ * @author Logan Ward
+ */
+public class ModelLoader {
+    /** Fields that must be in each model description */
+    final static private String[] RequiredTags = new String[]{"description", "property", "training",
+            "author", "citation", "notes", "modelPath", "datasetPath"};
+    /** How long model files must be unchanged before they are reloaded, in milliseconds */
+    final static public long SettleTime = 1000;
+    /** Models being served. Loaded models are stored here */
+    final private Map<String, ModelPackage> Models;
+    /** Description of each model, from the information file */
+    final private Map<String, Map<String, Object>> Descriptions = new LinkedHashMap<>();
+    /** Task that loads the current version of each model */
+    final private Map<String, FutureTask<ModelPackage>> Tasks = new ConcurrentHashMap<>();
+    /** Names of models currently being loaded */
+    final private Set<String> Loading = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Last modification time of the files for each model, when it was last loaded */
+    final private Map<String, Long> FileVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Read a model information file. Does not load any models
+     *
+     * @param path Path to model information file
+     * @param models Collection where loaded models are stored
+     * @throws Exception If the file is not formatted correctly
+     */
+    public ModelLoader(String path, Map<String, ModelPackage> models) throws Exception {
+        this.Models = models;
+
+        // Make sure Weka models are available
+        WekaUtility.importWekaHome();
+
+        // Parse the input file
+        Yaml yaml = new Yaml();
+        FileInputStream fp = new FileInputStream(path);
+        try {
+            for (Object modelDataObj : yaml.loadAll(fp)) {
+                Map<String, Object> modelData = (Map) modelDataObj;
+
+                // Get the name of the model
+                if (!modelData.containsKey("name")) {
+                    throw new RuntimeException("model description file missing name tag");
+                }
+                String modelName = modelData.get("name").toString();
+
+                // Check for the required tags
+                for (String tag : RequiredTags) {
+                    if (!modelData.containsKey(tag)) {
+                        throw new RuntimeException(modelName + " description missing tag: " + tag);
+                    }
+                }
+
+                // Store the description
+                Descriptions.put(modelName, modelData);
+                Tasks.put(modelName, createTask(modelName));
+            }
+        } finally {
+            fp.close();
+        }
+    }
+
+    /**
+     * @return Names of all models described in the information file
+     */
+    public Set<String> getModelNames() {
+        return Collections.unmodifiableSet(Descriptions.keySet());
+    }
+
+    /**
+     * Create the task that loads a model, warms it up, and adds it to the list of models being served
+     *
+     * @param name Name of model
+     * @return Task that loads the model
+     */
+    private FutureTask<ModelPackage> createTask(final String name) {
+        return new FutureTask<>(new Callable<ModelPackage>() {
+            @Override
+            public ModelPackage call() throws Exception {
+                Loading.add(name);
+                try {
+                    FileVersions.put(name, getFileVersion(name));
+                    ModelPackage modelPackage = createPackage(Descriptions.get(name));
+
+                    // Replace the old version, if there is one
+                    ModelPackage oldPackage = Models.get(name);
+                    if (oldPackage != null) {
+                        modelPackage.NumberRuns = oldPackage.NumberRuns;
+                        modelPackage.NumberEvaluated = oldPackage.NumberEvaluated;
+                        modelPackage.RunTime = oldPackage.RunTime;
+                        modelPackage.PhaseLatency = oldPackage.PhaseLatency;
+                    }
+                    Models.put(name, modelPackage);
+                    if (oldPackage != null) {
+                        oldPackage.invalidateCache();
+                        oldPackage.close();
+                    }
+                    return modelPackage;
+                } finally {
+                    Loading.remove(name);
+                }
+            }
+        });
+    }
+
+    /**
+     * Load a model, and prepare it to be served
+     *
+     * @param modelData Description of the model
+     * @return Model package
+     * @throws Exception If loading or warm up fails
+     */
+    protected ModelPackage createPackage(Map<String, Object> modelData) throws Exception {
+        // Read in the files
+        Dataset dataset = Dataset.loadState(modelData.get("datasetPath").toString());
+        dataset = dataset.emptyClone();
+        BaseModel model = BaseModel.loadState(modelData.get("modelPath").toString());
+
+        // Read both to generate model package
+        ModelPackage modelPackage = new ModelPackage(dataset, model);
+
+        // Read in the other information
+        modelPackage.Description = modelData.get("description").toString();
+        modelPackage.Property = modelData.get("property").toString();
+        modelPackage.setUnits(modelData.containsKey("units") ? modelData.get("units").toString() : "None");
+        modelPackage.TrainingSet = modelData.get("training").toString();
+        modelPackage.Author = modelData.get("author").toString();
+        modelPackage.ModelCitation = modelData.get("citation").toString();
+        modelPackage.Notes = modelData.get("notes").toString();
+        if (modelData.containsKey("maxEntries")) {
+            modelPackage.MaxNumEntries = (Integer) modelData.get("maxEntries");
+        }
+        if (modelData.containsKey("cacheSize")) {
+            modelPackage.CacheSize = (Integer) modelData.get("cacheSize");
+        }
+        if (modelData.containsKey("poolSize")) {
+            modelPackage.PoolSize = (Integer) modelData.get("poolSize");
+        }
+
+        // Do any expensive work now, rather than during the first request
+        modelPackage.getAttributeGenerationHash();
+        if (modelData.containsKey("warmupEntries")) {
+            List<String> entries = new ArrayList<>();
+            for (Object entry : (List) modelData.get("warmupEntries")) {
+                entries.add(entry.toString());
+            }
+            modelPackage.warmUp(entries);
+        }
+        return modelPackage;
+    }
+
+    /**
+     * Get when the files for a model were last modified
+     *
+     * @param name Name of model
+     * @return Latest modification time of the model and dataset files
+     */
+    private long getFileVersion(String name) {
+        Map<String, Object> modelData = Descriptions.get(name);
+        return Math.max(new File(modelData.get("modelPath").toString()).lastModified(),
+                new File(modelData.get("datasetPath").toString()).lastModified());
+    }
+
+    /**
+     * Get a model, loading it if it has not been loaded yet. If the model is being loaded by another
+     * thread, waits for it to finish.
+     *
+     * @param name Name of model
+     * @return The model, or <code>null</code> if no such model is described in the information file
+     * @throws Exception If the model failed to load
+     */
+    public ModelPackage getModel(String name) throws Exception {
+        FutureTask<ModelPackage> task = Tasks.get(name);
+        if (task == null) {
+            return null;
+        }
+        task.run(); // Does nothing if already started
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Load all models that have not been loaded, and wait for them to finish.
+     *
+     * @param nThreads Number of models to load at once
+     * @throws Exception If any model fails to load
+     */
+    public void loadAll(int nThreads) throws Exception {
+        ExecutorService executor = startLoading(nThreads);
+        try {
+            for (String name : Descriptions.keySet()) {
+                getModel(name);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Start loading all models in the background. Returns immediately.
+     *
+     * @param nThreads Number of models to load at once
+     * @return Executor running the loading tasks, which is shut down once they are all started
+     */
+    public ExecutorService startLoading(int nThreads) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+        for (FutureTask<ModelPackage> task : Tasks.values()) {
+            if (!task.isDone()) {
+                executor.execute(task);
+            }
+        }
+        executor.shutdown();
+        return executor;
+    }
+
+    /**
+     * Reload any model whose files have changed since it was loaded. Models are reloaded in the calling
+     * thread, and models that fail to reload continue to be served using the old version.
+     *
+     * <p>Files are only reloaded once they have been unchanged for {@linkplain #SettleTime}, so that
+     * files that are still being written are not read.</p>
+     *
+     * @return Names of models that were reloaded
+     */
+    public List<String> checkForChanges() {
+        List<String> reloaded = new ArrayList<>();
+        for (String name : Descriptions.keySet()) {
+            // Skip models that have not yet been loaded or whose files are changing
+            FutureTask<ModelPackage> task = Tasks.get(name);
+            Long loadedVersion = FileVersions.get(name);
+            long version = getFileVersion(name);
+            if (!task.isDone() || loadedVersion == null || version == loadedVersion
+                    || System.currentTimeMillis() - version < SettleTime) {
+                continue;
+            }
+
+            // Reload it
+            task = createTask(name);
+            Tasks.put(name, task);
+            try {
+                getModel(name);
+                reloaded.add(name);
+            } catch (Exception e) {
+                System.err.println("Failed to reload " + name + ": " + ServerUtilityOperations.getErrorMessage(e));
+            }
+        }
+        return reloaded;
+    }
+
+    /**
+     * @return Whether all models have been loaded
+     */
+    public boolean isReady() {
+        for (String name : Descriptions.keySet()) {
+            if (!Models.containsKey(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Describe whether each model has been loaded.
+     *
+     * <p>The status of each model is one of "pending", "loading", "ready", or "failed". Models that failed to
+     * load or reload also have an "error" field. A model that failed to reload is still "ready", as the old
+     * version is still being served.</p>
+     *
+     * @return Status of each model
+     */
+    public JSONObject getStatus() {
+        JSONObject output = new JSONObject();
+        for (String name : Descriptions.keySet()) {
+            JSONObject status = new JSONObject();
+            FutureTask<ModelPackage> task = Tasks.get(name);
+            if (Models.containsKey(name)) {
+                status.put("status", "ready");
+            } else if (task.isDone()) {
+                status.put("status", "failed");
+            } else {
+                status.put("status", Loading.contains(name) ? "loading" : "pending");
+            }
+            if (task.isDone()) {
+                try {
+                    task.get();
+                } catch (Exception e) {
+                    status.put("error", ServerUtilityOperations.getErrorMessage(e));
+                }
+            }
+            output.put(name, status);
+        }
+        return output;
+    }
+}
@@ -1,8 +1,10 @@
 package magpie.user.server;
 
+import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.models.BaseModel;
 import magpie.models.classification.AbstractClassifier;
+import magpie.models.interfaces.ThreadSafeModel;
 import magpie.utility.UtilityOperations;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.StringUtils;
@@ -12,10 +14,29 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Holds information about a model.
+ *
+ * <p>Models are run using a pool of copies of the model, so that several requests can be handled at the same
+ * time. Each request leases a copy, which is not used by any other request until it is returned. Models that
+ * implement {@linkplain ThreadSafeModel} are shared between all requests instead. Otherwise, the model held
+ * by the package is never run, so it can be described or copied while requests are running.</p>
+ *
+ * <p>Calculations are run by the server's {@linkplain WorkScheduler}. Requests that are expected to take
+ * longer than {@linkplain ServerLauncher#InteractiveCostLimit}, and models run as part of a {@linkplain Job},
+ * are run as bulk work so that they do not delay smaller requests.</p>
+ *
  * @author Logan Ward
  */
 public class ModelPackage {
@@ -47,10 +68,64 @@ public class ModelPackage {
     protected AtomicLong NumberEvaluated = new AtomicLong(0);
     /** How long this model has been run for, in milliseconds */
     protected AtomicLong RunTime = new AtomicLong(0);
+    /** Time spent in each phase of evaluating requests, in seconds. See {@linkplain ServerMetrics} */
+    protected Histogram[] PhaseLatency = ServerMetrics.createPhaseHistograms();
     /**
      * Maximum mumber of entries to run, overrules {@linkplain ServerLauncher#MaxNumEntries}
      */
     protected Integer MaxNumEntries = null;
+    /**
+     * Maximum number of predictions to cache, overrules {@linkplain ServerLauncher#CacheSize}
+     */
+    protected Integer CacheSize = null;
+    /**
+     * Cache of predictions. Created when first needed
+     */
+    private PredictionCache Cache = null;
+    /**
+     * Lock used when creating the cache
+     */
+    final private Object CacheLock = new Object();
+    /**
+     * Maximum number of copies of the model to run at once, overrules {@linkplain ServerLauncher#ThreadCount}
+     */
+    protected Integer PoolSize = null;
+    /**
+     * Copies of the model not currently in use
+     */
+    final private LinkedBlockingDeque<BaseModel> IdleModels = new LinkedBlockingDeque<>();
+    /**
+     * Number of copies of the model created so far
+     */
+    private int NumberCopies = 0;
+    /**
+     * Number of copies of the model currently leased
+     */
+    private int NumberLeased = 0;
+    /**
+     * Whether this package has been closed, see {@linkplain #close()}
+     */
+    private boolean Closed = false;
+    /**
+     * Combines concurrent requests to run the model. Created when first needed
+     */
+    private RequestBatcher RunBatcher = null;
+    /**
+     * Combines concurrent requests to compute attributes. Created when first needed
+     */
+    private RequestBatcher AttributeBatcher = null;
+    /**
+     * Lock used when creating the batchers
+     */
+    final private Object BatcherLock = new Object();
+    /**
+     * Hash identifying how attributes are computed for this model. Computed when first needed
+     */
+    private String AttributeHash = null;
+    /**
+     * Names of the attributes computed for this model. Computed when first needed
+     */
+    private List<String> AttributeNames = null;
 
     /**
      * Initialize model package
@@ -83,6 +158,42 @@ public class ModelPackage {
         return RunTime.get();
     }
 
+    /**
+     * Get the time spent in a certain phase of evaluating requests with this model
+     *
+     * @param phase Phase of evaluating a request
+     * @return Histogram of times, in seconds
+     */
+    public Histogram getPhaseLatency(ServerMetrics.Phase phase) {
+        return PhaseLatency[phase.ordinal()];
+    }
+
+    /**
+     * Estimate how long it will take to evaluate a certain number of entries, based on the average
+     * time per entry of previous requests
+     *
+     * @param nEntries Number of entries
+     * @return Estimated time, in milliseconds. Uses {@linkplain ServerLauncher#DefaultEntryCost} per entry
+     * if the model has not been run yet
+     */
+    public double estimateCost(int nEntries) {
+        long nEvaluated = getNumberEntriesEvaluated();
+        double perEntry = nEvaluated > 0 ? (double) getRunTime() / nEvaluated : ServerLauncher.DefaultEntryCost;
+        return nEntries * perEntry;
+    }
+
+    /**
+     * Get the class of work for a request to evaluate a certain number of entries
+     *
+     * @param nEntries Number of entries
+     * @return {@linkplain WorkScheduler.Priority#BULK} if the request is expected to take longer than
+     * {@linkplain ServerLauncher#InteractiveCostLimit}, {@linkplain WorkScheduler.Priority#INTERACTIVE} otherwise
+     */
+    public WorkScheduler.Priority getPriority(int nEntries) {
+        return estimateCost(nEntries) > ServerLauncher.InteractiveCostLimit ?
+                WorkScheduler.Priority.BULK : WorkScheduler.Priority.INTERACTIVE;
+    }
+
     /**
      * Get whether model is a classification model
      *
@@ -126,30 +237,640 @@ public class ModelPackage {
         return MaxNumEntries == null ? ServerLauncher.MaxNumEntries : MaxNumEntries;
     }
 
+    /**
+     * Get the maximum number of predictions to cache for this model.
+     *
+     * @return Maximum for this model, if defined, or the global maximum. 0 if caching is disabled
+     */
+    public int getCacheSize() {
+        return CacheSize == null ? ServerLauncher.CacheSize : CacheSize;
+    }
+
+    /**
+     * Get the cache of predictions for this model.
+     *
+     * @return Cache, or <code>null</code> if caching is disabled
+     */
+    public PredictionCache getCache() {
+        synchronized (CacheLock) {
+            if (Cache == null && getCacheSize() > 0) {
+                Cache = new PredictionCache(getCacheSize());
+            }
+            return Cache;
+        }
+    }
+
+    /**
+     * Clear all cached predictions. Call if the model is modified or replaced.
+     */
+    public void invalidateCache() {
+        synchronized (CacheLock) {
+            if (Cache != null) {
+                Cache.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of copies of the model that can be run at the same time.
+     *
+     * @return Maximum for this model, if defined, or the number of threads used by the server
+     */
+    public int getPoolSize() {
+        return PoolSize == null ? Math.max(1, ServerLauncher.ThreadCount) : PoolSize;
+    }
+
+    /**
+     * Get a copy of the model that is not being used by any other thread. Waits for a copy
+     * to be released if the maximum number are in use. Return the copy using
+     * {@linkplain #releaseModel(magpie.models.BaseModel)} when done.
+     *
+     * @return Model to be run by this thread
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public BaseModel leaseModel() throws InterruptedException {
+        synchronized (IdleModels) {
+            if (Model instanceof ThreadSafeModel) {
+                NumberLeased++;
+                return Model;
+            }
+            BaseModel model = IdleModels.poll();
+            if (model != null) {
+                NumberLeased++;
+                return model;
+            }
+            if (NumberCopies < getPoolSize()) {
+                NumberCopies++;
+                NumberLeased++;
+                return Model.clone();
+            }
+        }
+        BaseModel model = IdleModels.take();
+        synchronized (IdleModels) {
+            NumberLeased++;
+        }
+        return model;
+    }
+
+    /**
+     * Return a copy of the model, so that it can be used by other threads
+     *
+     * @param model Model leased using {@linkplain #leaseModel()}
+     */
+    public void releaseModel(BaseModel model) {
+        synchronized (IdleModels) {
+            NumberLeased--;
+            if (!(Model instanceof ThreadSafeModel)) {
+                IdleModels.add(model);
+            }
+            if (Closed && NumberLeased == 0) {
+                closeModels();
+            }
+        }
+    }
+
+    /**
+     * Release any external resources held by the model and its copies (e.g., the server
+     * for {@linkplain magpie.models.interfaces.ExternalModel}). Call when this package is no longer served.
+     *
+     * <p>Copies that are currently leased are closed once they are all returned, so requests
+     * still using this package can finish. Resources opened by requests that use this package
+     * afterwards are also released once those requests finish.</p>
+     */
+    public void close() {
+        synchronized (IdleModels) {
+            Closed = true;
+            if (NumberLeased == 0) {
+                closeModels();
+            }
+        }
+    }
+
+    /**
+     * Release the external resources of the model and all copies that are not leased.
+     * Must be called while holding the lock on {@linkplain #IdleModels}
+     */
+    private void closeModels() {
+        Model.done();
+        for (BaseModel model : IdleModels) {
+            model.done();
+        }
+    }
+
+    /**
+     * Run a model on a dataset with attributes, using a model leased from the pool
+     *
+     * @param data Dataset to be run
+     * @throws InterruptedException If interrupted while waiting for a model
+     */
+    private void runLeasedModel(Dataset data) throws InterruptedException {
+        BaseModel model = leaseModel();
+        long startTime = System.nanoTime();
+        try {
+            model.run(data);
+        } finally {
+            releaseModel(model);
+        }
+        getPhaseLatency(ServerMetrics.Phase.RUN).recordSince(startTime);
+    }
+
     /**
      * Run the model stored in this package.
      *
-     * <p>Synchronized because some ML algorithms (e.g., ANNs in Weka) do not handle concurrent execution</p>
+     * <p>Each call uses a separate copy of the model, because some ML algorithms (e.g., ANNs in Weka)
+     * do not handle concurrent execution</p>
+     *
+     * @param data Dataset to be run, attributes will also be computed
+     */
+    public void runModel(Dataset data) throws Exception {
+        runModel(data, null);
+    }
+
+    /**
+     * Run the model stored in this package as part of a job.
+     *
+     * <p>Large datasets are evaluated in chunks of at most {@linkplain #getMaxBatchSize()} entries,
+     * which are run as bulk work by the server's {@linkplain WorkScheduler}. The progress of the current
+     * stage of the job is updated after each chunk, and the model stops if the job is cancelled.</p>
      *
      * @param data Dataset to be run, attributes will also be computed
+     * @param job Job running the model. Can be <code>null</code>
+     * @throws java.util.concurrent.CancellationException If the job is cancelled
      */
-    public synchronized void runModel(Dataset data) throws Exception {
+    public void runModel(Dataset data, Job job) throws Exception {
+        runModel(data, job, null);
+    }
+
+    /**
+     * Run the model stored in this package as part of a job, sharing attributes with other
+     * models through a certain cache.
+     *
+     * @param data Dataset to be run, attributes will also be computed
+     * @param job Job running the model. Can be <code>null</code>
+     * @param cache Cache holding attributes computed by other models. If <code>null</code>,
+     * uses the cache shared by the whole server
+     * @throws java.util.concurrent.CancellationException If the job is cancelled
+     * @see #computeAttributes(magpie.data.Dataset, magpie.user.server.AttributeCache)
+     */
+    public void runModel(Dataset data, Job job, AttributeCache cache) throws Exception {
         // Check if dataset is too big
+        checkSize(data);
+
+        // Run the model
+        long startTime = System.currentTimeMillis();
+        int chunkSize = Math.max(1, getMaxBatchSize());
+        if (job == null) {
+            computeAttributes(data, cache);
+            runLeasedModel(data);
+        } else {
+            for (int start = 0; start < data.NEntries(); start += chunkSize) {
+                job.checkCancelled();
+                Dataset chunk = data.emptyClone();
+                int end = Math.min(data.NEntries(), start + chunkSize);
+                for (int i = start; i < end; i++) {
+                    chunk.addEntry(data.getEntry(i));
+                }
+                runBulkTask(chunk, cache);
+                data.setAttributeNames(Arrays.asList(chunk.getAttributeNames()));
+                job.setStageProgress((double) end / data.NEntries());
+            }
+        }
+
+        // Record model running statistics
+        RunTime.addAndGet(System.currentTimeMillis() - startTime);
+        NumberRuns.incrementAndGet();
+        NumberEvaluated.addAndGet(data.NEntries());
+    }
+
+    /**
+     * Compute attributes for and run the model on a dataset as bulk work on the server's scheduler,
+     * and wait for it to finish. Runs in the calling thread if the server is not running.
+     *
+     * @param data Dataset to be run
+     * @param cache Cache holding attributes computed by other models. Can be <code>null</code>
+     * @throws Exception If evaluation fails
+     */
+    private void runBulkTask(final Dataset data, final AttributeCache cache) throws Exception {
+        runAsBulkWork(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                computeAttributes(data, cache);
+                runLeasedModel(data);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run the model on part of a large stream of entries (see {@linkplain BulkScorer}). The work is done
+     * as bulk work on the server's scheduler, and this method waits for it to finish.
+     *
+     * <p>If the attributes of the entries are not provided, predictions are retrieved from the cache
+     * when possible.</p>
+     *
+     * @param data Dataset to be run. Attributes will be cleared after running
+     * @param hasAttributes Whether the attributes of each entry have already been computed, in the order
+     * given by {@linkplain #getAttributeNames()}
+     * @throws Exception If evaluation fails
+     */
+    public void runBulk(final Dataset data, final boolean hasAttributes) throws Exception {
+        checkSize(data);
+        runAsBulkWork(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (!hasAttributes) {
+                    evaluateWithoutAttributes(data, 1);
+                    return null;
+                }
+                long startTime = System.currentTimeMillis();
+                runLeasedModel(data);
+                data.clearAttributes();
+                RunTime.addAndGet(System.currentTimeMillis() - startTime);
+                NumberRuns.incrementAndGet();
+                NumberEvaluated.addAndGet(data.NEntries());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run a task as bulk work on the server's scheduler, and wait for it to finish. Runs in the calling
+     * thread if the server is not running.
+     *
+     * @param task Task to be run
+     * @throws Exception If the task fails
+     */
+    private void runAsBulkWork(Callable<Void> task) throws Exception {
+        WorkScheduler scheduler = ServerLauncher.ThreadPool;
+        if (scheduler == null || scheduler.isShutdown()) {
+            task.call();
+            return;
+        }
+        Future<Void> result = scheduler.getExecutor(WorkScheduler.Priority.BULK, this).submit(task);
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Run a few entries through the model, so that the code used to compute attributes and run the
+     * model is loaded and compiled before the first request. Not recorded in the usage statistics.
+     *
+     * @param entries Entries to evaluate, in the format accepted by
+     * {@linkplain magpie.data.Dataset#addEntry(java.lang.String)}
+     * @throws Exception If the entries cannot be parsed or the model fails
+     */
+    public void warmUp(List<String> entries) throws Exception {
+        Dataset data = getDatasetCopy();
+        for (String entry : entries) {
+            data.addEntry(entry);
+        }
+        computeAttributes(data, null);
+        runLeasedModel(data);
+        PhaseLatency = ServerMetrics.createPhaseHistograms(); // Discard timings from the warm up
+    }
+
+    /**
+     * Check whether a dataset is small enough to be run by this model
+     *
+     * @param data Dataset to be checked
+     * @throws IllegalArgumentException If the dataset is too large
+     */
+    private void checkSize(Dataset data) {
         if (data.NEntries() > getMaxNumEntries()) {
             throw new IllegalArgumentException("Dataset is too large: " + data.NEntries() + " > " + getMaxNumEntries());
         }
+    }
 
-        // Run the mode
+    /**
+     * Run the model stored in this package, without keeping the attributes.
+     *
+     * <p>If caching is enabled, predictions are retrieved from the cache when possible.
+     * Attributes are only computed for, and the model only run on, entries that are not in the cache.</p>
+     *
+     * <p>If batching is enabled, the dataset may be combined with those from other concurrent requests
+     * (see {@linkplain RequestBatcher}).</p>
+     *
+     * @param data Dataset to be run. Attributes will be cleared after running
+     */
+    public void runModelWithoutAttributes(Dataset data) throws Exception {
+        checkSize(data);
+        RequestBatcher batcher = getRunBatcher();
+        if (batcher == null) {
+            evaluateWithoutAttributes(data, 1);
+        } else {
+            batcher.run(data);
+        }
+    }
+
+    /**
+     * Run the model stored in this package, without keeping the attributes. Returns immediately.
+     *
+     * <p>Behaves the same as {@linkplain #runModelWithoutAttributes(magpie.data.Dataset)}, except that the
+     * listener is notified once the model has been run rather than blocking the calling thread.</p>
+     *
+     * @param data Dataset to be run. Attributes will be cleared after running
+     * @param listener Tool to be notified when the model has been run
+     */
+    public void runModelWithoutAttributes(final Dataset data, final RequestBatcher.Listener listener) {
+        RequestBatcher batcher;
+        WorkScheduler.Priority priority;
+        try {
+            checkSize(data);
+            batcher = getRunBatcher();
+            priority = getPriority(data.NEntries());
+        } catch (Exception e) {
+            listener.requestFinished(data, e);
+            return;
+        }
+        if (batcher == null || priority == WorkScheduler.Priority.BULK) {
+            runInBackground(data, listener, true, priority);
+        } else {
+            batcher.submit(data, listener);
+        }
+    }
+
+    /**
+     * Evaluate a dataset using the server thread pool, without blocking the calling thread
+     *
+     * @param data Dataset to be evaluated
+     * @param listener Tool to be notified when evaluation is complete
+     * @param runModel Whether to run the model. If <code>false</code>, only computes attributes
+     * @param priority Class of work
+     */
+    private void runInBackground(final Dataset data, final RequestBatcher.Listener listener,
+            final boolean runModel, WorkScheduler.Priority priority) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (runModel) {
+                        evaluateWithoutAttributes(data, 1);
+                    } else {
+                        computeAttributes(data, null);
+                    }
+                } catch (Exception e) {
+                    listener.requestFinished(data, e);
+                    return;
+                } catch (Error e) {
+                    listener.requestFinished(data, new ExecutionException(e));
+                    return;
+                }
+                listener.requestFinished(data, null);
+            }
+        };
+        try {
+            ServerLauncher.ThreadPool.execute(task, priority, this);
+        } catch (RuntimeException e) {
+            listener.requestFinished(data, e);
+        }
+    }
+
+    /**
+     * Run the model on a dataset, using cached results if possible. Attributes will be cleared after running
+     *
+     * @param data Dataset to be run
+     * @param nRequests Number of requests that contributed to this dataset
+     */
+    private void evaluateWithoutAttributes(Dataset data, int nRequests) throws Exception {
         long startTime = System.currentTimeMillis();
-        data.generateAttributes();
-        Model.run(data);
+
+        // Find the entries that are not in the cache
+        PredictionCache cache = getCache();
+        Dataset toRun = data;
+        List<BaseEntry> keys = null;
+        long version = 0;
+        if (cache != null) {
+            version = cache.getVersion();
+            toRun = data.emptyClone();
+            keys = new ArrayList<>();
+            for (BaseEntry entry : data.getEntries()) {
+                if (!cache.lookup(entry)) {
+                    keys.add(cache.createKey(entry));
+                    toRun.addEntry(entry);
+                }
+            }
+        }
+
+        // Run the model on those entries
+        if (toRun.NEntries() > 0) {
+            computeAttributes(toRun, null);
+            runLeasedModel(toRun);
+            if (cache != null) {
+                for (int i = 0; i < keys.size(); i++) {
+                    cache.store(keys.get(i), toRun.getEntry(i), version);
+                }
+            }
+        }
+        data.clearAttributes();
 
         // Record model running statistics
         RunTime.addAndGet(System.currentTimeMillis() - startTime);
-        NumberRuns.incrementAndGet();
+        NumberRuns.addAndGet(nRequests);
         NumberEvaluated.addAndGet(data.NEntries());
     }
 
+    /**
+     * Compute the attributes for a dataset.
+     *
+     * <p>If batching is enabled, the dataset may be combined with those from other concurrent requests
+     * (see {@linkplain RequestBatcher}).</p>
+     *
+     * @param data Dataset for which to compute attributes
+     */
+    public void generateAttributes(Dataset data) throws Exception {
+        checkSize(data);
+        RequestBatcher batcher = getAttributeBatcher();
+        if (batcher == null) {
+            computeAttributes(data, null);
+        } else {
+            batcher.run(data);
+        }
+    }
+
+    /**
+     * Compute the attributes for a dataset. Returns immediately.
+     *
+     * <p>Behaves the same as {@linkplain #generateAttributes(magpie.data.Dataset)}, except that the
+     * listener is notified once the attributes are computed rather than blocking the calling thread.</p>
+     *
+     * @param data Dataset for which to compute attributes
+     * @param listener Tool to be notified when attributes have been computed
+     */
+    public void generateAttributes(final Dataset data, final RequestBatcher.Listener listener) {
+        RequestBatcher batcher;
+        WorkScheduler.Priority priority;
+        try {
+            checkSize(data);
+            batcher = getAttributeBatcher();
+            priority = getPriority(data.NEntries());
+        } catch (Exception e) {
+            listener.requestFinished(data, e);
+            return;
+        }
+        if (batcher == null || priority == WorkScheduler.Priority.BULK) {
+            runInBackground(data, listener, false, priority);
+        } else {
+            batcher.submit(data, listener);
+        }
+    }
+
+    /**
+     * Get the names of the attributes computed for this model
+     *
+     * @return Names of attributes, in the order they are computed
+     * @throws Exception If the attributes cannot be computed
+     */
+    public List<String> getAttributeNames() throws Exception {
+        // Computing the names twice is harmless, so no lock is needed
+        List<String> names = AttributeNames;
+        if (names == null) {
+            Dataset data = getDatasetCopy();
+            data.generateAttributes();
+            names = Collections.unmodifiableList(Arrays.asList(data.getAttributeNames()));
+            AttributeNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * Get the hash that identifies how attributes are computed for this model
+     *
+     * @return Hash, from {@linkplain magpie.data.Dataset#getAttributeGenerationHash()}
+     */
+    public String getAttributeGenerationHash() {
+        // Computing the hash twice is harmless, so no lock is needed
+        String hash = AttributeHash;
+        if (hash == null) {
+            hash = Dataset.getAttributeGenerationHash();
+            AttributeHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Compute the attributes for a dataset. Reuses attributes computed by any model that computes
+     * attributes in the same way, if they are available in the cache.
+     *
+     * @param data Dataset for which to compute attributes
+     * @param cache Cache holding attributes computed by other models. If <code>null</code>,
+     * uses the cache shared by the whole server ({@linkplain ServerLauncher#SharedAttributes})
+     * @throws Exception If attribute generation fails
+     */
+    protected void computeAttributes(Dataset data, AttributeCache cache) throws Exception {
+        long startTime = System.nanoTime();
+        if (cache == null) {
+            cache = ServerLauncher.SharedAttributes;
+        }
+        if (cache == null) {
+            data.generateAttributes();
+        } else {
+            cache.generateAttributes(data, getAttributeGenerationHash());
+        }
+        getPhaseLatency(ServerMetrics.Phase.ATTRIBUTES).recordSince(startTime);
+    }
+
+    /**
+     * Get the maximum number of entries to combine into a single batch
+     *
+     * @return Maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return Math.min(getMaxNumEntries(), ServerLauncher.MaxBatchSize);
+    }
+
+    /**
+     * Get the tool used to combine requests to run this model.
+     *
+     * @return Batcher, or <code>null</code> if batching is disabled
+     */
+    protected RequestBatcher getRunBatcher() {
+        synchronized (BatcherLock) {
+            if (RunBatcher == null && ServerLauncher.BatchWindow > 0) {
+                RunBatcher = new RequestBatcher(ServerLauncher.BatchWindow, getMaxBatchSize()) {
+                    @Override
+                    protected Dataset createBatch() {
+                        return getDatasetCopy();
+                    }
+
+                    @Override
+                    protected void process(Dataset batch, int nRequests) throws Exception {
+                        evaluateWithoutAttributes(batch, nRequests);
+                    }
+
+                    @Override
+                    protected ExecutorService getExecutor() {
+                        return ServerLauncher.ThreadPool.getExecutor(WorkScheduler.Priority.INTERACTIVE,
+                                ModelPackage.this);
+                    }
+                };
+            }
+            return RunBatcher;
+        }
+    }
+
+    /**
+     * Get the tool used to combine requests to compute attributes.
+     *
+     * @return Batcher, or <code>null</code> if batching is disabled
+     */
+    protected RequestBatcher getAttributeBatcher() {
+        synchronized (BatcherLock) {
+            if (AttributeBatcher == null && ServerLauncher.BatchWindow > 0) {
+                AttributeBatcher = new RequestBatcher(ServerLauncher.BatchWindow, getMaxBatchSize()) {
+                    @Override
+                    protected Dataset createBatch() {
+                        return getDatasetCopy();
+                    }
+
+                    @Override
+                    protected void process(Dataset batch, int nRequests) throws Exception {
+                        computeAttributes(batch, null);
+                    }
+
+                    @Override
+                    protected ExecutorService getExecutor() {
+                        return ServerLauncher.ThreadPool.getExecutor(WorkScheduler.Priority.INTERACTIVE,
+                                ModelPackage.this);
+                    }
+
+                    @Override
+                    protected void scatter(Dataset batch, Dataset request) {
+                        request.setAttributeNames(Arrays.asList(batch.getAttributeNames()));
+                    }
+                };
+            }
+            return AttributeBatcher;
+        }
+    }
+
+    /**
+     * Get the tool used to combine requests to run this model, without creating it
+     *
+     * @return Batcher, or <code>null</code> if it has not been created
+     */
+    protected RequestBatcher getExistingRunBatcher() {
+        synchronized (BatcherLock) {
+            return RunBatcher;
+        }
+    }
+
+    /**
+     * Get the tool used to combine requests to compute attributes, without creating it
+     *
+     * @return Batcher, or <code>null</code> if it has not been created
+     */
+    protected RequestBatcher getExistingAttributeBatcher() {
+        synchronized (BatcherLock) {
+            return AttributeBatcher;
+        }
+    }
+
     /**
      * Get a copy of the dataset
      *
@@ -265,6 +986,16 @@ public class ModelPackage {
         usageData.put("numberEntriesEvaluated", NumberEvaluated);
         usageData.put("totalRunTime", UtilityOperations.millisecondsToString(RunTime.get()));
         usageData.put("totalRunTimeMilliseconds", RunTime);
+        PredictionCache cache = getCache();
+        if (cache != null) {
+            JSONObject cacheData = new JSONObject();
+            cacheData.put("capacity", cache.getCapacity());
+            cacheData.put("size", cache.size());
+            cacheData.put("hits", cache.getNumberHits());
+            cacheData.put("misses", cache.getNumberMisses());
+            cacheData.put("hitRate", cache.getHitRate());
+            usageData.put("cache", cacheData);
+        }
         output.put("usageStats", usageData);
 
         return output;
@@ -0,0 +1,209 @@
+package magpie.user.server;
+
+import magpie.data.BaseEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the predictions of a model for recently-evaluated entries.
+ *
+ * <p>Entries are identified by their contents (e.g., the composition of a
+ * {@linkplain magpie.data.materials.CompositionEntry}), as defined by their
+ * <code>equals</code> and <code>hashCode</code> operations. Keys are copies of
+ * the entries made before attributes are computed, so an entry submitted in a later
+ * request matches as long as it is parsed from the same input. Entries whose
+ * class does not define its own <code>equals</code> operation (which would
+ * compare entries only by their attributes) are never cached.</p>
+ *
+ * <p>The cache holds a fixed number of entries, and discards the least-recently
+ * used entry when full. Each cache belongs to a single model. Calling
+ * {@linkplain #invalidate() } when the model changes clears the cache and increments
+ * its version number. Predictions made with an older version of the model
+ * are not stored.</p>
+ *
+ * @author Logan Ward
+ */
+public class PredictionCache {
+    /** Maximum number of entries to store */
+    final private int Capacity;
+    /** Predictions for each entry, in order of last access */
+    final private LinkedHashMap<BaseEntry, Prediction> Cache;
+    /** Version of the model being cached */
+    private long Version = 0;
+    /** Number of lookups that found a prediction */
+    final private AtomicLong NumberHits = new AtomicLong(0);
+    /** Number of lookups that did not find a prediction */
+    final private AtomicLong NumberMisses = new AtomicLong(0);
+    /** Whether each type of entry can be cached */
+    final static private Map<Class, Boolean> Cacheable = new ConcurrentHashMap<>();
+
+    /**
+     * Create an empty cache
+     * @param capacity Maximum number of entries to store
+     */
+    public PredictionCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one entry");
+        }
+        this.Capacity = capacity;
+        this.Cache = new LinkedHashMap<BaseEntry, Prediction>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BaseEntry, Prediction> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return Maximum number of entries held in the cache
+     */
+    public int getCapacity() {
+        return Capacity;
+    }
+
+    /**
+     * @return Number of entries currently held in the cache
+     */
+    public synchronized int size() {
+        return Cache.size();
+    }
+
+    /**
+     * @return Current version of the model
+     */
+    public synchronized long getVersion() {
+        return Version;
+    }
+
+    /**
+     * @return Number of lookups that found a prediction
+     */
+    public long getNumberHits() {
+        return NumberHits.get();
+    }
+
+    /**
+     * @return Number of lookups that did not find a prediction
+     */
+    public long getNumberMisses() {
+        return NumberMisses.get();
+    }
+
+    /**
+     * @return Fraction of lookups that found a prediction
+     */
+    public double getHitRate() {
+        long hits = getNumberHits(), total = hits + getNumberMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Clear the cache and increment the version number. Call whenever the
+     * model is modified or replaced.
+     */
+    public synchronized void invalidate() {
+        Cache.clear();
+        Version++;
+    }
+
+    /**
+     * Check whether an entry can be stored in the cache
+     * @param entry Entry to be checked
+     * @return Whether the entry class defines how to compare entries other than
+     * by attributes
+     */
+    static public boolean isCacheable(BaseEntry entry) {
+        Class entryClass = entry.getClass();
+        Boolean output = Cacheable.get(entryClass);
+        if (output == null) {
+            try {
+                Class definedBy = entryClass.getMethod("equals", Object.class).getDeclaringClass();
+                output = BaseEntry.class.isAssignableFrom(definedBy)
+                        && ! definedBy.equals(BaseEntry.class);
+            } catch (NoSuchMethodException e) {
+                output = false;
+            }
+            Cacheable.put(entryClass, output);
+        }
+        return output;
+    }
+
+    /**
+     * Look up the prediction for an entry. If found, store it in the entry.
+     * @param entry Entry to be looked up
+     * @return Whether a prediction was found
+     */
+    public boolean lookup(BaseEntry entry) {
+        if (! isCacheable(entry)) {
+            return false;
+        }
+        Prediction prediction;
+        synchronized (this) {
+            prediction = Cache.get(entry);
+        }
+        if (prediction == null) {
+            NumberMisses.incrementAndGet();
+            return false;
+        }
+        NumberHits.incrementAndGet();
+        if (prediction.Probabilities != null) {
+            entry.setClassProbabilities(prediction.Probabilities);
+        } else {
+            entry.setPredictedClass(prediction.Value);
+        }
+        return true;
+    }
+
+    /**
+     * Create the key used to store an entry. Must be called before attributes
+     * are computed for the entry.
+     * @param entry Entry to be stored later
+     * @return Key for that entry, or <code>null</code> if it cannot be cached
+     */
+    public BaseEntry createKey(BaseEntry entry) {
+        if (! isCacheable(entry)) {
+            return null;
+        }
+        BaseEntry key = entry.clone();
+        key.deletePredictedClass();
+        return key;
+    }
+
+    /**
+     * Store the prediction for an entry.
+     * @param key Key for the entry, from {@linkplain #createKey(magpie.data.BaseEntry) }
+     * @param entry Entry holding the prediction
+     * @param version Version of the model used to make the prediction. The
+     * prediction is not stored if the model has changed since then
+     */
+    public void store(BaseEntry key, BaseEntry entry, long version) {
+        if (key == null || ! entry.hasPrediction()) {
+            return;
+        }
+        Prediction prediction = new Prediction(entry.getPredictedClass(),
+                entry.hasClassProbabilities() ? entry.getClassProbilities() : null);
+        synchronized (this) {
+            if (version == Version) {
+                Cache.put(key, prediction);
+            }
+        }
+    }
+
+    /**
+     * Holds the prediction for a single entry
+     */
+    static private class Prediction {
+        /** Predicted class */
+        final public double Value;
+        /** Predicted probabilities for each class. <code>null</code> for regression models */
+        final public double[] Probabilities;
+
+        public Prediction(double value, double[] probabilities) {
+            this.Value = value;
+            this.Probabilities = probabilities;
+        }
+    }
+}
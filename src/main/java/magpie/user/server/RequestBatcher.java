@@ -0,0 +1,361 @@
+package magpie.user.server;
+
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines concurrent requests into a single dataset, so that the cost of computing attributes and running a
+ * model is shared between requests.
+ *
+ * <p>Requests are collected until either the batch reaches a maximum number of entries, or a short time window
+ * has passed since the first request in the batch arrived. The batch is then processed by a single task on the
+ * server thread pool. Batching is adaptive: if no other batch is being processed when a request arrives, the
+ * request is processed immediately, so that requests only wait to be batched when the server is busy.</p>
+ *
+ * <p>Requests can either wait for processing to complete using {@linkplain #run(magpie.data.Dataset)}, or
+ * be notified when it completes using {@linkplain #submit(magpie.data.Dataset, Listener)}. The latter does not
+ * block the calling thread, which is useful when handling requests asynchronously.</p>
+ *
+ * <p>The batch contains the same entry objects as each request, so the results (e.g., attributes or
+ * predictions) are available in the request's dataset once it completes. If processing a batch fails, each
+ * request in the batch is processed separately so that a problem with one request does not affect others.</p>
+ *
+ * @author Logan Ward
+ */
+public abstract class RequestBatcher {
+
+    /**
+     * Receives notice when a request has been processed
+     */
+    public interface Listener {
+        /**
+         * Called once processing is complete, whether successful or not
+         *
+         * @param data Dataset that was processed
+         * @param failure Exception thrown during processing, or <code>null</code> if successful
+         */
+        void requestFinished(Dataset data, Exception failure);
+    }
+
+    /** Thread used to process batches when their time window expires */
+    final static private ScheduledExecutorService Timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "request-batcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    /** Maximum time to wait for more requests, in milliseconds */
+    final private long Window;
+    /** Maximum number of entries in a batch */
+    final private int MaxEntries;
+    /** Requests waiting to be processed */
+    private List<Request> Pending = new ArrayList<>();
+    /** Number of entries in pending requests */
+    private int PendingEntries = 0;
+    /** Number of batches currently being processed */
+    private int NumberRunning = 0;
+    /** Number of requests in each batch */
+    final private Histogram BatchRequests = Histogram.createSizeHistogram();
+    /** Number of entries in each batch */
+    final private Histogram BatchEntries = Histogram.createSizeHistogram();
+    /** Time from when each request was submitted until its batch started being processed, in seconds */
+    final private Histogram WaitTime = Histogram.createLatencyHistogram();
+
+    /**
+     * Create a batcher
+     *
+     * @param window Maximum time to wait for more requests, in milliseconds
+     * @param maxEntries Maximum number of entries in a batch
+     */
+    public RequestBatcher(long window, int maxEntries) {
+        this.Window = window;
+        this.MaxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Create an empty dataset to hold a batch
+     *
+     * @return Empty dataset
+     */
+    abstract protected Dataset createBatch();
+
+    /**
+     * Process a batch of requests
+     *
+     * @param batch Dataset containing the entries of all requests
+     * @param nRequests Number of requests in batch
+     * @throws Exception If processing fails
+     */
+    abstract protected void process(Dataset batch, int nRequests) throws Exception;
+
+    /**
+     * Copy information about the batch, other than that stored in the entries, to a request. By default,
+     * does nothing.
+     *
+     * @param batch Batch that was processed
+     * @param request Dataset from one request
+     */
+    protected void scatter(Dataset batch, Dataset request) {
+    }
+
+    /**
+     * @return Executor used to process batches
+     */
+    protected ExecutorService getExecutor() {
+        return ServerLauncher.ThreadPool;
+    }
+
+    /**
+     * @return Number of requests in each batch that has been processed
+     */
+    public Histogram getBatchRequests() {
+        return BatchRequests;
+    }
+
+    /**
+     * @return Number of entries in each batch that has been processed
+     */
+    public Histogram getBatchEntries() {
+        return BatchEntries;
+    }
+
+    /**
+     * @return Time requests waited to be processed, in seconds. Includes the time spent waiting for more
+     * requests to join the batch and for a thread to process the batch
+     */
+    public Histogram getWaitTime() {
+        return WaitTime;
+    }
+
+    /**
+     * Process a dataset, possibly as part of a larger batch. Blocks until processing is complete.
+     *
+     * @param data Dataset to be processed
+     * @throws Exception If processing fails
+     */
+    public void run(Dataset data) throws Exception {
+        Request request = new Request(data, null);
+        enqueue(request);
+        request.Done.await();
+        if (request.Failure != null) {
+            throw request.Failure;
+        }
+    }
+
+    /**
+     * Process a dataset, possibly as part of a larger batch. Returns immediately.
+     *
+     * @param data Dataset to be processed
+     * @param listener Tool to be notified when processing is complete. Called from
+     * the thread that processed the batch
+     */
+    public void submit(Dataset data, Listener listener) {
+        enqueue(new Request(data, listener));
+    }
+
+    /**
+     * Add a request to the pending batch, and start processing the batch if ready
+     *
+     * @param request Request to be added
+     */
+    private void enqueue(Request request) {
+        List<List<Request>> toLaunch = new ArrayList<>(2);
+        boolean startTimer = false;
+        synchronized (this) {
+            // Start a new batch if this request does not fit
+            if (!Pending.isEmpty() && PendingEntries + request.Data.NEntries() > MaxEntries) {
+                toLaunch.add(takePending());
+            }
+
+            // Add request to the batch
+            Pending.add(request);
+            PendingEntries += request.Data.NEntries();
+
+            // Determine whether to process the batch now. If this request starts a batch,
+            //  and no others are running, there is no reason to wait
+            if (PendingEntries >= MaxEntries || Window <= 0
+                    || (Pending.size() == 1 && NumberRunning == 0)) {
+                toLaunch.add(takePending());
+            } else if (Pending.size() == 1) {
+                startTimer = true;
+            }
+        }
+
+        // Start the batches or timer
+        for (List<Request> batch : toLaunch) {
+            launch(batch);
+        }
+        if (startTimer) {
+            final Request first = request;
+            Timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    List<Request> batch = null;
+                    synchronized (RequestBatcher.this) {
+                        if (!Pending.isEmpty() && Pending.get(0) == first) {
+                            batch = takePending();
+                        }
+                    }
+                    if (batch != null) {
+                        launch(batch);
+                    }
+                }
+            }, Window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Remove all pending requests. Must be called while holding the lock on this object
+     *
+     * @return Requests that were pending
+     */
+    private List<Request> takePending() {
+        List<Request> output = Pending;
+        Pending = new ArrayList<>();
+        PendingEntries = 0;
+        NumberRunning++;
+        return output;
+    }
+
+    /**
+     * Submit a batch to be processed
+     *
+     * @param batch Requests to be processed
+     */
+    private void launch(final List<Request> batch) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processBatch(batch);
+                } finally {
+                    synchronized (RequestBatcher.this) {
+                        NumberRunning--;
+                    }
+                }
+            }
+        };
+        try {
+            getExecutor().submit(task);
+        } catch (RuntimeException e) {
+            // Executor is unavailable (e.g., server shutting down)
+            synchronized (this) {
+                NumberRunning--;
+            }
+            for (Request request : batch) {
+                request.finish(e);
+            }
+        }
+    }
+
+    /**
+     * Process a batch of requests, and mark each as complete
+     *
+     * @param batch Requests to be processed
+     */
+    private void processBatch(List<Request> batch) {
+        // Record the size of the batch, and how long requests waited
+        long now = System.nanoTime();
+        int nEntries = 0;
+        for (Request request : batch) {
+            nEntries += request.Data.NEntries();
+            WaitTime.record((now - request.SubmitTime) / 1e9);
+        }
+        BatchRequests.record(batch.size());
+        BatchEntries.record(nEntries);
+
+        // Run requests by themselves if there is only one
+        if (batch.size() == 1) {
+            processSeparately(batch.get(0));
+            return;
+        }
+
+        // Combine the requests
+        Dataset data = createBatch();
+        for (Request request : batch) {
+            for (BaseEntry entry : request.Data.getEntries()) {
+                data.addEntry(entry);
+            }
+        }
+
+        // Process them together
+        try {
+            process(data, batch.size());
+        } catch (Exception | Error e) {
+            for (Request request : batch) {
+                processSeparately(request);
+            }
+            return;
+        }
+        for (Request request : batch) {
+            scatter(data, request.Data);
+            request.finish(null);
+        }
+    }
+
+    /**
+     * Process a single request
+     *
+     * @param request Request to be processed
+     */
+    private void processSeparately(Request request) {
+        try {
+            process(request.Data, 1);
+            request.finish(null);
+        } catch (Exception e) {
+            request.finish(e);
+        } catch (Error e) {
+            request.finish(new ExecutionException(e));
+        }
+    }
+
+    /**
+     * Holds a request waiting to be processed
+     */
+    static private class Request {
+        /** Data to be processed */
+        final public Dataset Data;
+        /** Marks when processing is complete */
+        final public CountDownLatch Done = new CountDownLatch(1);
+        /** Tool to be notified when processing is complete, if any */
+        final public Listener Callback;
+        /** When the request was submitted, from {@linkplain System#nanoTime()} */
+        final public long SubmitTime = System.nanoTime();
+        /** Exception thrown during processing, if any */
+        public Exception Failure = null;
+
+        public Request(Dataset data, Listener listener) {
+            this.Data = data;
+            this.Callback = listener;
+        }
+
+        /**
+         * Mark this request as complete
+         *
+         * @param failure Exception thrown during processing. <code>null</code> if successful
+         */
+        public void finish(Exception failure) {
+            if (Done.getCount() == 0) {
+                return;
+            }
+            Failure = failure;
+            Done.countDown();
+            if (Callback != null) {
+                Callback.requestFinished(Data, failure);
+            }
+        }
+    }
+}
@@ -2,21 +2,26 @@
 package magpie.user.server;
 
 import magpie.Magpie;
-import magpie.data.Dataset;
-import magpie.models.BaseModel;
-import magpie.utility.WekaUtility;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.message.GZipEncoder;
 import org.glassfish.jersey.server.ResourceConfig;
-import org.yaml.snakeyaml.Yaml;
+import org.glassfish.jersey.server.filter.EncodingFilter;
 
-import java.io.FileInputStream;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
 import java.net.URI;
 import java.util.Date;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for launching a Magpie server. 
@@ -49,18 +54,62 @@ import java.util.concurrent.Executors;
  *         <li><b>author</b> Name of author of the model</li>
  *         <li><b>notes</b> Longer description of the model</li>
  *         <li><b>maxEntries</b> Maximum number of entries that can be run by a single query</li>
+ *         <li><b>cacheSize</b> (Optional) Maximum number of predictions to cache. Overrides the
+ *         value from the command line</li>
+ *         <li><b>poolSize</b> (Optional) Maximum number of copies of the model that can be run at once.
+ *         Default: Number of threads used by the server. Ignored for models that are thread-safe</li>
+ *         <li><b>warmupEntries</b> (Optional) List of entries to run through the model after it is loaded,
+ *         so that the first requests are not slowed by class loading and compilation</li>
  *     </ul>
  *
  *     <p>Feel free to use HTML formatting in the YAML file. This information will likely be rendered by a web browser</p>
  * </div>
  *
+ * <br><b>-lazyLoad</b>Start the server before the models are loaded. Models are loaded in the background, or
+ * when they are first requested. Use the <code>server/ready</code> endpoint to check whether all models are loaded.
+ * By default, all models are loaded (in parallel) before the server starts
+ * <br><b>-reloadInterval &lt;s&gt;</b>How often to check whether model or dataset files have changed, in seconds.
+ * Models whose files have changed are reloaded without restarting the server. Default: 0 (never check)
  * <br><b>-maxEntries &lt;path&gt;</b>Maximum number of entries that this server will run for a single request
+ * <br><b>-maxSearchEntries &lt;number&gt;</b>Maximum number of entries that can be generated by a search.
+ * Default: 10000000
+ * <br><b>-searchChunkSize &lt;number&gt;</b>Number of entries processed at a time by a search or a bulk request.
+ * Default: 10000
+ * <br><b>-cacheSize &lt;number&gt;</b>Maximum number of predictions to cache for each model. Predictions
+ * for entries that were recently evaluated are returned without computing attributes or running the
+ * model. Default: 0 (no caching)
+ * <br><b>-attributeCacheSize &lt;number&gt;</b>Maximum number of entries for which to cache attributes. Attributes
+ * are shared between all models that compute attributes the same way. Default: 0 (no caching)
+ * <br><b>-batchWindow &lt;ms&gt;</b>Maximum time, in milliseconds, to wait for other requests to the same model
+ * when the server is busy, so that they can be evaluated together. Set to 0 to disable batching. Default: 2
+ * <br><b>-batchSize &lt;number&gt;</b>Maximum number of entries evaluated in a single batch. Default: 1000
+ * <br><b>-maxJobs &lt;number&gt;</b>Maximum number of jobs (e.g., searches) waiting to be run. Default: 100
+ * <br><b>-maxJobsPerClient &lt;number&gt;</b>Maximum number of unfinished jobs for each client. Set to 0 for
+ * no limit. Default: 4
+ * <br><b>-jobRetention &lt;s&gt;</b>How long to keep the results of finished jobs, in seconds. Default: 3600
+ * <br><b>-interactiveLimit &lt;ms&gt;</b>Requests expected to take longer than this are treated as bulk work,
+ * and are run after smaller requests. Default: 1000
+ * <br><b>-interactiveBudget &lt;s&gt;</b>Maximum expected time to finish all outstanding interactive requests.
+ * Further requests are rejected with HTTP code 429. Set to 0 for no limit. Default: 30
+ * <br><b>-bulkBudget &lt;s&gt;</b>Maximum expected time to finish all outstanding bulk requests. Set to 0 for no limit.
+ * Default: 600
+ * <br><b>-maxBulkStreams &lt;number&gt;</b>Maximum number of requests to the <code>model/[name]/bulk</code>
+ * endpoint that are streamed at once. Further requests are rejected with HTTP code 429. Default: 4
  * 
  * <p><b>Client Implementation Guide</b>
  *
  * <p>This code uses a REST interface. Eventually, we may provide a wrapper for this API in other languages. There
  * are a few example webpages using this interface in the Magpie repository.</p>
  *
+ * <p>Responses are compressed with gzip if the client sends an "Accept-Encoding: gzip" header.</p>
+ *
+ * <p>Latencies, queue lengths, cache hit rates, and memory usage are available from <code>server/metrics</code>
+ * in the Prometheus text format, and from <code>server/metrics/json</code> as a JSON summary
+ * (see {@linkplain ServerMetrics}).</p>
+ *
+ * <p>Clients that evaluate many entries should use the <code>model/[name]/bulk</code> endpoint, which streams
+ * entries and results in compact text or binary formats (see {@linkplain BulkScorer}).</p>
+ *
  * <p>To do list:</p>
  *
  * <ol>
@@ -77,7 +126,23 @@ public class ServerLauncher {
     /**
      * List of models available to this program
      */
-    public static Map<String, ModelPackage> Models = new TreeMap<>();
+    public static Map<String, ModelPackage> Models = new ConcurrentSkipListMap<>();
+    /**
+     * Tool used to load models
+     */
+    public static ModelLoader Loader = null;
+    /**
+     * Whether to start the server before models are loaded
+     */
+    public static boolean LazyLoading = false;
+    /**
+     * How often to check whether model files have changed, in seconds
+     */
+    public static long ReloadInterval = 0;
+    /**
+     * Thread that periodically checks whether model files have changed
+     */
+    private static ScheduledExecutorService ReloadChecker = null;
     /**
      * Server currently being used
      */
@@ -86,10 +151,14 @@ public class ServerLauncher {
      * Time server was launched
      */
     public static Date StartDate;
+    /**
+     * Measures how quickly requests are handled
+     */
+    public static ServerMetrics Metrics = new ServerMetrics();
     /**
      * Executor used to prevent too many complex calculations at once.
      */
-    public static ExecutorService ThreadPool;
+    public static WorkScheduler ThreadPool;
     /**
      * Number of allowed threads
      */
@@ -98,6 +167,74 @@ public class ServerLauncher {
      * Maximum mumber of entries to run
      */
     public static int MaxNumEntries = 100000;
+    /**
+     * Maximum number of entries generated by a search
+     */
+    public static long MaxSearchEntries = 10000000;
+    /**
+     * Number of entries processed at once by a search or bulk request
+     */
+    public static int SearchChunkSize = 10000;
+    /**
+     * Maximum number of predictions to cache for each model
+     */
+    public static int CacheSize = 0;
+    /**
+     * Maximum number of entries for which to cache attributes
+     */
+    public static int AttributeCacheSize = 0;
+    /**
+     * Attributes shared between all models. <code>null</code> if attribute caching is disabled
+     */
+    public static AttributeCache SharedAttributes = null;
+    /**
+     * Maximum time to wait for requests to be batched together, in milliseconds
+     */
+    public static long BatchWindow = 2;
+    /**
+     * Maximum number of entries in a batch of requests
+     */
+    public static int MaxBatchSize = 1000;
+    /**
+     * Tool used to run long jobs, such as searches
+     */
+    public static JobManager Jobs;
+    /**
+     * Maximum number of jobs waiting to be run
+     */
+    public static int MaxQueuedJobs = 100;
+    /**
+     * Maximum number of unfinished jobs per client
+     */
+    public static int MaxJobsPerClient = 4;
+    /**
+     * How long to keep finished jobs, in seconds
+     */
+    public static long JobRetention = 3600;
+    /**
+     * Expected run time, in milliseconds, above which requests are treated as bulk work
+     */
+    public static double InteractiveCostLimit = 1000;
+    /**
+     * Maximum expected time to complete all outstanding interactive requests, in seconds
+     */
+    public static double InteractiveBudget = 30;
+    /**
+     * Maximum expected time to complete all outstanding bulk requests, in seconds
+     */
+    public static double BulkBudget = 600;
+    /**
+     * Estimated time to evaluate an entry with a model that has not been run yet, in milliseconds
+     */
+    public static double DefaultEntryCost = 1;
+    /**
+     * Maximum number of bulk requests streamed at once
+     */
+    public static int MaxBulkStreams = 4;
+    /**
+     * Threads that stream bulk requests, so that they do not block the threads of the HTTP server
+     */
+    public static ExecutorService BulkStreams;
 
     /**
      * Handle input passed to the server. See class documentation for format
@@ -105,6 +242,7 @@ public class ServerLauncher {
      * @throws java.lang.Exception 
      */
     public static void parseInput(String[] args) throws Exception {
+        String modelPath = null;
         int pos = 0;
         while (pos < args.length) {
             String tag = args[pos].toLowerCase();
@@ -114,79 +252,127 @@ public class ServerLauncher {
                     System.out.println("Set port: " + ListenPort);
                     break;
                 case "-models":
-                    readInformationFile(args[++pos]);
+                    modelPath = args[++pos];
+                    break;
+                case "-lazyload":
+                    LazyLoading = true;
+                    break;
+                case "-reloadinterval":
+                    ReloadInterval = Long.parseLong(args[++pos]);
                     break;
                 case "-maxentries":
                     MaxNumEntries = Integer.parseInt(args[++pos]);
                     break;
+                case "-maxsearchentries":
+                    MaxSearchEntries = Long.parseLong(args[++pos]);
+                    break;
+                case "-searchchunksize":
+                    SearchChunkSize = Integer.parseInt(args[++pos]);
+                    break;
+                case "-cachesize":
+                    CacheSize = Integer.parseInt(args[++pos]);
+                    break;
+                case "-attributecachesize":
+                    AttributeCacheSize = Integer.parseInt(args[++pos]);
+                    break;
+                case "-batchwindow":
+                    BatchWindow = Long.parseLong(args[++pos]);
+                    break;
+                case "-batchsize":
+                    MaxBatchSize = Integer.parseInt(args[++pos]);
+                    break;
+                case "-maxjobs":
+                    MaxQueuedJobs = Integer.parseInt(args[++pos]);
+                    break;
+                case "-maxjobsperclient":
+                    MaxJobsPerClient = Integer.parseInt(args[++pos]);
+                    break;
+                case "-jobretention":
+                    JobRetention = Long.parseLong(args[++pos]);
+                    break;
+                case "-interactivelimit":
+                    InteractiveCostLimit = Double.parseDouble(args[++pos]);
+                    break;
+                case "-interactivebudget":
+                    InteractiveBudget = Double.parseDouble(args[++pos]);
+                    break;
+                case "-bulkbudget":
+                    BulkBudget = Double.parseDouble(args[++pos]);
+                    break;
+                case "-maxbulkstreams":
+                    MaxBulkStreams = Integer.parseInt(args[++pos]);
+                    break;
                 default:
                     throw new Exception("Unknown tag: " + tag);
             }
             pos++;
         }
+
+        // Read the models
+        if (modelPath != null) {
+            if (LazyLoading) {
+                prepareLoader(modelPath);
+            } else {
+                readInformationFile(modelPath);
+            }
+        }
     }
     
     /**
-     * Given model information file, configure the handler
+     * Given model information file, configure the handler. Loads all of the models, in parallel
      * @param path Path to model information file
      * @throws Exception
      */
     public static void readInformationFile(String path) throws Exception {
-        // Make sure Weka models are available
-        WekaUtility.importWekaHome();
-
-        // Clear the list of models
-        Models.clear();
-
-        // Parse the input file
-        Yaml yaml = new Yaml();
-        FileInputStream fp = new FileInputStream(path);
-        for (Object modelDataObj : yaml.loadAll(fp)) {
-            Map<String, Object> modelData = (Map) modelDataObj;
+        prepareLoader(path);
+        Loader.loadAll(Magpie.NThreads);
+    }
 
-            // Get the name of the model
-            if (! modelData.containsKey("name")) {
-                throw new RuntimeException("model description file missing name tag");
-            }
-            String modelName = modelData.get("name").toString();
+    /**
+     * Prepare to load the models described in a model information file. Does not load the models
+     * @param path Path to model information file
+     * @throws Exception If the file is not formatted correctly
+     */
+    private static void prepareLoader(String path) throws Exception {
+        ModelLoader loader = new ModelLoader(path, Models);
 
-            // Check for the required tags
-            for (String tag : new String[]{"description", "property", "training",
-                    "author", "citation", "notes", "modelPath", "datasetPath"}) {
-                if (! modelData.containsKey(tag)) {
-                    throw new RuntimeException(modelName + " description missing tag: " + tag);
-                }
-            }
+        // Clear the list of models, making sure requests still using
+        //  the old models do not add to their caches
+        for (ModelPackage oldModel : Models.values()) {
+            oldModel.invalidateCache();
+            oldModel.close();
+        }
+        Models.clear();
+        Loader = loader;
+    }
 
-            // Get the path to the model and dataset
-            String modelPath = modelData.get("modelPath").toString();
-            String dataPath = modelData.get("datasetPath").toString();
-
-            // Read in the files
-            Dataset dataset = Dataset.loadState(dataPath);
-            dataset = dataset.emptyClone();
-            BaseModel model = BaseModel.loadState(modelPath);
-
-            // Read both to generate model package
-            ModelPackage modelPackage = new ModelPackage(dataset, model);
-
-            // Read in the other information
-            modelPackage.Description = modelData.get("description").toString();
-            modelPackage.Property = modelData.get("property").toString();
-            modelPackage.setUnits(modelData.containsKey("units") ? modelData.get("units").toString() : "None");
-            modelPackage.TrainingSet = modelData.get("training").toString();
-            modelPackage.Author = modelData.get("author").toString();
-            modelPackage.ModelCitation = modelData.get("citation").toString();
-            modelPackage.Notes = modelData.get("notes").toString();
-            if (modelData.containsKey("maxEntries")) {
-                modelPackage.MaxNumEntries = (Integer) modelData.get("maxEntries");
+    /**
+     * Get a model being served. If the model has not been loaded yet, loads it
+     * @param name Name of model
+     * @return The model, or <code>null</code> if no such model
+     * @throws WebApplicationException If the model fails to load
+     */
+    public static ModelPackage getModel(String name) {
+        ModelPackage model = Models.get(name);
+        if (model == null && Loader != null) {
+            try {
+                model = Loader.getModel(name);
+            } catch (Exception e) {
+                throw ServerUtilityOperations.prepareException(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                        "model " + name + " failed to load: " + ServerUtilityOperations.getErrorMessage(e));
             }
-
-            // Store the model
-            Models.put(modelName, modelPackage);
         }
+        return model;
     }
-    
+
+    /**
+     * Get the names of all models served by this server, including those not yet loaded
+     * @return Names of models
+     */
+    public static Set<String> getModelNames() {
+        return Loader == null ? Models.keySet() : Loader.getModelNames();
+    }
+
     /**
      * @param args the command line arguments
      * @throws java.lang.Exception
@@ -206,6 +392,7 @@ public class ServerLauncher {
     public static void startServer() throws Exception {
         // Make the HTTP server
         final ResourceConfig cfg = new ResourceConfig().packages("magpie.user.server");
+        EncodingFilter.enableFor(cfg, GZipEncoder.class);
         Server = GrizzlyHttpServerFactory.createHttpServer(URI.create("http://0.0.0.0:" + ListenPort), cfg);
 
         // Add hook to shutdown Server
@@ -216,13 +403,74 @@ public class ServerLauncher {
             }
         }));
 
-        // Create the thread pool for running models, etc.
-        ThreadPool = Executors.newFixedThreadPool(Magpie.NThreads);
+        // Create the thread pool for running models, etc. Budgets are converted
+        //  from wall time to the total time spent by all threads
+        if (ThreadPool != null) {
+            ThreadPool.shutdown();
+        }
         ThreadCount = Magpie.NThreads;
+        ThreadPool = new WorkScheduler(ThreadCount, InteractiveBudget * 1000 * ThreadCount,
+                BulkBudget * 1000 * ThreadCount);
         Magpie.NThreads = 1; // Prevent any other parallel operations
 
+        // Create the cache of attributes shared between models
+        SharedAttributes = AttributeCacheSize > 0 ? new AttributeCache(AttributeCacheSize) : null;
+
+        // Create the tool for running searches and other long jobs
+        if (Jobs != null) {
+            Jobs.shutdown();
+        }
+        Jobs = new JobManager(ThreadCount, MaxQueuedJobs, MaxJobsPerClient, JobRetention * 1000);
+
+        // Create the threads that stream bulk requests. Requests beyond the limit are rejected
+        if (BulkStreams != null) {
+            BulkStreams.shutdown();
+        }
+        int nStreams = Math.max(1, MaxBulkStreams);
+        ThreadPoolExecutor bulkStreams = new ThreadPoolExecutor(nStreams, nStreams, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "bulk-stream");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        bulkStreams.allowCoreThreadTimeOut(true);
+        BulkStreams = bulkStreams;
+
         // Launch it
+        Metrics = new ServerMetrics();
         Server.start();
         StartDate = new Date();
+
+        // Load any models that are not yet loaded
+        if (Loader != null && !Loader.isReady()) {
+            Loader.startLoading(ThreadCount);
+        }
+
+        // Start checking whether model files have changed
+        if (ReloadChecker != null) {
+            ReloadChecker.shutdownNow();
+            ReloadChecker = null;
+        }
+        if (Loader != null && ReloadInterval > 0) {
+            ReloadChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "model-reloader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            ReloadChecker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (String name : Loader.checkForChanges()) {
+                        System.out.println("Reloaded model: " + name);
+                    }
+                }
+            }, ReloadInterval, ReloadInterval, TimeUnit.SECONDS);
+        }
     }
 }
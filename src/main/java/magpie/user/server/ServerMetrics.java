@@ -0,0 +1,572 @@
+package magpie.user.server;
+
+import org.json.JSONObject;
+
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ResourceInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how quickly the server handles requests.
+ *
+ * <p>The time taken by each request is recorded for each endpoint (see {@linkplain MetricsFilter}).
+ * Requests that evaluate models also record the time spent in each {@linkplain Phase} of handling the
+ * request, both for the endpoint and for the model being evaluated (see
+ * {@linkplain ModelPackage#getPhaseLatency(Phase)}). This class also collects statistics kept by other
+ * parts of the server: how long tasks wait for a thread ({@linkplain WorkScheduler}), the size of batches
+ * ({@linkplain RequestBatcher}), cache hit rates, and memory usage and garbage collection by the JVM.</p>
+ *
+ * <p>Metrics are available in the Prometheus text format ({@linkplain #toPrometheus()}), where latencies
+ * are histograms, and as a JSON summary ({@linkplain #toJSON()}), which contains the median, 95th and 99th
+ * percentile of each latency. All times are in seconds.</p>
+ *
+ * @author Logan Ward
+ */
+public class ServerMetrics {
+
+    /**
+     * Phases of handling a request to evaluate a model
+     */
+    public enum Phase {
+        /** Reading the entries provided by the user */
+        PARSE,
+        /** Computing attributes */
+        ATTRIBUTES,
+        /** Running the model */
+        RUN,
+        /** Writing the results */
+        SERIALIZE;
+
+        /**
+         * @return Name used to label this phase
+         */
+        public String getLabel() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** Content type of the Prometheus text format */
+    final static public String PrometheusContentType = "text/plain; version=0.0.4; charset=utf-8";
+    /** Time taken to handle requests, for each endpoint */
+    final private ConcurrentMap<String, Histogram> RequestLatency = new ConcurrentSkipListMap<>();
+    /** Number of responses for each endpoint, by the first digit of the status code (e.g., 2 for 2xx) */
+    final private ConcurrentMap<String, AtomicLongArray> Responses = new ConcurrentSkipListMap<>();
+    /** Time taken for each phase of handling requests, for each endpoint */
+    final private ConcurrentMap<String, Histogram[]> PhaseLatency = new ConcurrentSkipListMap<>();
+    /** Time these metrics started being collected, from {@linkplain System#nanoTime()} */
+    final private long StartTime = System.nanoTime();
+
+    /**
+     * @return Histograms for each phase of handling a request, in the order of {@linkplain Phase}
+     */
+    static public Histogram[] createPhaseHistograms() {
+        Histogram[] output = new Histogram[Phase.values().length];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = Histogram.createLatencyHistogram();
+        }
+        return output;
+    }
+
+    /**
+     * Get the name of the endpoint that handles a request.
+     *
+     * @param resource Resource method matched to the request
+     * @return Path template of endpoint (e.g., "/model/{name}/run")
+     */
+    static public String getEndpoint(ResourceInfo resource) {
+        Class<?> cls = resource.getResourceClass();
+        Method method = resource.getResourceMethod();
+        if (cls == null || method == null) {
+            return "unknown";
+        }
+        StringBuilder output = new StringBuilder();
+        for (Path path : new Path[]{cls.getAnnotation(Path.class), method.getAnnotation(Path.class)}) {
+            if (path == null) {
+                continue;
+            }
+            String part = path.value();
+            while (part.startsWith("/")) {
+                part = part.substring(1);
+            }
+            while (part.endsWith("/")) {
+                part = part.substring(0, part.length() - 1);
+            }
+            if (!part.isEmpty()) {
+                output.append("/").append(part);
+            }
+        }
+        return output.length() == 0 ? "/" : output.toString();
+    }
+
+    /**
+     * Record that a request has been handled
+     *
+     * @param endpoint Name of endpoint
+     * @param status HTTP status code of the response
+     * @param time Time taken to handle the request, in seconds
+     */
+    public void recordRequest(String endpoint, int status, double time) {
+        Histogram latency = RequestLatency.get(endpoint);
+        if (latency == null) {
+            RequestLatency.putIfAbsent(endpoint, Histogram.createLatencyHistogram());
+            latency = RequestLatency.get(endpoint);
+        }
+        latency.record(time);
+
+        AtomicLongArray responses = Responses.get(endpoint);
+        if (responses == null) {
+            Responses.putIfAbsent(endpoint, new AtomicLongArray(6));
+            responses = Responses.get(endpoint);
+        }
+        responses.incrementAndGet(Math.max(0, Math.min(5, status / 100)));
+    }
+
+    /**
+     * Record the time spent in a phase of handling a request
+     *
+     * @param endpoint Name of endpoint
+     * @param phase Phase
+     * @param time Time taken, in seconds
+     */
+    public void recordPhase(String endpoint, Phase phase, double time) {
+        Histogram[] latency = PhaseLatency.get(endpoint);
+        if (latency == null) {
+            PhaseLatency.putIfAbsent(endpoint, createPhaseHistograms());
+            latency = PhaseLatency.get(endpoint);
+        }
+        latency[phase.ordinal()].record(time);
+    }
+
+    /**
+     * @param endpoint Name of endpoint
+     * @return Time taken to handle requests to that endpoint, or <code>null</code> if none have been handled
+     */
+    public Histogram getRequestLatency(String endpoint) {
+        return RequestLatency.get(endpoint);
+    }
+
+    /**
+     * @param endpoint Name of endpoint
+     * @param phase Phase of handling a request
+     * @return Time taken in that phase, or <code>null</code> if none have been recorded for the endpoint
+     */
+    public Histogram getPhaseLatency(String endpoint, Phase phase) {
+        Histogram[] latency = PhaseLatency.get(endpoint);
+        return latency == null ? null : latency[phase.ordinal()];
+    }
+
+    /**
+     * @return Time since metrics started being collected, in seconds
+     */
+    public double getUptime() {
+        return (System.nanoTime() - StartTime) / 1e9;
+    }
+
+    /**
+     * Write all metrics in the Prometheus text format
+     *
+     * @return Metrics, ready to be scraped by Prometheus
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+
+        // Requests to each endpoint
+        writeHeader(out, "magpie_http_request_duration_seconds", "histogram",
+                "Time taken to handle requests, by endpoint");
+        for (Map.Entry<String, Histogram> entry : RequestLatency.entrySet()) {
+            writeHistogram(out, "magpie_http_request_duration_seconds", label("endpoint", entry.getKey()),
+                    entry.getValue());
+        }
+        writeHeader(out, "magpie_http_responses_total", "counter", "Number of responses, by endpoint and status");
+        for (Map.Entry<String, AtomicLongArray> entry : Responses.entrySet()) {
+            for (int c = 1; c < entry.getValue().length(); c++) {
+                writeSample(out, "magpie_http_responses_total", label("endpoint", entry.getKey())
+                        + "," + label("code", c + "xx"), entry.getValue().get(c));
+            }
+        }
+        writeHeader(out, "magpie_http_request_phase_duration_seconds", "histogram",
+                "Time taken in each phase of handling requests, by endpoint");
+        for (Map.Entry<String, Histogram[]> entry : PhaseLatency.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                writeHistogram(out, "magpie_http_request_phase_duration_seconds", label("endpoint", entry.getKey())
+                        + "," + label("phase", phase.getLabel()), entry.getValue()[phase.ordinal()]);
+            }
+        }
+
+        // Model usage
+        writeHeader(out, "magpie_model_phase_duration_seconds", "histogram",
+                "Time taken in each phase of evaluating requests, by model");
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                writeHistogram(out, "magpie_model_phase_duration_seconds", label("model", entry.getKey())
+                        + "," + label("phase", phase.getLabel()), entry.getValue().getPhaseLatency(phase));
+            }
+        }
+        writeHeader(out, "magpie_model_runs_total", "counter", "Number of requests evaluated, by model");
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            writeSample(out, "magpie_model_runs_total", label("model", entry.getKey()),
+                    entry.getValue().getNumberRuns());
+        }
+        writeHeader(out, "magpie_model_entries_evaluated_total", "counter", "Number of entries evaluated, by model");
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            writeSample(out, "magpie_model_entries_evaluated_total", label("model", entry.getKey()),
+                    entry.getValue().getNumberEntriesEvaluated());
+        }
+
+        // Batches
+        writeHeader(out, "magpie_batch_requests", "histogram", "Number of requests combined into each batch");
+        for (Map.Entry<String, RequestBatcher> entry : getBatchers().entrySet()) {
+            writeHistogram(out, "magpie_batch_requests", entry.getKey(), entry.getValue().getBatchRequests());
+        }
+        writeHeader(out, "magpie_batch_entries", "histogram", "Number of entries in each batch");
+        for (Map.Entry<String, RequestBatcher> entry : getBatchers().entrySet()) {
+            writeHistogram(out, "magpie_batch_entries", entry.getKey(), entry.getValue().getBatchEntries());
+        }
+        writeHeader(out, "magpie_batch_wait_seconds", "histogram",
+                "Time requests waited before their batch was processed");
+        for (Map.Entry<String, RequestBatcher> entry : getBatchers().entrySet()) {
+            writeHistogram(out, "magpie_batch_wait_seconds", entry.getKey(), entry.getValue().getWaitTime());
+        }
+
+        // Scheduler
+        WorkScheduler scheduler = ServerLauncher.ThreadPool;
+        if (scheduler != null) {
+            writeHeader(out, "magpie_scheduler_queue_wait_seconds", "histogram",
+                    "Time tasks waited for a thread, by class of work");
+            for (WorkScheduler.Priority priority : WorkScheduler.Priority.values()) {
+                writeHistogram(out, "magpie_scheduler_queue_wait_seconds", label("class", getLabel(priority)),
+                        scheduler.getQueueWait(priority));
+            }
+            writeHeader(out, "magpie_scheduler_queued_tasks", "gauge", "Number of tasks waiting for a thread");
+            for (WorkScheduler.Priority priority : WorkScheduler.Priority.values()) {
+                writeSample(out, "magpie_scheduler_queued_tasks", label("class", getLabel(priority)),
+                        scheduler.getQueueLength(priority));
+            }
+            writeHeader(out, "magpie_scheduler_running_tasks", "gauge", "Number of tasks being run");
+            for (WorkScheduler.Priority priority : WorkScheduler.Priority.values()) {
+                writeSample(out, "magpie_scheduler_running_tasks", label("class", getLabel(priority)),
+                        scheduler.getNumberRunning(priority));
+            }
+            writeHeader(out, "magpie_scheduler_outstanding_cost_seconds", "gauge",
+                    "Estimated time to complete all admitted requests");
+            for (WorkScheduler.Priority priority : WorkScheduler.Priority.values()) {
+                writeSample(out, "magpie_scheduler_outstanding_cost_seconds", label("class", getLabel(priority)),
+                        scheduler.getOutstandingCost(priority) / 1000);
+            }
+        }
+        if (ServerLauncher.Jobs != null) {
+            writeHeader(out, "magpie_jobs_queued", "gauge", "Number of jobs waiting to be run");
+            writeSample(out, "magpie_jobs_queued", "", ServerLauncher.Jobs.getQueueLength());
+            writeHeader(out, "magpie_jobs_running", "gauge", "Number of jobs being run");
+            writeSample(out, "magpie_jobs_running", "", ServerLauncher.Jobs.getNumberRunning());
+        }
+
+        // Caches
+        writeHeader(out, "magpie_prediction_cache_hits_total", "counter", "Number of predictions found in the cache");
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            PredictionCache cache = entry.getValue().getCache();
+            if (cache != null) {
+                writeSample(out, "magpie_prediction_cache_hits_total", label("model", entry.getKey()),
+                        cache.getNumberHits());
+            }
+        }
+        writeHeader(out, "magpie_prediction_cache_misses_total", "counter",
+                "Number of predictions not found in the cache");
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            PredictionCache cache = entry.getValue().getCache();
+            if (cache != null) {
+                writeSample(out, "magpie_prediction_cache_misses_total", label("model", entry.getKey()),
+                        cache.getNumberMisses());
+            }
+        }
+        AttributeCache attributes = ServerLauncher.SharedAttributes;
+        if (attributes != null) {
+            writeHeader(out, "magpie_attribute_cache_hits_total", "counter",
+                    "Number of entries whose attributes were found in the cache");
+            writeSample(out, "magpie_attribute_cache_hits_total", "", attributes.getNumberHits());
+            writeHeader(out, "magpie_attribute_cache_misses_total", "counter",
+                    "Number of entries whose attributes were not found in the cache");
+            writeSample(out, "magpie_attribute_cache_misses_total", "", attributes.getNumberMisses());
+            writeHeader(out, "magpie_attribute_cache_entries", "gauge", "Number of entries in the cache");
+            writeSample(out, "magpie_attribute_cache_entries", "", attributes.size());
+        }
+
+        // JVM
+        writeHeader(out, "magpie_uptime_seconds", "gauge", "Time since the metrics started being collected");
+        writeSample(out, "magpie_uptime_seconds", "", getUptime());
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        writeHeader(out, "jvm_memory_bytes_used", "gauge", "Memory used by the JVM");
+        writeSample(out, "jvm_memory_bytes_used", label("area", "heap"), heap.getUsed());
+        writeSample(out, "jvm_memory_bytes_used", label("area", "nonheap"), nonHeap.getUsed());
+        writeHeader(out, "jvm_memory_bytes_committed", "gauge", "Memory committed by the JVM");
+        writeSample(out, "jvm_memory_bytes_committed", label("area", "heap"), heap.getCommitted());
+        writeSample(out, "jvm_memory_bytes_committed", label("area", "nonheap"), nonHeap.getCommitted());
+        writeHeader(out, "jvm_memory_bytes_max", "gauge", "Maximum memory available to the JVM");
+        writeSample(out, "jvm_memory_bytes_max", label("area", "heap"), heap.getMax());
+        writeHeader(out, "jvm_gc_collection_seconds", "summary", "Time spent in garbage collection, by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            writeSample(out, "jvm_gc_collection_seconds_count", label("gc", gc.getName()),
+                    Math.max(0, gc.getCollectionCount()));
+            writeSample(out, "jvm_gc_collection_seconds_sum", label("gc", gc.getName()),
+                    Math.max(0, gc.getCollectionTime()) / 1000.0);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Summarize all metrics as JSON. See {@linkplain Histogram#toJSON()} for the format of latencies
+     *
+     * @return Metrics
+     */
+    public JSONObject toJSON() {
+        JSONObject output = new JSONObject();
+        double uptime = getUptime();
+        output.put("uptimeSeconds", uptime);
+
+        // Requests to each endpoint
+        JSONObject endpoints = new JSONObject();
+        for (Map.Entry<String, Histogram> entry : RequestLatency.entrySet()) {
+            JSONObject endpoint = new JSONObject();
+            long count = entry.getValue().getCount();
+            endpoint.put("requests", count);
+            endpoint.put("requestsPerSecond", uptime > 0 ? count / uptime : 0);
+            endpoint.put("latency", entry.getValue().toJSON());
+            AtomicLongArray responses = Responses.get(entry.getKey());
+            if (responses != null) {
+                JSONObject codes = new JSONObject();
+                for (int c = 1; c < responses.length(); c++) {
+                    codes.put(c + "xx", responses.get(c));
+                }
+                endpoint.put("responses", codes);
+            }
+            Histogram[] phases = PhaseLatency.get(entry.getKey());
+            if (phases != null) {
+                endpoint.put("phases", phasesToJSON(phases));
+            }
+            endpoints.put(entry.getKey(), endpoint);
+        }
+        output.put("endpoints", endpoints);
+
+        // Models
+        JSONObject models = new JSONObject();
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            ModelPackage model = entry.getValue();
+            JSONObject modelData = new JSONObject();
+            modelData.put("runs", model.getNumberRuns());
+            modelData.put("entriesEvaluated", model.getNumberEntriesEvaluated());
+            Histogram[] phases = new Histogram[Phase.values().length];
+            for (Phase phase : Phase.values()) {
+                phases[phase.ordinal()] = model.getPhaseLatency(phase);
+            }
+            modelData.put("phases", phasesToJSON(phases));
+            PredictionCache cache = model.getCache();
+            if (cache != null) {
+                JSONObject cacheData = new JSONObject();
+                cacheData.put("hits", cache.getNumberHits());
+                cacheData.put("misses", cache.getNumberMisses());
+                cacheData.put("hitRate", cache.getHitRate());
+                cacheData.put("size", cache.size());
+                modelData.put("predictionCache", cacheData);
+            }
+            JSONObject batches = new JSONObject();
+            RequestBatcher batcher = model.getExistingRunBatcher();
+            if (batcher != null) {
+                batches.put("run", batcherToJSON(batcher));
+            }
+            batcher = model.getExistingAttributeBatcher();
+            if (batcher != null) {
+                batches.put("attributes", batcherToJSON(batcher));
+            }
+            modelData.put("batches", batches);
+            models.put(entry.getKey(), modelData);
+        }
+        output.put("models", models);
+
+        // Scheduler
+        WorkScheduler scheduler = ServerLauncher.ThreadPool;
+        if (scheduler != null) {
+            JSONObject schedulerData = new JSONObject();
+            for (WorkScheduler.Priority priority : WorkScheduler.Priority.values()) {
+                JSONObject classData = new JSONObject();
+                classData.put("queued", scheduler.getQueueLength(priority));
+                classData.put("running", scheduler.getNumberRunning(priority));
+                classData.put("outstandingCostSeconds", scheduler.getOutstandingCost(priority) / 1000);
+                classData.put("queueWait", scheduler.getQueueWait(priority).toJSON());
+                schedulerData.put(getLabel(priority), classData);
+            }
+            output.put("scheduler", schedulerData);
+        }
+        if (ServerLauncher.Jobs != null) {
+            JSONObject jobs = new JSONObject();
+            jobs.put("queued", ServerLauncher.Jobs.getQueueLength());
+            jobs.put("running", ServerLauncher.Jobs.getNumberRunning());
+            output.put("jobs", jobs);
+        }
+        AttributeCache attributes = ServerLauncher.SharedAttributes;
+        if (attributes != null) {
+            JSONObject cacheData = new JSONObject();
+            cacheData.put("hits", attributes.getNumberHits());
+            cacheData.put("misses", attributes.getNumberMisses());
+            cacheData.put("hitRate", attributes.getHitRate());
+            cacheData.put("size", attributes.size());
+            output.put("attributeCache", cacheData);
+        }
+
+        // JVM
+        JSONObject jvm = new JSONObject();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        jvm.put("heapUsed", heap.getUsed());
+        jvm.put("heapCommitted", heap.getCommitted());
+        jvm.put("heapMax", heap.getMax());
+        jvm.put("nonHeapUsed", ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage().getUsed());
+        JSONObject gcData = new JSONObject();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            JSONObject collector = new JSONObject();
+            collector.put("count", gc.getCollectionCount());
+            collector.put("timeSeconds", gc.getCollectionTime() / 1000.0);
+            gcData.put(gc.getName(), collector);
+        }
+        jvm.put("gc", gcData);
+        output.put("jvm", jvm);
+        return output;
+    }
+
+    /**
+     * Summarize the latency of each phase
+     *
+     * @param phases Histogram for each phase
+     * @return Summary of each phase that has been recorded
+     */
+    static private JSONObject phasesToJSON(Histogram[] phases) {
+        JSONObject output = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            if (phases[phase.ordinal()].getCount() > 0) {
+                output.put(phase.getLabel(), phases[phase.ordinal()].toJSON());
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Summarize the batches made by a batcher
+     *
+     * @param batcher Batcher
+     * @return Number of requests and entries in each batch, and how long requests waited
+     */
+    static private JSONObject batcherToJSON(RequestBatcher batcher) {
+        JSONObject output = new JSONObject();
+        output.put("requests", batcher.getBatchRequests().toJSON());
+        output.put("entries", batcher.getBatchEntries().toJSON());
+        output.put("wait", batcher.getWaitTime().toJSON());
+        return output;
+    }
+
+    /**
+     * Get the batchers used by all models. Batchers that have not been created are not included
+     *
+     * @return Map of the labels identifying each batcher to the batcher
+     */
+    static private Map<String, RequestBatcher> getBatchers() {
+        Map<String, RequestBatcher> output = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, ModelPackage> entry : ServerLauncher.Models.entrySet()) {
+            RequestBatcher batcher = entry.getValue().getExistingRunBatcher();
+            if (batcher != null) {
+                output.put(label("model", entry.getKey()) + "," + label("operation", "run"), batcher);
+            }
+            batcher = entry.getValue().getExistingAttributeBatcher();
+            if (batcher != null) {
+                output.put(label("model", entry.getKey()) + "," + label("operation", "attributes"), batcher);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @param priority Class of work
+     * @return Name used to label that class
+     */
+    static private String getLabel(WorkScheduler.Priority priority) {
+        return priority.name().toLowerCase();
+    }
+
+    /**
+     * Format a label of a Prometheus sample
+     *
+     * @param name Name of label
+     * @param value Value, which will be escaped
+     * @return Label, as <code>name="value"</code>
+     */
+    static private String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * Write the description of a metric
+     *
+     * @param out Output
+     * @param name Name of metric
+     * @param type Type of metric (e.g., counter, gauge)
+     * @param help Description of metric
+     */
+    static private void writeHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Write a single value
+     *
+     * @param out Output
+     * @param name Name of metric
+     * @param labels Labels, separated by commas. Can be empty
+     * @param value Value
+     */
+    static private void writeSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Write a histogram
+     *
+     * @param out Output
+     * @param name Name of metric
+     * @param labels Labels, separated by commas. Can be empty
+     * @param histogram Histogram to be written
+     */
+    static private void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        double[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int b = 0; b < bounds.length; b++) {
+            cumulative += counts[b];
+            writeSample(out, name + "_bucket", prefix + label("le", Double.toString(bounds[b])), cumulative);
+        }
+        cumulative += counts[bounds.length];
+        writeSample(out, name + "_bucket", prefix + label("le", "+Inf"), cumulative);
+        writeSample(out, name + "_sum", labels, histogram.getSum());
+        writeSample(out, name + "_count", labels, cumulative);
+    }
+}
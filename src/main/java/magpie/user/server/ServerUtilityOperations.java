@@ -1,14 +1,10 @@
 package magpie.user.server;
 
-import magpie.data.BaseEntry;
-import magpie.data.Dataset;
-import magpie.utility.UtilityOperations;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.glassfish.grizzly.http.server.Request;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Utility operations useful for the REST server.
@@ -23,8 +19,28 @@ abstract public class ServerUtilityOperations {
      * @return Exception with the desired message
      */
     public static WebApplicationException prepareException(String message) {
-        return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
-                .entity(message)
+        return prepareException(Response.Status.BAD_REQUEST.getStatusCode(), message);
+    }
+
+    /**
+     * Prepare an Exception with a certain HTTP status code in a form that will get the CORS headers
+     *
+     * @param status HTTP status code
+     * @param message Exception message
+     * @return Exception with the desired message
+     */
+    public static WebApplicationException prepareException(int status, String message) {
+        return prepareException(Response.status(status).entity(message));
+    }
+
+    /**
+     * Prepare an Exception from a partially-built response in a form that will get the CORS headers
+     *
+     * @param response Response with the status, message, and any other headers
+     * @return Exception with the desired response
+     */
+    public static WebApplicationException prepareException(Response.ResponseBuilder response) {
+        return new WebApplicationException(response
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Headers", "origin, content-type, accept, authorization")
                 .header("Access-Control-Allow-Credentials", "true")
@@ -33,70 +49,35 @@ abstract public class ServerUtilityOperations {
     }
 
     /**
-     * Turn a dataset into a JSON object. Follows the schema described in the Swagger API
+     * Get the message describing why an operation failed
      *
-     * @param model      Model used to generate this data
-     * @param entryNames Names of entries, as strings
-     * @param data       Dataset to be converted
-     * @return Dataset as a JSON object
+     * @param error Exception thrown by the operation
+     * @return Message, which is the body of the response for exceptions from
+     * {@linkplain #prepareException(java.lang.String)}
      */
-    static public JSONObject createDatasetJSON(ModelPackage model, List<String> entryNames, Dataset data) {
-        JSONObject output = new JSONObject();
-
-        // Put in model details
-        String[] classNames = model.isClassifer() ? model.getPossibleClasses() : null;
-        if (model.isClassifer()) {
-            output.put("possibleClasses", classNames);
-            output.put("modelType", "classification");
-        } else {
-            output.put("units", model.getUnits());
-            output.put("modelType", "regression");
+    public static String getErrorMessage(Throwable error) {
+        if (error instanceof ExecutionException && error.getCause() != null) {
+            error = error.getCause();
         }
-        output.put("property", model.Property);
-
-        // Put in the attribute names, if present
-        if (data.NAttributes() > 0) {
-            output.put("attributes", data.getAttributeNames());
-        }
-
-        JSONArray entryArray = new JSONArray();
-        for (int e = 0; e < data.NEntries(); e++) {
-            JSONObject entryJSON = new JSONObject();
-            BaseEntry entry = data.getEntry(e);
-
-            // Get the entry data
-            if (entryNames != null) {
-                entryJSON.put("name", entryNames.get(e));
-            }
-            entryJSON.put("parsedName", entry.toString());
-
-            // Add in the attributes, if present
-            if (entry.NAttributes() > 0) {
-                entryJSON.put("attributes", UtilityOperations.toJSONArray(entry.getAttributes()));
-            }
-
-            // If predicted values
-            if (entry.hasPrediction()) {
-                // Get the predictions
-                entryJSON.put("predictedValue", entry.getPredictedClass());
-                if (model.isClassifer()) {
-                    // Text name of class
-                    entryJSON.put("predictedClass", classNames[(int) entry.getPredictedClass()]);
-
-                    // Class probabilities
-                    JSONObject probs = new JSONObject();
-                    double[] predProbs = entry.getClassProbilities();
-                    for (int cl = 0; cl < classNames.length; cl++) {
-                        probs.put(classNames[cl], predProbs[cl]);
-                    }
-                    entryJSON.put("classProbabilities", probs);
-                }
+        if (error instanceof WebApplicationException) {
+            Object entity = ((WebApplicationException) error).getResponse().getEntity();
+            if (entity != null) {
+                return entity.toString();
             }
+        }
+        return error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+    }
 
-            // Add it to the list
-            entryArray.put(entryJSON);
+    /**
+     * Get a name that identifies the client that made a request
+     *
+     * @param request Request made by the client
+     * @return Name of the client (its IP address)
+     */
+    public static String getClientName(Request request) {
+        if (request == null || request.getRemoteAddr() == null) {
+            return "unknown";
         }
-        output.put("entries", entryArray);
-        return output;
+        return request.getRemoteAddr();
     }
 }
@@ -0,0 +1,434 @@
+package magpie.user.server;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the calculations requested of the server (e.g., running models), giving priority to interactive requests.
+ *
+ * <p>Work is divided into two classes: interactive requests, which are small and have a client waiting for
+ * the answer, and bulk work, such as searches and very large requests. Interactive tasks are always started
+ * before bulk tasks, and bulk tasks never use all of the threads (unless there is only one), so that a thread
+ * is always free for interactive requests. Within each class, tasks are grouped (e.g., by model) and the groups take turns, so
+ * a backlog of work for one model does not delay requests for other models.</p>
+ *
+ * <p>The scheduler also performs admission control. Each request has an estimated cost, the time it takes to
+ * complete in milliseconds (see {@linkplain ModelPackage#estimateCost(int)}), and each class of work has a
+ * budget for the total cost of requests that are queued or running. Requests that would exceed the budget are
+ * rejected with HTTP code 429 (Too Many Requests) and a Retry-After header rather than waiting in a long queue.
+ * A request is always admitted if no other requests of its class are outstanding, so that expensive requests
+ * are not rejected forever.</p>
+ *
+ * @author Logan Ward
+ */
+public class WorkScheduler extends AbstractExecutorService {
+
+    /**
+     * Classes of work, in order of priority
+     */
+    public enum Priority {
+        /** Small requests, where a client is waiting for the answer */
+        INTERACTIVE,
+        /** Large requests and searches */
+        BULK
+    }
+
+    /**
+     * Marks that a request has been admitted. Release it when the request is complete
+     */
+    public class Ticket {
+        /** Class of the request */
+        final private Priority Type;
+        /** Estimated cost of the request */
+        final private double Cost;
+        /** Whether the ticket has been released */
+        private boolean Released = false;
+
+        private Ticket(Priority priority, double cost) {
+            this.Type = priority;
+            this.Cost = cost;
+        }
+
+        /**
+         * @return Class of work for the request
+         */
+        public Priority getPriority() {
+            return Type;
+        }
+
+        /**
+         * Mark that the request is complete. Calling this more than once has no effect
+         */
+        public void release() {
+            synchronized (WorkScheduler.this) {
+                if (!Released) {
+                    Released = true;
+                    int c = Type.ordinal();
+                    NumberOutstanding[c]--;
+                    Outstanding[c] = NumberOutstanding[c] == 0 ? 0 : Outstanding[c] - Cost;
+                }
+            }
+        }
+    }
+
+    /**
+     * Task waiting to be run
+     */
+    static private class QueuedTask {
+        /** Task to be run */
+        final public Runnable Command;
+        /** When the task was added to the queue, from {@linkplain System#nanoTime()} */
+        final public long QueueTime = System.nanoTime();
+
+        public QueuedTask(Runnable command) {
+            this.Command = command;
+        }
+    }
+
+    /** Group used for tasks that do not belong to a group */
+    final static private Object NoGroup = new Object();
+    /** Threads that run the tasks */
+    final private List<Thread> Workers = new ArrayList<>();
+    /** Maximum number of threads running bulk tasks. One less than the number of threads, if there are several */
+    final private int MaxBulkThreads;
+    /** Tasks waiting to be run for each class of work, by group */
+    final private List<Map<Object, ArrayDeque<QueuedTask>>> Queues = new ArrayList<>();
+    /** Order in which groups with waiting tasks take turns, for each class of work */
+    final private List<ArrayDeque<Object>> Turns = new ArrayList<>();
+    /** Time tasks waited before being started for each class of work, in seconds */
+    final private Histogram[] QueueWait = new Histogram[Priority.values().length];
+    /** Number of tasks waiting for each class of work */
+    final private int[] NumberQueued = new int[Priority.values().length];
+    /** Number of tasks running for each class of work */
+    final private int[] NumberRunning = new int[Priority.values().length];
+    /** Maximum total cost of outstanding requests for each class of work. Not enforced if not positive */
+    final private double[] Budgets = new double[Priority.values().length];
+    /** Total cost of requests that have been admitted and not released */
+    final private double[] Outstanding = new double[Priority.values().length];
+    /** Number of requests that have been admitted and not released */
+    final private int[] NumberOutstanding = new int[Priority.values().length];
+    /** Whether the scheduler is shutting down */
+    private boolean Shutdown = false;
+
+    /**
+     * Create a scheduler, and start its threads
+     *
+     * @param nThreads Number of threads
+     * @param interactiveBudget Maximum total cost of outstanding interactive requests, in milliseconds.
+     * Set to 0 for no limit
+     * @param bulkBudget Maximum total cost of outstanding bulk requests, in milliseconds. Set to 0 for no limit
+     */
+    public WorkScheduler(int nThreads, double interactiveBudget, double bulkBudget) {
+        nThreads = Math.max(1, nThreads);
+        this.MaxBulkThreads = Math.max(1, nThreads - 1);
+        Budgets[Priority.INTERACTIVE.ordinal()] = interactiveBudget;
+        Budgets[Priority.BULK.ordinal()] = bulkBudget;
+        for (Priority priority : Priority.values()) {
+            Queues.add(new HashMap<Object, ArrayDeque<QueuedTask>>());
+            Turns.add(new ArrayDeque<Object>());
+            QueueWait[priority.ordinal()] = Histogram.createLatencyHistogram();
+        }
+
+        // Start the threads
+        for (int i = 0; i < nThreads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runTasks();
+                }
+            }, "magpie-worker-" + i);
+            worker.setDaemon(true);
+            Workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return Number of threads used to run tasks
+     */
+    public int getNumberThreads() {
+        return Workers.size();
+    }
+
+    /**
+     * Admit a request, if it fits within the budget for its class of work
+     *
+     * @param priority Class of work
+     * @param cost Estimated cost of request, in milliseconds
+     * @return Ticket that must be released once the request is complete
+     * @throws WebApplicationException With HTTP code 429 (Too Many Requests) if the budget would be exceeded
+     */
+    public synchronized Ticket admit(Priority priority, double cost) throws WebApplicationException {
+        int c = priority.ordinal();
+        if (Budgets[c] > 0 && NumberOutstanding[c] > 0 && Outstanding[c] + cost > Budgets[c]) {
+            long wait = (long) Math.ceil(Outstanding[c] / Workers.size() / 1000);
+            throw ServerUtilityOperations.prepareException(Response.status(JobManager.TOO_MANY_REQUESTS)
+                    .header("Retry-After", Math.max(1, wait))
+                    .entity("server is busy: too many " + priority.name().toLowerCase()
+                            + " requests. Try again in " + Math.max(1, wait) + " s"));
+        }
+        Outstanding[c] += cost;
+        NumberOutstanding[c]++;
+        return new Ticket(priority, cost);
+    }
+
+    /**
+     * Get an executor that runs all tasks with a certain priority and group
+     *
+     * @param priority Class of work
+     * @param group Group the tasks belong to (e.g., the model being run)
+     * @return Executor. Shutting it down shuts down this scheduler
+     */
+    public ExecutorService getExecutor(final Priority priority, final Object group) {
+        return new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                WorkScheduler.this.execute(command, priority, group);
+            }
+
+            @Override
+            public void shutdown() {
+                WorkScheduler.this.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return WorkScheduler.this.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return WorkScheduler.this.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return WorkScheduler.this.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return WorkScheduler.this.awaitTermination(timeout, unit);
+            }
+        };
+    }
+
+    /**
+     * Run a task as an interactive request, not part of any group
+     *
+     * @param command Task to be run
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(command, Priority.INTERACTIVE, null);
+    }
+
+    /**
+     * Add a task to the queue
+     *
+     * @param command Task to be run
+     * @param priority Class of work
+     * @param group Group the task belongs to (e.g., the model being run). Can be <code>null</code>
+     * @throws RejectedExecutionException If the scheduler has been shut down
+     */
+    public synchronized void execute(Runnable command, Priority priority, Object group) {
+        if (Shutdown) {
+            throw new RejectedExecutionException("scheduler has been shut down");
+        }
+        int c = priority.ordinal();
+        if (group == null) {
+            group = NoGroup;
+        }
+        ArrayDeque<QueuedTask> queue = Queues.get(c).get(group);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            Queues.get(c).put(group, queue);
+            Turns.get(c).add(group);
+        }
+        queue.add(new QueuedTask(command));
+        NumberQueued[c]++;
+        notifyAll();
+    }
+
+    /**
+     * Get the class of work of the next task to run. Must be called while holding the lock on this object
+     *
+     * @return Class of work, or <code>null</code> if no task can be started now
+     */
+    private Priority nextPriority() {
+        if (NumberQueued[Priority.INTERACTIVE.ordinal()] > 0) {
+            return Priority.INTERACTIVE;
+        }
+        if (NumberQueued[Priority.BULK.ordinal()] > 0
+                && NumberRunning[Priority.BULK.ordinal()] < MaxBulkThreads) {
+            return Priority.BULK;
+        }
+        return null;
+    }
+
+    /**
+     * Remove the next task of a certain class from the queue. Must be called while holding the lock on this object
+     *
+     * @param priority Class of work
+     * @return Task from the group whose turn it is
+     */
+    private Runnable takeTask(Priority priority) {
+        int c = priority.ordinal();
+        Object group = Turns.get(c).poll();
+        ArrayDeque<QueuedTask> queue = Queues.get(c).get(group);
+        QueuedTask task = queue.poll();
+        QueueWait[c].recordSince(task.QueueTime);
+        if (queue.isEmpty()) {
+            Queues.get(c).remove(group);
+        } else {
+            Turns.get(c).add(group); // Go to the back of the line
+        }
+        NumberQueued[c]--;
+        return task.Command;
+    }
+
+    /**
+     * Run tasks until the scheduler is shut down. Run by each worker thread
+     */
+    private void runTasks() {
+        while (true) {
+            Priority priority;
+            Runnable task;
+            synchronized (this) {
+                while ((priority = nextPriority()) == null) {
+                    if (Shutdown && NumberQueued[Priority.BULK.ordinal()] == 0) {
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        if (Shutdown) {
+                            return;
+                        }
+                    }
+                }
+                task = takeTask(priority);
+                NumberRunning[priority.ordinal()]++;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Keep this thread running, whatever the task does
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    NumberRunning[priority.ordinal()]--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param priority Class of work
+     * @return Number of tasks of that class waiting to run
+     */
+    public synchronized int getQueueLength(Priority priority) {
+        return NumberQueued[priority.ordinal()];
+    }
+
+    /**
+     * @param priority Class of work
+     * @return Number of tasks of that class currently running
+     */
+    public synchronized int getNumberRunning(Priority priority) {
+        return NumberRunning[priority.ordinal()];
+    }
+
+    /**
+     * @param priority Class of work
+     * @return Time tasks of that class waited before being started, in seconds
+     */
+    public Histogram getQueueWait(Priority priority) {
+        return QueueWait[priority.ordinal()];
+    }
+
+    /**
+     * @param priority Class of work
+     * @return Total estimated cost of admitted requests that have not finished, in milliseconds
+     */
+    public synchronized double getOutstandingCost(Priority priority) {
+        return Outstanding[priority.ordinal()];
+    }
+
+    /**
+     * Stop accepting new tasks. Tasks already in the queue are still run
+     */
+    @Override
+    public synchronized void shutdown() {
+        Shutdown = true;
+        notifyAll();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> output = new ArrayList<>();
+        synchronized (this) {
+            Shutdown = true;
+            for (Map<Object, ArrayDeque<QueuedTask>> queues : Queues) {
+                for (ArrayDeque<QueuedTask> queue : queues.values()) {
+                    for (QueuedTask task : queue) {
+                        output.add(task.Command);
+                    }
+                }
+                queues.clear();
+            }
+            for (ArrayDeque<Object> turns : Turns) {
+                turns.clear();
+            }
+            for (int c = 0; c < NumberQueued.length; c++) {
+                NumberQueued[c] = 0;
+            }
+            notifyAll();
+        }
+        for (Thread worker : Workers) {
+            worker.interrupt();
+        }
+        return output;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return Shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        if (!isShutdown()) {
+            return false;
+        }
+        for (Thread worker : Workers) {
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        for (Thread worker : Workers) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            worker.join(remaining);
+        }
+        return isTerminated();
+    }
+}
@@ -0,0 +1,152 @@
+package magpie.user.server.operations;
+
+import magpie.user.server.Job;
+import magpie.user.server.ServerLauncher;
+import magpie.user.server.ServerUtilityOperations;
+import org.glassfish.grizzly.http.server.Request;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+
+/**
+ * Run long tasks, such as searches, in the background.
+ *
+ * <p>Submitting a job returns immediately with a JSON object describing the job, which includes its
+ * <b>id</b>. The client uses this ID to check the status and progress of the job, retrieve its results,
+ * or cancel it. Status reports have the format:</p>
+ *
+ * <ul>
+ * <li><b>id</b>: ID of the job</li>
+ * <li><b>status</b>: One of queued, running, completed, failed, or cancelled</li>
+ * <li><b>progress</b>: Fraction of the job that is complete</li>
+ * <li><b>submitted</b>, <b>started</b>, <b>finished</b>: Times of each event, in milliseconds since 1970</li>
+ * <li><b>error</b>: Reason the job failed, if it failed</li>
+ * </ul>
+ *
+ * <p>Each client may only have a limited number of unfinished jobs. See {@linkplain magpie.user.server.JobManager}
+ * for details.</p>
+ *
+ * @author Logan Ward
+ */
+@Path("jobs")
+public class JobOperator {
+
+    /**
+     * Submit a search to be run in the background
+     *
+     * @param searchForm Search definition. See {@linkplain SearchRunner} for format
+     * @param request Request being handled
+     * @return Status of the job
+     */
+    @POST
+    @Produces("application/json")
+    @Path("search")
+    public Response submitSearch(@FormParam("search") String searchForm, @Context Request request) {
+        SearchRunner runner = new SearchRunner();
+        Job job = runner.createJob(runner.parseSearch(searchForm));
+        ServerLauncher.Jobs.submit(job, ServerUtilityOperations.getClientName(request));
+        return Response.status(Response.Status.ACCEPTED).entity(job.toJSON().toString()).build();
+    }
+
+    /**
+     * List the jobs submitted by the client making this request
+     *
+     * @param request Request being handled
+     * @return List of job status reports
+     */
+    @GET
+    @Produces("application/json")
+    public String listJobs(@Context Request request) {
+        JSONArray output = new JSONArray();
+        for (Job job : ServerLauncher.Jobs.getJobs(ServerUtilityOperations.getClientName(request))) {
+            output.put(job.toJSON());
+        }
+        return output.toString();
+    }
+
+    /**
+     * Get the status of a job
+     *
+     * @param id ID of job
+     * @return Status of the job
+     */
+    @GET
+    @Produces("application/json")
+    @Path("{id}")
+    public String getStatus(@PathParam("id") String id) {
+        return getJob(id).toJSON().toString();
+    }
+
+    /**
+     * Get the result of a job. If the job has not finished, returns the status of the job with
+     * HTTP code 202 (Accepted).
+     *
+     * @param id ID of job
+     * @return Result of the job
+     */
+    @GET
+    @Produces("application/json")
+    @Path("{id}/result")
+    public Response getResult(@PathParam("id") String id) {
+        Job job = getJob(id);
+        switch (job.getStatus()) {
+            case COMPLETED:
+                return Response.ok(job.getResult()).build();
+            case FAILED:
+                throw ServerUtilityOperations.prepareException("job failed: " + job.getError());
+            case CANCELLED:
+                throw ServerUtilityOperations.prepareException(Response.Status.GONE.getStatusCode(),
+                        "job was cancelled");
+            default:
+                return Response.status(Response.Status.ACCEPTED).entity(job.toJSON().toString()).build();
+        }
+    }
+
+    /**
+     * Cancel a job
+     *
+     * @param id ID of job
+     * @return Status of the job
+     */
+    @DELETE
+    @Produces("application/json")
+    @Path("{id}")
+    public String cancelJob(@PathParam("id") String id) {
+        Job job = ServerLauncher.Jobs.cancel(id);
+        if (job == null) {
+            throw noSuchJob(id);
+        }
+        JSONObject output = job.toJSON();
+        output.put("cancelRequested", true);
+        return output.toString();
+    }
+
+    /**
+     * Get a certain job
+     *
+     * @param id ID of job
+     * @return Job
+     * @throws WebApplicationException If no such job exists
+     */
+    private Job getJob(String id) {
+        Job job = ServerLauncher.Jobs.getJob(id);
+        if (job == null) {
+            throw noSuchJob(id);
+        }
+        return job;
+    }
+
+    /**
+     * Create the error sent when a job does not exist
+     *
+     * @param id ID of job
+     * @return Exception with HTTP code 404 (Not Found)
+     */
+    private WebApplicationException noSuchJob(String id) {
+        return ServerUtilityOperations.prepareException(Response.Status.NOT_FOUND.getStatusCode(),
+                "no such job: " + id);
+    }
+}
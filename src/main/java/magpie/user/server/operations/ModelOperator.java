@@ -1,24 +1,43 @@
 package magpie.user.server.operations;
 
 import magpie.data.Dataset;
+import magpie.user.server.BulkScorer;
+import magpie.user.server.DatasetJSONWriter;
+import magpie.user.server.JobManager;
 import magpie.user.server.ModelPackage;
+import magpie.user.server.RequestBatcher;
 import magpie.user.server.ServerLauncher;
+import magpie.user.server.ServerMetrics;
 import magpie.user.server.ServerUtilityOperations;
+import magpie.user.server.WorkScheduler;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Queries for getting the information about and running models.
  *
+ * <p>Requests to run a model or compute attributes are handled asynchronously, so that the threads
+ * of the HTTP server are not blocked while waiting for the model. Large numbers of entries can instead be
+ * streamed through the <code>bulk</code> endpoint, which avoids the cost of converting them to and from JSON.
+ * Bulk requests are streamed by a separate, limited set of threads.</p>
+ *
  * @author Logan Ward
  */
 @Path("model/{name}")
@@ -34,14 +53,20 @@ public class ModelOperator {
      */
     private ModelPackage Model;
 
+    /**
+     * Endpoint handling this request
+     */
+    @Context
+    private ResourceInfo Resource;
+
     /**
      * Get the model used for this request
      */
     private void getModel() {
-        if (!ServerLauncher.Models.containsKey(Name)) {
+        Model = ServerLauncher.getModel(Name);
+        if (Model == null) {
             throw new WebApplicationException("No such model: " + Name, Response.Status.NOT_FOUND);
         }
-        Model = ServerLauncher.Models.get(Name);
     }
 
     /**
@@ -96,42 +121,37 @@ public class ModelOperator {
      *     'entries': [list of entries, their names and attributes]
      * }
      * </p>
+     * <p>Set <code>format</code> to "columns" to instead get the attributes as a matrix.
+     * See {@linkplain DatasetJSONWriter}.</p>
      */
     @POST
     @Produces("application/json")
     @Path("attributes")
-    public String generateAttributes(@FormParam("entries") String userInput) {
+    public void generateAttributes(@FormParam("entries") String userInput,
+            @DefaultValue("entries") @FormParam("format") String format,
+            @Suspended AsyncResponse response) {
         getModel();
+        DatasetJSONWriter.Shape shape = DatasetJSONWriter.Shape.parse(format);
+        String endpoint = ServerMetrics.getEndpoint(Resource);
 
         // Get the data about the entries, as provided by user
+        long startTime = System.nanoTime();
         List<String> entryNames = getEntryData(userInput);
 
-        // Read entries into the dataset
-        final Dataset data = assembleDataset(entryNames);
-
-        // Submit the model to be run
-        Runnable thread = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    data.generateAttributes();
-                } catch (Exception e) {
-                    throw ServerUtilityOperations.prepareException("attribute generation failed: " + e.getMessage());
-                }
-            }
-        };
-        Future future = ServerLauncher.ThreadPool.submit(thread);
-
-        // Wait until thread finishes
+        // Make sure the server has capacity, then read entries into the dataset
+        WorkScheduler.Ticket ticket = admitRequest(entryNames.size());
+        final Dataset data;
         try {
-            future.get();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            data = assembleDataset(entryNames);
+        } catch (RuntimeException e) {
+            ticket.release();
+            throw e;
         }
+        recordPhase(endpoint, ServerMetrics.Phase.PARSE, startTime);
 
-        // Assemble the output
-        JSONObject output = ServerUtilityOperations.createDatasetJSON(Model, entryNames, data);
-        return output.toString();
+        // Compute the attributes, possibly along with other requests
+        Model.generateAttributes(data, createListener(entryNames, shape, ticket, endpoint, response,
+                "attribute generation failed: "));
     }
 
     /**
@@ -144,43 +164,169 @@ public class ModelOperator {
      * 'entries': [list of entries, their names predicted values]
      * }
      * </p>
+     * <p>Set <code>format</code> to "columns" to instead get only lists of the predictions.
+     * See {@linkplain DatasetJSONWriter}.</p>
      */
     @POST
     @Produces("application/json")
     @Path("run")
-    public String runModel(@FormParam("entries") String userInput) {
+    public void runModel(@FormParam("entries") String userInput,
+            @DefaultValue("entries") @FormParam("format") String format,
+            @Suspended AsyncResponse response) {
         getModel();
+        DatasetJSONWriter.Shape shape = DatasetJSONWriter.Shape.parse(format);
+        String endpoint = ServerMetrics.getEndpoint(Resource);
 
         // Get the data about the entries, as provided by user
+        long startTime = System.nanoTime();
         List<String> entryNames = getEntryData(userInput);
 
-        // Read entries into the dataset
-        final Dataset data = assembleDataset(entryNames);
+        // Make sure the server has capacity, then read entries into the dataset
+        WorkScheduler.Ticket ticket = admitRequest(entryNames.size());
+        final Dataset data;
+        try {
+            data = assembleDataset(entryNames);
+        } catch (RuntimeException e) {
+            ticket.release();
+            throw e;
+        }
+        recordPhase(endpoint, ServerMetrics.Phase.PARSE, startTime);
 
-        // Submit the model to be run
-        Runnable thread = new Runnable() {
+        // Run the model, possibly along with other requests
+        Model.runModelWithoutAttributes(data, createListener(entryNames, shape, ticket, endpoint, response,
+                "model evaluation failed: "));
+    }
+
+    /**
+     * Run a model on a large number of entries, streaming both the entries and the results.
+     *
+     * <p>Entries are evaluated in chunks of at most {@linkplain ServerLauncher#SearchChunkSize} entries,
+     * and the results for each chunk are sent as soon as it has been evaluated. See {@linkplain BulkScorer}
+     * for the input and output formats.</p>
+     *
+     * <p>The entries are read and the results written by {@linkplain ServerLauncher#BulkStreams}, rather than
+     * by the threads of the HTTP server. Requests are rejected with HTTP code 429 (Too Many Requests) if
+     * {@linkplain ServerLauncher#MaxBulkStreams} requests are already being streamed.</p>
+     *
+     * @param input Entries, either as text with one entry per line ("text/plain") or as binary blocks
+     * of attributes ("application/octet-stream")
+     * @param format Format of the results: "binary" (default) or "csv"
+     * @param headers Headers of the request, used to get the format of the input
+     * @param response Response, resumed with the results, which are written as they become available
+     */
+    @POST
+    @Consumes({"text/plain", "application/octet-stream"})
+    @Produces({"application/octet-stream", "text/csv"})
+    @Path("bulk")
+    public void runBulk(final InputStream input, @DefaultValue("binary") @QueryParam("format") String format,
+            @Context HttpHeaders headers, @Suspended final AsyncResponse response) {
+        getModel();
+        final ModelPackage model = Model;
+        final BulkScorer.OutputFormat outputFormat = BulkScorer.OutputFormat.parse(format);
+        final BulkScorer.InputFormat inputFormat = MediaType.APPLICATION_OCTET_STREAM_TYPE.isCompatible(
+                headers.getMediaType()) ? BulkScorer.InputFormat.ATTRIBUTES : BulkScorer.InputFormat.ENTRIES;
+        final int chunkSize = Math.min(Model.getMaxNumEntries(), ServerLauncher.SearchChunkSize);
+        final String endpoint = ServerMetrics.getEndpoint(Resource);
+
+        // Make sure the server has capacity. Only one chunk is evaluated at a time. The ticket is
+        //  released once the response is finished, whether or not the results were written
+        final WorkScheduler.Ticket ticket = ServerLauncher.ThreadPool.admit(WorkScheduler.Priority.BULK,
+                Model.estimateCost(chunkSize));
+        response.register(new CompletionCallback() {
             @Override
-            public void run() {
-                try {
-                    Model.runModel(data);
-                    data.clearAttributes();
-                } catch (Exception e) {
-                    throw ServerUtilityOperations.prepareException("attribute generation failed: " + e.getMessage());
-                }
+            public void onComplete(Throwable throwable) {
+                ticket.release();
             }
-        };
-        Future future = ServerLauncher.ThreadPool.submit(thread);
+        });
 
-        // Wait until thread finishes
+        // Check that the input is formatted correctly, then evaluate the entries while writing the results
         try {
-            future.get();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            ServerLauncher.BulkStreams.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        BulkScorer scorer = new BulkScorer(model, input, inputFormat, outputFormat, chunkSize,
+                                endpoint);
+                        scorer.prepare();
+                        response.resume(Response.ok(scorer, outputFormat.getMediaType()).build());
+                    } catch (RuntimeException e) {
+                        response.resume(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.resume(ServerUtilityOperations.prepareException(JobManager.TOO_MANY_REQUESTS,
+                    "server is busy: too many bulk requests are being streamed"));
         }
+    }
+
+    /**
+     * Make sure the server has capacity to evaluate a request, given its expected cost
+     *
+     * @param nEntries Number of entries in the request
+     * @return Ticket to be released once the request is complete
+     * @throws WebApplicationException With HTTP code 429 (Too Many Requests) if the server is too busy
+     * @see WorkScheduler#admit(WorkScheduler.Priority, double)
+     */
+    private WorkScheduler.Ticket admitRequest(int nEntries) {
+        return ServerLauncher.ThreadPool.admit(Model.getPriority(nEntries), Model.estimateCost(nEntries));
+    }
 
-        // Assemble the output
-        JSONObject output = ServerUtilityOperations.createDatasetJSON(Model, entryNames, data);
-        return output.toString();
+    /**
+     * Create a tool that sends the dataset to the user once it has been evaluated.
+     *
+     * <p>The dataset is written to the client as it is converted to JSON, so errors during conversion
+     * cannot be reported with an HTTP error code.</p>
+     *
+     * @param entryNames Names of entries, as provided by the user
+     * @param shape Shape of the output
+     * @param ticket Ticket from admitting the request, released once the response has been written
+     * @param endpoint Name of the endpoint handling the request, used when recording metrics
+     * @param response Response to be resumed
+     * @param errorPrefix Beginning of the error message, if evaluation fails
+     * @return Listener that resumes the response
+     */
+    private RequestBatcher.Listener createListener(final List<String> entryNames, final DatasetJSONWriter.Shape shape,
+            final WorkScheduler.Ticket ticket, final String endpoint, final AsyncResponse response,
+            final String errorPrefix) {
+        response.register(new CompletionCallback() {
+            @Override
+            public void onComplete(Throwable throwable) {
+                ticket.release();
+            }
+        });
+        return new RequestBatcher.Listener() {
+            @Override
+            public void requestFinished(Dataset data, Exception failure) {
+                if (failure != null) {
+                    response.resume(ServerUtilityOperations.prepareException(errorPrefix
+                            + ServerUtilityOperations.getErrorMessage(failure)));
+                    return;
+                }
+                final DatasetJSONWriter writer = new DatasetJSONWriter(Model, entryNames, data, shape);
+                response.resume(new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream output) throws IOException, WebApplicationException {
+                        long startTime = System.nanoTime();
+                        writer.write(output);
+                        recordPhase(endpoint, ServerMetrics.Phase.SERIALIZE, startTime);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Record the time spent in a phase of handling this request, for both the endpoint and the model
+     *
+     * @param endpoint Name of the endpoint
+     * @param phase Phase of handling the request
+     * @param startTime When the phase started, from {@linkplain System#nanoTime()}
+     */
+    private void recordPhase(String endpoint, ServerMetrics.Phase phase, long startTime) {
+        double time = (System.nanoTime() - startTime) / 1e9;
+        ServerLauncher.Metrics.recordPhase(endpoint, phase, time);
+        Model.getPhaseLatency(phase).record(time);
     }
 
     /**
@@ -30,8 +30,15 @@ public class ModelQueryHandler {
     @Produces("application/json")
     public String serveModels(@DefaultValue("") @QueryParam("datasetType") String datasetType,
                               @DefaultValue("") @QueryParam("supportsDatasetType") String supportsDatasetType) {
-        // Get all models
-        Map<String, ModelPackage> modelsToOutput = new TreeMap<>(ServerLauncher.Models);
+        // Get all models, skipping any that failed to load
+        Map<String, ModelPackage> modelsToOutput = new TreeMap<>();
+        for (String name : ServerLauncher.getModelNames()) {
+            try {
+                modelsToOutput.put(name, ServerLauncher.getModel(name));
+            } catch (WebApplicationException e) {
+                // Skip it
+            }
+        }
 
         // Run query based on dataset type
         if (datasetType.length() > 0) {
@@ -1,26 +1,34 @@
 package magpie.user.server.operations;
 
 import magpie.data.BaseEntry;
+import magpie.data.Dataset;
 import magpie.data.MultiPropertyDataset;
 import magpie.data.MultiPropertyEntry;
 import magpie.data.utilities.filters.BaseDatasetFilter;
-import magpie.data.utilities.filters.EntryRankerFilter;
 import magpie.data.utilities.generators.BaseEntryGenerator;
 import magpie.optimization.rankers.BaseEntryRanker;
 import magpie.user.CommandHandler;
+import magpie.user.server.AttributeCache;
+import magpie.user.server.DatasetJSONWriter;
+import magpie.user.server.Job;
 import magpie.user.server.ModelPackage;
 import magpie.user.server.ServerLauncher;
 import magpie.user.server.ServerUtilityOperations;
+import org.glassfish.grizzly.http.server.Request;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONWriter;
 
 import javax.ws.rs.FormParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import java.io.StringWriter;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.CancellationException;
 
 /**
  * Perform searches that involve several different ML models.
@@ -55,6 +63,15 @@ import java.util.concurrent.Future;
  * <li><b>data</b>: Detailed data for each model run</li>
  * </ul>
  *
+ * <p>Models in the search that compute attributes the same way (see
+ * {@linkplain magpie.data.Dataset#getAttributeGenerationHash()}) share attributes, so that attributes
+ * are computed only once for each entry.</p>
+ *
+ * <p>Searches are run as {@linkplain Job}s. This operation waits for the search to finish without
+ * blocking a thread of the HTTP server. Long searches can instead be submitted using
+ * {@linkplain JobOperator}, which returns immediately and allows the client to check on
+ * the progress of the search or cancel it.</p>
+ *
  * @author Logan Ward
  */
 @Path("search")
@@ -64,130 +81,297 @@ public class SearchRunner {
      */
     protected Set<String> Models = new TreeSet<>();
 
+    /**
+     * Job that is currently running the search, if any
+     */
+    protected Job CurrentJob = null;
+    /**
+     * Attributes shared between models in this search that compute attributes the same way
+     */
+    protected AttributeCache SharedAttributes = null;
+    /**
+     * Hashes of the attribute generation methods used by more than one model in this search
+     */
+    protected Set<String> SharedAttributeHashes = new TreeSet<>();
+    /**
+     * How often to check whether the search has been cancelled while generating entries
+     */
+    final static private int CheckInterval = 1000;
+
     @POST
     @Produces("application/json")
-    public String runSearch(@FormParam("search") String searchForm) {
+    public void runSearch(@FormParam("search") String searchForm, @Context Request request,
+            @Suspended final AsyncResponse response) {
         // Parse the search information
-        final JSONObject searchDefinition;
+        JSONObject searchDefinition = parseSearch(searchForm);
+
+        // Run the search as a job, and send the result once it finishes
+        Job job = createJob(searchDefinition);
+        job.addListener(new Job.Listener() {
+            @Override
+            public void jobFinished(Job job) {
+                switch (job.getStatus()) {
+                    case COMPLETED:
+                        response.resume(job.getResult());
+                        break;
+                    case CANCELLED:
+                        response.resume(ServerUtilityOperations.prepareException("search was cancelled"));
+                        break;
+                    default:
+                        response.resume(ServerUtilityOperations.prepareException("search failed: " + job.getError()));
+                }
+            }
+        });
+        ServerLauncher.Jobs.submit(job, ServerUtilityOperations.getClientName(request));
+    }
+
+    /**
+     * Parse the search definition provided by the user
+     *
+     * @param searchForm Search definition, as a JSON string
+     * @return Parsed search definition
+     */
+    public JSONObject parseSearch(String searchForm) {
         try {
-            searchDefinition = new JSONObject(searchForm);
+            return new JSONObject(searchForm);
         } catch (Exception e) {
             throw ServerUtilityOperations.prepareException("search failed to parse as JSON: "
                     + e.getMessage());
         }
+    }
 
-        // Launch thread for performing the search
-        Callable<String> thread = new Callable<String>() {
+    /**
+     * Create a job that performs a search. The job reports its progress, and can be cancelled
+     * while generating entries or between (or during) the steps of the search.
+     *
+     * @param searchDefinition Search specification
+     * @return Job that runs the search and produces the search result
+     */
+    public Job createJob(final JSONObject searchDefinition) {
+        return new Job() {
             @Override
-            public String call() throws Exception {
+            protected String execute() throws Exception {
+                CurrentJob = this;
                 return performSearch(searchDefinition);
             }
         };
+    }
 
-        Future<String> result = ServerLauncher.ThreadPool.submit(thread);
+    /**
+     * Stop the search if the job running it has been cancelled
+     *
+     * @throws CancellationException If the search was cancelled
+     */
+    protected void checkCancelled() throws CancellationException {
+        if (CurrentJob != null) {
+            CurrentJob.checkCancelled();
+        }
+    }
 
-        // Wait until it fails
-        try {
-            return result.get();
-        } catch (Exception e) {
-            throw ServerUtilityOperations.prepareException("search failed: " + e.getMessage());
+    /**
+     * Mark the start of a stage of the search
+     *
+     * @param stage Index of the stage
+     * @param nStages Total number of stages
+     * @throws CancellationException If the search was cancelled
+     */
+    protected void startStage(int stage, int nStages) throws CancellationException {
+        checkCancelled();
+        if (CurrentJob != null) {
+            CurrentJob.setStage(stage, nStages);
         }
     }
 
     /**
-     * Function that prepares the actual search
+     * Function that prepares the actual search.
+     *
+     * <p>Entries are processed in chunks: each chunk of generated entries is run through every step
+     * of the search, and then the best entries are kept in a list of fixed size. So, the memory required
+     * by a search does not depend on the number of entries generated. Filters are trained on each chunk
+     * separately, which means they should evaluate each entry independently. The entry ranker is trained
+     * on each chunk along with the best entries found so far, which are then ranked again
+     * (see {@linkplain BestEntries}).</p>
+     *
+     * <p>The entries are counted before any are processed, so that progress can be reported
+     * over all chunks and searches that generate too many entries fail before running any model.</p>
      *
      * @param searchDefinition Search specification
      * @return Result
      */
     protected String performSearch(JSONObject searchDefinition) {
-        // Generate entries in search space
-        MultiPropertyDataset data = getEntries(searchDefinition);
-
-        // Perform each analysis steps
+        // Prepare each analysis step
         if (!searchDefinition.has("steps")) {
             throw ServerUtilityOperations.prepareException("search definition is missing steps");
         }
         if (!(searchDefinition.get("steps") instanceof JSONArray)) {
             throw ServerUtilityOperations.prepareException("steps should be an array");
         }
+        List<SearchStep> steps = new ArrayList<>();
+        int chunkSize = ServerLauncher.SearchChunkSize;
+        Map<String, Integer> attributeHashes = new TreeMap<>();
         for (Object stepPtr : searchDefinition.getJSONArray("steps")) {
-            // Check if step is a JSON object
-            if (!(stepPtr instanceof JSONObject)) {
-                throw ServerUtilityOperations.prepareException("step should be a JSON object");
+            SearchStep step = createStep(stepPtr);
+            if (step == null) {
+                continue;
             }
-            JSONObject step = (JSONObject) stepPtr;
-
-            // Run the step
-            if (!step.has("type")) {
-                throw ServerUtilityOperations.prepareException("step should have key: type");
+            if (step.ModelOptions != null) {
+                ModelPackage model = getModel(step.ModelOptions);
+                chunkSize = Math.min(chunkSize, model.getMaxNumEntries());
+                String hash = model.getAttributeGenerationHash();
+                attributeHashes.put(hash, attributeHashes.containsKey(hash) ? attributeHashes.get(hash) + 1 : 1);
             }
-            if (!(step.has("options") && step.get("options") instanceof JSONObject)) {
-                throw ServerUtilityOperations.prepareException("step should have key, options, that maps to an array");
-            }
-            String stepType = step.getString("type");
-            JSONObject options = step.getJSONObject("options");
-            switch (stepType.toLowerCase()) {
-                case "model":
-                    data = runModel(data, options);
-                    break;
-                case "filter":
-                    runFilter(data, options);
-                    break;
+            steps.add(step);
+        }
+        chunkSize = Math.max(1, chunkSize);
+
+        // Models that compute attributes the same way share them, within each chunk
+        int nShared = 0;
+        for (Map.Entry<String, Integer> hash : attributeHashes.entrySet()) {
+            if (hash.getValue() > 1) {
+                SharedAttributeHashes.add(hash.getKey());
+                nShared++;
             }
         }
+        if (nShared > 0) {
+            SharedAttributes = new AttributeCache(chunkSize * nShared);
+        }
 
-        // Rank the top entries
+        // Prepare the entry ranker
         if (!(searchDefinition.has("entryRanker") && searchDefinition.get("entryRanker") instanceof JSONObject)) {
             throw ServerUtilityOperations.prepareException("options should have entryRanker as a JSON object");
         }
         JSONObject entryRankerSpec = searchDefinition.getJSONObject("entryRanker");
-        runRanker(data, entryRankerSpec);
+        BaseEntryRanker ranker = createRanker(entryRankerSpec);
+        BestEntries bestEntries = new BestEntries(ranker, entryRankerSpec.getInt("number"));
+
+        // Prepare the entry generator
+        BaseEntryGenerator generator = createGenerator(searchDefinition);
+        MultiPropertyDataset template = createDataset(searchDefinition);
+        generator.train(template);
+
+        // Process entries in chunks
+        startStage(0, 2);
+        long nEntries = countEntries(generator);
+        MultiPropertyDataset result = null;
+        Iterator<BaseEntry> iter = generator.iterator();
+        long nProcessed = 0;
+        while (result == null || iter.hasNext()) {
+            // Generate a chunk of entries
+            checkCancelled();
+            MultiPropertyDataset data = (MultiPropertyDataset) template.emptyClone();
+            while (iter.hasNext() && data.NEntries() < chunkSize) {
+                data.addEntry(iter.next());
+            }
+            int nChunk = data.NEntries();
+
+            // Perform each analysis step
+            for (int s = 0; s < steps.size(); s++) {
+                SearchStep step = steps.get(s);
+                checkCancelled();
+                if (CurrentJob != null && nEntries > 0) {
+                    CurrentJob.setStagePart((nProcessed + (double) nChunk * s / steps.size()) / nEntries,
+                            (nProcessed + (double) nChunk * (s + 1) / steps.size()) / nEntries);
+                }
+                if (step.ModelOptions != null) {
+                    data = runModel(data, step.ModelOptions);
+                } else {
+                    step.Filter.train(data);
+                    step.Filter.filter(data);
+                }
+            }
+
+            // Keep the top entries
+            if (result == null) {
+                result = (MultiPropertyDataset) data.emptyClone();
+            }
+            bestEntries.addAll(data);
+
+            // Clear out the attributes
+            data.clearAttributes();
+            nProcessed += nChunk;
+        }
 
-        // Clear out the attributes
-        data.clearAttributes();
+        // Sort the top entries
+        startStage(1, 2);
+        result.addEntries(bestEntries.getEntries());
 
         // Convert dataset to JSON
-        return convertToJSON(data).toString();
+        return convertToJSON(result);
     }
 
     /**
-     * Convert the dataset into a JSON object
+     * Parse the description of a step in the search
+     *
+     * @param stepPtr Step description. Should be a JSON object
+     * @return Step, or <code>null</code> if the step type is not recognized
+     */
+    protected SearchStep createStep(Object stepPtr) {
+        // Check if step is a JSON object
+        if (!(stepPtr instanceof JSONObject)) {
+            throw ServerUtilityOperations.prepareException("step should be a JSON object");
+        }
+        JSONObject step = (JSONObject) stepPtr;
+
+        // Create the step
+        if (!step.has("type")) {
+            throw ServerUtilityOperations.prepareException("step should have key: type");
+        }
+        if (!(step.has("options") && step.get("options") instanceof JSONObject)) {
+            throw ServerUtilityOperations.prepareException("step should have key, options, that maps to an array");
+        }
+        String stepType = step.getString("type");
+        JSONObject options = step.getJSONObject("options");
+        switch (stepType.toLowerCase()) {
+            case "model":
+                getModel(options);
+                return new SearchStep(options, null);
+            case "filter":
+                return new SearchStep(null, createFilter(options));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Convert the dataset into a JSON object. The output is written directly to a string, without creating
+     * a JSON object for each entry.
      *
      * @param data Dataset to be converted
      * @return Output describing the selected entries
+     * @see DatasetJSONWriter
      */
-    public JSONObject convertToJSON(MultiPropertyDataset data) {
+    public String convertToJSON(MultiPropertyDataset data) {
+        StringWriter writer = new StringWriter();
+        JSONWriter json = new JSONWriter(writer);
+        json.object();
+
         // Gather list of entries to be parsed
-        JSONObject output = new JSONObject();
-        List<String> chosenEntries = new ArrayList<>(data.NEntries());
+        json.key("chosenEntries").array();
         for (BaseEntry entry : data.getEntries()) {
-            chosenEntries.add(entry.toHTMLString());
+            json.value(entry.toHTMLString());
         }
-        output.put("chosenEntries", chosenEntries);
+        json.endArray();
 
         // Write out datasets for each
-        JSONObject datasetData = new JSONObject();
+        json.key("data").object();
         for (String modelName : Models) {
-            JSONObject datasetJSON = ServerUtilityOperations.createDatasetJSON(
-                    ServerLauncher.Models.get(modelName),
-                    null,
-                    data
-            );
-            datasetData.put(modelName, datasetJSON);
+            json.key(modelName);
+            new DatasetJSONWriter(ServerLauncher.getModel(modelName), null, data,
+                    DatasetJSONWriter.Shape.ENTRIES).write(json);
         }
-        output.put("data", datasetData);
+        json.endObject();
 
-        return output;
+        json.endObject();
+        return writer.toString();
     }
 
     /**
-     * Run the entry ranker to get the top entries
+     * Create the tool used to rank entries
      *
-     * @param data          [in/out] Dataset to be ranked, will contain only top entries after running
-     * @param rankerOptions Optiosn for the ranker
+     * @param rankerOptions Options for the ranker
+     * @return Ranker, which has not been trained
      */
-    public void runRanker(MultiPropertyDataset data, JSONObject rankerOptions) {
+    public BaseEntryRanker createRanker(JSONObject rankerOptions) {
         // Check the format of the input
         if (!rankerOptions.has("method")) {
             throw ServerUtilityOperations.prepareException("ranker options should have: method");
@@ -196,7 +380,6 @@ public class SearchRunner {
         if (!rankerOptions.has("number")) {
             throw ServerUtilityOperations.prepareException("ranker options should have: number");
         }
-        int number = rankerOptions.getInt("number");
         if (!(rankerOptions.has("minimize") && rankerOptions.get("minimize") instanceof Boolean)) {
             throw ServerUtilityOperations.prepareException("ranker options should have: minimize as a boolean");
         }
@@ -215,28 +398,16 @@ public class SearchRunner {
         }
         ranker.setMaximizeFunction(!toMinimize);
         ranker.setUseMeasured(false);
-        ranker.train(data);
-
-        // Run the ranker as a filter
-        EntryRankerFilter filter = new EntryRankerFilter();
-        filter.setExclude(false);
-        filter.setNumberToFilter(number);
-        filter.setRanker(ranker);
-
-        filter.train(data);
-        filter.filter(data);
-
-        // Sort entries according to ranker
-        ranker.sortByRanking(data);
+        return ranker;
     }
 
     /**
-     * Run a new model, add entries to dataset
+     * Create a filter
      *
-     * @param data          Dataset of entries to run
-     * @param filterOptions Options for model
+     * @param filterOptions Options for the filter
+     * @return Filter, which has not been trained
      */
-    public void runFilter(MultiPropertyDataset data, JSONObject filterOptions) {
+    public BaseDatasetFilter createFilter(JSONObject filterOptions) {
         // Get the methods
         if (!filterOptions.has("name")) {
             throw ServerUtilityOperations.prepareException("filter options should have: name");
@@ -259,10 +430,7 @@ public class SearchRunner {
             throw ServerUtilityOperations.prepareException("problem loading filter: " + e.getMessage());
         }
         filter.setExclude(toExclude);
-
-        // Train and run the filter
-        filter.train(data);
-        filter.filter(data);
+        return filter;
     }
 
     /**
@@ -274,14 +442,8 @@ public class SearchRunner {
      */
     public MultiPropertyDataset runModel(MultiPropertyDataset data, JSONObject options) {
         // Get the model
-        if (options.length() != 1 || !options.has("name")) {
-            throw ServerUtilityOperations.prepareException("should have only one option: name");
-        }
+        ModelPackage model = getModel(options);
         String name = options.get("name").toString();
-        if (!ServerLauncher.Models.containsKey(name)) {
-            throw ServerUtilityOperations.prepareException("no such model: " + name);
-        }
-        ModelPackage model = ServerLauncher.Models.get(name);
         Models.add(name);
 
         // Add entries to dataset for this model
@@ -306,7 +468,10 @@ public class SearchRunner {
 
         // Run the model
         try {
-            model.runModel(newDataset);
+            model.runModel(newDataset, CurrentJob,
+                    SharedAttributeHashes.contains(model.getAttributeGenerationHash()) ? SharedAttributes : null);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             throw ServerUtilityOperations.prepareException("failed when running model: " + e.getMessage());
         }
@@ -315,12 +480,53 @@ public class SearchRunner {
     }
 
     /**
-     * Generate a list of entries
+     * Get the model used in a model step
+     *
+     * @param options Options for model. Should have 1 entry: model name
+     * @return Package holding the model
+     */
+    public ModelPackage getModel(JSONObject options) {
+        if (options.length() != 1 || !options.has("name")) {
+            throw ServerUtilityOperations.prepareException("should have only one option: name");
+        }
+        String name = options.get("name").toString();
+        ModelPackage model = ServerLauncher.getModel(name);
+        if (model == null) {
+            throw ServerUtilityOperations.prepareException("no such model: " + name);
+        }
+        return model;
+    }
+
+    /**
+     * Count the entries produced by a generator, without storing them
+     *
+     * @param generator Entry generator, which has been trained
+     * @return Number of entries
+     * @throws CancellationException If the search was cancelled
+     */
+    protected long countEntries(BaseEntryGenerator generator) throws CancellationException {
+        long count = 0;
+        Iterator<BaseEntry> iter = generator.iterator();
+        while (iter.hasNext()) {
+            if (count % CheckInterval == 0) {
+                checkCancelled();
+            }
+            iter.next();
+            if (++count > ServerLauncher.MaxSearchEntries) {
+                throw ServerUtilityOperations.prepareException("reached maximum number of entries: "
+                        + ServerLauncher.MaxSearchEntries);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create the tool used to generate entries
      *
      * @param searchDefinition Definition of search routine, input to the search routine
-     * @return Dataset containing entries
+     * @return Entry generator, which has not been trained
      */
-    public MultiPropertyDataset getEntries(JSONObject searchDefinition) {
+    public BaseEntryGenerator createGenerator(JSONObject searchDefinition) {
         // Create the entry generator
         if (!searchDefinition.has("entryGenerator")) {
             throw ServerUtilityOperations.prepareException("search definition missing entryGenerator");
@@ -343,8 +549,16 @@ public class SearchRunner {
         } catch (Exception e) {
             throw ServerUtilityOperations.prepareException("problem instantiating entryGenerator: " + e.getMessage());
         }
+        return generator;
+    }
 
-        // Make entries
+    /**
+     * Create an empty dataset to hold the generated entries
+     *
+     * @param searchDefinition Definition of search routine, input to the search routine
+     * @return Empty dataset
+     */
+    public MultiPropertyDataset createDataset(JSONObject searchDefinition) {
         if (!searchDefinition.has("datasetType")) {
             throw ServerUtilityOperations.prepareException("search definition missing datasetType");
         }
@@ -354,23 +568,135 @@ public class SearchRunner {
         } catch (Exception e) {
             throw ServerUtilityOperations.prepareException("no such dataset type: " + searchDefinition.get("datasetType").toString());
         }
+        return (MultiPropertyDataset) dataObj;
+    }
+
+    /**
+     * Step in a search: either running a model or applying a filter
+     */
+    protected static class SearchStep {
+        /** Options for the model to be run, if this step runs a model */
+        final public JSONObject ModelOptions;
+        /** Filter to be applied, if this step applies a filter */
+        final public BaseDatasetFilter Filter;
+
+        public SearchStep(JSONObject modelOptions, BaseDatasetFilter filter) {
+            this.ModelOptions = modelOptions;
+            this.Filter = filter;
+        }
+    }
+
+    /**
+     * Holds the top entries found so far in a search. Only a fixed number of entries
+     * are stored, in a heap ordered such that the worst entry is removed first.
+     *
+     * <p>Some rankers depend on the entries they are trained with (e.g., the
+     * {@linkplain magpie.optimization.rankers.AdaptiveScalarizingEntryRanker} normalizes each objective
+     * using the range of values in the training set). So, the ranker is trained again on the entries
+     * currently held plus each new set of entries, and the held entries are ranked again, so that
+     * all entries are always compared using the same objective function.</p>
+     */
+    protected static class BestEntries {
+        /** Ranker used to assess entries */
+        final private BaseEntryRanker Ranker;
+        /** Number of entries to keep */
+        final private int Number;
+        /** Best entries, with the worst entry at the head */
+        final private PriorityQueue<RankedEntry> Heap;
+        /** Number of entries that have been assessed */
+        private long NAssessed = 0;
+
+        /**
+         * Create an empty list
+         *
+         * @param ranker Ranker used to assess entries. Will be trained by this class
+         * @param number Number of entries to keep
+         */
+        public BestEntries(BaseEntryRanker ranker, int number) {
+            this.Ranker = ranker;
+            this.Number = Math.max(0, number);
+            this.Heap = new PriorityQueue<>(Math.max(1, number), new Comparator<RankedEntry>() {
+                @Override
+                public int compare(RankedEntry o1, RankedEntry o2) {
+                    return o1.compareTo(o2, Ranker.isMaximizing());
+                }
+            });
+        }
 
+        /**
+         * Assess entries, and keep them if they are among the best
+         *
+         * @param data Dataset holding the entries to be assessed
+         */
+        public void addAll(Dataset data) {
+            // Train the ranker on the current best entries and the new entries
+            List<RankedEntry> held = new ArrayList<>(Heap);
+            Dataset candidates = data.emptyClone();
+            for (RankedEntry entry : held) {
+                candidates.addEntry(entry.Entry);
+            }
+            candidates.addEntries(data.getEntries());
+            Ranker.train(candidates);
 
-        MultiPropertyDataset data = (MultiPropertyDataset) dataObj;
-        // Train the generator
-        generator.train(data);
+            // Rank the current best entries again
+            Heap.clear();
+            for (RankedEntry entry : held) {
+                Heap.add(new RankedEntry(entry.Entry, Ranker.objectiveFunction(entry.Entry), entry.Order));
+            }
 
-        // Generate the entries iteratively, so that we
-        int pos = 0;
-        Iterator<BaseEntry> iter = generator.iterator();
-        while (iter.hasNext()) {
-            data.addEntry(iter.next());
-            if (pos++ == ServerLauncher.MaxNumEntries) {
-                throw ServerUtilityOperations.prepareException("reached maximum number of entries: "
-                        + ServerLauncher.MaxNumEntries);
+            // Assess the new entries
+            for (BaseEntry entry : data.getEntries()) {
+                RankedEntry ranked = new RankedEntry(entry, Ranker.objectiveFunction(entry), NAssessed++);
+                if (Heap.size() < Number) {
+                    Heap.add(ranked);
+                } else if (Number > 0 && ranked.compareTo(Heap.peek(), Ranker.isMaximizing()) > 0) {
+                    Heap.poll();
+                    Heap.add(ranked);
+                }
             }
         }
 
-        return data;
+        /**
+         * @return Best entries, sorted from best to worst
+         */
+        public List<BaseEntry> getEntries() {
+            List<RankedEntry> ranked = new ArrayList<>(Heap);
+            Collections.sort(ranked, Collections.reverseOrder(Heap.comparator()));
+            List<BaseEntry> output = new ArrayList<>(ranked.size());
+            for (RankedEntry entry : ranked) {
+                output.add(entry.Entry);
+            }
+            return output;
+        }
+
+        /**
+         * Entry and its value of the objective function
+         */
+        private static class RankedEntry {
+            /** Entry */
+            final public BaseEntry Entry;
+            /** Value of objective function */
+            final public double Value;
+            /** Order in which entry was assessed */
+            final public long Order;
+
+            public RankedEntry(BaseEntry entry, double value, long order) {
+                this.Entry = entry;
+                this.Value = value;
+                this.Order = order;
+            }
+
+            /**
+             * Compare the quality of two entries. Ties are broken in favor of the entry assessed first
+             *
+             * @param other Entry to compare against
+             * @param maximize Whether larger values of the objective function are better
+             * @return Positive if this entry is better, negative if it is worse
+             */
+            public int compareTo(RankedEntry other, boolean maximize) {
+                int output = maximize ? Double.compare(Value, other.Value) : Double.compare(other.Value, Value);
+                return output != 0 ? output : Long.compare(other.Order, Order);
+            }
+        }
     }
 }
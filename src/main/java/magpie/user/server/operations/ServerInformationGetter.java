@@ -2,12 +2,14 @@ package magpie.user.server.operations;
 
 import magpie.user.server.ModelPackage;
 import magpie.user.server.ServerLauncher;
+import magpie.user.server.ServerMetrics;
 import magpie.utility.UtilityOperations;
 import org.json.JSONObject;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
 import java.util.Date;
 
 /**
@@ -71,4 +73,49 @@ public class ServerInformationGetter {
         return output.toString();
     }
 
+    /**
+     * Check whether all models have been loaded. Returns HTTP code 503 (Service Unavailable) if any
+     * models are still being loaded.
+     *
+     * @return Whether the server is ready, and the status of each model
+     */
+    @GET
+    @Produces("application/json")
+    @Path("ready")
+    public Response getReadiness() {
+        JSONObject output = new JSONObject();
+        boolean ready = ServerLauncher.Loader == null || ServerLauncher.Loader.isReady();
+        output.put("ready", ready);
+        if (ServerLauncher.Loader != null) {
+            output.put("models", ServerLauncher.Loader.getStatus());
+        }
+        return Response.status(ready ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+                .entity(output.toString()).build();
+    }
+
+    /**
+     * Get metrics describing the performance of the server, in the Prometheus text format
+     *
+     * @return Latencies, queue lengths, cache usage, and memory usage. See {@linkplain ServerMetrics}
+     */
+    @GET
+    @Produces(ServerMetrics.PrometheusContentType)
+    @Path("metrics")
+    public String getMetrics() {
+        return ServerLauncher.Metrics.toPrometheus();
+    }
+
+    /**
+     * Get a summary of the performance of the server
+     *
+     * @return Latencies (median, 95th and 99th percentile), queue lengths, cache usage, and memory usage.
+     * See {@linkplain ServerMetrics#toJSON()}
+     */
+    @GET
+    @Produces("application/json")
+    @Path("metrics/json")
+    public String getMetricsJSON() {
+        return ServerLauncher.Metrics.toJSON().toString();
+    }
+
 }
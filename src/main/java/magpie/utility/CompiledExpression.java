@@ -0,0 +1,797 @@
+package magpie.utility;
+
+import expr.Expr;
+import expr.Variable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fast, thread-safe evaluator for a formula parsed by the
+ * <a href="https://github.com/darius/expr">Expr</a> library.
+ *
+ * <p>Expr evaluates a formula by walking its expression tree, and reads the
+ * values of variables from {@linkplain Variable} objects that are shared
+ * by every formula that uses a variable with the same name. This class
+ * converts a formula into a tree of nodes that read the values of variables
+ * from an array (the "slots"), where the position of each variable in that
+ * array is the same as in the list of variables used to create it. Any part
+ * of the formula that does not depend on a variable is computed only once,
+ * when the formula is compiled. The evaluator can also compute the value of the
+ * formula for many sets of variables in a single call, which computes each
+ * operation for a whole batch of values at once.
+ *
+ * <p>The compiled formula follows the same operator precedence and uses the
+ * same math functions as Expr, so its results should be identical. To make
+ * sure, {@linkplain #compile(java.lang.String, java.util.List, expr.Expr) }
+ * compares the results of the compiled and interpreted formulas at several
+ * points and will not produce an evaluator if they differ. Users should
+ * fall back to using Expr in that case.
+ *
+ * @author Logan Ward
+ */
+public class CompiledExpression implements Serializable {
+    /** Number of points used to check compiled formulas against Expr */
+    final static private int NTestPoints = 32;
+    /** Root of the compiled expression tree */
+    final private Node Root;
+    /** Number of variables */
+    final private int NVariables;
+    /** Number of temporary arrays needed for batch evaluation */
+    final private int NWork;
+
+    /**
+     * Create an evaluator
+     * @param root Root of the expression tree
+     * @param nVariables Number of variables
+     */
+    private CompiledExpression(Node root, int nVariables) {
+        this.Root = root;
+        this.NVariables = nVariables;
+        this.NWork = root.NWork();
+    }
+
+    /**
+     * Compile a formula, and check that it produces the same results as the
+     * version produced by Expr.
+     * @param formula Formula, in the form that was supplied to Expr
+     * @param variables Variables used in the formula, in the order they
+     * should be supplied in the slot array
+     * @param reference Formula parsed by Expr
+     * @return Compiled formula, or null if the formula could not be compiled
+     * or the results do not match Expr
+     */
+    static public CompiledExpression compile(String formula, List<Variable> variables,
+            Expr reference) {
+        // Compile the formula
+        List<String> names = new ArrayList<>(variables.size());
+        for (Variable var : variables) {
+            names.add(var.name());
+        }
+        CompiledExpression output;
+        try {
+            output = compile(formula, names);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        // Check against Expr
+        if (! output.matches(variables, reference)) {
+            return null;
+        }
+        return output;
+    }
+
+    /**
+     * Compile a formula.
+     * @param formula Formula to be compiled. Follows the syntax of Expr
+     * @param variableNames Names of the variables, in the order they
+     * should be supplied in the slot array
+     * @return Compiled formula
+     * @throws IllegalArgumentException If the formula cannot be parsed
+     */
+    static public CompiledExpression compile(String formula, List<String> variableNames) {
+        Parser parser = new Parser(formula, variableNames);
+        Node root = parser.parse();
+        return new CompiledExpression(root, variableNames.size());
+    }
+
+    /**
+     * Check whether this evaluator produces identical results to a formula
+     * parsed by Expr. Values of the Expr variables are restored afterwards.
+     * @param variables Variables used by the Expr formula, in the same
+     * order as the slots of this evaluator
+     * @param reference Formula parsed by Expr
+     * @return Whether the results are identical at each test point
+     */
+    public boolean matches(List<Variable> variables, Expr reference) {
+        if (variables.size() != NVariables) {
+            return false;
+        }
+
+        // Store the current values of the variables
+        double[] original = new double[NVariables];
+        for (int v=0; v<NVariables; v++) {
+            original[v] = variables.get(v).value();
+        }
+
+        // Variables that appear more than once in the list must have the same value
+        int[] first = new int[NVariables];
+        for (int v=0; v<NVariables; v++) {
+            first[v] = variables.indexOf(variables.get(v));
+        }
+
+        // Compare at test points of different magnitudes and signs
+        Random random = new Random(1);
+        double[] x = new double[NVariables];
+        boolean output = true;
+        try {
+            for (int p=0; p<NTestPoints && output; p++) {
+                for (int v=0; v<NVariables; v++) {
+                    if (first[v] != v) {
+                        x[v] = x[first[v]];
+                    } else if (p % 4 == 0) {
+                        x[v] = random.nextInt(5) - 2;
+                    } else if (p % 4 == 1) {
+                        x[v] = random.nextDouble();
+                    } else {
+                        x[v] = random.nextGaussian() * Math.pow(10, random.nextInt(7) - 3);
+                    }
+                    variables.get(v).setValue(x[v]);
+                }
+                long expected = Double.doubleToLongBits(reference.value());
+                output = expected == Double.doubleToLongBits(evaluate(x));
+            }
+        } finally {
+            for (int v=NVariables-1; v>=0; v--) {
+                variables.get(v).setValue(original[v]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return Number of variables (i.e., slots) of this formula
+     */
+    public int NVariables() {
+        return NVariables;
+    }
+
+    /**
+     * Evaluate the formula.
+     * @param slots Value of each variable
+     * @return Value of the formula
+     */
+    public double evaluate(double[] slots) {
+        if (slots.length < NVariables) {
+            throw new IllegalArgumentException("Expected " + NVariables + " variables");
+        }
+        return Root.value(slots);
+    }
+
+    /**
+     * @return Number of temporary arrays needed to evaluate this formula for
+     * many sets of variables
+     * @see #evaluate(double[][], int, double[], double[][]) 
+     */
+    public int NWork() {
+        return NWork;
+    }
+
+    /**
+     * Evaluate the formula for many sets of variables.
+     * @param columns Values of each variable. <code>columns[v][i]</code> is
+     * the value of variable v in set i
+     * @param count Number of sets to evaluate
+     * @param output Array in which to store the value of the formula for each set
+     */
+    public void evaluate(double[][] columns, int count, double[] output) {
+        evaluate(columns, count, output, new double[NWork][count]);
+    }
+
+    /**
+     * Evaluate the formula for many sets of variables, using temporary
+     * arrays provided by the caller. Allows the arrays to be reused between calls.
+     * @param columns Values of each variable. <code>columns[v][i]</code> is
+     * the value of variable v in set i
+     * @param count Number of sets to evaluate
+     * @param output Array in which to store the value of the formula for each set
+     * @param work At least {@linkplain #NWork() } arrays, each with at least 
+     * <code>count</code> elements. Contents are overwritten
+     */
+    public void evaluate(double[][] columns, int count, double[] output, double[][] work) {
+        if (columns.length < NVariables) {
+            throw new IllegalArgumentException("Expected " + NVariables + " variables");
+        }
+        if (output.length < count) {
+            throw new IllegalArgumentException("Output array is too small");
+        }
+        if (work.length < NWork) {
+            throw new IllegalArgumentException("Expected " + NWork + " work arrays");
+        }
+        Root.values(columns, count, output, work, 0);
+    }
+
+    /**
+     * Node of the compiled expression tree.
+     */
+    static abstract private class Node implements Serializable {
+        /**
+         * Compute the value of this node.
+         * @param slots Value of each variable
+         * @return Value
+         */
+        abstract public double value(double[] slots);
+
+        /**
+         * Compute the value of this node for many sets of variables.
+         * @param columns Values of each variable
+         * @param count Number of sets of variables
+         * @param output Array in which to store results
+         * @param work Temporary arrays
+         * @param level Index of first temporary array that can be used by this node
+         */
+        abstract public void values(double[][] columns, int count, double[] output,
+                double[][] work, int level);
+
+        /**
+         * @return Number of temporary arrays needed to evaluate this node
+         */
+        abstract public int NWork();
+
+        /**
+         * @return Whether this node does not depend on any variables
+         */
+        public boolean isConstant() {
+            return false;
+        }
+    }
+
+    /**
+     * Node holding a constant value
+     */
+    static private class Constant extends Node {
+        final private double Value;
+
+        public Constant(double value) {
+            this.Value = value;
+        }
+
+        @Override
+        public double value(double[] slots) {
+            return Value;
+        }
+
+        @Override
+        public void values(double[][] columns, int count, double[] output,
+                double[][] work, int level) {
+            Arrays.fill(output, 0, count, Value);
+        }
+
+        @Override
+        public int NWork() {
+            return 0;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
+    }
+
+    /**
+     * Node that reads the value of a variable
+     */
+    static private class Slot extends Node {
+        final private int Index;
+
+        public Slot(int index) {
+            this.Index = index;
+        }
+
+        @Override
+        public double value(double[] slots) {
+            return slots[Index];
+        }
+
+        @Override
+        public void values(double[][] columns, int count, double[] output,
+                double[][] work, int level) {
+            System.arraycopy(columns[Index], 0, output, 0, count);
+        }
+
+        @Override
+        public int NWork() {
+            return 0;
+        }
+    }
+
+    /**
+     * Node that applies a function to a single argument
+     */
+    static private class Unary extends Node {
+        /** Names of supported functions. "-" is negation */
+        final static private List<String> Functions = Arrays.asList("-", "abs",
+                "acos", "asin", "atan", "ceil", "cos", "exp", "floor", "log",
+                "round", "sin", "sqrt", "tan");
+        /** Index of the function in {@linkplain #Functions} */
+        final private int Function;
+        final private Node Argument;
+
+        public Unary(String function, Node argument) {
+            this.Function = Functions.indexOf(function);
+            this.Argument = argument;
+            if (Function == -1) {
+                throw new IllegalArgumentException("Unsupported function: " + function);
+            }
+        }
+
+        /**
+         * @param function Name of function
+         * @return Whether that function is supported
+         */
+        static public boolean isSupported(String function) {
+            return Functions.contains(function);
+        }
+
+        /**
+         * Apply the function
+         * @param x Argument
+         * @return Result
+         */
+        public double apply(double x) {
+            switch (Function) {
+                case 0: return -x;
+                case 1: return Math.abs(x);
+                case 2: return Math.acos(x);
+                case 3: return Math.asin(x);
+                case 4: return Math.atan(x);
+                case 5: return Math.ceil(x);
+                case 6: return Math.cos(x);
+                case 7: return Math.exp(x);
+                case 8: return Math.floor(x);
+                case 9: return Math.log(x);
+                case 10: return Math.round(x);
+                case 11: return Math.sin(x);
+                case 12: return Math.sqrt(x);
+                case 13: return Math.tan(x);
+                default:
+                    throw new Error("Unsupported function: " + Function);
+            }
+        }
+
+        @Override
+        public double value(double[] slots) {
+            return apply(Argument.value(slots));
+        }
+
+        @Override
+        public void values(double[][] columns, int count, double[] output,
+                double[][] work, int level) {
+            Argument.values(columns, count, output, work, level);
+            if (Function == 0) {
+                for (int i=0; i<count; i++) {
+                    output[i] = -output[i];
+                }
+            } else {
+                for (int i=0; i<count; i++) {
+                    output[i] = apply(output[i]);
+                }
+            }
+        }
+
+        @Override
+        public int NWork() {
+            return Argument.NWork();
+        }
+    }
+
+    /**
+     * Node that applies an operator or function to two arguments
+     */
+    static private class Binary extends Node {
+        /** Names of supported operators and functions */
+        final static private List<String> Operators = Arrays.asList("+", "-",
+                "*", "/", "^", "atan2", "max", "min", "<", "<=", "=", "<>",
+                ">=", ">", "and", "or");
+        /** Index of the operator in {@linkplain #Operators} */
+        final private int Operator;
+        final private Node Left, Right;
+
+        public Binary(String operator, Node left, Node right) {
+            this.Operator = Operators.indexOf(operator);
+            this.Left = left;
+            this.Right = right;
+            if (Operator == -1) {
+                throw new IllegalArgumentException("Unsupported operator: " + operator);
+            }
+        }
+
+        /**
+         * Apply the operator
+         * @param a Left argument
+         * @param b Right argument
+         * @return Result
+         */
+        public double apply(double a, double b) {
+            switch (Operator) {
+                case 0: return a + b;
+                case 1: return a - b;
+                case 2: return a * b;
+                case 3: return a / b;
+                case 4: return Math.pow(a, b);
+                case 5: return Math.atan2(a, b);
+                case 6: return a < b ? b : a;
+                case 7: return a < b ? a : b;
+                case 8: return a < b ? 1.0 : 0.0;
+                case 9: return a <= b ? 1.0 : 0.0;
+                case 10: return a == b ? 1.0 : 0.0;
+                case 11: return a != b ? 1.0 : 0.0;
+                case 12: return a >= b ? 1.0 : 0.0;
+                case 13: return a > b ? 1.0 : 0.0;
+                case 14: return a != 0 && b != 0 ? 1.0 : 0.0;
+                case 15: return a != 0 || b != 0 ? 1.0 : 0.0;
+                default:
+                    throw new Error("Unsupported operator: " + Operator);
+            }
+        }
+
+        @Override
+        public double value(double[] slots) {
+            return apply(Left.value(slots), Right.value(slots));
+        }
+
+        @Override
+        public void values(double[][] columns, int count, double[] output,
+                double[][] work, int level) {
+            double[] right = work[level];
+            Left.values(columns, count, output, work, level);
+            Right.values(columns, count, right, work, level + 1);
+            switch (Operator) {
+                case 0:
+                    for (int i=0; i<count; i++) {
+                        output[i] += right[i];
+                    }
+                    break;
+                case 1:
+                    for (int i=0; i<count; i++) {
+                        output[i] -= right[i];
+                    }
+                    break;
+                case 2:
+                    for (int i=0; i<count; i++) {
+                        output[i] *= right[i];
+                    }
+                    break;
+                case 3:
+                    for (int i=0; i<count; i++) {
+                        output[i] /= right[i];
+                    }
+                    break;
+                default:
+                    for (int i=0; i<count; i++) {
+                        output[i] = apply(output[i], right[i]);
+                    }
+            }
+        }
+
+        @Override
+        public int NWork() {
+            return Math.max(Left.NWork(), Right.NWork() + 1);
+        }
+    }
+
+    /**
+     * Node that chooses between two values: <code>if(test, a, b)</code>
+     */
+    static private class Conditional extends Node {
+        final private Node Test, IfTrue, IfFalse;
+
+        public Conditional(Node test, Node ifTrue, Node ifFalse) {
+            this.Test = test;
+            this.IfTrue = ifTrue;
+            this.IfFalse = ifFalse;
+        }
+
+        @Override
+        public double value(double[] slots) {
+            return Test.value(slots) != 0 ? IfTrue.value(slots) : IfFalse.value(slots);
+        }
+
+        @Override
+        public void values(double[][] columns, int count, double[] output,
+                double[][] work, int level) {
+            double[] ifTrue = work[level], ifFalse = work[level + 1];
+            Test.values(columns, count, output, work, level);
+            IfTrue.values(columns, count, ifTrue, work, level + 1);
+            IfFalse.values(columns, count, ifFalse, work, level + 2);
+            for (int i=0; i<count; i++) {
+                output[i] = output[i] != 0 ? ifTrue[i] : ifFalse[i];
+            }
+        }
+
+        @Override
+        public int NWork() {
+            return Math.max(Test.NWork(),
+                    Math.max(IfTrue.NWork() + 1, IfFalse.NWork() + 2));
+        }
+    }
+
+    /**
+     * Recursive-descent parser that follows the grammar of Expr. Operators
+     * (from loosest to tightest binding): and, or, comparisons (&lt;, &lt;=, =,
+     * &lt;&gt;, &gt;=, &gt;), addition and subtraction, multiplication and
+     * division, and exponentiation. All are left-associative, except
+     * exponentiation.
+     */
+    static private class Parser {
+        /** Formula being parsed */
+        final private String Formula;
+        /** Names of variables, sorted longest first */
+        final private List<String> SortedNames;
+        /** Slot of each variable */
+        final private Map<String, Integer> SlotIndex = new HashMap<>();
+        /** Current position in the formula */
+        private int Position = 0;
+
+        public Parser(String formula, List<String> variableNames) {
+            this.Formula = formula;
+            for (int i=variableNames.size()-1; i>=0; i--) {
+                SlotIndex.put(variableNames.get(i), i);
+            }
+            SortedNames = new ArrayList<>(SlotIndex.keySet());
+            Collections.sort(SortedNames, new Comparator<String>() {
+                @Override
+                public int compare(String o1, String o2) {
+                    return Integer.compare(o2.length(), o1.length());
+                }
+            });
+        }
+
+        /**
+         * Parse the whole formula
+         * @return Root of the expression tree
+         */
+        public Node parse() {
+            Node output = parseExpression(0);
+            skipWhitespace();
+            if (Position < Formula.length()) {
+                throw new IllegalArgumentException("Unexpected text at position "
+                        + Position + ": " + Formula.substring(Position));
+            }
+            return output;
+        }
+
+        /**
+         * Parse an expression, stopping at any operator that binds more loosely
+         * than a certain precedence
+         * @param precedence Minimum precedence
+         * @return Parsed expression
+         */
+        private Node parseExpression(int precedence) {
+            Node output = parseFactor();
+            while (true) {
+                skipWhitespace();
+                String operator = peekOperator();
+                if (operator == null) {
+                    break;
+                }
+                int left, right;
+                switch (operator) {
+                    case "<": case "<=": case "=": case "<>": case ">=": case ">":
+                        left = 20; right = 21; break;
+                    case "+": case "-":
+                        left = 30; right = 31; break;
+                    case "*": case "/":
+                        left = 40; right = 41; break;
+                    case "^":
+                        left = 50; right = 50; break;
+                    case "and":
+                        left = 5; right = 6; break;
+                    case "or":
+                        left = 10; right = 11; break;
+                    default:
+                        throw new Error("Unexpected operator: " + operator);
+                }
+                if (left < precedence) {
+                    break;
+                }
+                Position += operator.length();
+                output = simplify(new Binary(operator, output, parseExpression(right)));
+            }
+            return output;
+        }
+
+        /**
+         * Get the binary operator at the current position
+         * @return Operator, or null if there is none
+         */
+        private String peekOperator() {
+            if (Position >= Formula.length()) {
+                return null;
+            }
+            for (String op : new String[]{"<=", "<>", ">=", "<", "=", ">",
+                    "+", "-", "*", "/", "^"}) {
+                if (Formula.startsWith(op, Position)) {
+                    return op;
+                }
+            }
+            String word = peekWord();
+            if (word.equals("and") || word.equals("or")) {
+                return word;
+            }
+            return null;
+        }
+
+        /**
+         * Parse a number, variable, function call, negation, or parenthesized expression
+         * @return Parsed expression
+         */
+        private Node parseFactor() {
+            skipWhitespace();
+            if (Position >= Formula.length()) {
+                throw new IllegalArgumentException("Unexpected end of formula");
+            }
+            char c = Formula.charAt(Position);
+
+            // Parenthesized expression
+            if (c == '(') {
+                Position++;
+                Node output = parseExpression(0);
+                expect(')');
+                return output;
+            }
+
+            // Negation
+            if (c == '-') {
+                Position++;
+                return simplify(new Unary("-", parseExpression(35)));
+            }
+
+            // Number
+            if (Character.isDigit(c) || c == '.') {
+                return parseNumber();
+            }
+
+            // Variables
+            for (String name : SortedNames) {
+                if (Formula.startsWith(name, Position)) {
+                    Position += name.length();
+                    return new Slot(SlotIndex.get(name));
+                }
+            }
+
+            // Functions
+            String word = peekWord();
+            if (word.isEmpty()) {
+                throw new IllegalArgumentException("Unexpected character at position "
+                        + Position + ": " + c);
+            }
+            Position += word.length();
+            if (word.equals("if")) {
+                expect('(');
+                Node test = parseExpression(0);
+                expect(',');
+                Node ifTrue = parseExpression(0);
+                expect(',');
+                Node ifFalse = parseExpression(0);
+                expect(')');
+                return simplify(new Conditional(test, ifTrue, ifFalse));
+            } else if (Unary.isSupported(word)) {
+                expect('(');
+                Node argument = parseExpression(0);
+                expect(')');
+                return simplify(new Unary(word, argument));
+            } else if (word.equals("atan2") || word.equals("max") || word.equals("min")) {
+                expect('(');
+                Node left = parseExpression(0);
+                expect(',');
+                Node right = parseExpression(0);
+                expect(')');
+                return simplify(new Binary(word, left, right));
+            }
+            throw new IllegalArgumentException("Unknown variable or function: " + word);
+        }
+
+        /**
+         * Parse a number, with an optional exponent
+         * @return Node holding that number
+         */
+        private Node parseNumber() {
+            int start = Position;
+            while (Position < Formula.length()
+                    && (Character.isDigit(Formula.charAt(Position))
+                    || Formula.charAt(Position) == '.')) {
+                Position++;
+            }
+            if (Position + 1 < Formula.length()
+                    && Character.toLowerCase(Formula.charAt(Position)) == 'e') {
+                int end = Position + 1;
+                if (Formula.charAt(end) == '+' || Formula.charAt(end) == '-') {
+                    end++;
+                }
+                if (end < Formula.length() && Character.isDigit(Formula.charAt(end))) {
+                    Position = end;
+                    while (Position < Formula.length()
+                            && Character.isDigit(Formula.charAt(Position))) {
+                        Position++;
+                    }
+                }
+            }
+            try {
+                return new Constant(Double.parseDouble(Formula.substring(start, Position)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number: " + Formula.substring(start, Position));
+            }
+        }
+
+        /**
+         * Get the word starting at the current position
+         * @return Word (letters, digits, and underscores starting with a letter).
+         * Empty if there is no word
+         */
+        private String peekWord() {
+            int end = Position;
+            while (end < Formula.length()) {
+                char c = Formula.charAt(end);
+                if (Character.isLetter(c) || (end > Position
+                        && (Character.isDigit(c) || c == '_'))) {
+                    end++;
+                } else {
+                    break;
+                }
+            }
+            return Formula.substring(Position, end);
+        }
+
+        /**
+         * Read a certain character, after any whitespace
+         * @param c Expected character
+         */
+        private void expect(char c) {
+            skipWhitespace();
+            if (Position >= Formula.length() || Formula.charAt(Position) != c) {
+                throw new IllegalArgumentException("Expected " + c + " at position " + Position);
+            }
+            Position++;
+        }
+
+        /**
+         * Advance past any whitespace
+         */
+        private void skipWhitespace() {
+            while (Position < Formula.length()
+                    && Character.isWhitespace(Formula.charAt(Position))) {
+                Position++;
+            }
+        }
+
+        /**
+         * Replace a node that does not depend on any variables with its value
+         * @param node Node to be simplified
+         * @return Simplified node
+         */
+        private Node simplify(Node node) {
+            boolean constant;
+            if (node instanceof Unary) {
+                constant = ((Unary) node).Argument.isConstant();
+            } else if (node instanceof Binary) {
+                constant = ((Binary) node).Left.isConstant()
+                        && ((Binary) node).Right.isConstant();
+            } else if (node instanceof Conditional) {
+                Conditional cond = (Conditional) node;
+                constant = cond.Test.isConstant() && cond.IfTrue.isConstant()
+                        && cond.IfFalse.isConstant();
+            } else {
+                constant = node.isConstant();
+            }
+            return constant ? new Constant(node.value(null)) : node;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package magpie.utility;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Fits a linear model by accumulating the normal equations, X<sup>T</sup>X and
+ * X<sup>T</sup>y, one observation at a time.
+ *
+ * <p>Only the accumulated matrices are stored, so the memory required scales
+ * with the square of the number of terms rather than with the number of
+ * observations. Observations can be added after the model is solved (e.g.,
+ * when new training data become available), and accumulators built from
+ * different parts of a dataset (e.g., by different threads) can be combined
+ * using {@linkplain #addObservations(magpie.utility.LinearLeastSquares) }.
+ *
+ * <p>The normal equations are solved using a Cholesky decomposition, after
+ * scaling each term to have unit norm. Terms that are linearly dependent on
+ * other terms (or never non-zero) are removed from the fit, and their
+ * coefficients are set to zero.
+ *
+ * @author Logan Ward
+ */
+public class LinearLeastSquares implements Serializable, Cloneable {
+    /** Minimum pivot of the (scaled) Cholesky decomposition. Terms with
+     * smaller pivots are considered linearly dependent */
+    final static private double Tolerance = 1e-12;
+    /** Number of terms in model */
+    final private int NTerms;
+    /** Upper triangle of X<sup>T</sup>X, stored by rows */
+    private double[] XtX;
+    /** X<sup>T</sup>y */
+    private double[] Xty;
+    /** y<sup>T</sup>y */
+    private double yty = 0;
+    /** Number of observations */
+    private long NObservations = 0;
+
+    /**
+     * Create an accumulator without any observations
+     * @param nTerms Number of terms in the linear model
+     */
+    public LinearLeastSquares(int nTerms) {
+        if (nTerms < 1) {
+            throw new IllegalArgumentException("Model must have at least one term");
+        }
+        NTerms = nTerms;
+        XtX = new double[nTerms * nTerms];
+        Xty = new double[nTerms];
+    }
+
+    @Override
+    public LinearLeastSquares clone() {
+        LinearLeastSquares x;
+        try {
+            x = (LinearLeastSquares) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new Error(e);
+        }
+        x.XtX = XtX.clone();
+        x.Xty = Xty.clone();
+        return x;
+    }
+
+    /**
+     * @return Number of terms in the model
+     */
+    public int NTerms() {
+        return NTerms;
+    }
+
+    /**
+     * @return Number of observations added to this accumulator
+     */
+    public long NObservations() {
+        return NObservations;
+    }
+
+    /**
+     * Add an observation.
+     * @param x Value of each term
+     * @param y Value of the dependent variable
+     */
+    public void addObservation(double[] x, double y) {
+        if (x.length != NTerms) {
+            throw new IllegalArgumentException("Expected " + NTerms + " terms");
+        }
+        for (int i=0; i<NTerms; i++) {
+            double xi = x[i];
+            if (xi == 0) {
+                continue;
+            }
+            int row = i * NTerms;
+            for (int j=i; j<NTerms; j++) {
+                XtX[row + j] += xi * x[j];
+            }
+            Xty[i] += xi * y;
+        }
+        yty += y * y;
+        NObservations++;
+    }
+
+    /**
+     * Add all observations from another accumulator
+     * @param other Accumulator for the same model
+     */
+    public void addObservations(LinearLeastSquares other) {
+        if (other.NTerms != NTerms) {
+            throw new IllegalArgumentException("Models have different numbers of terms");
+        }
+        for (int i=0; i<XtX.length; i++) {
+            XtX[i] += other.XtX[i];
+        }
+        for (int i=0; i<NTerms; i++) {
+            Xty[i] += other.Xty[i];
+        }
+        yty += other.yty;
+        NObservations += other.NObservations;
+    }
+
+    /**
+     * Get an element of X<sup>T</sup>y
+     * @param i Index of term
+     * @return Sum of the product of that term and the dependent variable
+     * over all observations
+     */
+    public double getXty(int i) {
+        return Xty[i];
+    }
+
+    /**
+     * Compute the coefficients that minimize the sum of squared errors
+     * of the model over all observations.
+     * @return Coefficient of each term. Terms that were removed from the fit
+     * have a coefficient of zero
+     */
+    public double[] solve() {
+        int[] terms = new int[NTerms];
+        for (int i=0; i<NTerms; i++) {
+            terms[i] = i;
+        }
+        return solve(terms);
+    }
+
+    /**
+     * Compute the coefficients that minimize the sum of squared errors of 
+     * a model that uses only some of the terms. 
+     * @param terms Indices of terms to use, in increasing order
+     * @return Coefficient of each term. Terms that are not used, or were 
+     * removed from the fit, have a coefficient of zero
+     */
+    public double[] solve(int[] terms) {
+        final int n = terms.length;
+        
+        // Scale each term to have unit norm
+        double[] scale = new double[n];
+        for (int i=0; i<n; i++) {
+            scale[i] = Math.sqrt(getXtX(terms[i], terms[i]));
+        }
+
+        // Compute the Cholesky decomposition, L, of the scaled X'X. Terms
+        //  with a small pivot are removed by zeroing their row of L
+        double[][] L = new double[n][];
+        for (int i=0; i<n; i++) {
+            L[i] = new double[i + 1];
+        }
+        boolean[] used = new boolean[n];
+        for (int j=0; j<n; j++) {
+            if (! (scale[j] > 0)) {
+                continue;
+            }
+
+            // Compute the pivot
+            double pivot = 1;
+            for (int k=0; k<j; k++) {
+                pivot -= L[j][k] * L[j][k];
+            }
+            if (! (pivot > Tolerance)) {
+                Arrays.fill(L[j], 0);
+                continue;
+            }
+            used[j] = true;
+            L[j][j] = Math.sqrt(pivot);
+
+            // Compute the rest of this column
+            for (int i=j+1; i<n; i++) {
+                if (! (scale[i] > 0)) {
+                    continue;
+                }
+                double value = getXtX(terms[j], terms[i]) / (scale[i] * scale[j]);
+                for (int k=0; k<j; k++) {
+                    value -= L[i][k] * L[j][k];
+                }
+                L[i][j] = value / L[j][j];
+            }
+        }
+
+        // Solve L * z = X'y (scaled)
+        double[] z = new double[n];
+        for (int i=0; i<n; i++) {
+            if (! used[i]) {
+                continue;
+            }
+            double value = Xty[terms[i]] / scale[i];
+            for (int k=0; k<i; k++) {
+                value -= L[i][k] * z[k];
+            }
+            z[i] = value / L[i][i];
+        }
+
+        // Solve L' * b = z
+        double[] b = new double[n];
+        for (int i=n-1; i>=0; i--) {
+            if (! used[i]) {
+                continue;
+            }
+            double value = z[i];
+            for (int k=i+1; k<n; k++) {
+                value -= L[k][i] * b[k];
+            }
+            b[i] = value / L[i][i];
+        }
+        
+        // Undo the scaling
+        double[] output = new double[NTerms];
+        for (int i=0; i<n; i++) {
+            if (used[i]) {
+                output[terms[i]] = b[i] / scale[i];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Compute the sum of squared errors of a model over all observations.
+     * @param coefficients Coefficient of each term
+     * @return Sum of squared errors
+     */
+    public double getSumSquaredError(double[] coefficients) {
+        if (coefficients.length != NTerms) {
+            throw new IllegalArgumentException("Expected " + NTerms + " coefficients");
+        }
+        // Compute y'y - 2 * b'X'y + b'X'Xb
+        double output = yty;
+        for (int i=0; i<NTerms; i++) {
+            if (coefficients[i] == 0) {
+                continue;
+            }
+            output -= 2 * coefficients[i] * Xty[i];
+            output += coefficients[i] * coefficients[i] * getXtX(i, i);
+            for (int j=i+1; j<NTerms; j++) {
+                output += 2 * coefficients[i] * coefficients[j] * getXtX(i, j);
+            }
+        }
+        return Math.max(0, output);
+    }
+
+    /**
+     * Get an element of X<sup>T</sup>X
+     * @param i Row
+     * @param j Column
+     * @return Value
+     */
+    public double getXtX(int i, int j) {
+        return i <= j ? XtX[i * NTerms + j] : XtX[j * NTerms + i];
+    }
+}
@@ -15,7 +15,14 @@ import org.apache.commons.math3.exception.DimensionMismatchException;
  * that would be confused with a math operation (e.g., +) or be named after a math function 
  * (e.g., cos). Also, don't put any whitespace inside the {}'s.
  * 
- * <p>Dev note: This class *is not* thread safe.
+ * <p>The function is compiled into a form that can be evaluated quickly
+ * (see {@linkplain CompiledExpression}), which is used by {@linkplain #value(double[]) }
+ * and {@linkplain #evaluate(double[][], int, double[]) }. Those two operations
+ * are thread safe.
+ * 
+ * <p>Dev note: Evaluating the function by setting the variables (i.e., 
+ * {@linkplain #setVariable(int, double) } followed by {@linkplain #evaluate() })
+ * *is not* thread safe.
  * 
  * @author Logan Ward
  * @see expr.Parser
@@ -38,6 +45,10 @@ public class ParsedFunction implements MultivariateFunction, Serializable {
      * Function that was parsed
      */
     final private Expr Function;
+    /**
+     * Compiled version of the function. Null if compilation failed
+     */
+    final private CompiledExpression Compiled;
     /** 
      * How many variables have been generated to date
      */
@@ -87,6 +98,9 @@ public class ParsedFunction implements MultivariateFunction, Serializable {
         
         // Get the function
         Function = parser.parseString(toParse);
+        
+        // Compile it
+        Compiled = CompiledExpression.compile(toParse, Variables, Function);
     }
 
     /**
@@ -144,15 +158,54 @@ public class ParsedFunction implements MultivariateFunction, Serializable {
         return Variables.size();
     }
 
+    /**
+     * Whether the function was compiled. If not, evaluation falls back to 
+     * the (slower) interpreter.
+     * @return Whether a compiled version of the function is available
+     */
+    public boolean isCompiled() {
+        return Compiled != null;
+    }
+
     @Override
     public double value(double[] point) {
         if (point.length != numVariables()) {
             throw new DimensionMismatchException(point.length, numVariables());
         }
-        for (int i=0; i<point.length; i++) {
-            Variables.get(i).setValue(point[i]);
+        if (Compiled != null) {
+            return Compiled.evaluate(point);
+        }
+        synchronized (this) {
+            for (int i=0; i<point.length; i++) {
+                Variables.get(i).setValue(point[i]);
+            }
+            return Function.value();
+        }
+    }
+    
+    /**
+     * Evaluate the function for many sets of variables.
+     * @param columns Values of each variable. <code>columns[v][i]</code> is
+     * the value of variable v in set i. Same order as {@linkplain #getVariableNames() }
+     * @param count Number of sets to evaluate
+     * @param output Array in which to store the value of the function for each set
+     */
+    public void evaluate(double[][] columns, int count, double[] output) {
+        if (columns.length != numVariables()) {
+            throw new DimensionMismatchException(columns.length, numVariables());
+        }
+        if (Compiled != null) {
+            Compiled.evaluate(columns, count, output);
+            return;
+        }
+        synchronized (this) {
+            for (int i=0; i<count; i++) {
+                for (int v=0; v<columns.length; v++) {
+                    Variables.get(v).setValue(columns[v][i]);
+                }
+                output[i] = Function.value();
+            }
         }
-        return Function.value();
     }
     
     /**
@@ -0,0 +1,116 @@
+package magpie.utility;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Converts entries into Weka instances for a model that has already been trained.
+ *
+ * <p>Stores the header (i.e., the list of attributes) of the data used to
+ * train a Weka model, so that it need not be re-created each time a model is run.
+ * Each thread is given a single instance, which is re-used for every
+ * entry evaluated by that thread. So, running a model does not require creating
+ * a Weka dataset or removing the attributes from each entry.
+ *
+ * <p>The instance returned by {@linkplain #getInstance(magpie.data.BaseEntry) }
+ * is overwritten by the next call from the same thread, so it must not be
+ * stored.
+ *
+ * @author Logan Ward
+ */
+public class WekaInstanceAdapter implements Serializable {
+    /** Header of the training data (contains no instances) */
+    final private Instances Header;
+    /** Instance used by each thread. Created when first needed */
+    private transient volatile ThreadLocal<InstanceBuffer> Buffer;
+
+    /**
+     * Create an adapter for a certain dataset
+     * @param data Data used to train the model. Only the header is stored
+     */
+    public WekaInstanceAdapter(Instances data) {
+        Header = new Instances(data, 0);
+    }
+
+    /**
+     * @return Header of the training data. Do not modify
+     */
+    public Instances getHeader() {
+        return Header;
+    }
+
+    /**
+     * Check whether a dataset has the same number of attributes as the
+     * training data.
+     * @param data Dataset to be checked
+     * @return Whether entries from this dataset can be converted
+     */
+    public boolean isCompatible(Dataset data) {
+        int nAttributes = Header.numAttributes() - (Header.classIndex() >= 0 ? 1 : 0);
+        return data.NAttributes() == nAttributes;
+    }
+
+    /**
+     * Get the attributes of an entry as a Weka instance. The class variable
+     * is marked as missing.
+     * @param entry Entry to be converted
+     * @return Instance holding the attributes of that entry. Will be
+     * overwritten by the next call to this function from the same thread
+     */
+    public Instance getInstance(BaseEntry entry) {
+        // Get the buffer for this thread
+        if (Buffer == null) {
+            synchronized (this) {
+                if (Buffer == null) {
+                    Buffer = new ThreadLocal<>();
+                }
+            }
+        }
+        InstanceBuffer buffer = Buffer.get();
+        if (buffer == null) {
+            buffer = new InstanceBuffer(Header);
+            Buffer.set(buffer);
+        }
+
+        // Copy the attributes into the buffer
+        double[] values = buffer.Values;
+        if (entry.isSparse()) {
+            int[] index = entry.getSparseAttributeIndices();
+            double[] value = entry.getSparseAttributeValues();
+            Arrays.fill(values, 0);
+            for (int i=0; i<index.length; i++) {
+                values[index[i]] = value[i];
+            }
+        } else {
+            for (int a=0; a<entry.NAttributes(); a++) {
+                values[a] = entry.getAttribute(a);
+            }
+        }
+        if (Header.classIndex() >= 0) {
+            values[Header.classIndex()] = Double.NaN;
+        }
+        return buffer.Instance;
+    }
+
+    /**
+     * Holds an instance and the array holding its values
+     */
+    static private class InstanceBuffer {
+        /** Values of the instance */
+        final public double[] Values;
+        /** Instance. Its values are stored in {@linkplain #Values} */
+        final public DenseInstance Instance;
+
+        public InstanceBuffer(Instances header) {
+            Values = new double[header.numAttributes()];
+            // Note: DenseInstance uses this array directly, rather than copying it
+            Instance = new DenseInstance(1.0, Values);
+            Instance.setDataset(header);
+        }
+    }
+}
@@ -8,11 +8,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import magpie.data.Dataset;
 import magpie.user.CommandHandler;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instances;
 import weka.core.OptionHandler;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformationHandler;
@@ -46,6 +49,36 @@ abstract public class WekaUtility {
         return Model;
     }
     
+    /**
+     * Update a trained Weka model with additional training data. Only works
+     * for models that implement {@linkplain UpdateableClassifier}.
+     * @param model Model to be updated
+     * @param header Header of the data used to train the model
+     * @param data New training data
+     * @param useDiscreteClass Whether the model treats the class variable as discrete
+     * @throws Exception If the update fails
+     */
+    static public void updateWekaModel(AbstractClassifier model, Instances header,
+            Dataset data, boolean useDiscreteClass) throws Exception {
+        if (! (model instanceof UpdateableClassifier)) {
+            throw new UnsupportedOperationException(model.getClass().getSimpleName()
+                    + " cannot be updated");
+        }
+        UpdateableClassifier ptr = (UpdateableClassifier) model;
+        Instances wekadata = data.transferToWeka(true, useDiscreteClass);
+        try {
+            if (! header.equalHeaders(wekadata)) {
+                throw new IllegalArgumentException("Data is not compatible with model: " 
+                        + header.equalHeadersMsg(wekadata));
+            }
+            for (int i=0; i<wekadata.numInstances(); i++) {
+                ptr.updateClassifier(wekadata.instance(i));
+            }
+        } finally {
+            data.restoreAttributes(wekadata);
+        }
+    }
+    
     /**
      * Load in packages that were installed with the package manager.
      */
@@ -83,6 +83,30 @@ public class PRDFAttributeGeneratorTest {
             System.out.println("Reason: " + citation.getKey());
             System.out.println("Citation: " + citation.getRight().toString());
         }
+        
+        // Compute the attributes in sparse form
+        CrystalStructureDataset sparseData = (CrystalStructureDataset) data.clone();
+        sparseData.clearAttributes();
+        options.add("-sparse");
+        gen.setOptions(options);
+        gen.addElement("H");
+        gen.addAttributes(sparseData);
+        
+        // Make sure they match the dense attributes
+        assertEquals(data.NAttributes(), sparseData.NAttributes());
+        for (int e=0; e<data.NEntries(); e++) {
+            assertTrue(sparseData.getEntry(e).isSparse());
+            assertArrayEquals(data.getEntry(e).getAttributes(),
+                    sparseData.getEntry(e).getAttributes(), 1e-6);
+        }
+        
+        // Make sure they can be sent to Weka
+        weka.core.Instances weka = sparseData.transferToWeka(false, false);
+        assertTrue(weka.instance(1) instanceof weka.core.SparseInstance);
+        sparseData.restoreAttributes(weka);
+        assertTrue(sparseData.getEntry(1).isSparse());
+        assertArrayEquals(data.getEntry(1).getAttributes(),
+                sparseData.getEntry(1).getAttributes(), 1e-6);
     }
     
 }
@@ -111,6 +111,53 @@ public class LassoAttributeSelectorTest {
         assertTrue(attrs.size() <= 3);
     }
     
+    @Test
+    public void testNative() throws Exception {
+        Dataset data = makeDataset();
+        
+        // Make the selector
+        LassoAttributeSelector sel = new LassoAttributeSelector();
+        List <Object> options = new LinkedList<>();
+        options.add("-n_lasso");
+        options.add(3);
+        options.add("-max_dim");
+        options.add(2);
+        options.add("-native");
+        options.add("-debug");
+        
+        sel.setOptions(options);
+        
+        // Run it
+        List<Integer> attrs = sel.train_protected(data);
+        assertEquals(2, attrs.size());
+        assertTrue(attrs.contains(0));
+        assertTrue(attrs.contains(1));
+        System.out.println(sel.printDescription(true));
+        
+        // Use cross-validation and pick the best size
+        options.add("-cv_method");
+        options.add(0.1);
+        options.add(20);
+        options.add("-pick_best");
+        options.set(1, 4);
+        options.set(3, 3);
+        
+        sel.setOptions(options);
+        
+        attrs = sel.train_protected(data);
+        assertTrue(attrs.contains(0));
+        assertTrue(attrs.contains(1));
+        
+        // Remove correlated attributes
+        options.add("-corr_downselect");
+        options.add(3);
+        
+        sel.setOptions(options);
+        
+        attrs = sel.train_protected(data);
+        assertTrue(attrs.size() <= 3);
+    }
+    
     @Test
     public void testCitations() throws Exception {
         // Make the selector
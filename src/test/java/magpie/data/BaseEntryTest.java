@@ -40,6 +40,52 @@ public class BaseEntryTest {
         assertEquals(0, entry.getPredictedClass(), 1e-6);
     }
     
+    @Test
+    public void testSparse() {
+        BaseEntry entry = new BaseEntry();
+        entry.addAttributes(new double[]{1, 0});
+        assertFalse(entry.isSparse());
+        assertArrayEquals(new int[]{0}, entry.getSparseAttributeIndices());
+        
+        // Add a sparse block
+        entry.addSparseAttributes(4, new int[]{1, 3}, new double[]{2, 3});
+        assertTrue(entry.isSparse());
+        assertEquals(6, entry.NAttributes());
+        assertArrayEquals(new double[]{1,0,0,2,0,3}, entry.getAttributes(), 1e-6);
+        assertArrayEquals(new int[]{0,3,5}, entry.getSparseAttributeIndices());
+        assertArrayEquals(new double[]{1,2,3}, entry.getSparseAttributeValues(), 1e-6);
+        assertEquals(2, entry.getAttribute(3), 1e-6);
+        assertEquals(0, entry.getAttribute(4), 1e-6);
+        
+        // Add dense attributes
+        entry.addAttributes(new double[]{0, 4});
+        entry.addAttribute(5);
+        assertEquals(9, entry.NAttributes());
+        assertArrayEquals(new int[]{0,3,5,7,8}, entry.getSparseAttributeIndices());
+        
+        // Modify attributes
+        entry.setAttribute(4, -1);
+        entry.setAttribute(0, 0);
+        assertArrayEquals(new double[]{0,0,0,2,-1,3,0,4,5}, entry.getAttributes(), 1e-6);
+        
+        // Make sure it equals a dense equivalent
+        BaseEntry dense = new BaseEntry();
+        dense.setAttributes(entry.getAttributes());
+        assertEquals(dense, entry);
+        assertEquals(dense.hashCode(), entry.hashCode());
+        assertEquals(0, dense.compareTo(entry));
+        
+        // Test cloning
+        BaseEntry clone = entry.clone();
+        clone.setAttribute(1, 7);
+        assertEquals(0, entry.getAttribute(1), 1e-6);
+        
+        // Test clearing
+        entry.clearAttributes();
+        assertFalse(entry.isSparse());
+        assertEquals(0, entry.NAttributes());
+    }
+    
     @Test
     public void testJSON() {
         BaseEntry e = new BaseEntry();
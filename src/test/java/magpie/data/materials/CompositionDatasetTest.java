@@ -133,6 +133,25 @@ public class CompositionDatasetTest {
         assertNotSame(data.ElementNames, dataCopy.ElementNames);
     }
     
+    @Test
+    public void testAttributeGenerationHash() throws Exception {
+        CompositionDataset data1 = new CompositionDataset();
+        data1.addElementalPropertySet("general");
+        CompositionDataset data2 = new CompositionDataset();
+        data2.addElementalPropertySet("general");
+        
+        // Entries, lookup data, and properties should not matter
+        data1.addEntry("NaCl");
+        data1.getPropertyLookupTable("Number");
+        data2.addProperty("bandgap");
+        assertEquals(64, data1.getAttributeGenerationHash().length());
+        assertEquals(data1.getAttributeGenerationHash(), data2.getAttributeGenerationHash());
+        
+        // Elemental properties should
+        data2.addElementalProperty("ZungerPP-r_s");
+        assertFalse(data1.getAttributeGenerationHash().equals(data2.getAttributeGenerationHash()));
+    }
+    
     @Test
     public void testBinaryLookup() throws Exception {
         CompositionDataset data = new CompositionDataset();
@@ -0,0 +1,105 @@
+package magpie.data.materials.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import magpie.data.materials.CrystalStructureEntry;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import vassal.data.Atom;
+import vassal.data.Cell;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class NeighborListTest {
+
+    @Test
+    public void testB2() throws Exception {
+        // Make a B2 structure
+        Cell strc = new Cell();
+        strc.setBasis(new double[]{3.2,3.2,3.2}, new double[]{90,90,90});
+        strc.addAtom(new Atom(new double[]{0,0,0}, 0));
+        strc.addAtom(new Atom(new double[]{0.5,0.5,0.5}, 1));
+        strc.setTypeName(0, "Ni");
+        strc.setTypeName(1, "Al");
+
+        // Compute neighbors: 8 1st NN, 6 2nd NN
+        NeighborList list = new NeighborList(strc, 3.2);
+        assertEquals(2, list.NAtoms());
+        for (int a=0; a<2; a++) {
+            assertEquals(14, list.NNeighbors(a));
+            assertEquals(8, list.NNeighbors(a, 3.0));
+            for (int n=0; n<8; n++) {
+                assertEquals(1 - a, list.getNeighbor(a, n));
+                assertEquals(1.6 * Math.sqrt(3), list.getDistance(a, n), 1e-6);
+            }
+            for (int n=8; n<14; n++) {
+                assertEquals(a, list.getNeighbor(a, n));
+                assertEquals(3.2, list.getDistance(a, n), 1e-6);
+            }
+        }
+
+        // Test caching by the entry
+        CrystalStructureEntry entry = new CrystalStructureEntry(strc, "B2", null);
+        NeighborList cached = entry.getNeighborList(3.2);
+        assertSame(cached, entry.getNeighborList(3.0));
+        assertNotSame(cached, entry.getNeighborList(4.0));
+        entry.clearRepresentations();
+        assertNotSame(cached, entry.getNeighborList(3.2));
+    }
+
+    @Test
+    public void testBruteForce() throws Exception {
+        // Make a random, triclinic structure
+        Random rand = new Random(1);
+        Cell strc = new Cell();
+        strc.setBasis(new double[]{3.1,4.5,5.2}, new double[]{70,95,110});
+        for (int a=0; a<12; a++) {
+            strc.addAtom(new Atom(new double[]{2 * rand.nextDouble() - 0.5,
+                rand.nextDouble(), rand.nextDouble()}, 0));
+        }
+
+        // Test with several cutoffs
+        double[][] basis = strc.getBasis();
+        for (double cutoff : new double[]{2, 6, 11}) {
+            NeighborList list = new NeighborList(strc, cutoff);
+            int nImages = (int) Math.ceil(cutoff / 1.5) + 2;
+            for (int a=0; a<strc.nAtoms(); a++) {
+                // Find all neighbors by brute force
+                List<Double> expected = new ArrayList<>();
+                double[] posA = strc.getAtom(a).getPosition();
+                for (int b=0; b<strc.nAtoms(); b++) {
+                    double[] posB = strc.getAtom(b).getPosition();
+                    for (int i=-nImages; i<=nImages; i++) {
+                        for (int j=-nImages; j<=nImages; j++) {
+                            for (int k=-nImages; k<=nImages; k++) {
+                                double[] disp = new double[]{posB[0] - posA[0] + i,
+                                    posB[1] - posA[1] + j, posB[2] - posA[2] + k};
+                                double dist = 0;
+                                for (int d=0; d<3; d++) {
+                                    double x = basis[d][0] * disp[0]
+                                            + basis[d][1] * disp[1] + basis[d][2] * disp[2];
+                                    dist += x * x;
+                                }
+                                dist = Math.sqrt(dist);
+                                if (dist > 1e-8 && dist <= cutoff) {
+                                    expected.add(dist);
+                                }
+                            }
+                        }
+                    }
+                }
+                Collections.sort(expected);
+
+                // Compare
+                assertEquals(expected.size(), list.NNeighbors(a));
+                for (int n=0; n<expected.size(); n++) {
+                    assertEquals(expected.get(n), list.getDistance(a, n), 1e-8);
+                }
+            }
+        }
+    }
+}
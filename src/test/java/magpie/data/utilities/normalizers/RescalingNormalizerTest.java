@@ -1,5 +1,7 @@
 package magpie.data.utilities.normalizers;
 
+import java.util.Random;
+import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -54,6 +56,49 @@ public class RescalingNormalizerTest extends InverseNormalizerTest {
         return data;
     }
     
+    @Test
+    public void testUpdate() {
+        // Make a dataset with random attributes and class
+        Dataset data = new Dataset();
+        data.addAttribute("x", new double[0]);
+        data.addAttribute("y", new double[0]);
+        Random rand = new Random(1);
+        for (int i=0; i<20; i++) {
+            BaseEntry entry = new BaseEntry();
+            entry.setAttributes(new double[]{rand.nextGaussian() + i, 3});
+            entry.setMeasuredClass(rand.nextDouble());
+            data.addEntry(entry);
+        }
+        Dataset firstHalf = data.emptyClone();
+        firstHalf.addEntries(data.getEntries().subList(0, 10));
+        Dataset secondHalf = data.emptyClone();
+        secondHalf.addEntries(data.getEntries().subList(10, 20));
+        
+        // Train one normalizer on all data
+        BaseDatasetNormalizer norm = getNormalizer();
+        norm.setToNormalizeClass(true);
+        norm.train(data);
+        
+        // Train another on half, and update with the rest
+        BaseDatasetNormalizer updated = getNormalizer();
+        updated.setToNormalizeClass(true);
+        updated.train(firstHalf);
+        assertTrue(updated.isUpdateable());
+        updated.update(secondHalf);
+        
+        // Make sure they give the same results
+        Dataset normed = data.clone();
+        norm.normalize(normed);
+        Dataset updateNormed = data.clone();
+        updated.normalize(updateNormed);
+        for (int a=0; a<data.NAttributes(); a++) {
+            assertArrayEquals(normed.getSingleAttributeArray(a), 
+                    updateNormed.getSingleAttributeArray(a), 1e-8);
+        }
+        assertArrayEquals(normed.getMeasuredClassArray(), 
+                updateNormed.getMeasuredClassArray(), 1e-8);
+    }
+    
     
     
 }
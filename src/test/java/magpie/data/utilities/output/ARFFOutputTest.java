@@ -48,4 +48,34 @@ public class ARFFOutputTest {
         
     }
     
+    @Test
+    public void testSparse() throws Exception {
+        // Make a dataset with one dense and one sparse entry
+        Dataset data = new Dataset();
+        data.addEntry(new BaseEntry());
+        data.addEntry(new BaseEntry());
+        data.addAttributes(java.util.Arrays.asList("x", "y", "z"));
+        data.getEntry(0).addAttributes(new double[]{1,0,2});
+        data.getEntry(1).addSparseAttributes(3, new int[]{1}, new double[]{3});
+        data.getEntry(1).setMeasuredClass(2.0);
+        
+        // Write an ARFF file
+        ARFFOutput output = new ARFFOutput();
+        File file = new File("temp-sparse.arff");
+        file.deleteOnExit();
+        
+        output.writeDataset(data, file);
+        output.writeDataset(data, System.out);
+        
+        // Import it and check results
+        Dataset dataCopy = new Dataset();
+        dataCopy.importText(file.getAbsolutePath(), null);
+        
+        assertEquals(3, dataCopy.NAttributes());
+        assertArrayEquals(new double[]{1,0,2}, dataCopy.getEntry(0).getAttributes(), 1e-6);
+        assertFalse(dataCopy.getEntry(0).hasMeasurement());
+        assertArrayEquals(new double[]{0,3,0}, dataCopy.getEntry(1).getAttributes(), 1e-6);
+        assertEquals(2.0, dataCopy.getEntry(1).getMeasuredClass(), 1e-6);
+    }
+    
 }
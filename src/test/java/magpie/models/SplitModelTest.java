@@ -1,5 +1,6 @@
 package magpie.models;
 
+import magpie.Magpie;
 import magpie.cluster.WekaClusterer;
 import magpie.data.Dataset;
 import magpie.data.utilities.splitters.ClustererSplitter;
@@ -8,6 +9,7 @@ import magpie.models.regression.WekaRegression;
 import magpie.utility.interfaces.Citation;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -39,4 +41,31 @@ public class SplitModelTest extends BaseModelTest {
         }
 
     }
+
+    @Test
+    public void testParallel() throws Exception {
+        Dataset data = getData();
+        
+        // Train and run serially
+        SplitModel serialModel = (SplitModel) generateModel();
+        serialModel.train(data);
+        serialModel.run_protected(data);
+        double[] serialResults = data.getPredictedClassArray();
+        
+        // Train and run the submodels in parallel
+        SplitModel parallelModel = (SplitModel) generateModel();
+        Magpie.NThreads = 2;
+        try {
+            parallelModel.train(data);
+            data.deletePredictedClasses();
+            parallelModel.run_protected(data);
+        } finally {
+            Magpie.NThreads = 1;
+        }
+        assertArrayEquals(serialResults, data.getPredictedClassArray(), 1e-6);
+        
+        // Make sure timing information is printed
+        System.out.println(parallelModel.printDescription(false));
+        assertTrue(parallelModel.printDescription(false).contains("Training time"));
+    }
 }
@@ -42,5 +42,16 @@ public class ScikitLearnClassifierTest extends BaseClassifierTest {
         assertTrue(failed);
     }
     
-    
+    @Test(timeout = 60000)
+    public void testDescription() throws Exception {
+        ScikitLearnClassifier model = (ScikitLearnClassifier) generateModel();
+        
+        // Train using the binary protocol, which leaves a connection open
+        model.train(getData());
+        
+        // Make sure the description can still be retrieved
+        String description = model.printDescription(true);
+        assertTrue(description.contains("GradientBoostingClassifier"));
+        model.closeServer();
+    }
 }
@@ -1,5 +1,7 @@
 package magpie.models.regression;
 
+import magpie.Magpie;
+import magpie.data.Dataset;
 import magpie.models.BaseModel;
 import magpie.models.BaseModelTest;
 import org.junit.Test;
@@ -21,4 +23,35 @@ public class CompositeRegressionTest extends BaseModelTest {
         model.setModel(1, submodel);
         return model;
     }
+
+    @Test
+    public void testParallel() throws Exception {
+        Dataset data = getData();
+        
+        // Make a model with more submodels than threads
+        CompositeRegression serialModel = (CompositeRegression) generateModel();
+        LASSORegression submodel = new LASSORegression();
+        submodel.setMaxNumberTerms(2);
+        serialModel.setModel(2, submodel);
+        CompositeRegression parallelModel = serialModel.clone();
+        
+        // Train and run serially
+        serialModel.train(data, false);
+        double[][] serialResults = serialModel.getEnsemblePredictions(data);
+        
+        // Train and run in parallel
+        Magpie.NThreads = 2;
+        try {
+            parallelModel.train(data, false);
+            data.deletePredictedClasses();
+            double[][] parallelResults = parallelModel.getEnsemblePredictions(data);
+            assertEquals(serialResults.length, parallelResults.length);
+            for (int i=0; i<serialResults.length; i++) {
+                assertArrayEquals(serialResults[i], parallelResults[i], 1e-6);
+            }
+            assertEquals(2, Magpie.NThreads);
+        } finally {
+            Magpie.NThreads = 1;
+        }
+    }
 }
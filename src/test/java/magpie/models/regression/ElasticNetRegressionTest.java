@@ -0,0 +1,129 @@
+package magpie.models.regression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import magpie.Magpie;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import magpie.models.BaseModel;
+import magpie.models.BaseModelTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class ElasticNetRegressionTest extends BaseModelTest {
+
+    @Override
+    public BaseModel generateModel() {
+        ElasticNetRegression model = new ElasticNetRegression();
+        model.setMaxNumberTerms(4);
+        return model;
+    }
+    
+    /**
+     * Make a dataset where class = 7 + 3 * x0 - 0.5 * x3 + 0.2 * x10 + noise
+     * @return Dataset with 20 attributes
+     */
+    protected Dataset makeLinearData() {
+        Dataset data = new Dataset();
+        for (int a=0; a<20; a++) {
+            data.addAttribute("x" + a, new double[0]);
+        }
+        Random rand = new Random(1);
+        for (int e=0; e<200; e++) {
+            double[] attr = new double[20];
+            for (int a=0; a<20; a++) {
+                attr[a] = (a + 1) * rand.nextGaussian() + a;
+            }
+            BaseEntry entry = new BaseEntry();
+            entry.setAttributes(attr);
+            entry.setMeasuredClass(7 + 3 * attr[0] - 0.5 * attr[3] + 0.2 * attr[10]
+                    + 0.01 * rand.nextGaussian());
+            data.addEntry(entry);
+        }
+        return data;
+    }
+    
+    @Test
+    public void testResult() throws Exception {
+        Dataset data = makeLinearData();
+        
+        // Fit a model with 3 terms
+        ElasticNetRegression model = new ElasticNetRegression();
+        List<Object> options = new ArrayList<>();
+        options.add("-maxterms");
+        options.add(3);
+        model.setOptions(options);
+        model.train(data);
+        
+        assertArrayEquals(new int[]{0, 3, 10}, model.Terms);
+        assertEquals(3, model.Coefficients[0], 0.05);
+        assertEquals(-0.5, model.Coefficients[1], 0.05);
+        assertEquals(0.2, model.Coefficients[2], 0.05);
+        System.out.println(model.printModel());
+        
+        // A very small penalty should give nearly the least-squares fit
+        options.clear();
+        options.add("-lambda");
+        options.add(1e-8);
+        model.setOptions(options);
+        model.train(data);
+        assertEquals(7, model.Intercept, 0.01);
+        
+        // Ridge regression uses all of the attributes
+        options.clear();
+        options.add("-l1_ratio");
+        options.add(0);
+        options.add("-lambda");
+        options.add(0.1);
+        model.setOptions(options);
+        model.train(data);
+        assertEquals(20, model.Terms.length);
+    }
+    
+    @Test
+    public void testPath() throws Exception {
+        ElasticNetSolver solver = new ElasticNetSolver(makeLinearData());
+        double[] lambdas = ElasticNetSolver.getLambdaGrid(solver.getMaxLambda(), 1e-3, 20);
+        
+        // All coefficients should be zero at the maximum penalty
+        solver.fit(lambdas[0]);
+        assertEquals(0, solver.getNonZeroCount());
+        
+        // The path should not depend on the number of threads. Use a new
+        //  solver, so that the inner products are computed in parallel
+        double[][] serial = solver.computePath(lambdas);
+        ElasticNetSolver parallelSolver = new ElasticNetSolver(makeLinearData());
+        parallelSolver.setParallelThreshold(1);
+        int originalNThreads = Magpie.NThreads;
+        Magpie.NThreads = 2;
+        double[][] parallel;
+        try {
+            parallel = parallelSolver.computePath(lambdas);
+        } finally {
+            Magpie.NThreads = originalNThreads;
+        }
+        for (int i=0; i<lambdas.length; i++) {
+            assertArrayEquals(serial[i], parallel[i], 0);
+        }
+        
+        // Each point should match a warm-started fit along the path
+        ElasticNetSolver direct = new ElasticNetSolver(makeLinearData());
+        for (int i=0; i<lambdas.length; i++) {
+            direct.fit(lambdas[i]);
+            assertEquals(direct.getIntercept(), serial[i][0], 1e-10);
+            double[] coeff = direct.getCoefficients();
+            for (int j=0; j<coeff.length; j++) {
+                assertEquals(coeff[j], serial[i][j + 1], 1e-10);
+            }
+        }
+        
+        // Path should be continued from the current solution
+        solver.fit(lambdas[lambdas.length - 1]);
+        assertEquals(serial[lambdas.length - 1][0], solver.getIntercept(), 1e-5);
+    }
+}
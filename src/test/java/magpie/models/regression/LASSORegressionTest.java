@@ -1,5 +1,8 @@
 package magpie.models.regression;
 
+import java.util.Random;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
 import magpie.models.BaseModel;
 import magpie.models.BaseModelTest;
 import org.junit.Test;
@@ -18,4 +21,46 @@ public class LASSORegressionTest extends BaseModelTest {
         return model;
     }
     
+    @Test
+    public void testUpdate() throws Exception {
+        // Make a dataset where class = 1 + 3 * x - 0.5 * y
+        Dataset data = new Dataset();
+        data.addAttribute("x", new double[0]);
+        data.addAttribute("y", new double[0]);
+        data.addAttribute("z", new double[0]);
+        Random rand = new Random(1);
+        for (int i=0; i<100; i++) {
+            BaseEntry entry = new BaseEntry();
+            double[] attr = new double[]{rand.nextGaussian(), rand.nextGaussian(), 
+                rand.nextGaussian()};
+            entry.setAttributes(attr);
+            entry.setMeasuredClass(1 + 3 * attr[0] - 0.5 * attr[1] 
+                    + 0.01 * rand.nextGaussian());
+            data.addEntry(entry);
+        }
+        Dataset firstHalf = data.emptyClone();
+        firstHalf.addEntries(data.getEntries().subList(0, 50));
+        Dataset secondHalf = data.emptyClone();
+        secondHalf.addEntries(data.getEntries().subList(50, 100));
+        
+        // Train on all data
+        LASSORegression model = new LASSORegression();
+        model.setMaxNumberTerms(2);
+        model.train(data);
+        
+        // Train on half, then update
+        LASSORegression updated = new LASSORegression();
+        updated.setMaxNumberTerms(2);
+        updated.train(firstHalf);
+        assertTrue(updated.isUpdateable());
+        updated.update(secondHalf);
+        
+        // Should be the same model
+        assertEquals(model.Terms, updated.Terms);
+        assertEquals(model.Intercept, updated.Intercept, 1e-8);
+        for (int i=0; i<model.Coefficients.size(); i++) {
+            assertEquals(model.Coefficients.get(i), updated.Coefficients.get(i), 1e-8);
+        }
+    }
+    
 }
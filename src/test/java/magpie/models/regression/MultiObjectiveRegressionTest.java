@@ -1,7 +1,9 @@
 package magpie.models.regression;
 
+import magpie.Magpie;
 import magpie.data.BaseEntry;
 import magpie.data.Dataset;
+import magpie.data.MultiPropertyEntry;
 import magpie.data.materials.CompositionDataset;
 import magpie.models.BaseModel;
 import magpie.models.BaseModelTest;
@@ -9,6 +11,8 @@ import magpie.optimization.rankers.PropertyFormulaRanker;
 
 import java.util.ArrayList;
 import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -65,8 +69,37 @@ public class MultiObjectiveRegressionTest extends BaseModelTest {
         
         return data;
     }
-    
-    
-    
-    
+
+    @Test
+    public void testParallel() throws Exception {
+        CompositionDataset data = (CompositionDataset) getData();
+        
+        // Train and run serially
+        MultiObjectiveRegression serialModel = (MultiObjectiveRegression) generateModel();
+        serialModel.train(data);
+        serialModel.run(data);
+        double[] serialResults = data.getPredictedClassArray();
+        double[] serialProperty = new double[data.NEntries()];
+        for (int i=0; i<data.NEntries(); i++) {
+            serialProperty[i] = ((MultiPropertyEntry) data.getEntry(i)).getPredictedProperty(0);
+        }
+        
+        // Train and run in parallel
+        MultiObjectiveRegression parallelModel = (MultiObjectiveRegression) generateModel();
+        int originalNThreads = Magpie.NThreads;
+        Magpie.NThreads = 2;
+        try {
+            parallelModel.train(data);
+            data.deletePredictedClasses();
+            parallelModel.run(data);
+            assertEquals(2, Magpie.NThreads);
+        } finally {
+            Magpie.NThreads = originalNThreads;
+        }
+        assertArrayEquals(serialResults, data.getPredictedClassArray(), 1e-6);
+        for (int i=0; i<data.NEntries(); i++) {
+            assertEquals(serialProperty[i], 
+                    ((MultiPropertyEntry) data.getEntry(i)).getPredictedProperty(0), 1e-6);
+        }
+    }
 }
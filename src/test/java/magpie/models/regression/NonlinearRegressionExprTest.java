@@ -1,6 +1,12 @@
 
 package magpie.models.regression;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import magpie.Magpie;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
 import magpie.models.BaseModel;
 import magpie.models.BaseModelTest;
 import org.junit.Test;
@@ -23,4 +29,132 @@ public class NonlinearRegressionExprTest extends BaseModelTest {
         }
     }
     
+    @Test
+    public void testFit() throws Exception {
+        // Make data where class = 2 * exp(-0.5 * x) + 1
+        Dataset data = new Dataset();
+        data.addAttribute("x", new double[0]);
+        Random rand = new Random(1);
+        for (int e=0; e<5000; e++) {
+            BaseEntry entry = new BaseEntry();
+            double x = 10 * rand.nextDouble();
+            entry.setAttributes(new double[]{x});
+            entry.setMeasuredClass(2 * Math.exp(-0.5 * x) + 1);
+            data.addEntry(entry);
+        }
+        
+        NonlinearRegressionExpr model = new NonlinearRegressionExpr();
+        model.parseFormula("#{a} * exp(-#{b} * #{a:x}) + #{c}");
+        
+        // Fit with Levenberg-Marquardt
+        model.train(data);
+        assertEquals(2, model.getFittedCoefficient(0), 1e-4);
+        assertEquals(0.5, model.getFittedCoefficient(1), 1e-4);
+        assertEquals(1, model.getFittedCoefficient(2), 1e-4);
+        
+        // Fit in parallel, from several starting points
+        int nThreads = Magpie.NThreads;
+        Magpie.NThreads = 4;
+        try {
+            model.runNonlinearCommand(Arrays.asList(new Object[]{"starts", 3}));
+            model.train(data);
+            assertEquals(0.5, model.getFittedCoefficient(1), 1e-4);
+            model.run(data);
+            assertEquals(data.getEntry(0).getMeasuredClass(), 
+                    data.getEntry(0).getPredictedClass(), 1e-3);
+        } finally {
+            Magpie.NThreads = nThreads;
+        }
+        
+        // Fit with Powell's method
+        model.setUseLevenbergMarquardt(false);
+        model.setNumberOfStarts(1);
+        model.train(data);
+        assertEquals(0.5, model.getFittedCoefficient(1), 1e-2);
+    }
+    
+    @Test
+    public void testStartsInParallel() throws Exception {
+        // Make data where class = 2 * x + 1
+        Dataset data = new Dataset();
+        data.addAttribute("x", new double[0]);
+        for (int e=0; e<100; e++) {
+            BaseEntry entry = new BaseEntry();
+            entry.setAttributes(new double[]{e});
+            entry.setMeasuredClass(2 * e + 1);
+            data.addEntry(entry);
+        }
+        
+        int nThreads = Magpie.NThreads;
+        Magpie.NThreads = 4;
+        try {
+            // A function that is not thread safe should never be run concurrently
+            SharedStateModel model = new SharedStateModel();
+            model.setNumberOfStarts(4);
+            model.train(data);
+            assertEquals(1, model.MaxConcurrent.get());
+            assertEquals(2, model.getFittedCoefficient(1), 1e-4);
+            
+            // Running out of iterations should be reported the same as in serial
+            NonlinearRegressionExpr expr = new NonlinearRegressionExpr();
+            expr.parseFormula("#{a} * exp(-#{b} * #{a:x}) + #{c}");
+            expr.runNonlinearCommand(Arrays.asList(new Object[]{"starts", 3}));
+            expr.runNonlinearCommand(Arrays.asList(new Object[]{"maxiter", 1}));
+            try {
+                expr.train(data);
+                fail();
+            } catch (Error e) {
+                assertEquals("Maximum number of iterations exceeded.", e.getMessage());
+            }
+        } finally {
+            Magpie.NThreads = nThreads;
+        }
+    }
+    
+    /**
+     * Linear model that stores the coefficients in a field before evaluating
+     * the function, and records how many threads evaluate it at once.
+     */
+    static private class SharedStateModel extends AbstractNonlinearRegression {
+        /** Number of threads evaluating the function */
+        final private AtomicInteger NRunning = new AtomicInteger();
+        /** Largest number of threads that evaluated the function at once */
+        final private AtomicInteger MaxConcurrent = new AtomicInteger();
+        /** Coefficients being evaluated */
+        private double[] Current;
+
+        @Override
+        protected void defineVariables() {
+            addVariable("x");
+        }
+
+        @Override
+        protected void defineCoefficients() {
+            addCoefficient("a", 0.0);
+            addCoefficient("b", 0.0);
+        }
+
+        @Override
+        protected double function(double[] variables, double[] coeff) {
+            int running = NRunning.incrementAndGet();
+            try {
+                MaxConcurrent.set(Math.max(MaxConcurrent.get(), running));
+                Current = coeff;
+                Thread.yield();
+                return Current[0] + Current[1] * variables[0];
+            } finally {
+                NRunning.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected boolean isFunctionThreadSafe() {
+            return false;
+        }
+
+        @Override
+        protected String printModel_protected() {
+            return "a + b * x";
+        }
+    }
 }
@@ -2,6 +2,7 @@ package magpie.models.regression;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import magpie.data.BaseEntry;
 import magpie.data.Dataset;
 import magpie.models.BaseModel;
@@ -75,4 +76,45 @@ public class PolynomialRegressionTest extends BaseModelTest {
         assertEquals(1 + 2 + 4, words[2].length()); // Length of the coeff for x
         System.out.println("2 sig figs: " + modelStr);
     }
+    
+    @Test
+    public void testUpdate() throws Exception {
+        // Make a dataset with measured class = 1 + x - x^2
+        Dataset data = new Dataset();
+        data.addAttribute("x", new double[0]);
+        Random rand = new Random(1);
+        for (int i=0; i<20; i++) {
+            double x = rand.nextDouble();
+            BaseEntry entry = new BaseEntry();
+            entry.setAttributes(new double[]{x});
+            entry.setMeasuredClass(1 + x - x * x + 0.1 * rand.nextGaussian());
+            data.addEntry(entry);
+        }
+        
+        // Train a model on all entries
+        PolynomialRegression model = new PolynomialRegression();
+        model.setOrder(2);
+        model.train(data);
+        
+        // Train a model on half of the entries, then add the rest
+        Dataset firstHalf = data.emptyClone();
+        firstHalf.addEntries(data.getEntries().subList(0, 10));
+        Dataset secondHalf = data.emptyClone();
+        secondHalf.addEntries(data.getEntries().subList(10, 20));
+        
+        PolynomialRegression updated = new PolynomialRegression();
+        updated.setOrder(2);
+        updated.train(firstHalf);
+        PolynomialRegression original = updated.clone();
+        updated.addTrainingEntries(secondHalf);
+        
+        assertArrayEquals(model.getCoefficients(), updated.getCoefficients(), 1e-8);
+        assertFalse(Math.abs(original.getCoefficients()[1] 
+                - updated.getCoefficients()[1]) < 1e-8);
+        
+        // Test the IncrementalModel interface
+        assertTrue(original.isUpdateable());
+        original.update(secondHalf);
+        assertArrayEquals(model.getCoefficients(), original.getCoefficients(), 1e-8);
+    }
 }
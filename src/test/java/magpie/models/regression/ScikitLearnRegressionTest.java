@@ -84,4 +84,59 @@ public class ScikitLearnRegressionTest extends BaseModelTest {
         // Verify that the MAE is equal to the results I got manually
         Assert.assertEquals(0.59349613930720235, ((RegressionStatistics) model.TrainingStats).MAE, 1e-10);
     }
+
+    @Test
+    public void testProtocols() throws Exception {
+        ScikitLearnRegression model = (ScikitLearnRegression) generateModel();
+        Dataset data = getData();
+        model.train(data);
+        
+        // Run using the binary protocol
+        model.run(data);
+        double[] binaryVals = data.getPredictedClassArray();
+        
+        // Run using the text protocol
+        model.setUseBinaryProtocol(false);
+        model.run(data);
+        Assert.assertArrayEquals(binaryVals, data.getPredictedClassArray(), 1e-6);
+        
+        // Run using several workers
+        model.setUseBinaryProtocol(true);
+        model.setNumberOfWorkers(2);
+        Dataset bigData = data.emptyClone();
+        for (int i=0; i<4; i++) {
+            bigData.addEntries(data.clone().getEntries());
+        }
+        model.run(bigData);
+        double[] bigVals = bigData.getPredictedClassArray();
+        for (int i=0; i<bigVals.length; i++) {
+            Assert.assertEquals(binaryVals[i % binaryVals.length], bigVals[i], 1e-6);
+        }
+        
+        // Make sure training restarts the workers
+        model.train(data);
+        model.run(data);
+        Assert.assertArrayEquals(binaryVals, data.getPredictedClassArray(), 1e-6);
+        model.closeServer();
+    }
+
+    @Test(timeout = 60000)
+    public void testDescription() throws Exception {
+        ScikitLearnRegression model = (ScikitLearnRegression) generateModel();
+        Dataset data = getData();
+        
+        // Train using the binary protocol, which leaves a connection open
+        model.train(data);
+        model.run(data);
+        
+        // Make sure the description can still be retrieved
+        String description = model.printDescription(true);
+        Assert.assertTrue(description.contains("LinearRegression"));
+        
+        // Make sure the text protocol works too
+        model.setUseBinaryProtocol(false);
+        Assert.assertEquals(description, model.printDescription(true));
+        model.run(data);
+        model.closeServer();
+    }
 }
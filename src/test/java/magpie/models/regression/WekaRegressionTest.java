@@ -1,6 +1,8 @@
 package magpie.models.regression;
 
 import java.util.List;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
 import magpie.models.BaseModelTest;
 import magpie.models.BaseModel;
 import magpie.utility.interfaces.Citation;
@@ -23,6 +25,38 @@ public class WekaRegressionTest extends BaseModelTest {
         }
     }
     
+    @Test
+    public void testAdapter() throws Exception {
+        // Train a M5P model
+        Dataset data = getData();
+        WekaRegression model = new WekaRegression("trees.M5P", null);
+        model.train(data);
+        
+        // Run it without the adapter (i.e., by copying dataset into Weka)
+        double[] attr = data.getEntry(0).getAttributes();
+        WekaRegression copyModel = model.clone();
+        copyModel.Adapter = null;
+        copyModel.run(data);
+        double[] expected = data.getPredictedClassArray();
+        
+        // Run it using the adapter, make sure results are the same
+        data.deletePredictedClasses();
+        model.run(data);
+        assertArrayEquals(expected, data.getPredictedClassArray(), 1e-6);
+        assertArrayEquals(attr, data.getEntry(0).getAttributes(), 0);
+        
+        // Make sure it handles sparse entries
+        Dataset sparseData = data.emptyClone();
+        BaseEntry entry = new BaseEntry();
+        entry.addSparseAttributes(data.NAttributes(), new int[]{0}, new double[]{attr[0]});
+        sparseData.addEntry(entry);
+        model.run(sparseData);
+        double sparsePrediction = entry.getPredictedClass();
+        entry.setAttributes(entry.getAttributes());
+        copyModel.run(sparseData);
+        assertEquals(entry.getPredictedClass(), sparsePrediction, 1e-6);
+    }
+    
     @Test
     public void testCitations() throws Exception {
         // Make a M5P model
@@ -56,7 +56,7 @@ public class CoulombSineMatrixRegressionTest {
         
         // Compute the sine matrix
         CoulombSineMatrixRegression r = new CoulombSineMatrixRegression();
-        double[] mat = (double[]) r.computeRepresentation(strc);
+        double[] mat = r.computeRepresentation(strc).getEigenvalues();
         assertEquals(1, mat.length);
         
         // Add another atom and retest
@@ -69,7 +69,7 @@ public class CoulombSineMatrixRegressionTest {
         newBasis[1][0] = 12;
         strc.setBasis(newBasis);
         assertEquals(1.0, strc.volume(), 1e-6);
-        double[] mat2 = (double[]) r.computeRepresentation(strc);
+        double[] mat2 = r.computeRepresentation(strc).getEigenvalues();
         if (StatUtils.meanDifference(mat, mat2) > 1e-6) {
             System.err.format("Warning: Not insensistive to basis changes", mat, mat2, 1e-6);
         }
@@ -87,8 +87,8 @@ public class CoulombSineMatrixRegressionTest {
         
         CoulombSineMatrixRegression r = new CoulombSineMatrixRegression();
         // Compute representations of each structure
-        double[] rep1 = (double[]) r.computeRepresentation(strc1);
-        double[] rep2 = (double[]) r.computeRepresentation(strc2);
+        EigenvalueRepresentation rep1 = r.computeRepresentation(strc1);
+        EigenvalueRepresentation rep2 = r.computeRepresentation(strc2);
         
         // Check that similarity between identical structures is 1.0
         assertEquals(1.0, r.computeSimiliarity(rep1, rep1), 1e-6);
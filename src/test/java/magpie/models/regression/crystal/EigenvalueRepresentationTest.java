@@ -0,0 +1,38 @@
+package magpie.models.regression.crystal;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class EigenvalueRepresentationTest {
+
+    @Test
+    public void testSorting() throws Exception {
+        double[] eigen = new double[]{-1, 3, 2};
+        EigenvalueRepresentation rep = new EigenvalueRepresentation(eigen);
+        
+        // Check that values are sorted in descending order
+        assertEquals(3, rep.length());
+        assertArrayEquals(new double[]{3, 2, -1}, rep.getEigenvalues(), 1e-6);
+        
+        // Check padding and truncation
+        assertArrayEquals(new double[]{3, 2, -1, 0, 0}, rep.getEigenvalues(5), 1e-6);
+        assertArrayEquals(new double[]{3, 2}, rep.getEigenvalues(2), 1e-6);
+        
+        // Make sure input array was not changed
+        assertArrayEquals(new double[]{-1, 3, 2}, eigen, 1e-6);
+    }
+    
+    @Test
+    public void testDistance() throws Exception {
+        EigenvalueRepresentation rep1 = new EigenvalueRepresentation(new double[]{3, 1});
+        EigenvalueRepresentation rep2 = new EigenvalueRepresentation(new double[]{2, 2, -1});
+        
+        assertEquals(0, rep1.manhattanDistance(rep1), 1e-6);
+        assertEquals(1 + 1 + 1, rep1.manhattanDistance(rep2), 1e-6);
+        assertEquals(3, rep2.manhattanDistance(rep1), 1e-6);
+    }
+}
@@ -2,8 +2,11 @@ package magpie.models.regression.crystal;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import magpie.data.Dataset;
 import magpie.data.materials.CrystalStructureEntry;
 import magpie.data.materials.CrystalStructureDataset;
+import org.junit.Ignore;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import vassal.data.Atom;
@@ -27,8 +30,8 @@ public class PRDFRegressionTest {
         
         PRDFRegression r = new PRDFRegression();
         // Compute representations of each structure
-        Object rep1 = r.computeRepresentation(strc1);
-        Object rep2 = r.computeRepresentation(strc2);
+        PRDFRepresentation rep1 = r.computeRepresentation(strc1);
+        PRDFRepresentation rep2 = r.computeRepresentation(strc2);
         
         // Check that similarity between identical structures is 1.0
         assertEquals(1.0, r.computeSimiliarity(rep1, rep1), 1e-6);
@@ -129,6 +132,167 @@ public class PRDFRegressionTest {
         command.add(2);
         
         prdf.runCommand(command);
+        
+        // Repeat using an index of the training set
+        prdf.setBuildIndex(true);
+        prdf.train(data);
+        matches = prdf.findClosestEntries(entry, 2);
+        assertEquals(2, matches.size());
+        assertEquals("FeZr", matches.get(0));
+        assertEquals("FeNi", matches.get(1));
+        matches = prdf.findClosestEntries(data.getEntry(0), 3);
+        assertEquals(3, matches.size());
+        assertEquals("AlNi", matches.get(0));
+        assertEquals("FeNi", matches.get(1));
+        assertEquals("FeZr", matches.get(2));
     }
     
+    @Test
+    public void testNystrom() throws Exception {
+        // Make a dataset of B2 compounds with different elements
+        CrystalStructureDataset data = new CrystalStructureDataset();
+        String[] elems = new String[]{"Al", "Ni", "Fe", "Zr"};
+        for (int i=0; i<elems.length; i++) {
+            for (int j=i+1; j<elems.length; j++) {
+                Cell strc = new Cell();
+                strc.setBasis(new double[][]{{3,0,0},{0,3,0},{0,0,3}});
+                strc.addAtom(new Atom(new double[]{0,0,0}, 0));
+                strc.addAtom(new Atom(new double[]{0.5,0.5,0.5}, 1));
+                strc.setTypeName(0, elems[i]);
+                strc.setTypeName(1, elems[j]);
+                CrystalStructureEntry entry = new CrystalStructureEntry(strc,
+                        elems[i] + elems[j], null);
+                entry.setMeasuredClass(i + 2 * j);
+                data.addEntry(entry);
+            }
+        }
+        
+        // Train an exact model
+        PRDFRegression exact = new PRDFRegression();
+        exact.setCutoff(4.0);
+        exact.setLambda(0.1);
+        exact.train(data);
+        double[] exactPred = data.getPredictedClassArray();
+        
+        // Train the approximate model using every entry as a landmark 
+        PRDFRegression approx = (PRDFRegression) exact.clone();
+        approx.setNystromApproximation(data.NEntries(), false);
+        approx.train(data);
+        assertArrayEquals(exactPred, data.getPredictedClassArray(), 1e-4);
+        
+        // Same thing, with k-means++
+        approx.setNystromApproximation(data.NEntries(), true);
+        approx.train(data);
+        assertArrayEquals(exactPred, data.getPredictedClassArray(), 1e-4);
+        
+        // Test with fewer landmarks. Both models minimize the same ridge objective,
+        //  J(f) = |y - f|^2 + lambda |f|^2, and the approximate model searches a 
+        //  subspace that contains f = 0. So, the squared difference between the 
+        //  predictions of the two models is at most J(0) - J(exact) <= |y|^2
+        double[] measured = data.getMeasuredClassArray();
+        for (boolean useKMeans : new boolean[]{true, false}) {
+            approx.setNystromApproximation(2, useKMeans);
+            approx.train(data);
+            double[] approxPred = data.getPredictedClassArray();
+            assertTrue(meanSquaredDifference(approxPred, exactPred) 
+                    <= meanSquaredDifference(measured, new double[measured.length]));
+            
+            // Training again should select the same landmarks
+            approx.train(data);
+            assertArrayEquals(approxPred, data.getPredictedClassArray(), 1e-10);
+        }
+        
+        // Test setting options
+        List<Object> options = new ArrayList<>();
+        options.add(0.1);
+        options.add(1.0);
+        options.add(4.0);
+        options.add(25);
+        approx.setOptions(options);
+        assertEquals(0, approx.getNLandmarks());
+        options.add("-nystrom");
+        options.add(3);
+        options.add("random");
+        approx.setOptions(options);
+        assertEquals(3, approx.getNLandmarks());
+    }
+    
+    /**
+     * Compare the accuracy and speed of exact KRR to the Nystrom approximation
+     * with several numbers of landmarks. Prints the results rather than checking
+     * them, so it is not run with the other tests.
+     */
+    @Test
+    @Ignore("Benchmark. Run manually to compare exact and approximate KRR")
+    public void benchmarkNystrom() throws Exception {
+        // Make a dataset of B2 compounds with random elements and lattice parameters
+        Random random = new Random(1);
+        String[] elems = new String[]{"Al", "Ni", "Fe", "Zr", "Cu", "Ti", "Co", "Mg"};
+        CrystalStructureDataset data = new CrystalStructureDataset();
+        for (int e=0; e<400; e++) {
+            int i = random.nextInt(elems.length);
+            int j = (i + 1 + random.nextInt(elems.length - 1)) % elems.length;
+            double a = 2.5 + random.nextDouble();
+            Cell strc = new Cell();
+            strc.setBasis(new double[][]{{a,0,0},{0,a,0},{0,0,a}});
+            strc.addAtom(new Atom(new double[]{0,0,0}, 0));
+            strc.addAtom(new Atom(new double[]{0.5,0.5,0.5}, 1));
+            strc.setTypeName(0, elems[i]);
+            strc.setTypeName(1, elems[j]);
+            CrystalStructureEntry entry = new CrystalStructureEntry(strc,
+                    elems[i] + elems[j], null);
+            entry.setMeasuredClass(a + i - j);
+            data.addEntry(entry);
+        }
+        Dataset testData = data.getRandomSplit(0.25, 1, false);
+        double[] measured = testData.getMeasuredClassArray();
+        
+        // Train and run the exact model
+        PRDFRegression exact = new PRDFRegression();
+        exact.setCutoff(4.0);
+        exact.setLambda(0.1);
+        exact.setSigma(100);
+        long startTime = System.nanoTime();
+        exact.train(data, false);
+        long trainTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        exact.run(testData);
+        long runTime = System.nanoTime() - startTime;
+        double[] exactPred = testData.getPredictedClassArray();
+        double exactRMSE = Math.sqrt(meanSquaredDifference(exactPred, measured));
+        System.out.format("Exact KRR: Train time: %d us, Run time: %d us, RMSE: %.4f%n",
+                trainTime / 1000, runTime / 1000, exactRMSE);
+        
+        // Train and run approximate models
+        for (int nLandmarks : new int[]{10, 50, 100}) {
+            PRDFRegression approx = (PRDFRegression) exact.clone();
+            approx.setNystromApproximation(nLandmarks, true);
+            startTime = System.nanoTime();
+            approx.train(data, false);
+            trainTime = System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            approx.run(testData);
+            runTime = System.nanoTime() - startTime;
+            double[] approxPred = testData.getPredictedClassArray();
+            double approxRMSE = Math.sqrt(meanSquaredDifference(approxPred, measured));
+            System.out.format("Nystrom KRR, %d landmarks: Train time: %d us, Run time: %d us,"
+                    + " RMSE: %.4f (%+.4f vs exact), RMS difference from exact: %.4f%n",
+                    nLandmarks, trainTime / 1000, runTime / 1000, approxRMSE,
+                    approxRMSE - exactRMSE, Math.sqrt(meanSquaredDifference(approxPred, exactPred)));
+        }
+    }
+    
+    /**
+     * Compute the mean squared difference between two arrays
+     * @param x Array #1
+     * @param y Array #2
+     * @return Mean squared difference
+     */
+    private double meanSquaredDifference(double[] x, double[] y) {
+        double output = 0;
+        for (int i=0; i<x.length; i++) {
+            output += (x[i] - y[i]) * (x[i] - y[i]);
+        }
+        return output / x.length;
+    }
 }
@@ -0,0 +1,53 @@
+package magpie.models.regression.crystal;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class PRDFRepresentationTest {
+
+    @Test
+    public void testPacking() throws Exception {
+        // Make a PRDF for a structure with types: Ni, Al
+        double[][][] prdf = new double[][][]{
+            {{1, 2}, {3, 4}},
+            {{5, 6}, {7, 8}}
+        };
+        PRDFRepresentation rep = new PRDFRepresentation(new int[]{27, 12}, prdf);
+        
+        // Check that the pairs are sorted by element
+        assertEquals(2, rep.NBins());
+        assertEquals(4, rep.NPairs());
+        assertEquals(12, rep.getFirstElement(0));
+        assertEquals(12, rep.getSecondElement(0));
+        assertArrayEquals(new double[]{7, 8}, rep.getPRDF(0), 1e-6);
+        assertEquals(12, rep.getFirstElement(1));
+        assertEquals(27, rep.getSecondElement(1));
+        assertArrayEquals(new double[]{5, 6}, rep.getPRDF(1), 1e-6);
+        assertEquals(27, rep.getFirstElement(3));
+        assertEquals(27, rep.getSecondElement(3));
+        assertArrayEquals(new double[]{1, 2}, rep.getPRDF(3), 1e-6);
+        
+        // Make sure the representation is not changed by outside edits
+        prdf[0][0][0] = 100;
+        rep.getPRDF(3)[0] = 100;
+        assertArrayEquals(new double[]{1, 2}, rep.getPRDF(3), 1e-6);
+    }
+    
+    @Test
+    public void testDistance() throws Exception {
+        // Make two structures that share only the Al-Al pair
+        PRDFRepresentation rep1 = new PRDFRepresentation(new int[]{12}, 
+                new double[][][]{{{1, 2}}});
+        PRDFRepresentation rep2 = new PRDFRepresentation(new int[]{12, 27},
+                new double[][][]{{{0, 1}, {1, 1}}, {{1, 0}, {2, 0}}});
+        
+        // Check distances
+        assertEquals(0, rep1.squaredDistance(rep1), 1e-6);
+        assertEquals(2 + 2 + 1 + 4, rep1.squaredDistance(rep2), 1e-6);
+        assertEquals(rep1.squaredDistance(rep2), rep2.squaredDistance(rep1), 1e-6);
+    }
+}
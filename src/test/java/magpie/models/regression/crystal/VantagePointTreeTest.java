@@ -0,0 +1,66 @@
+package magpie.models.regression.crystal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class VantagePointTreeTest {
+
+    @Test
+    public void testSearch() throws Exception {
+        // Make a list of random representations
+        Random random = new Random(1);
+        List<StructureRepresentation> reps = new ArrayList<>();
+        for (int i=0; i<500; i++) {
+            double[] eigen = new double[1 + random.nextInt(4)];
+            for (int j=0; j<eigen.length; j++) {
+                eigen[j] = random.nextInt(20);
+            }
+            reps.add(new EigenvalueRepresentation(eigen));
+        }
+        
+        // Build the tree
+        CoulombSineMatrixRegression model = new CoulombSineMatrixRegression();
+        VantagePointTree tree = new VantagePointTree(model, reps, random);
+        
+        // Test some queries
+        for (int q=0; q<20; q++) {
+            StructureRepresentation query = new EigenvalueRepresentation(
+                    new double[]{random.nextInt(20), random.nextInt(20)});
+            
+            // Find the closest by brute force
+            final double[] dists = new double[reps.size()];
+            Integer[] order = new Integer[reps.size()];
+            for (int i=0; i<reps.size(); i++) {
+                dists[i] = model.computeDistance(query, reps.get(i));
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return dists[a] == dists[b] ? Integer.compare(a, b) 
+                            : Double.compare(dists[a], dists[b]);
+                }
+            });
+            
+            // Compare to the tree
+            int[] closest = tree.findClosest(model, reps, query, 10);
+            assertEquals(10, closest.length);
+            for (int i=0; i<closest.length; i++) {
+                assertEquals(order[i].intValue(), closest[i]);
+            }
+        }
+        
+        // Test asking for more entries than are in the tree
+        assertEquals(500, tree.findClosest(model, reps, reps.get(0), 1000).length);
+        assertEquals(0, tree.findClosest(model, reps, reps.get(0), 0).length);
+    }
+}
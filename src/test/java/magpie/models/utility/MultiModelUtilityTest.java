@@ -0,0 +1,82 @@
+package magpie.models.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import magpie.Magpie;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class MultiModelUtilityTest {
+
+    @Test
+    public void testThreadBudget() throws Exception {
+        int originalNThreads = Magpie.NThreads;
+        Magpie.NThreads = 4;
+        try {
+            // Each task should get half of the threads, without changing the global setting
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i=0; i<2; i++) {
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        assertEquals(4, Magpie.NThreads);
+                        return MultiModelUtility.getNThreads();
+                    }
+                });
+            }
+            assertEquals("[2, 2]", MultiModelUtility.evaluateInParallel(tasks).toString());
+            assertEquals(4, MultiModelUtility.getNThreads());
+            
+            // Nested calls should divide the budget further
+            List<Callable<List<Integer>>> outer = new ArrayList<>();
+            for (int i=0; i<2; i++) {
+                outer.add(new Callable<List<Integer>>() {
+                    @Override
+                    public List<Integer> call() throws Exception {
+                        return MultiModelUtility.evaluateInParallel(tasks);
+                    }
+                });
+            }
+            assertEquals("[[1, 1], [1, 1]]", 
+                    MultiModelUtility.evaluateInParallel(outer).toString());
+            assertEquals(4, Magpie.NThreads);
+        } finally {
+            Magpie.NThreads = originalNThreads;
+        }
+    }
+    
+    @Test
+    public void testFailure() throws Exception {
+        int originalNThreads = Magpie.NThreads;
+        Magpie.NThreads = 2;
+        try {
+            // Exceptions should be passed through unchanged
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i=0; i<4; i++) {
+                final int id = i;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (id == 2) {
+                            throw new IllegalStateException("Task failed");
+                        }
+                        return null;
+                    }
+                });
+            }
+            try {
+                MultiModelUtility.evaluateInParallel(tasks);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Task failed", e.getMessage());
+            }
+        } finally {
+            Magpie.NThreads = originalNThreads;
+        }
+    }
+}
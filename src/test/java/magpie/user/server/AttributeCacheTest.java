@@ -0,0 +1,51 @@
+package magpie.user.server;
+
+import magpie.data.materials.CompositionDataset;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Logan Ward
+ */
+public class AttributeCacheTest {
+
+    @Test
+    public void testGenerate() throws Exception {
+        // Make a dataset, and compute attributes without the cache
+        CompositionDataset data = new CompositionDataset();
+        data.addElementalPropertySet("general");
+        data.addEntry("NaCl");
+        data.addEntry("Fe2O3");
+        CompositionDataset expected = (CompositionDataset) data.clone();
+        expected.generateAttributes();
+
+        // Compute them with the cache
+        AttributeCache cache = new AttributeCache(2);
+        String hash = data.getAttributeGenerationHash();
+        cache.generateAttributes(data, hash);
+        assertEquals(0, cache.getNumberHits());
+        assertEquals(2, cache.getNumberMisses());
+        assertEquals(2, cache.size());
+        assertArrayEquals(expected.getAttributeNames(), data.getAttributeNames());
+        assertArrayEquals(expected.getEntry(1).getAttributes(), data.getEntry(1).getAttributes(), 1e-10);
+
+        // Compute attributes for a new dataset with the same settings
+        CompositionDataset other = data.emptyClone();
+        other.addEntry("Fe2O3");
+        other.addEntry("NiAl");
+        cache.generateAttributes(other, hash);
+        assertEquals(1, cache.getNumberHits());
+        assertEquals(3, cache.getNumberMisses());
+        assertEquals(2, cache.size());
+        assertEquals(0.25, cache.getHitRate(), 1e-10);
+        assertArrayEquals(expected.getAttributeNames(), other.getAttributeNames());
+        assertArrayEquals(expected.getEntry(1).getAttributes(), other.getEntry(0).getAttributes(), 1e-10);
+
+        // Entries stored under a different hash should not be found
+        other = data.emptyClone();
+        other.addEntry("NaCl");
+        cache.generateAttributes(other, "other");
+        assertEquals(1, cache.getNumberHits());
+    }
+}
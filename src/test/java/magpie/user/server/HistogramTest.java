@@ -0,0 +1,53 @@
+package magpie.user.server;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Logan Ward
+ */
+public class HistogramTest {
+
+    @Test
+    public void testRecord() {
+        Histogram histogram = new Histogram(new double[]{1, 2, 4});
+        assertEquals(0, histogram.getCount());
+        assertTrue(Double.isNaN(histogram.getQuantile(0.5)));
+        assertFalse(histogram.toJSON().has("p50"));
+
+        // Values equal to a bound go in that bucket
+        histogram.record(0.5);
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(10);
+        assertArrayEquals(new long[]{2, 0, 1, 1}, histogram.getCounts());
+        assertEquals(4, histogram.getCount());
+        assertEquals(14.5, histogram.getSum(), 1e-10);
+    }
+
+    @Test
+    public void testQuantile() {
+        Histogram histogram = new Histogram(new double[]{1, 2, 3, 4});
+        for (int i = 0; i < 50; i++) {
+            histogram.record(0.5);
+            histogram.record(3.5);
+        }
+
+        // Quantiles are interpolated within buckets
+        assertEquals(1.0, histogram.getQuantile(0.5), 1e-10);
+        assertEquals(0.5, histogram.getQuantile(0.25), 1e-10);
+        assertEquals(3.9, histogram.getQuantile(0.95), 1e-10);
+
+        // Values above the largest bound are treated as equal to it
+        for (int i = 0; i < 100; i++) {
+            histogram.record(100);
+        }
+        assertEquals(4, histogram.getQuantile(0.99), 1e-10);
+
+        JSONObject summary = histogram.toJSON();
+        assertEquals(200, summary.getLong("count"));
+        assertEquals(4, summary.getDouble("p99"), 1e-10);
+    }
+}
@@ -0,0 +1,167 @@
+package magpie.user.server;
+
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Logan Ward
+ */
+public class JobManagerTest {
+
+    /**
+     * Job that runs until it is cancelled
+     */
+    private static class BlockingJob extends Job {
+        /** Marks when the job has started */
+        final public CountDownLatch Started = new CountDownLatch(1);
+
+        @Override
+        protected String execute() throws Exception {
+            Started.countDown();
+            while (true) {
+                checkCancelled();
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    /**
+     * Wait for a job to finish
+     *
+     * @param job Job to wait for
+     * @throws Exception
+     */
+    private static void waitFor(Job job) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        job.addListener(new Job.Listener() {
+            @Override
+            public void jobFinished(Job job) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        JobManager manager = new JobManager(1, 10, 0, 60000);
+        Job job = new Job() {
+            @Override
+            protected String execute() throws Exception {
+                setProgress(0.5);
+                return "done";
+            }
+        };
+        manager.submit(job, "client");
+        waitFor(job);
+        assertEquals(Job.Status.COMPLETED, job.getStatus());
+        assertEquals("done", job.getResult());
+        assertEquals(1.0, job.getProgress(), 1e-10);
+        assertSame(job, manager.getJob(job.getID()));
+        assertEquals(1, manager.getJobs("client").size());
+        assertEquals(0, manager.getJobs("other").size());
+
+        // Test a job that fails
+        job = new Job() {
+            @Override
+            protected String execute() throws Exception {
+                throw new Exception("Failure");
+            }
+        };
+        manager.submit(job, "client");
+        waitFor(job);
+        assertEquals(Job.Status.FAILED, job.getStatus());
+        assertEquals("Failure", job.getError());
+        assertEquals("failed", job.toJSON().getString("status"));
+        manager.shutdown();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        JobManager manager = new JobManager(1, 10, 0, 60000);
+        BlockingJob running = new BlockingJob();
+        BlockingJob queued = new BlockingJob();
+        manager.submit(running, "client");
+        manager.submit(queued, "client");
+        assertTrue(running.Started.await(10, TimeUnit.SECONDS));
+
+        // Cancel the queued job, which should happen immediately
+        manager.cancel(queued.getID());
+        assertEquals(Job.Status.CANCELLED, queued.getStatus());
+        assertEquals(1, queued.Started.getCount());
+
+        // Cancel the running job
+        manager.cancel(running.getID());
+        waitFor(running);
+        assertEquals(Job.Status.CANCELLED, running.getStatus());
+        assertNull(manager.cancel("nonexistant"));
+        manager.shutdown();
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        JobManager manager = new JobManager(1, 1, 1, 60000);
+        BlockingJob running = new BlockingJob();
+        manager.submit(running, "a");
+        assertTrue(running.Started.await(10, TimeUnit.SECONDS));
+
+        // Client "a" cannot submit another job
+        try {
+            manager.submit(new BlockingJob(), "a");
+            fail();
+        } catch (WebApplicationException e) {
+            assertEquals(429, e.getResponse().getStatus());
+        }
+
+        // Client "b" can, until the queue is full
+        BlockingJob other = new BlockingJob();
+        manager.submit(other, "b");
+        try {
+            manager.submit(new BlockingJob(), "c");
+            fail();
+        } catch (WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+        }
+
+        // Client "a" can submit once its job has finished
+        manager.cancel(running.getID());
+        waitFor(running);
+        assertTrue(other.Started.await(10, TimeUnit.SECONDS));
+        manager.submit(new BlockingJob(), "a");
+        manager.shutdown();
+    }
+
+    @Test
+    public void testStageProgress() throws Exception {
+        Job job = new Job() {
+            @Override
+            protected String execute() throws Exception {
+                return "done";
+            }
+        };
+
+        // Progress within a stage
+        job.setStage(1, 2);
+        assertEquals(0.5, job.getProgress(), 1e-10);
+        job.setStageProgress(0.5);
+        assertEquals(0.75, job.getProgress(), 1e-10);
+
+        // Progress within the second half of that stage
+        job.setStagePart(0.5, 1);
+        assertEquals(0.75, job.getProgress(), 1e-10);
+        job.setStageProgress(0);
+        assertEquals(0.75, job.getProgress(), 1e-10);
+        job.setStageProgress(0.5);
+        assertEquals(0.875, job.getProgress(), 1e-10);
+
+        // Starting a new stage resets the part
+        job.setStage(0, 1);
+        job.setStageProgress(0.5);
+        assertEquals(0.5, job.getProgress(), 1e-10);
+    }
+}
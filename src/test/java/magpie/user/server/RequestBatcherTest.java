@@ -0,0 +1,125 @@
+package magpie.user.server;
+
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Logan Ward
+ */
+public class RequestBatcherTest {
+
+    /**
+     * Batcher that doubles the first attribute of each entry, and fails if any attribute is negative
+     */
+    private static class TestBatcher extends RequestBatcher {
+        /** Executor used to process batches */
+        final private ExecutorService Executor = Executors.newFixedThreadPool(2);
+        /** Number of batches processed */
+        final public AtomicInteger NumberBatches = new AtomicInteger(0);
+
+        public TestBatcher(long window, int maxEntries) {
+            super(window, maxEntries);
+        }
+
+        @Override
+        protected Dataset createBatch() {
+            return new Dataset();
+        }
+
+        @Override
+        protected void process(Dataset batch, int nRequests) throws Exception {
+            NumberBatches.incrementAndGet();
+            Thread.sleep(20);
+            for (BaseEntry entry : batch.getEntries()) {
+                if (entry.getAttribute(0) < 0) {
+                    throw new Exception("Negative attribute");
+                }
+            }
+            for (BaseEntry entry : batch.getEntries()) {
+                entry.setPredictedClass(entry.getAttribute(0) * 2);
+            }
+        }
+
+        @Override
+        protected ExecutorService getExecutor() {
+            return Executor;
+        }
+    }
+
+    /**
+     * Make a dataset with a single entry
+     *
+     * @param value Value of the attribute of that entry
+     * @return Dataset
+     */
+    private static Dataset makeRequest(double value) {
+        Dataset data = new Dataset();
+        BaseEntry entry = new BaseEntry();
+        entry.setAttributes(new double[]{value});
+        data.addEntry(entry);
+        return data;
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        final TestBatcher batcher = new TestBatcher(50, 100);
+
+        // Submit many requests at once
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        List<Future<Double>> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            final int value = i - 1;
+            results.add(clients.submit(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    Dataset data = makeRequest(value);
+                    batcher.run(data);
+                    return data.getEntry(0).getPredictedClass();
+                }
+            }));
+        }
+
+        // Make sure each got the correct result
+        for (int i = 0; i < 32; i++) {
+            if (i == 0) {
+                // Only the request with the negative attribute should fail
+                try {
+                    results.get(i).get();
+                    fail();
+                } catch (Exception e) {
+                    // Expected
+                }
+            } else {
+                assertEquals(2 * (i - 1), results.get(i).get(), 1e-10);
+            }
+        }
+        clients.shutdown();
+
+        // Make sure requests were combined
+        assertTrue(batcher.NumberBatches.get() < 32);
+    }
+
+    @Test
+    public void testIdle() throws Exception {
+        TestBatcher batcher = new TestBatcher(10000, 100);
+
+        // A request to an idle batcher should not wait for the window
+        long startTime = System.currentTimeMillis();
+        Dataset data = makeRequest(1);
+        batcher.run(data);
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+        assertEquals(2, data.getEntry(0).getPredictedClass(), 1e-10);
+        assertEquals(1, batcher.NumberBatches.get());
+    }
+}
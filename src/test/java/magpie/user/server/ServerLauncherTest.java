@@ -6,9 +6,12 @@ import magpie.data.materials.CrystalStructureDataset;
 import magpie.data.utilities.modifiers.NonZeroClassModifier;
 import magpie.models.BaseModel;
 import magpie.models.classification.WekaClassifier;
+import magpie.models.interfaces.ExternalModel;
+import magpie.models.regression.ScikitLearnRegression;
 import magpie.models.regression.WekaRegression;
 import magpie.user.server.operations.ServerInformationGetter;
 import magpie.utility.UtilityOperations;
+import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.After;
@@ -25,9 +28,15 @@ import javax.ws.rs.core.Form;
 import javax.ws.rs.core.Response;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -106,6 +115,8 @@ public class ServerLauncherTest {
         fp.println("author: Logan Ward");
         fp.println("citation: None");
         fp.println("notes: Simple model created to demonstrate formation energy prediction");
+        fp.println("poolSize: 2");
+        fp.println("warmupEntries: [NaCl, Fe2O3]");
         fp.println("---");
         fp.println("name: volume_pa");
         fp.println("modelPath: ms-volume.obj");
@@ -117,6 +128,7 @@ public class ServerLauncherTest {
         fp.println("author: Logan Ward");
         fp.println("citation: None");
         fp.println("notes: Simple model created to demonstrate volume prediction");
+        fp.println("cacheSize: 10");
         fp.println("---");
         fp.println("name: ismetal");
         fp.println("modelPath: ms-metal.obj");
@@ -253,6 +265,92 @@ public class ServerLauncherTest {
         System.out.println(info.toString(2));
     }
 
+    @Test
+    public void testPredictionCache() throws Exception {
+        Form dataEntryForm = new Form("entries",
+                new JSONObject().put("entries",
+                        new JSONArray().put(new JSONObject().put("name", "NaCl"))
+                                .put(new JSONObject().put("name", "Al2O3"))).toString());
+        
+        // Run the model twice
+        Response response = Target.path("model/volume_pa/run").request().post(Entity.form(dataEntryForm));
+        assertEquals(200, response.getStatus());
+        JSONObject first = new JSONObject(response.readEntity(String.class));
+        response = Target.path("model/volume_pa/run").request().post(Entity.form(dataEntryForm));
+        assertEquals(200, response.getStatus());
+        JSONObject second = new JSONObject(response.readEntity(String.class));
+        
+        // Make sure the results are the same
+        for (int e = 0; e < 2; e++) {
+            assertEquals(first.getJSONArray("entries").getJSONObject(e).getDouble("predictedValue"),
+                    second.getJSONArray("entries").getJSONObject(e).getDouble("predictedValue"), 1e-10);
+        }
+        
+        // Check the cache statistics
+        PredictionCache cache = ServerLauncher.Models.get("volume_pa").getCache();
+        assertEquals(2, cache.getNumberHits());
+        assertEquals(2, cache.getNumberMisses());
+        assertEquals(2, cache.size());
+        assertNull(ServerLauncher.Models.get("delta_e").getCache());
+        
+        // Make sure invalidation clears the cache
+        ServerLauncher.Models.get("volume_pa").invalidateCache();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testModelPool() throws Exception {
+        ModelPackage modelPackage = ServerLauncher.Models.get("delta_e");
+        assertEquals(2, modelPackage.getPoolSize());
+        
+        // Make sure each lease gets a different copy
+        BaseModel model1 = modelPackage.leaseModel();
+        BaseModel model2 = modelPackage.leaseModel();
+        assertNotSame(model1, model2);
+        assertNotSame(modelPackage.Model, model1); // Master copy is never leased
+        assertNotSame(modelPackage.Model, model2);
+        
+        // Make sure copies are re-used
+        modelPackage.releaseModel(model2);
+        assertSame(model2, modelPackage.leaseModel());
+        modelPackage.releaseModel(model1);
+        modelPackage.releaseModel(model2);
+        
+        // Make sure the copies give the same results
+        Dataset data = modelPackage.getDatasetCopy();
+        data.addEntry("NaCl");
+        data.addEntry("Al2O3");
+        modelPackage.runModel(data);
+        double[] expected = data.getPredictedClassArray();
+        model1.run(data);
+        assertArrayEquals(expected, data.getPredictedClassArray(), 1e-10);
+        model2.run(data);
+        assertArrayEquals(expected, data.getPredictedClassArray(), 1e-10);
+    }
+
+    @Test
+    public void testModelClose() throws Exception {
+        // Make a package for a model that runs in a separate process
+        Dataset data = new Dataset();
+        data.importText("datasets/simple-data.txt", null);
+        ScikitLearnRegression model = new ScikitLearnRegression();
+        model.readModel(new FileInputStream("test-files/sklearn-linreg.pkl"));
+        model.train(data);
+        ModelPackage modelPackage = new ModelPackage(data, model);
+
+        // Start the server by running the model
+        ExternalModel leased = (ExternalModel) modelPackage.leaseModel();
+        ((BaseModel) leased).run(data);
+        assertTrue(leased.serverIsRunning());
+
+        // Closing the package should wait until the model is returned
+        modelPackage.close();
+        assertTrue(leased.serverIsRunning());
+        modelPackage.releaseModel((BaseModel) leased);
+        assertTrue(leased.getProcess().waitFor(10, TimeUnit.SECONDS));
+        model.closeServer();
+    }
+
     @Test
     public void testModelQuery() throws Exception {
         // Get all the models
@@ -279,9 +377,13 @@ public class ServerLauncherTest {
         assertEquals(4, info.length());
     }
 
-    @Test
-    public void testSearch() {
-        // Create search specification
+    /**
+     * Create a search that finds the 5 lowest-energy compounds in the Fe-Na-Cl-O system
+     * that contain only metals
+     *
+     * @return Search specification
+     */
+    private JSONObject createSearch() {
         JSONObject searchSpec = new JSONObject();
         searchSpec.put("datasetType", "materials.CompositionDataset");
         searchSpec.put("entryGenerator", new Object[]{"PhaseDiagramCompositionEntryGenerator", 1, 3,
@@ -302,6 +404,13 @@ public class ServerLauncherTest {
                 .put("minimize", true)
                 .put("options", new Object[]{"delta_e", "SimpleEntryRanker"})
         );
+        return searchSpec;
+    }
+
+    @Test
+    public void testSearch() {
+        // Create search specification
+        JSONObject searchSpec = createSearch();
 
         // Prepare the webquery
         Form searchSpecForm = new Form("search", searchSpec.toString());
@@ -312,4 +421,301 @@ public class ServerLauncherTest {
         assertEquals(5, result.getJSONArray("chosenEntries").length());
         assertEquals(1, result.getJSONObject("data").length());
     }
+
+    @Test
+    public void testSearchChunks() {
+        Form searchSpecForm = new Form("search", createSearch().toString());
+
+        // Run the search with all entries at once
+        Response response = Target.path("search").request().post(Entity.form(searchSpecForm));
+        assertEquals(200, response.getStatus());
+        JSONArray expected = new JSONObject(response.readEntity(String.class)).getJSONArray("chosenEntries");
+
+        // Run it processing only a few entries at a time
+        int originalSize = ServerLauncher.SearchChunkSize;
+        ServerLauncher.SearchChunkSize = 7;
+        try {
+            response = Target.path("search").request().post(Entity.form(searchSpecForm));
+        } finally {
+            ServerLauncher.SearchChunkSize = originalSize;
+        }
+        assertEquals(200, response.getStatus());
+        JSONArray result = new JSONObject(response.readEntity(String.class)).getJSONArray("chosenEntries");
+        assertEquals(expected.toString(), result.toString());
+    }
+
+    @Test
+    public void testJobs() throws Exception {
+        // Submit a search
+        Form searchSpecForm = new Form("search", createSearch().toString());
+        Response response = Target.path("jobs/search").request().post(Entity.form(searchSpecForm));
+        assertEquals(202, response.getStatus());
+        String id = new JSONObject(response.readEntity(String.class)).getString("id");
+
+        // Wait for it to finish
+        JSONObject status;
+        long startTime = System.currentTimeMillis();
+        do {
+            Thread.sleep(20);
+            status = new JSONObject(Target.path("jobs/" + id).request().get(String.class));
+        } while (!status.getString("status").equals("completed")
+                && System.currentTimeMillis() - startTime < 60000);
+        assertEquals("completed", status.getString("status"));
+        assertEquals(1.0, status.getDouble("progress"), 1e-10);
+
+        // Get the result
+        response = Target.path("jobs/" + id + "/result").request().get();
+        assertEquals(200, response.getStatus());
+        JSONObject result = new JSONObject(response.readEntity(String.class));
+        assertEquals(5, result.getJSONArray("chosenEntries").length());
+
+        // Make sure it shows up in the list of jobs
+        JSONArray jobs = new JSONArray(Target.path("jobs").request().get(String.class));
+        assertEquals(1, jobs.length());
+
+        // Test a job that does not exist
+        assertEquals(404, Target.path("jobs/nope").request().get().getStatus());
+        assertEquals(404, Target.path("jobs/nope/result").request().get().getStatus());
+        assertEquals(404, Target.path("jobs/nope").request().delete().getStatus());
+
+        // Cancelling a completed job does nothing
+        response = Target.path("jobs/" + id).request().delete();
+        assertEquals(200, response.getStatus());
+        assertEquals("completed", new JSONObject(response.readEntity(String.class)).getString("status"));
+    }
+
+    @Test
+    public void testLazyLoading() throws Exception {
+        // All models are loaded before the server starts by default
+        assertEquals(200, Target.path("server/ready").request().get().getStatus());
+
+        // Restart the server without waiting for models to load
+        ServerLauncher.Server.shutdownNow();
+        try {
+            ServerLauncher.main(new String[]{"-port", "4234",
+                    "-models", "ms-model.yml",
+                    "-lazyLoad"
+            });
+        } finally {
+            ServerLauncher.LazyLoading = false;
+        }
+
+        // Requesting a model makes sure it is loaded
+        String response = Target.path("model/ismetal/info").request().get(String.class);
+        assertEquals("classification", new JSONObject(response).getString("modelType"));
+
+        // Wait for the rest to load
+        Response ready;
+        long startTime = System.currentTimeMillis();
+        do {
+            Thread.sleep(20);
+            ready = Target.path("server/ready").request().get();
+        } while (ready.getStatus() == 503 && System.currentTimeMillis() - startTime < 30000);
+        assertEquals(200, ready.getStatus());
+        JSONObject status = new JSONObject(ready.readEntity(String.class));
+        assertTrue(status.getBoolean("ready"));
+        assertEquals("ready", status.getJSONObject("models").getJSONObject("delta_e-crystal").getString("status"));
+        assertEquals(4, new JSONObject(Target.path("models").request().get(String.class)).length());
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        ModelPackage oldModel = ServerLauncher.Models.get("delta_e");
+        Form form = new Form("entries", new JSONObject().put("entries",
+                new JSONArray().put(new JSONObject().put("name", "NaCl"))).toString());
+        Target.path("model/delta_e/run").request().post(Entity.form(form));
+        assertEquals(1, oldModel.getNumberRuns());
+        assertTrue(ServerLauncher.Loader.checkForChanges().isEmpty());
+
+        // Change the model file
+        File file = new File("ms-deltae.obj");
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+        assertEquals(Arrays.asList("delta_e"), ServerLauncher.Loader.checkForChanges());
+        assertTrue(ServerLauncher.Loader.checkForChanges().isEmpty());
+
+        // Make sure the new model is served, and usage statistics were kept
+        ModelPackage newModel = ServerLauncher.Models.get("delta_e");
+        assertNotSame(oldModel, newModel);
+        assertEquals(1, newModel.getNumberRuns());
+        Response response = Target.path("model/delta_e/run").request().post(Entity.form(form));
+        assertEquals(200, response.getStatus());
+        assertEquals(2, newModel.getNumberRuns());
+    }
+
+    @Test
+    public void testResponseFormats() throws Exception {
+        String entries = new JSONObject().put("entries",
+                new JSONArray().put(new JSONObject().put("name", "NaCl"))
+                        .put(new JSONObject().put("name", "Al2O3"))).toString();
+
+        // Get the results in the default format
+        Response response = Target.path("model/ismetal/run").request()
+                .post(Entity.form(new Form("entries", entries)));
+        assertEquals(200, response.getStatus());
+        JSONObject expected = new JSONObject(response.readEntity(String.class));
+
+        // Get them as columns
+        response = Target.path("model/ismetal/run").request()
+                .post(Entity.form(new Form("entries", entries).param("format", "columns")));
+        assertEquals(200, response.getStatus());
+        JSONObject output = new JSONObject(response.readEntity(String.class));
+        assertFalse(output.has("entries"));
+        assertEquals(expected.getJSONArray("possibleClasses").toString(),
+                output.getJSONArray("possibleClasses").toString());
+        assertEquals(2, output.getJSONArray("predictedValue").length());
+        for (int i = 0; i < 2; i++) {
+            JSONObject entry = expected.getJSONArray("entries").getJSONObject(i);
+            assertEquals(entry.getDouble("predictedValue"), output.getJSONArray("predictedValue").getDouble(i), 1e-6);
+            assertEquals(entry.getString("predictedClass"), output.getJSONArray("predictedClass").getString(i));
+            assertEquals(2, output.getJSONArray("classProbabilities").getJSONArray(i).length());
+        }
+
+        // Get attributes as columns
+        response = Target.path("model/delta_e/attributes").request()
+                .post(Entity.form(new Form("entries", entries).param("format", "columns")));
+        assertEquals(200, response.getStatus());
+        output = new JSONObject(response.readEntity(String.class));
+        assertEquals(2, output.getJSONArray("attributeValues").length());
+        assertEquals(output.getJSONArray("attributes").length(),
+                output.getJSONArray("attributeValues").getJSONArray(0).length());
+        assertFalse(output.has("predictedValue"));
+
+        // Test a bad format
+        response = Target.path("model/delta_e/run").request()
+                .post(Entity.form(new Form("entries", entries).param("format", "rows")));
+        assertEquals(400, response.getStatus());
+
+        // Get the results compressed
+        response = Target.path("model/ismetal/run").request().header("Accept-Encoding", "gzip")
+                .post(Entity.form(new Form("entries", entries)));
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeaderString("Content-Encoding"));
+        String decompressed = IOUtils.toString(new GZIPInputStream(response.readEntity(InputStream.class)),
+                StandardCharsets.UTF_8);
+        assertTrue(expected.similar(new JSONObject(decompressed)));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        String entries = new JSONObject().put("entries",
+                new JSONArray().put(new JSONObject().put("name", "NaCl"))).toString();
+        Response response = Target.path("model/delta_e/run").request()
+                .post(Entity.form(new Form("entries", entries)));
+        assertEquals(200, response.getStatus());
+        response.readEntity(String.class);
+
+        // Check the JSON summary
+        JSONObject metrics = new JSONObject(Target.path("server/metrics/json").request().get(String.class));
+        JSONObject endpoint = metrics.getJSONObject("endpoints").getJSONObject("/model/{name}/run");
+        assertEquals(1, endpoint.getLong("requests"));
+        assertEquals(1, endpoint.getJSONObject("responses").getLong("2xx"));
+        assertTrue(endpoint.getJSONObject("latency").has("p99"));
+        assertTrue(endpoint.getJSONObject("phases").has("parse"));
+        assertTrue(endpoint.getJSONObject("phases").has("serialize"));
+        JSONObject phases = metrics.getJSONObject("models").getJSONObject("delta_e").getJSONObject("phases");
+        for (String phase : new String[]{"parse", "attributes", "run", "serialize"}) {
+            assertTrue(phase, phases.has(phase));
+        }
+        assertTrue(metrics.getJSONObject("scheduler").getJSONObject("interactive")
+                .getJSONObject("queueWait").getLong("count") > 0);
+        assertTrue(metrics.getJSONObject("jvm").getLong("heapUsed") > 0);
+
+        // Reading the metrics should not create batchers for models that have not been run
+        assertEquals(0, metrics.getJSONObject("models").getJSONObject("volume_pa")
+                .getJSONObject("batches").length());
+        assertNull(ServerLauncher.Models.get("volume_pa").getExistingRunBatcher());
+        assertNull(ServerLauncher.Models.get("volume_pa").getExistingAttributeBatcher());
+
+        // Check the Prometheus format
+        response = Target.path("server/metrics").request().get();
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getMediaType().toString().startsWith("text/plain"));
+        String text = response.readEntity(String.class);
+        assertTrue(text.contains("# TYPE magpie_http_request_duration_seconds histogram\n"));
+        assertTrue(text.contains("magpie_http_request_duration_seconds_count{endpoint=\"/model/{name}/run\"} 1\n"));
+        assertTrue(text.contains("magpie_model_phase_duration_seconds_bucket{model=\"delta_e\",phase=\"run\",le=\"+Inf\"}"));
+        assertTrue(text.contains("jvm_memory_bytes_used{area=\"heap\"}"));
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        // Get the expected results
+        String entries = new JSONObject().put("entries",
+                new JSONArray().put(new JSONObject().put("name", "NaCl"))
+                        .put(new JSONObject().put("name", "Fe2O3"))).toString();
+        Response response = Target.path("model/delta_e/run").request()
+                .post(Entity.form(new Form("entries", entries).param("format", "columns")));
+        JSONArray expected = new JSONObject(response.readEntity(String.class)).getJSONArray("predictedValue");
+
+        // Run entries, with binary output
+        response = Target.path("model/delta_e/bulk").request()
+                .post(Entity.entity("NaCl\nFe2O3\n\n$$$\n", "text/plain"));
+        assertEquals(200, response.getStatus());
+        ByteBuffer output = ByteBuffer.wrap(response.readEntity(byte[].class)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(3 * 8, output.remaining());
+        assertEquals(expected.getDouble(0), output.getDouble(), 1e-6);
+        assertEquals(expected.getDouble(1), output.getDouble(), 1e-6);
+        assertTrue(Double.isNaN(output.getDouble()));
+
+        // Run a classifier, with CSV output
+        response = Target.path("model/ismetal/bulk").queryParam("format", "csv").request()
+                .post(Entity.entity("NaCl\nFe2O3", "text/plain"));
+        assertEquals(200, response.getStatus());
+        String[] lines = response.readEntity(String.class).split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("entry,predictedValue,predictedClass,"));
+        assertEquals(5, lines[1].split(",").length);
+        assertTrue(lines[2].startsWith("Fe2O3,"));
+
+        // Run precomputed attributes, split into two blocks
+        response = Target.path("model/delta_e/attributes").request()
+                .post(Entity.form(new Form("entries", entries).param("format", "columns")));
+        JSONArray attributes = new JSONObject(response.readEntity(String.class)).getJSONArray("attributeValues");
+        int nAttributes = attributes.getJSONArray(0).length();
+        ByteBuffer input = ByteBuffer.allocate(2 * (8 + 8 * nAttributes)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 2; i++) {
+            input.putInt(1).putInt(nAttributes);
+            for (int a = 0; a < nAttributes; a++) {
+                input.putDouble(attributes.getJSONArray(i).getDouble(a));
+            }
+        }
+        response = Target.path("model/delta_e/bulk").request()
+                .post(Entity.entity(input.array(), "application/octet-stream"));
+        assertEquals(200, response.getStatus());
+        output = ByteBuffer.wrap(response.readEntity(byte[].class)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(2 * 8, output.remaining());
+        assertEquals(expected.getDouble(0), output.getDouble(), 1e-6);
+        assertEquals(expected.getDouble(1), output.getDouble(), 1e-6);
+
+        // Run the same attributes with CSV output, one entry per chunk
+        int originalChunkSize = ServerLauncher.SearchChunkSize;
+        try {
+            ServerLauncher.SearchChunkSize = 1;
+            response = Target.path("model/delta_e/bulk").queryParam("format", "csv").request()
+                    .post(Entity.entity(input.array(), "application/octet-stream"));
+        } finally {
+            ServerLauncher.SearchChunkSize = originalChunkSize;
+        }
+        assertEquals(200, response.getStatus());
+        lines = response.readEntity(String.class).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("index,predictedValue", lines[0]);
+        for (int i = 0; i < 2; i++) {
+            String[] words = lines[i + 1].split(",");
+            assertEquals(Integer.toString(i), words[0]);
+            assertEquals(expected.getDouble(i), Double.parseDouble(words[1]), 1e-6);
+        }
+
+        // Send the wrong number of attributes
+        input = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        input.putInt(1).putInt(1).putDouble(1.0);
+        response = Target.path("model/delta_e/bulk").request()
+                .post(Entity.entity(input.array(), "application/octet-stream"));
+        assertEquals(400, response.getStatus());
+
+        // Ask for an unknown format
+        response = Target.path("model/delta_e/bulk").queryParam("format", "xml").request()
+                .post(Entity.entity("NaCl", "text/plain"));
+        assertEquals(400, response.getStatus());
+    }
 }
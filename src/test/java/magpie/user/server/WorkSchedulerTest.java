@@ -0,0 +1,185 @@
+package magpie.user.server;
+
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Logan Ward
+ */
+public class WorkSchedulerTest {
+
+    @Test
+    public void testPriority() throws Exception {
+        WorkScheduler scheduler = new WorkScheduler(2, 0, 0);
+        try {
+            // Start a bulk task that blocks
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch started = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Finish
+                    }
+                }
+            }, WorkScheduler.Priority.BULK, "A");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // A second bulk task must wait, as one thread is saved for interactive work
+            final CountDownLatch bulkDone = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    bulkDone.countDown();
+                }
+            }, WorkScheduler.Priority.BULK, "B");
+
+            // An interactive task should still run
+            final CountDownLatch interactiveDone = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    interactiveDone.countDown();
+                }
+            });
+            assertTrue(interactiveDone.await(10, TimeUnit.SECONDS));
+            assertEquals(1, bulkDone.getCount());
+            assertEquals(1, scheduler.getQueueLength(WorkScheduler.Priority.BULK));
+            assertEquals(1, scheduler.getNumberRunning(WorkScheduler.Priority.BULK));
+
+            // Once the first bulk task finishes, the second runs
+            release.countDown();
+            assertTrue(bulkDone.await(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFairness() throws Exception {
+        WorkScheduler scheduler = new WorkScheduler(1, 0, 0);
+        try {
+            // Block the only thread while the queue is filled
+            final CountDownLatch release = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Finish
+                    }
+                }
+            });
+
+            // Add three tasks from one group, then one from another
+            final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(4);
+            for (String group : new String[]{"A", "A", "A", "B"}) {
+                final String name = group;
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add(name);
+                        done.countDown();
+                    }
+                }, WorkScheduler.Priority.INTERACTIVE, name);
+            }
+            assertEquals(4, scheduler.getQueueLength(WorkScheduler.Priority.INTERACTIVE));
+
+            // Groups should take turns
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals("[A, B, A, A]", order.toString());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        WorkScheduler scheduler = new WorkScheduler(1, 100, 0);
+        try {
+            // Admit a request that fits in the budget
+            WorkScheduler.Ticket first = scheduler.admit(WorkScheduler.Priority.INTERACTIVE, 80);
+            assertEquals(80, scheduler.getOutstandingCost(WorkScheduler.Priority.INTERACTIVE), 1e-6);
+
+            // A second request would exceed it
+            try {
+                scheduler.admit(WorkScheduler.Priority.INTERACTIVE, 50);
+                fail();
+            } catch (WebApplicationException e) {
+                assertEquals(429, e.getResponse().getStatus());
+                assertNotNull(e.getResponse().getHeaderString("Retry-After"));
+            }
+
+            // Bulk work has no limit
+            scheduler.admit(WorkScheduler.Priority.BULK, 1e6).release();
+
+            // Once released, even a request larger than the budget is admitted
+            first.release();
+            first.release();
+            assertEquals(0, scheduler.getOutstandingCost(WorkScheduler.Priority.INTERACTIVE), 1e-6);
+            WorkScheduler.Ticket large = scheduler.admit(WorkScheduler.Priority.INTERACTIVE, 500);
+            large.release();
+
+            // Make sure rounding errors in the outstanding cost do not block large requests
+            List<WorkScheduler.Ticket> tickets = new ArrayList<>();
+            for (double cost : new double[]{0.1, 0.2, 0.3}) {
+                tickets.add(scheduler.admit(WorkScheduler.Priority.INTERACTIVE, cost));
+            }
+            for (WorkScheduler.Ticket ticket : tickets) {
+                ticket.release();
+            }
+            assertEquals(0, scheduler.getOutstandingCost(WorkScheduler.Priority.INTERACTIVE), 0);
+            scheduler.admit(WorkScheduler.Priority.INTERACTIVE, 500).release();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        WorkScheduler scheduler = new WorkScheduler(1, 0, 0);
+        try {
+            // A task that throws an error should not stop the only thread
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new AssertionError("Failure");
+                }
+            });
+            final CountDownLatch done = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // With only one thread, bulk tasks still run
+            final CountDownLatch bulkDone = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    bulkDone.countDown();
+                }
+            }, WorkScheduler.Priority.BULK, null);
+            assertTrue(bulkDone.await(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package magpie.user.server.operations;
 
-import magpie.data.MultiPropertyDataset;
+import magpie.data.BaseEntry;
+import magpie.data.Dataset;
+import magpie.optimization.rankers.SimpleEntryRanker;
+import magpie.user.server.ServerLauncher;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author Logan Ward
@@ -13,17 +20,82 @@ import static org.junit.Assert.assertEquals;
 public class SearchRunnerTest {
 
     @Test
-    public void getEntries() throws Exception {
+    public void testSearch() throws Exception {
         SearchRunner sr = new SearchRunner();
 
         // Generate some entries
         JSONObject searchDescription = new JSONObject()
                 .put("datasetType", "materials.CompositionDataset")
                 .put("entryGenerator", new JSONArray().put("IonicCompoundGenerator")
-                        .put(1).put(2).put(5).put("Na").put("Cl"));
-        MultiPropertyDataset data = sr.getEntries(searchDescription);
-        assertEquals(1, data.NEntries());
-        assertEquals("NaCl", data.getEntry(0).toString());
+                        .put(1).put(2).put(5).put("Na").put("Cl"))
+                .put("steps", new JSONArray())
+                .put("entryRanker", new JSONObject()
+                        .put("method", "SimpleEntryRanker")
+                        .put("number", 5)
+                        .put("minimize", true)
+                        .put("options", new JSONArray()));
+        JSONObject result = new JSONObject(sr.performSearch(searchDescription));
+        JSONArray chosen = result.getJSONArray("chosenEntries");
+        assertEquals(1, chosen.length());
+        assertEquals("NaCl", chosen.getString(0));
+
+        // Make sure the result does not depend on the chunk size
+        searchDescription.put("entryGenerator", new JSONArray().put("PhaseDiagramCompositionEntryGenerator")
+                .put(1).put(2).put("-crystal").put(4).put("Fe").put("Na").put("Cl").put("O"));
+        searchDescription.getJSONObject("entryRanker").put("number", 3);
+        String expected = new SearchRunner().performSearch(searchDescription);
+        int originalSize = ServerLauncher.SearchChunkSize;
+        try {
+            ServerLauncher.SearchChunkSize = 2;
+            assertEquals(expected, new SearchRunner().performSearch(searchDescription));
+        } finally {
+            ServerLauncher.SearchChunkSize = originalSize;
+        }
+        assertEquals(3, new JSONObject(expected).getJSONArray("chosenEntries").length());
+    }
+
+    @Test
+    public void testBestEntries() throws Exception {
+        // Make some entries
+        List<BaseEntry> entries = new ArrayList<>();
+        for (double value : new double[]{3, 1, 4, 1, 5, 9, 2, 6}) {
+            BaseEntry entry = new BaseEntry();
+            entry.setPredictedClass(value);
+            entries.add(entry);
+        }
+
+        // Find the 3 smallest, adding entries in two chunks
+        SimpleEntryRanker ranker = new SimpleEntryRanker();
+        ranker.setUseMeasured(false);
+        ranker.setMaximizeFunction(false);
+        SearchRunner.BestEntries best = new SearchRunner.BestEntries(ranker, 3);
+        best.addAll(createDataset(entries.subList(0, 5)));
+        best.addAll(createDataset(entries.subList(5, 8)));
+        List<BaseEntry> top = best.getEntries();
+        assertEquals(3, top.size());
+        assertSame(entries.get(1), top.get(0)); // Ties go to the first entry
+        assertSame(entries.get(3), top.get(1));
+        assertEquals(2, top.get(2).getPredictedClass(), 1e-10);
+
+        // Find the 2 largest
+        ranker.setMaximizeFunction(true);
+        best = new SearchRunner.BestEntries(ranker, 2);
+        best.addAll(createDataset(entries));
+        top = best.getEntries();
+        assertEquals(2, top.size());
+        assertEquals(9, top.get(0).getPredictedClass(), 1e-10);
+        assertEquals(6, top.get(1).getPredictedClass(), 1e-10);
     }
 
-}
\ No newline at end of file
+    /**
+     * Make a dataset holding certain entries
+     *
+     * @param entries Entries to be added
+     * @return Dataset containing those entries
+     */
+    private Dataset createDataset(List<BaseEntry> entries) {
+        Dataset data = new Dataset();
+        data.addEntries(entries);
+        return data;
+    }
+}
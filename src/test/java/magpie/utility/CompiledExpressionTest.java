@@ -0,0 +1,57 @@
+package magpie.utility;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class CompiledExpressionTest {
+
+    @Test
+    public void testPrecedence() throws Exception {
+        List<String> names = Arrays.asList("x", "a:y");
+        double[] slots = new double[]{2, 3};
+        
+        assertEquals(8, CompiledExpression.compile("x + a:y * 2", names).evaluate(slots), 1e-10);
+        assertEquals(-4, CompiledExpression.compile("-x ^ 2", names).evaluate(slots), 1e-10);
+        assertEquals(512, CompiledExpression.compile("x ^ a:y ^ 2", names).evaluate(slots), 1e-10);
+        assertEquals(-2, CompiledExpression.compile("x - a:y - 1", names).evaluate(slots), 1e-10);
+        assertEquals(3, CompiledExpression.compile("if(x > 1, a:y, 0)", names).evaluate(slots), 1e-10);
+        assertEquals(0, CompiledExpression.compile("x < 1 and a:y > 0", names).evaluate(slots), 1e-10);
+        assertEquals(3.002, CompiledExpression.compile("max(x, a:y) + 1e-3 * x", names).evaluate(slots), 1e-10);
+    }
+    
+    @Test
+    public void testBatch() throws Exception {
+        CompiledExpression expr = CompiledExpression.compile("(x + a:y) / (a:y - sqrt(4))", 
+                Arrays.asList("x", "a:y"));
+        double[][] columns = new double[][]{{1, 2, 3}, {3, 4, 5}};
+        double[] output = new double[3];
+        expr.evaluate(columns, 3, output);
+        assertArrayEquals(new double[]{4, 3, 8.0 / 3}, output, 1e-10);
+    }
+
+    @Test
+    public void testBatchWithWorkArrays() throws Exception {
+        CompiledExpression expr = CompiledExpression.compile("(x + a:y) / (a:y - sqrt(4))", 
+                Arrays.asList("x", "a:y"));
+        
+        // Work arrays may be larger than needed, and are reused between calls
+        double[][] work = new double[expr.NWork() + 1][5];
+        double[] output = new double[3];
+        expr.evaluate(new double[][]{{1, 2, 3}, {3, 4, 5}}, 3, output, work);
+        assertArrayEquals(new double[]{4, 3, 8.0 / 3}, output, 1e-10);
+        expr.evaluate(new double[][]{{0, 1}, {4, 3}}, 2, output, work);
+        assertEquals(2, output[0], 1e-10);
+        assertEquals(4, output[1], 1e-10);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFunction() throws Exception {
+        CompiledExpression.compile("foo(x)", Arrays.asList("x"));
+    }
+}
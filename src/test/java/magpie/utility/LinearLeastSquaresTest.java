@@ -0,0 +1,66 @@
+package magpie.utility;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Logan Ward
+ */
+public class LinearLeastSquaresTest {
+
+    @Test
+    public void testFit() {
+        // Fit y = 1 + 3 * x - 0.5 * x^2 + 2 * z, with x added twice
+        Random rand = new Random(1);
+        LinearLeastSquares fit = new LinearLeastSquares(5);
+        LinearLeastSquares other = new LinearLeastSquares(5);
+        for (int i=0; i<100; i++) {
+            double x = 10 * rand.nextDouble();
+            double z = rand.nextDouble();
+            double[] terms = new double[]{1, x, x * x, z, 2 * x};
+            (i % 2 == 0 ? fit : other).addObservation(terms, 1 + 3 * x - 0.5 * x * x + 2 * z);
+        }
+        assertEquals(50, fit.NObservations());
+        
+        // Combine the observations
+        LinearLeastSquares copy = fit.clone();
+        fit.addObservations(other);
+        assertEquals(100, fit.NObservations());
+        assertEquals(50, copy.NObservations());
+        
+        // Dependent term should be removed
+        assertArrayEquals(new double[]{1, 3, -0.5, 2, 0}, fit.solve(), 1e-6);
+    }
+    
+    @Test
+    public void testUnused() {
+        // Terms that are always zero should have a coefficient of 0
+        LinearLeastSquares fit = new LinearLeastSquares(3);
+        fit.addObservation(new double[]{1, 0, 1}, 2);
+        fit.addObservation(new double[]{1, 0, 2}, 3);
+        assertArrayEquals(new double[]{1, 0, 1}, fit.solve(), 1e-8);
+    }
+    
+    @Test
+    public void testSubset() {
+        // Fit y = 1 + 2 * x
+        LinearLeastSquares fit = new LinearLeastSquares(3);
+        Random rand = new Random(1);
+        for (int i=0; i<20; i++) {
+            double x = rand.nextDouble(), z = rand.nextDouble();
+            fit.addObservation(new double[]{1, x, z}, 1 + 2 * x);
+        }
+        
+        // Using only the intercept and x should be a perfect fit
+        double[] coeff = fit.solve(new int[]{0, 1});
+        assertArrayEquals(new double[]{1, 2, 0}, coeff, 1e-8);
+        assertEquals(0, fit.getSumSquaredError(coeff), 1e-8);
+        
+        // Using only z should not be
+        coeff = fit.solve(new int[]{0, 2});
+        assertEquals(0, coeff[1], 0);
+        assertTrue(fit.getSumSquaredError(coeff) > 0.1);
+    }
+}
@@ -1,6 +1,7 @@
 
 package magpie.utility;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -65,4 +66,30 @@ public class ParsedFunctionTest {
         assertEquals(2.0, func.value(new double[]{2}), 1e-6);
         assertEquals(6.0, func.value(new double[]{6}), 1e-6);
     }
+    
+    @Test
+    public void testCompiled() throws Exception {
+        ParsedFunction func = new ParsedFunction("#{x} ^ 2 / (1 + exp(-#{y})) - max(#{x}, #{y})");
+        assertTrue(func.isCompiled());
+        
+        // Make sure it matches the interpreted version
+        double[] x = new double[]{-2.5, -1, 0, 0.3, 1.7, 40};
+        for (double a : x) {
+            for (double b : x) {
+                func.setVariable(0, a);
+                func.setVariable(1, b);
+                assertEquals(func.evaluate(), func.value(new double[]{a, b}), 0);
+            }
+        }
+        
+        // Test evaluating many points at once
+        double[][] columns = new double[][]{x, x.clone()};
+        ArrayUtils.reverse(columns[1]);
+        double[] result = new double[x.length];
+        func.evaluate(columns, x.length, result);
+        for (int i=0; i<x.length; i++) {
+            assertEquals(func.value(new double[]{columns[0][i], columns[1][i]}), 
+                    result[i], 0);
+        }
+    }
 }